@@ -0,0 +1,230 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import com.google.sps.data.CircuitBreaker;
+import com.google.sps.servlets.EntityAnalyzer;
+import com.google.sps.servlets.GuessServlet;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+
+/**
+ * Guesses from many concurrent clients against a container with a small pool of request threads,
+ * with every guess needing two 20ms Natural Language calls.
+ *
+ * <p>Each operation is one round in which every client sends {@link #REQUESTS_PER_CLIENT} guesses
+ * one after another. In blocking mode the request thread waits for the verdict, as before requests
+ * could go async; in async mode it is released at once, and the verdict is waited for on one of
+ * AsyncRequests' I/O threads instead. Both modes get the same number of threads to wait on:
+ * blocking mode has as many extra request threads as async mode has I/O threads. Throughput and
+ * latency percentiles over all measured rounds are printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AsyncServletBenchmark {
+  private static final int REQUEST_THREADS = 16;
+  // The size of AsyncRequests' I/O pool
+  private static final int IO_THREADS = 64;
+  private static final int REQUESTS_PER_CLIENT = 5;
+  private static final long NL_MILLIS = 20;
+
+  @Param({"50", "200", "1000"})
+  public int clients;
+
+  @Param({"blocking", "async"})
+  public String mode;
+
+  private ExecutorService requestThreads;
+  private EntityAnalyzer analyzer;
+  private GuessServlet servlet;
+  private Client[] roundClients;
+  private long[] latencies;
+  private int recorded;
+  private long measuredNanos;
+  private long roundStart;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    requestThreads =
+        Executors.newFixedThreadPool(
+            mode.equals("async") ? REQUEST_THREADS : REQUEST_THREADS + IO_THREADS);
+    // Enough analyzer slots that only the request threads limit blocking mode.
+    analyzer =
+        new EntityAnalyzer(
+            text -> {
+              try {
+                Thread.sleep(NL_MILLIS);
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+              return Arrays.asList(text.split(" "));
+            },
+            2 * 1000,
+            60000,
+            60000,
+            new CircuitBreaker(1, Integer.MAX_VALUE, 1, Long.MAX_VALUE, 0));
+    servlet = new GuessServlet(analyzer);
+    roundClients = new Client[clients];
+    for (int c = 0; c < clients; c++) {
+      roundClients[c] = new Client();
+    }
+    latencies = new long[0];
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    requestThreads.shutdown();
+    analyzer.shutdown();
+    long[] sorted = Arrays.copyOf(latencies, recorded);
+    Arrays.sort(sorted);
+    System.out.printf(
+        "%n%s, %d clients: %.0f requests/s, p50 %.1fms, p99 %.1fms%n",
+        mode,
+        clients,
+        recorded / (measuredNanos / 1e9),
+        sorted[sorted.length / 2] / 1e6,
+        sorted[(int) (sorted.length * 0.99)] / 1e6);
+  }
+
+  @Setup(Level.Iteration)
+  public void startRound() {
+    roundStart = System.nanoTime();
+  }
+
+  @TearDown(Level.Iteration)
+  public void recordRound(IterationParams params) {
+    if (params.getType() != IterationType.MEASUREMENT) {
+      return;
+    }
+    measuredNanos += System.nanoTime() - roundStart;
+    int count = clients * REQUESTS_PER_CLIENT;
+    latencies = Arrays.copyOf(latencies, recorded + count);
+    for (Client client : roundClients) {
+      System.arraycopy(client.latencies, 0, latencies, recorded, REQUESTS_PER_CLIENT);
+      recorded += REQUESTS_PER_CLIENT;
+    }
+  }
+
+  @Benchmark
+  public void round() throws InterruptedException {
+    CountDownLatch done = new CountDownLatch(clients);
+    for (Client client : roundClients) {
+      client.start(done);
+    }
+    done.await();
+  }
+
+  /** A client that sends its next guess as soon as the previous one is answered. */
+  private class Client {
+    private final HttpServletRequest request =
+        mock(HttpServletRequest.class, withSettings().stubOnly());
+    private final HttpServletResponse response =
+        mock(HttpServletResponse.class, withSettings().stubOnly());
+    private final long[] latencies = new long[REQUESTS_PER_CLIENT];
+    private CountDownLatch done;
+    private int sent;
+    private long sentAt;
+
+    Client() {
+      AsyncContext context = mock(AsyncContext.class, withSettings().stubOnly());
+      doAnswer(invocation -> answered()).when(context).complete();
+      doReturn("golden bridge").when(request).getParameter("guess-input");
+      doReturn("Golden Gate Bridge").when(request).getParameter("answer");
+      doReturn(mode.equals("async")).when(request).isAsyncSupported();
+      doReturn(context).when(request).startAsync();
+      try {
+        doReturn(new PrintWriter(new DiscardingWriter())).when(response).getWriter();
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    void start(CountDownLatch done) {
+      this.done = done;
+      sent = 0;
+      send();
+    }
+
+    private void send() {
+      sentAt = System.nanoTime();
+      requestThreads.execute(
+          () -> {
+            try {
+              servlet.doGet(request, response);
+            } catch (IOException e) {
+              throw new AssertionError(e);
+            }
+            if (!request.isAsyncSupported()) {
+              answered();
+            }
+          });
+    }
+
+    private Object answered() {
+      latencies[sent++] = System.nanoTime() - sentAt;
+      if (sent < REQUESTS_PER_CLIENT) {
+        send();
+      } else {
+        done.countDown();
+      }
+      return null;
+    }
+  }
+
+  /** Throws away what the servlet writes. */
+  private static class DiscardingWriter extends Writer {
+    @Override
+    public void write(char[] buffer, int offset, int length) {}
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,114 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.sps.data.BinaryCodec;
+import com.google.sps.data.Destination;
+import com.google.sps.data.HuntItem;
+import com.google.sps.data.JsonCodec;
+import com.google.sps.data.LatLng;
+import com.google.sps.data.Riddle;
+import com.google.sps.data.ScavengerHunt;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the stored hunt formats: JSON Text through the JsonCodec adapters, and the BinaryCodec
+ * Blob. Both are decoded from the bytes Datastore would return. The stored size of each is printed
+ * once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HuntFormatBenchmark {
+  @Param({"10", "20", "30"})
+  public int stops;
+
+  private final Gson codec = JsonCodec.gson();
+
+  private ScavengerHunt hunt;
+  private byte[] json;
+  private byte[] binary;
+
+  @Setup
+  public void setUp() {
+    ArrayList<HuntItem> items = new ArrayList<>();
+    for (int i = 0; i < stops; i++) {
+      items.add(
+          new Destination.Builder()
+              .withName("Destination number " + i)
+              .withLocation(
+                  new LatLng.Builder()
+                      .withLat(37.7 + i * 0.001)
+                      .withLng(-122.4 - i * 0.001)
+                      .build())
+              .withDescription("A landmark worth a detour, with a view over the bay and a cafe.")
+              .withRiddle(
+                  new Riddle.Builder()
+                      .withPuzzle("I stand where the fog rolls in; what am I?")
+                      .withHint("Look up")
+                      .withHint("Near the water")
+                      .withHint("Painted orange")
+                      .build())
+              .withPlaceId("ChIJIQBpAG2ahYAR_6128GcTUEo" + i)
+              .withAnswerEntities(Arrays.asList("Destination", "number " + i))
+              .build()
+              .convertToHuntItem());
+    }
+    hunt = new ScavengerHunt(items);
+    json = codec.toJson(hunt).getBytes(StandardCharsets.UTF_8);
+    binary = BinaryCodec.encode(hunt);
+    System.out.printf(
+        "%n%d stops: JSON %d bytes, binary %d bytes (%.0f%%)%n",
+        stops, json.length, binary.length, 100.0 * binary.length / json.length);
+  }
+
+  @Benchmark
+  public byte[] encodeJson() {
+    return codec.toJson(hunt).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public byte[] encodeBinary() {
+    return BinaryCodec.encode(hunt);
+  }
+
+  @Benchmark
+  public ScavengerHunt decodeJson() {
+    return codec.fromJson(new String(json, StandardCharsets.UTF_8), ScavengerHunt.class);
+  }
+
+  @Benchmark
+  public ScavengerHunt decodeBinary() {
+    return BinaryCodec.decode(binary);
+  }
+}
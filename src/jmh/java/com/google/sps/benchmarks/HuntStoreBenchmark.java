@@ -0,0 +1,158 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.Destination;
+import com.google.sps.data.HuntItem;
+import com.google.sps.data.LatLng;
+import com.google.sps.data.LruCache;
+import com.google.sps.data.Riddle;
+import com.google.sps.data.ScavengerHunt;
+import com.google.sps.servlets.Constants;
+import com.google.sps.servlets.DestinationCatalog;
+import com.google.sps.servlets.HuntEntities;
+import com.google.sps.servlets.HuntStore;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The first read of a stored hunt through HuntStore, in each storage format: the hunt entity is
+ * decoded, its body built and the player's stage sent, with nothing cached yet. Datastore and
+ * memcache are stubs that answer at once, so only the work done on this instance is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HuntStoreBenchmark {
+  private static final long HUNT_ID = 1;
+
+  @Param({"10", "30"})
+  public int stops;
+
+  @Param({"JSON", "BINARY"})
+  public HuntEntities.Format format;
+
+  // Only for the API environment that keys need
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+  private DatastoreService datastore;
+  private MemcacheService memcache;
+  private DestinationCatalog catalog;
+  private HuntStore store;
+
+  @Setup
+  public void setUp() throws Exception {
+    helper.setUp();
+    ArrayList<HuntItem> items = new ArrayList<>();
+    for (int i = 0; i < stops; i++) {
+      items.add(
+          new Destination.Builder()
+              .withName("Destination number " + i)
+              .withLocation(
+                  new LatLng.Builder()
+                      .withLat(37.7 + i * 0.001)
+                      .withLng(-122.4 - i * 0.001)
+                      .build())
+              .withDescription("A landmark worth a detour, with a view over the bay and a cafe.")
+              .withRiddle(
+                  new Riddle.Builder()
+                      .withPuzzle("I stand where the fog rolls in; what am I?")
+                      .withHint("Look up")
+                      .withHint("Near the water")
+                      .withHint("Painted orange")
+                      .build())
+              .withPlaceId("ChIJIQBpAG2ahYAR_6128GcTUEo" + i)
+              .build()
+              .convertToHuntItem());
+    }
+    Entity hunt = new Entity(KeyFactory.createKey(Constants.SCAVENGER_HUNT_ENTITY, HUNT_ID));
+    hunt.setPropertiesFrom(HuntEntities.toEntity(new ScavengerHunt(items), format));
+
+    // A hunt under way, at its second stage
+    Entity progress = new Entity(Constants.HUNT_PROGRESS_ENTITY, 1, hunt.getKey());
+    progress.setUnindexedProperty(Constants.PROGRESS_INDEX, 1L);
+    progress.setUnindexedProperty(Constants.PROGRESS_SOLVED_AT, Arrays.asList(1000L, 2000L));
+    progress.setUnindexedProperty(Constants.PROGRESS_HINTS_USED, 0L);
+
+    datastore =
+        stub(
+            DatastoreService.class,
+            (method, args) ->
+                method.getName().equals("get") && args.length == 1 && args[0] instanceof Key
+                    ? (((Key) args[0]).getParent() == null ? hunt : progress)
+                    : null);
+    // Always misses, and every write fails
+    memcache = stub(MemcacheService.class, (method, args) -> null);
+    catalog = new DestinationCatalog(datastore);
+  }
+
+  /** A store with nothing cached, as on an instance that has not served the hunt yet. */
+  @Setup(Level.Invocation)
+  public void newStore() {
+    store = new HuntStore(datastore, memcache, new LruCache<>(16, 10000), catalog);
+  }
+
+  /**
+   * Returns an implementation of {@code type} that answers with {@code answer}, or false where that
+   * is null and a boolean is due. Unlike a Mockito mock, it records nothing, so it adds no cost of
+   * its own to what is measured.
+   */
+  private static <T> T stub(Class<T> type, BiFunction<Method, Object[], Object> answer) {
+    return type.cast(
+        Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] {type},
+            (proxy, method, args) -> {
+              Object result = answer.apply(method, args == null ? new Object[0] : args);
+              return result == null && method.getReturnType() == boolean.class ? false : result;
+            }));
+  }
+
+  @TearDown
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Benchmark
+  public String firstStageRead() {
+    return store.getStageJson(HUNT_ID);
+  }
+}
@@ -0,0 +1,149 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.sps.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.sps.data.Destination;
+import com.google.sps.data.HuntItem;
+import com.google.sps.data.JsonCodec;
+import com.google.sps.data.LatLng;
+import com.google.sps.data.Riddle;
+import com.google.sps.data.ScavengerHunt;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the streaming adapters of JsonCodec with reflective Gson, as used before, on a 20-stop
+ * hunt and a single destination. The legacy benchmarks create a Gson per call as GenerateServlet
+ * did. Run with -prof gc to see allocation per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+  private static final int STOPS = 20;
+
+  private final Gson reflective = new Gson();
+  private final Gson codec = JsonCodec.gson();
+  private final Writer discard =
+      new Writer() {
+        @Override
+        public void write(char[] buffer, int offset, int length) {}
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+      };
+
+  private ScavengerHunt hunt;
+  private String huntJson;
+  private Destination destination;
+  private String destinationJson;
+
+  @Setup
+  public void setUp() {
+    ArrayList<HuntItem> items = new ArrayList<>();
+    for (int i = 0; i < STOPS; i++) {
+      destination =
+          new Destination.Builder()
+              .withName("Destination number " + i)
+              .withLocation(
+                  new LatLng.Builder()
+                      .withLat(37.7 + i * 0.001)
+                      .withLng(-122.4 - i * 0.001)
+                      .build())
+              .withCity("San Francisco")
+              .withDescription("A landmark worth a detour, with a view over the bay and a cafe.")
+              .withRiddle(
+                  new Riddle.Builder()
+                      .withPuzzle("I stand where the fog rolls in; what am I?")
+                      .withHint("Look up")
+                      .withHint("Near the water")
+                      .build())
+              .withObscurity(Destination.Obscurity.MEDIUM)
+              .withTags(EnumSet.of(Destination.Tag.TOURIST, Destination.Tag.HISTORICAL))
+              .withPlaceId("ChIJ" + i)
+              .withAnswerEntities(Arrays.asList("Destination", "number " + i))
+              .build();
+      items.add(destination.convertToHuntItem());
+    }
+    hunt = new ScavengerHunt(items);
+    huntJson = reflective.toJson(hunt);
+    destinationJson = reflective.toJson(destination);
+  }
+
+  @Benchmark
+  public String encodeHuntLegacy() {
+    return new Gson().toJson(hunt);
+  }
+
+  @Benchmark
+  public String encodeHuntReflective() {
+    return reflective.toJson(hunt);
+  }
+
+  @Benchmark
+  public String encodeHuntCodec() {
+    return codec.toJson(hunt);
+  }
+
+  /** Writing to a response's Writer, without building a String first. */
+  @Benchmark
+  public void streamHuntCodec() {
+    codec.toJson(hunt, discard);
+  }
+
+  @Benchmark
+  public ScavengerHunt decodeHuntReflective() {
+    return reflective.fromJson(huntJson, ScavengerHunt.class);
+  }
+
+  @Benchmark
+  public ScavengerHunt decodeHuntCodec() {
+    return codec.fromJson(huntJson, ScavengerHunt.class);
+  }
+
+  @Benchmark
+  public Destination decodeDestinationLegacy() {
+    return new Gson().fromJson(destinationJson, Destination.class);
+  }
+
+  @Benchmark
+  public Destination decodeDestinationReflective() {
+    return reflective.fromJson(destinationJson, Destination.class);
+  }
+
+  @Benchmark
+  public Destination decodeDestinationCodec() {
+    return codec.fromJson(destinationJson, Destination.class);
+  }
+}
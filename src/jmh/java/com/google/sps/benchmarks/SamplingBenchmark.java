@@ -0,0 +1,121 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import com.google.sps.data.Destination;
+import com.google.sps.data.Sampler;
+import com.google.sps.servlets.GenerateServlet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the original shuffle-everything GenerateServlet.correctNumDests with the Sampler paths,
+ * for k = 10 stops out of n matching destinations, and rank selection over a bitset of length n
+ * where only one bit in a hundred is set. Run with -prof gc to see allocation per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SamplingBenchmark {
+  private static final int K = 10;
+
+  @Param({"1000", "10000", "100000", "1000000"})
+  public int n;
+
+  private Set<Destination> destinationSet;
+  private List<Destination> destinationList;
+  private BitSet matches;
+  private BitSet sparseMatches;
+  private GenerateServlet generate;
+  private Random random;
+
+  @Setup
+  public void setUp() {
+    destinationList = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      destinationList.add(new Destination.Builder().withName("Destination " + i).build());
+    }
+    destinationSet = new HashSet<>(destinationList);
+    matches = new BitSet(n);
+    matches.set(0, n);
+    sparseMatches = new BitSet(n);
+    for (int i = 0; i < n; i += 100) {
+      sparseMatches.set(i);
+    }
+    generate = new GenerateServlet(null);
+    random = new Random(183);
+  }
+
+  /** The implementation GenerateServlet.correctNumDests had before Sampler. */
+  @Benchmark
+  public Set<Destination> legacyShuffle() {
+    Set<Destination> newFilteredDests = new HashSet<Destination>();
+    List<Destination> filteredList = new ArrayList<Destination>(destinationSet);
+    Integer[] indexArr = new Integer[destinationSet.size()];
+    for (int i = 0; i < indexArr.length; i++) {
+      indexArr[i] = i;
+    }
+    Collections.shuffle(Arrays.asList(indexArr), random);
+    for (int i = 0; i < K; i++) {
+      newFilteredDests.add(filteredList.get(indexArr[i]));
+    }
+    return newFilteredDests;
+  }
+
+  /** Reservoir sampling over the filtered set, as correctNumDests now does. */
+  @Benchmark
+  public Set<Destination> reservoirOverSet() {
+    return generate.correctNumDests(destinationSet, K, random);
+  }
+
+  /** Partial Fisher-Yates over a random-access list. */
+  @Benchmark
+  public List<Destination> partialFisherYatesOverList() {
+    return Sampler.sample(destinationList, K, random);
+  }
+
+  /** Rank selection over the index's match bitset, as GenerateServlet.doPost now does. */
+  @Benchmark
+  public int[] ranksOverBitSet() {
+    return Sampler.sample(matches, K, random);
+  }
+
+  /** Rank selection when a narrow filter matches one destination in a hundred. */
+  @Benchmark
+  public int[] ranksOverSparseBitSet() {
+    return Sampler.sample(sparseMatches, K, random);
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.benchmarks;
+
+import com.google.sps.data.Destination;
+import com.google.sps.data.LatLng;
+import com.google.sps.data.RouteOptimizer;
+import com.google.sps.data.SpatialIndex;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Queries against a SpatialIndex of n destinations, half of them packed into a 50km metro area and
+ * half spread over the globe, with query points inside the metro area.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialIndexBenchmark {
+  @Param({"10000", "1000000"})
+  public int n;
+
+  private List<Destination> destinations;
+  private SpatialIndex index;
+  private Random random;
+
+  @Setup
+  public void setUp() {
+    random = new Random(183);
+    destinations = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      LatLng location =
+          i % 2 == 0
+              ? at(37.5 + 0.45 * random.nextDouble(), -122.6 + 0.57 * random.nextDouble())
+              : at(-90 + 180 * random.nextDouble(), -180 + 360 * random.nextDouble());
+      destinations.add(new Destination.Builder().withLocation(location).build());
+    }
+    index = SpatialIndex.of(destinations);
+  }
+
+  private static LatLng at(double lat, double lng) {
+    return new LatLng.Builder().withLat(lat).withLng(lng).build();
+  }
+
+  private LatLng queryPoint() {
+    return at(37.6 + 0.25 * random.nextDouble(), -122.5 + 0.35 * random.nextDouble());
+  }
+
+  /** What answering a radius query took before the index: a haversine per destination. */
+  @Benchmark
+  public int scanRadius1Km() {
+    LatLng center = queryPoint();
+    int found = 0;
+    for (Destination destination : destinations) {
+      if (RouteOptimizer.haversineKm(center, destination.getLocation()) <= 1) {
+        found++;
+      }
+    }
+    return found;
+  }
+
+  @Benchmark
+  public int[] radius1Km() {
+    return index.withinRadius(queryPoint(), 1);
+  }
+
+  @Benchmark
+  public int[] nearest10() {
+    return index.nearest(queryPoint(), 10);
+  }
+
+  @Benchmark
+  public int[] box2Km() {
+    LatLng corner = queryPoint();
+    return index.withinBox(
+        corner.getLat(), corner.getLng(), corner.getLat() + 0.018, corner.getLng() + 0.023);
+  }
+}
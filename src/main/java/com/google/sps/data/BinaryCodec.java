@@ -0,0 +1,194 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact binary encoding of a ScavengerHunt, for storing hunts as a Blob instead of JSON Text.
+ *
+ * <p>The first byte is {@link #FORMAT_VERSION}. After it come the hunt's index and items, each
+ * field in declaration order with no field names: lengths and counts are unsigned varints, strings
+ * are UTF-8, coordinates are raw 8-byte doubles, and objects that may be missing are preceded by a
+ * presence byte. Strings and lists store their length plus one, so that 0 can mean null. Decoding
+ * gives back exactly what was encoded, including nulls, so a hunt reads the same in either format.
+ *
+ * <p>HuntItem, Riddle and ScavengerHunt each have a nested BinaryAdapter with access to their
+ * fields, as they do for JSON; see {@link JsonCodec}.
+ */
+public final class BinaryCodec {
+  /** The version byte that starts every encoded hunt. Bump it when the layout changes. */
+  public static final byte FORMAT_VERSION = 1;
+
+  private BinaryCodec() {}
+
+  /** Returns {@code hunt} encoded, starting with the format version. */
+  public static byte[] encode(ScavengerHunt hunt) {
+    Output out = new Output();
+    out.writeByte(FORMAT_VERSION);
+    ScavengerHunt.BinaryAdapter.write(out, hunt);
+    return out.toByteArray();
+  }
+
+  /** Returns the hunt encoded in {@code bytes}. Throws if the format version is unknown. */
+  public static ScavengerHunt decode(byte[] bytes) {
+    Input in = new Input(bytes);
+    byte version = in.readByte();
+    if (version != FORMAT_VERSION) {
+      throw new IllegalArgumentException("Unknown hunt format version " + version);
+    }
+    return ScavengerHunt.BinaryAdapter.read(in);
+  }
+
+  /** Returns whether {@code bytes} starts with a format version this codec can decode. */
+  public static boolean canDecode(byte[] bytes) {
+    return bytes.length > 0 && bytes[0] == FORMAT_VERSION;
+  }
+
+  /* A growable buffer that the adapters write to. */
+  static final class Output {
+    private byte[] buffer = new byte[256];
+    private int size;
+
+    void writeByte(int value) {
+      ensure(1);
+      buffer[size++] = (byte) value;
+    }
+
+    void writeBoolean(boolean value) {
+      writeByte(value ? 1 : 0);
+    }
+
+    /* Writes a non-negative int in 7-bit groups, low group first. */
+    void writeVarint(int value) {
+      ensure(5);
+      while ((value & ~0x7F) != 0) {
+        buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[size++] = (byte) value;
+    }
+
+    void writeDouble(double value) {
+      long bits = Double.doubleToRawLongBits(value);
+      ensure(8);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        buffer[size++] = (byte) (bits >>> shift);
+      }
+    }
+
+    void writeString(String value) {
+      if (value == null) {
+        writeVarint(0);
+        return;
+      }
+      byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+      writeVarint(utf8.length + 1);
+      ensure(utf8.length);
+      System.arraycopy(utf8, 0, buffer, size, utf8.length);
+      size += utf8.length;
+    }
+
+    void writeStrings(List<String> values) {
+      if (values == null) {
+        writeVarint(0);
+        return;
+      }
+      writeVarint(values.size() + 1);
+      for (String value : values) {
+        writeString(value);
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, size);
+    }
+
+    private void ensure(int bytes) {
+      if (size + bytes > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes));
+      }
+    }
+  }
+
+  /* Reads what Output wrote. */
+  static final class Input {
+    private final byte[] bytes;
+    private int position;
+
+    Input(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    byte readByte() {
+      if (position == bytes.length) {
+        throw new IllegalArgumentException("Truncated hunt");
+      }
+      return bytes[position++];
+    }
+
+    boolean readBoolean() {
+      return readByte() != 0;
+    }
+
+    int readVarint() {
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        byte b = readByte();
+        value |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Malformed varint");
+    }
+
+    double readDouble() {
+      long bits = 0;
+      for (int i = 0; i < 8; i++) {
+        bits = (bits << 8) | (readByte() & 0xFF);
+      }
+      return Double.longBitsToDouble(bits);
+    }
+
+    String readString() {
+      int length = readVarint() - 1;
+      if (length < 0) {
+        return null;
+      }
+      if (length > bytes.length - position) {
+        throw new IllegalArgumentException("Truncated hunt");
+      }
+      String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+      position += length;
+      return value;
+    }
+
+    List<String> readStrings() {
+      int count = readVarint() - 1;
+      if (count < 0) {
+        return null;
+      }
+      List<String> values = new ArrayList<>(Math.min(count, bytes.length - position));
+      for (int i = 0; i < count; i++) {
+        values.add(readString());
+      }
+      return values;
+    }
+  }
+}
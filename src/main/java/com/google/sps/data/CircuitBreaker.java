@@ -0,0 +1,157 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Thread-safe circuit breaker that stops calls to a dependency once too many recent calls failed or
+ * were slow.
+ *
+ * <p>The breaker remembers the outcome of the last {@code window} calls. Once at least {@code
+ * minCalls} of them are known and at least {@code failureRatio} of them failed or took longer than
+ * {@code slowMillis}, the breaker opens and {@link #allowRequest} refuses every call for {@code
+ * openMillis}. After that one trial call is let through: if it succeeds the breaker closes with a
+ * clean window, otherwise it opens again.
+ */
+public class CircuitBreaker {
+  /** Whether calls are let through. */
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN;
+  }
+
+  private final boolean[] failed;
+  private final int minCalls;
+  private final double failureRatio;
+  private final long slowMillis;
+  private final long openMillis;
+  private final LongSupplier clock;
+
+  private State state = State.CLOSED;
+  private int next;
+  private int recorded;
+  private int failures;
+  private long openedAtMillis;
+  private boolean trialRunning;
+
+  private long opened;
+  private long refused;
+
+  public CircuitBreaker(
+      int window,
+      int minCalls,
+      double failureRatio,
+      long slowMillis,
+      long openMillis,
+      LongSupplier clock) {
+    this.failed = new boolean[window];
+    this.minCalls = minCalls;
+    this.failureRatio = failureRatio;
+    this.slowMillis = slowMillis;
+    this.openMillis = openMillis;
+    this.clock = clock;
+  }
+
+  public CircuitBreaker(
+      int window, int minCalls, double failureRatio, long slowMillis, long openMillis) {
+    this(window, minCalls, failureRatio, slowMillis, openMillis, System::currentTimeMillis);
+  }
+
+  /**
+   * Returns whether a call may be made now. Every call that was allowed must be followed by {@link
+   * #onSuccess} or {@link #onFailure}.
+   */
+  public synchronized boolean allowRequest() {
+    if (state == State.OPEN && clock.getAsLong() - openedAtMillis >= openMillis) {
+      state = State.HALF_OPEN;
+    }
+    if (state == State.CLOSED || (state == State.HALF_OPEN && !trialRunning)) {
+      trialRunning = state == State.HALF_OPEN;
+      return true;
+    }
+    refused++;
+    return false;
+  }
+
+  /** Records a call that returned after {@code millis}; a slow call counts as failed. */
+  public synchronized void onSuccess(long millis) {
+    record(millis > slowMillis);
+  }
+
+  /** Records a call that failed or timed out. */
+  public synchronized void onFailure() {
+    record(true);
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /** Returns the state, how often the breaker opened and how many calls it refused. */
+  public synchronized Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("state", state.name());
+    stats.put("opened", opened);
+    stats.put("refused", refused);
+    stats.put("recentFailureRatio", recorded == 0 ? 0.0 : (double) failures / recorded);
+    return stats;
+  }
+
+  private void record(boolean failure) {
+    if (state == State.HALF_OPEN) {
+      trialRunning = false;
+      if (failure) {
+        open();
+      } else {
+        state = State.CLOSED;
+        clear();
+      }
+      return;
+    }
+    if (state == State.OPEN) {
+      // A call allowed before the breaker opened; its outcome no longer matters.
+      return;
+    }
+    if (recorded == failed.length && failed[next]) {
+      failures--;
+    }
+    failed[next] = failure;
+    if (failure) {
+      failures++;
+    }
+    next = (next + 1) % failed.length;
+    recorded = Math.min(recorded + 1, failed.length);
+    if (recorded >= minCalls && failures >= failureRatio * recorded) {
+      open();
+    }
+  }
+
+  private void open() {
+    state = State.OPEN;
+    openedAtMillis = clock.getAsLong();
+    opened++;
+    clear();
+  }
+
+  private void clear() {
+    next = 0;
+    recorded = 0;
+    failures = 0;
+  }
+}
@@ -14,8 +14,13 @@
 
 package com.google.sps.data;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 // Represents a destination submitted by a user.
@@ -46,6 +51,8 @@ public class Destination {
   private Obscurity level;
   private Set<Tag> categories = new HashSet<>();
   private String placeId;
+  // Natural Language entities of the name, so guesses need not re-analyze the answer
+  private List<String> answerEntities;
 
   private Destination() {}
 
@@ -74,9 +81,40 @@ public class Destination {
     return this.placeId;
   }
 
-  /* Return one Riddle. TODO: Make this a random riddle. */
+  /* Returns the entities of the name, or null if they have not been computed yet. */
+  public List<String> getAnswerEntities() {
+    return this.answerEntities;
+  }
+
+  /* Returns a copy of this destination with the given entities for its name. */
+  public Destination withAnswerEntities(List<String> answerEntities) {
+    Destination destination = new Destination();
+    destination.name = this.name;
+    destination.location = this.location;
+    destination.city = this.city;
+    destination.description = this.description;
+    destination.riddles.addAll(this.riddles);
+    destination.categories.addAll(this.categories);
+    destination.level = this.level;
+    destination.placeId = this.placeId;
+    destination.answerEntities = answerEntities;
+
+    return destination;
+  }
+
+  /* Return every Riddle, in the order they were added. */
+  public List<Riddle> getRiddles() {
+    return riddles;
+  }
+
+  /* Return one Riddle. */
   public Riddle getRandomRiddle() {
-    return riddles.get(0);
+    return riddles.get(getRandomRiddleIndex());
+  }
+
+  /* Return the index of one Riddle. TODO: Make this a random riddle. */
+  public int getRandomRiddleIndex() {
+    return 0;
   }
 
   public Set<Tag> getTags() {
@@ -123,12 +161,20 @@ public class Destination {
   }
 
   public HuntItem convertToHuntItem() {
+    return convertToHuntItem(getRandomRiddleIndex());
+  }
+
+  /**
+   * Same as above, asking the riddle at index riddle, or the first one if there is no such riddle.
+   * The answer entities are left out: guesses look them up by name in the DestinationCatalog.
+   */
+  public HuntItem convertToHuntItem(int riddle) {
     HuntItem item =
         new HuntItem.Builder()
             .withName(this.name)
             .atLocation(this.location)
             .withDescription(this.description)
-            .withRiddle(this.getRandomRiddle())
+            .withRiddle(this.riddles.get(riddle < this.riddles.size() ? riddle : 0))
             .withPlaceId(this.placeId)
             .build();
 
@@ -144,6 +190,7 @@ public class Destination {
     private Obscurity level;
     private Set<Tag> categories = new HashSet<>();
     private String placeId;
+    private List<String> answerEntities;
 
     public Builder withName(String name) {
       this.name = name;
@@ -187,6 +234,11 @@ public class Destination {
       return this;
     }
 
+    public Builder withAnswerEntities(List<String> answerEntities) {
+      this.answerEntities = answerEntities;
+      return this;
+    }
+
     public Destination build() {
       Destination destination = new Destination();
       destination.name = this.name;
@@ -197,8 +249,102 @@ public class Destination {
       destination.categories.addAll(this.categories);
       destination.level = this.level;
       destination.placeId = this.placeId;
+      destination.answerEntities = this.answerEntities;
 
       return destination;
     }
   }
+
+  /* Streams a Destination with its fields in declaration order, see JsonCodec. */
+  static final class JsonAdapter extends TypeAdapter<Destination> {
+    static final JsonAdapter INSTANCE = new JsonAdapter();
+
+    @Override
+    public void write(JsonWriter out, Destination destination) throws IOException {
+      out.beginObject();
+      JsonCodec.writeString(out, "name", destination.name);
+      if (destination.location != null) {
+        LatLng.JsonAdapter.INSTANCE.write(out.name("location"), destination.location);
+      }
+      JsonCodec.writeString(out, "city", destination.city);
+      JsonCodec.writeString(out, "description", destination.description);
+      out.name("riddles").beginArray();
+      for (Riddle riddle : destination.riddles) {
+        if (riddle == null) {
+          out.nullValue();
+        } else {
+          Riddle.JsonAdapter.INSTANCE.write(out, riddle);
+        }
+      }
+      out.endArray();
+      if (destination.level != null) {
+        out.name("level").value(destination.level.name());
+      }
+      out.name("categories").beginArray();
+      for (Tag tag : destination.categories) {
+        out.value(tag == null ? null : tag.name());
+      }
+      out.endArray();
+      JsonCodec.writeString(out, "placeId", destination.placeId);
+      JsonCodec.writeStrings(out, "answerEntities", destination.answerEntities);
+      out.endObject();
+    }
+
+    @Override
+    public Destination read(JsonReader in) throws IOException {
+      Destination destination = new Destination();
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (JsonCodec.skipNull(in)) {
+          continue;
+        }
+        switch (name) {
+          case "name":
+            destination.name = in.nextString();
+            break;
+          case "location":
+            destination.location = LatLng.JsonAdapter.INSTANCE.read(in);
+            break;
+          case "city":
+            destination.city = in.nextString();
+            break;
+          case "description":
+            destination.description = in.nextString();
+            break;
+          case "riddles":
+            in.beginArray();
+            while (in.hasNext()) {
+              destination.riddles.add(
+                  JsonCodec.skipNull(in) ? null : Riddle.JsonAdapter.INSTANCE.read(in));
+            }
+            in.endArray();
+            break;
+          case "level":
+            destination.level = JsonCodec.nextEnum(in, Obscurity.class);
+            break;
+          case "categories":
+            in.beginArray();
+            while (in.hasNext()) {
+              Tag tag = JsonCodec.nextEnum(in, Tag.class);
+              if (tag != null) {
+                destination.categories.add(tag);
+              }
+            }
+            in.endArray();
+            break;
+          case "placeId":
+            destination.placeId = in.nextString();
+            break;
+          case "answerEntities":
+            destination.answerEntities = JsonCodec.nextStrings(in);
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return destination;
+    }
+  }
 }
@@ -0,0 +1,178 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index from city, obscurity and tag to the ordinals of the destinations that have them.
+ *
+ * <p>Ordinals are positions in the list the index was built from. An index is never modified once
+ * built: {@link #withAdded} returns a new index that shares every bitset it did not have to change,
+ * so readers can keep using an older index while a new one is being published. Locations are
+ * indexed by a {@link SpatialIndex} over the same ordinals.
+ */
+public class DestinationIndex {
+  private final List<Destination> destinations;
+  private final Map<String, BitSet> byCity;
+  private final Map<Destination.Obscurity, BitSet> byObscurity;
+  private final Map<Destination.Tag, BitSet> byTag;
+  private final SpatialIndex locations;
+
+  private DestinationIndex(
+      List<Destination> destinations,
+      Map<String, BitSet> byCity,
+      Map<Destination.Obscurity, BitSet> byObscurity,
+      Map<Destination.Tag, BitSet> byTag,
+      SpatialIndex locations) {
+    this.destinations = destinations;
+    this.byCity = byCity;
+    this.byObscurity = byObscurity;
+    this.byTag = byTag;
+    this.locations = locations;
+  }
+
+  /** Builds an index over {@code destinations}, in list order. */
+  public static DestinationIndex of(List<Destination> destinations) {
+    DestinationIndex index =
+        new DestinationIndex(
+            new ArrayList<>(destinations),
+            new HashMap<>(),
+            new HashMap<>(),
+            new HashMap<>(),
+            SpatialIndex.of(destinations));
+    for (int ordinal = 0; ordinal < destinations.size(); ordinal++) {
+      Destination destination = destinations.get(ordinal);
+      set(index.byCity, destination.getCity(), ordinal);
+      set(index.byObscurity, destination.getDifficulty(), ordinal);
+      for (Destination.Tag tag : tagsOf(destination)) {
+        set(index.byTag, tag, ordinal);
+      }
+    }
+    return index;
+  }
+
+  /** Returns a new index with {@code destination} appended as the next ordinal. */
+  public DestinationIndex withAdded(Destination destination) {
+    List<Destination> newDestinations = new ArrayList<>(destinations.size() + 1);
+    newDestinations.addAll(destinations);
+    newDestinations.add(destination);
+    int ordinal = destinations.size();
+
+    DestinationIndex index =
+        new DestinationIndex(
+            newDestinations,
+            new HashMap<>(byCity),
+            new HashMap<>(byObscurity),
+            new HashMap<>(byTag),
+            locations.withAdded(destination));
+    copyAndSet(index.byCity, destination.getCity(), ordinal);
+    copyAndSet(index.byObscurity, destination.getDifficulty(), ordinal);
+    for (Destination.Tag tag : tagsOf(destination)) {
+      copyAndSet(index.byTag, tag, ordinal);
+    }
+    return index;
+  }
+
+  public int size() {
+    return destinations.size();
+  }
+
+  public Destination get(int ordinal) {
+    return destinations.get(ordinal);
+  }
+
+  /** Returns the location index, whose results are ordinals of this index. */
+  public SpatialIndex getLocations() {
+    return locations;
+  }
+
+  /** Returns the destinations in ordinal order. The list is read-only. */
+  public List<Destination> getDestinations() {
+    return Collections.unmodifiableList(destinations);
+  }
+
+  /**
+   * Returns the ordinals of destinations that are in one of {@code cities}, have one of {@code
+   * levels} and, unless {@code tags} is empty, have at least one of {@code tags}.
+   */
+  public BitSet matching(
+      Collection<String> cities,
+      Collection<Destination.Obscurity> levels,
+      Collection<Destination.Tag> tags) {
+    BitSet result = matching(levels, tags);
+    result.and(union(byCity, cities));
+    return result;
+  }
+
+  /** Same as {@link #matching}, in every city. */
+  public BitSet matching(
+      Collection<Destination.Obscurity> levels, Collection<Destination.Tag> tags) {
+    BitSet result = union(byObscurity, levels);
+    if (!tags.isEmpty()) {
+      result.and(union(byTag, tags));
+    }
+    return result;
+  }
+
+  /** Same as {@link #matching}, but returns the destinations themselves. */
+  public Set<Destination> filter(
+      Collection<String> cities,
+      Collection<Destination.Obscurity> levels,
+      Collection<Destination.Tag> tags) {
+    BitSet matches = matching(cities, levels, tags);
+    Set<Destination> result = new HashSet<>();
+    for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+      result.add(destinations.get(i));
+    }
+    return result;
+  }
+
+  private static <K> BitSet union(Map<K, BitSet> postings, Collection<K> keys) {
+    BitSet result = new BitSet();
+    for (K key : keys) {
+      BitSet bits = postings.get(key);
+      if (bits != null) {
+        result.or(bits);
+      }
+    }
+    return result;
+  }
+
+  private static <K> void set(Map<K, BitSet> postings, K key, int ordinal) {
+    postings.computeIfAbsent(key, k -> new BitSet()).set(ordinal);
+  }
+
+  /** Sets {@code ordinal} on a copy of the bitset for {@code key}, leaving the shared one as is. */
+  private static <K> void copyAndSet(Map<K, BitSet> postings, K key, int ordinal) {
+    BitSet old = postings.get(key);
+    BitSet bits = old == null ? new BitSet() : (BitSet) old.clone();
+    bits.set(ordinal);
+    postings.put(key, bits);
+  }
+
+  private static Set<Destination.Tag> tagsOf(Destination destination) {
+    Set<Destination.Tag> tags = destination.getTags();
+    return tags == null ? Collections.emptySet() : tags;
+  }
+}
@@ -0,0 +1,209 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Decides the easy guesses locally so that only the unclear ones need the Natural Language API.
+ *
+ * <p>Guess, answer and aliases are folded (lower case, no accents, no punctuation) and split into
+ * words without stop words. A guess is accepted when it contains every word of the answer, when its
+ * words are those of an alias, or when every answer word is matched by a guess word with a
+ * Jaro-Winkler similarity of at least {@link #TYPO_SIMILARITY}. It is rejected when no guess word
+ * is even loosely similar to a word of the answer or an alias. Anything else is {@link
+ * Verdict#UNSURE}.
+ */
+public final class GuessMatcher {
+  /** Similarity at which two words of at least four letters count as the same word mistyped. */
+  public static final double TYPO_SIMILARITY = 0.94;
+  /** Similarity below which a guess word has nothing to do with any answer word. */
+  public static final double UNRELATED_SIMILARITY = 0.8;
+
+  private static final int MIN_TYPO_LENGTH = 4;
+  private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+  private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+  private static final Set<String> STOP_WORDS =
+      new HashSet<>(
+          Arrays.asList(
+              "a", "an", "and", "at", "by", "de", "del", "der", "des", "di", "du", "el", "for",
+              "in", "la", "le", "les", "of", "on", "st", "the", "to"));
+
+  /** Outcome of a local match. */
+  public enum Verdict {
+    ACCEPT,
+    REJECT,
+    UNSURE;
+  }
+
+  private GuessMatcher() {}
+
+  /** Lower-cases {@code text}, removes accents and punctuation and collapses spaces. */
+  public static String fold(String text) {
+    String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD);
+    String unaccented = MARKS.matcher(decomposed).replaceAll("");
+    return NON_WORD.matcher(unaccented.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+  }
+
+  /** Returns the folded words of {@code text} that are not stop words, in order. */
+  public static Set<String> words(String text) {
+    Set<String> words = new LinkedHashSet<>();
+    String folded = fold(text);
+    if (folded.isEmpty()) {
+      return words;
+    }
+    for (String word : folded.split(" ")) {
+      if (!STOP_WORDS.contains(word)) {
+        words.add(word);
+      }
+    }
+    return words;
+  }
+
+  /** Matches {@code guess} against {@code answer} and its known {@code aliases}. */
+  public static Verdict match(String guess, String answer, Collection<String> aliases) {
+    Set<String> guessWords = words(guess);
+    Set<String> answerWords = words(answer);
+    if (guessWords.isEmpty()) {
+      return Verdict.REJECT;
+    }
+    if (answerWords.isEmpty()) {
+      return fold(guess).equals(fold(answer)) ? Verdict.ACCEPT : Verdict.UNSURE;
+    }
+    if (guessWords.containsAll(answerWords)) {
+      return Verdict.ACCEPT;
+    }
+    for (String alias : aliases) {
+      if (guessWords.equals(words(alias))) {
+        return Verdict.ACCEPT;
+      }
+    }
+    if (allMistyped(answerWords, guessWords)) {
+      return Verdict.ACCEPT;
+    }
+
+    Set<String> knownWords = new HashSet<>(answerWords);
+    for (String alias : aliases) {
+      knownWords.addAll(words(alias));
+    }
+    for (String guessWord : guessWords) {
+      for (String knownWord : knownWords) {
+        if (jaroWinkler(guessWord, knownWord) >= UNRELATED_SIMILARITY) {
+          return Verdict.UNSURE;
+        }
+      }
+    }
+    return Verdict.REJECT;
+  }
+
+  /** Same as {@link #match} without aliases. */
+  public static Verdict match(String guess, String answer) {
+    return match(guess, answer, Collections.emptyList());
+  }
+
+  /**
+   * Returns how much of {@code answer} the guess covers, from 0 to 1: the mean, over the answer's
+   * words, of the best Jaro-Winkler similarity to a word of the guess.
+   */
+  public static double similarity(String guess, String answer) {
+    Set<String> guessWords = words(guess);
+    Set<String> answerWords = words(answer);
+    if (answerWords.isEmpty() || guessWords.isEmpty()) {
+      return fold(guess).equals(fold(answer)) ? 1 : 0;
+    }
+    double total = 0;
+    for (String answerWord : answerWords) {
+      double best = 0;
+      for (String guessWord : guessWords) {
+        best = Math.max(best, jaroWinkler(answerWord, guessWord));
+      }
+      total += best;
+    }
+    return total / answerWords.size();
+  }
+
+  private static boolean allMistyped(Set<String> answerWords, Set<String> guessWords) {
+    for (String answerWord : answerWords) {
+      boolean matched = guessWords.contains(answerWord);
+      for (String guessWord : guessWords) {
+        if (matched) {
+          break;
+        }
+        matched =
+            answerWord.length() >= MIN_TYPO_LENGTH
+                && guessWord.length() >= MIN_TYPO_LENGTH
+                && jaroWinkler(answerWord, guessWord) >= TYPO_SIMILARITY;
+      }
+      if (!matched) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Jaro-Winkler similarity of {@code a} and {@code b}, from 0 (nothing alike) to 1 (equal). */
+  public static double jaroWinkler(String a, String b) {
+    if (a.equals(b)) {
+      return 1;
+    }
+    int window = Math.max(0, Math.max(a.length(), b.length()) / 2 - 1);
+    boolean[] aMatched = new boolean[a.length()];
+    boolean[] bMatched = new boolean[b.length()];
+    int matches = 0;
+    for (int i = 0; i < a.length(); i++) {
+      int from = Math.max(0, i - window);
+      int to = Math.min(b.length() - 1, i + window);
+      for (int j = from; j <= to; j++) {
+        if (!bMatched[j] && a.charAt(i) == b.charAt(j)) {
+          aMatched[i] = true;
+          bMatched[j] = true;
+          matches++;
+          break;
+        }
+      }
+    }
+    if (matches == 0) {
+      return 0;
+    }
+    int transpositions = 0;
+    for (int i = 0, j = 0; i < a.length(); i++) {
+      if (aMatched[i]) {
+        while (!bMatched[j]) {
+          j++;
+        }
+        if (a.charAt(i) != b.charAt(j)) {
+          transpositions++;
+        }
+        j++;
+      }
+    }
+    double m = matches;
+    double jaro = (m / a.length() + m / b.length() + (m - transpositions / 2.0) / m) / 3;
+    int prefix = 0;
+    while (prefix < Math.min(4, Math.min(a.length(), b.length()))
+        && a.charAt(prefix) == b.charAt(prefix)) {
+      prefix++;
+    }
+    return jaro + prefix * 0.1 * (1 - jaro);
+  }
+}
@@ -14,6 +14,12 @@
 
 package com.google.sps.data;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.List;
+
 // Represents a destination to be added to a scavenger hunt.
 public class HuntItem {
   private String name;
@@ -22,6 +28,8 @@ public class HuntItem {
   private String description;
   private Riddle riddle;
   private String placeId;
+  // Only in hunts generated before guesses looked entities up in the DestinationCatalog
+  private List<String> answerEntities;
 
   private HuntItem() {}
 
@@ -29,12 +37,17 @@ public class HuntItem {
     return this.name;
   }
 
+  public List<String> getAnswerEntities() {
+    return this.answerEntities;
+  }
+
   public static class Builder {
     private String name;
     private LatLng location;
     private String description;
     private Riddle riddle;
     private String placeId;
+    private List<String> answerEntities;
 
     public Builder withName(String name) {
       this.name = name;
@@ -61,6 +74,11 @@ public class HuntItem {
       return this;
     }
 
+    public Builder withAnswerEntities(List<String> answerEntities) {
+      this.answerEntities = answerEntities;
+      return this;
+    }
+
     public HuntItem build() {
       HuntItem item = new HuntItem();
       item.name = this.name;
@@ -68,7 +86,102 @@ public class HuntItem {
       item.description = this.description;
       item.riddle = this.riddle;
       item.placeId = this.placeId;
+      item.answerEntities = this.answerEntities;
+
+      return item;
+    }
+  }
+
+  /* Streams a HuntItem with its fields in declaration order, see JsonCodec. */
+  static final class JsonAdapter extends TypeAdapter<HuntItem> {
+    static final JsonAdapter INSTANCE = new JsonAdapter();
 
+    @Override
+    public void write(JsonWriter out, HuntItem item) throws IOException {
+      out.beginObject();
+      JsonCodec.writeString(out, "name", item.name);
+      if (item.location != null) {
+        LatLng.JsonAdapter.INSTANCE.write(out.name("location"), item.location);
+      }
+      JsonCodec.writeString(out, "description", item.description);
+      if (item.riddle != null) {
+        Riddle.JsonAdapter.INSTANCE.write(out.name("riddle"), item.riddle);
+      }
+      JsonCodec.writeString(out, "placeId", item.placeId);
+      JsonCodec.writeStrings(out, "answerEntities", item.answerEntities);
+      out.endObject();
+    }
+
+    @Override
+    public HuntItem read(JsonReader in) throws IOException {
+      HuntItem item = new HuntItem();
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (JsonCodec.skipNull(in)) {
+          continue;
+        }
+        switch (name) {
+          case "name":
+            item.name = in.nextString();
+            break;
+          case "location":
+            item.location = LatLng.JsonAdapter.INSTANCE.read(in);
+            break;
+          case "description":
+            item.description = in.nextString();
+            break;
+          case "riddle":
+            item.riddle = Riddle.JsonAdapter.INSTANCE.read(in);
+            break;
+          case "placeId":
+            item.placeId = in.nextString();
+            break;
+          case "answerEntities":
+            item.answerEntities = JsonCodec.nextStrings(in);
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return item;
+    }
+  }
+
+  /* Writes and reads a HuntItem in its fields' order, see BinaryCodec. */
+  static final class BinaryAdapter {
+    private BinaryAdapter() {}
+
+    static void write(BinaryCodec.Output out, HuntItem item) {
+      out.writeString(item.name);
+      out.writeBoolean(item.location != null);
+      if (item.location != null) {
+        out.writeDouble(item.location.getLat());
+        out.writeDouble(item.location.getLng());
+      }
+      out.writeString(item.description);
+      out.writeBoolean(item.riddle != null);
+      if (item.riddle != null) {
+        Riddle.BinaryAdapter.write(out, item.riddle);
+      }
+      out.writeString(item.placeId);
+      out.writeStrings(item.answerEntities);
+    }
+
+    static HuntItem read(BinaryCodec.Input in) {
+      HuntItem item = new HuntItem();
+      item.name = in.readString();
+      if (in.readBoolean()) {
+        item.location =
+            new LatLng.Builder().withLat(in.readDouble()).withLng(in.readDouble()).build();
+      }
+      item.description = in.readString();
+      if (in.readBoolean()) {
+        item.riddle = Riddle.BinaryAdapter.read(in);
+      }
+      item.placeId = in.readString();
+      item.answerEntities = in.readStrings();
       return item;
     }
   }
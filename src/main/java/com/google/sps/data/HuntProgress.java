@@ -0,0 +1,62 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// How far a team has got through a scavenger hunt. Kept apart from the hunt's items, which never
+// change once the hunt is generated.
+public class HuntProgress {
+  // Which destination the user is currently looking for; -1 before the hunt starts.
+  private final int index;
+  // When each advance was made, oldest first.
+  private final List<Long> solvedAtMillis;
+  private final int hintsUsed;
+
+  public HuntProgress(int index, List<Long> solvedAtMillis, int hintsUsed) {
+    this.index = index;
+    this.solvedAtMillis = Collections.unmodifiableList(new ArrayList<>(solvedAtMillis));
+    this.hintsUsed = hintsUsed;
+  }
+
+  /** Returns the progress of a hunt that has not started, or of one stored at {@code index}. */
+  public static HuntProgress at(int index) {
+    return new HuntProgress(index, Collections.emptyList(), 0);
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public List<Long> getSolvedAtMillis() {
+    return solvedAtMillis;
+  }
+
+  public int getHintsUsed() {
+    return hintsUsed;
+  }
+
+  /**
+   * Returns this progress moved to {@code newIndex} at {@code nowMillis}, after using {@code hints}
+   * more hints.
+   */
+  public HuntProgress advancedTo(int newIndex, int hints, long nowMillis) {
+    List<Long> solved = new ArrayList<>(solvedAtMillis);
+    solved.add(nowMillis);
+    return new HuntProgress(newIndex, solved, hintsUsed + Math.max(0, hints));
+  }
+}
@@ -0,0 +1,117 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Gson that destinations and hunts are stored and sent with. Destination, HuntItem, Riddle,
+ * LatLng and ScavengerHunt each have a hand-written TypeAdapter that streams their fields straight
+ * between JsonReader/JsonWriter and the object, with no reflection and no intermediate tree.
+ *
+ * <p>The adapters write exactly what reflective Gson wrote: fields in declaration order, nulls left
+ * out, enums by name. Entities stored before them read back the same, and vice versa. Unknown
+ * fields are skipped when reading.
+ *
+ * <p>Gson instances are thread-safe and cache their adapters, so callers share {@link #gson()}
+ * rather than creating a Gson per call.
+ */
+public final class JsonCodec {
+  private static final Gson GSON =
+      new GsonBuilder()
+          .registerTypeAdapter(LatLng.class, LatLng.JsonAdapter.INSTANCE.nullSafe())
+          .registerTypeAdapter(Riddle.class, Riddle.JsonAdapter.INSTANCE.nullSafe())
+          .registerTypeAdapter(HuntItem.class, HuntItem.JsonAdapter.INSTANCE.nullSafe())
+          .registerTypeAdapter(Destination.class, Destination.JsonAdapter.INSTANCE.nullSafe())
+          .registerTypeAdapter(ScavengerHunt.class, ScavengerHunt.JsonAdapter.INSTANCE.nullSafe())
+          .create();
+
+  private JsonCodec() {}
+
+  /** Returns the shared Gson with the streaming adapters registered. */
+  public static Gson gson() {
+    return GSON;
+  }
+
+  /* Consumes a JSON null and returns true, or returns false if the next value is not null. */
+  static boolean skipNull(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return true;
+    }
+    return false;
+  }
+
+  static String nextString(JsonReader in) throws IOException {
+    return skipNull(in) ? null : in.nextString();
+  }
+
+  /* Returns the next number, or NaN for a null. */
+  static double nextDouble(JsonReader in) throws IOException {
+    return skipNull(in) ? Double.NaN : in.nextDouble();
+  }
+
+  static List<String> nextStrings(JsonReader in) throws IOException {
+    if (skipNull(in)) {
+      return null;
+    }
+    List<String> strings = new ArrayList<>();
+    in.beginArray();
+    while (in.hasNext()) {
+      strings.add(nextString(in));
+    }
+    in.endArray();
+    return strings;
+  }
+
+  /* Returns the constant named by the next string, or null for a null or an unknown name. */
+  static <E extends Enum<E>> E nextEnum(JsonReader in, Class<E> type) throws IOException {
+    String name = nextString(in);
+    if (name == null) {
+      return null;
+    }
+    try {
+      return Enum.valueOf(type, name);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /* Writes a string field, leaving it out if null. */
+  static void writeString(JsonWriter out, String name, String value) throws IOException {
+    if (value != null) {
+      out.name(name).value(value);
+    }
+  }
+
+  /* Writes a list of strings, leaving it out if null. */
+  static void writeStrings(JsonWriter out, String name, List<String> values) throws IOException {
+    if (values == null) {
+      return;
+    }
+    out.name(name).beginArray();
+    for (String value : values) {
+      out.value(value);
+    }
+    out.endArray();
+  }
+}
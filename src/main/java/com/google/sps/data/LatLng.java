@@ -14,27 +14,42 @@
 
 package com.google.sps.data;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+
 // Represents the latitude and longitude of some destination.
 public class LatLng {
-  private Double lat;
-  private Double lng;
+  // NaN when unknown; left out of the JSON, as a null Double was
+  private double lat = Double.NaN;
+  private double lng = Double.NaN;
 
   private LatLng() {}
 
-  public Double getLng() {
+  public double getLat() {
+    return this.lat;
+  }
+
+  public double getLng() {
     return this.lng;
   }
 
+  /* Returns whether both coordinates are known. */
+  public boolean hasCoordinates() {
+    return !Double.isNaN(lat) && !Double.isNaN(lng);
+  }
+
   public static class Builder {
-    private Double lat;
-    private Double lng;
+    private double lat = Double.NaN;
+    private double lng = Double.NaN;
 
-    public Builder withLat(Double lat) {
+    public Builder withLat(double lat) {
       this.lat = lat;
       return this;
     }
 
-    public Builder withLng(Double lng) {
+    public Builder withLng(double lng) {
       this.lng = lng;
       return this;
     }
@@ -47,4 +62,41 @@ public class LatLng {
       return coord;
     }
   }
+
+  /* Streams a LatLng as {"lat":..,"lng":..}, see JsonCodec. */
+  static final class JsonAdapter extends TypeAdapter<LatLng> {
+    static final JsonAdapter INSTANCE = new JsonAdapter();
+
+    @Override
+    public void write(JsonWriter out, LatLng location) throws IOException {
+      out.beginObject();
+      if (!Double.isNaN(location.lat)) {
+        out.name("lat").value(location.lat);
+      }
+      if (!Double.isNaN(location.lng)) {
+        out.name("lng").value(location.lng);
+      }
+      out.endObject();
+    }
+
+    @Override
+    public LatLng read(JsonReader in) throws IOException {
+      LatLng location = new LatLng();
+      in.beginObject();
+      while (in.hasNext()) {
+        switch (in.nextName()) {
+          case "lat":
+            location.lat = JsonCodec.nextDouble(in);
+            break;
+          case "lng":
+            location.lng = JsonCodec.nextDouble(in);
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return location;
+    }
+  }
 }
@@ -0,0 +1,81 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Thread-safe map of at most {@code capacity} entries that forgets the least recently used entry
+ * when full, and forgets any entry {@code ttlMillis} after it was put.
+ */
+public class LruCache<K, V> {
+  private final long ttlMillis;
+  private final LongSupplier clock;
+  private final LinkedHashMap<K, Timestamped<V>> entries;
+
+  public LruCache(int capacity, long ttlMillis, LongSupplier clock) {
+    this.ttlMillis = ttlMillis;
+    this.clock = clock;
+    this.entries =
+        new LinkedHashMap<K, Timestamped<V>>(16, 0.75f, /* accessOrder= */ true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<K, Timestamped<V>> eldest) {
+            return size() > capacity;
+          }
+        };
+  }
+
+  public LruCache(int capacity, long ttlMillis) {
+    this(capacity, ttlMillis, System::currentTimeMillis);
+  }
+
+  /** Returns the value for {@code key}, or null if there is none or it has expired. */
+  public synchronized V get(K key) {
+    Timestamped<V> entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (clock.getAsLong() - entry.putAtMillis >= ttlMillis) {
+      entries.remove(key);
+      return null;
+    }
+    return entry.value;
+  }
+
+  public synchronized void put(K key, V value) {
+    entries.put(key, new Timestamped<>(value, clock.getAsLong()));
+  }
+
+  public synchronized void remove(K key) {
+    entries.remove(key);
+  }
+
+  /** Returns the number of entries, including expired ones not yet dropped. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  private static class Timestamped<V> {
+    private final V value;
+    private final long putAtMillis;
+
+    private Timestamped(V value, long putAtMillis) {
+      this.value = value;
+      this.putAtMillis = putAtMillis;
+    }
+  }
+}
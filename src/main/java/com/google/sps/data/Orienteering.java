@@ -0,0 +1,124 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Picks stops for a walk of limited length from a fixed start, with a greedy orienteering
+ * heuristic.
+ *
+ * <p>The walk starts empty. Each step looks at every unused candidate, finds where it would add the
+ * least distance to the walk, and inserts one of the {@link #CHOICES} cheapest candidates whose
+ * insertion keeps the walk within budget, picked at random so that the same start does not always
+ * give the same hunt. It stops when the walk has enough stops or nothing else fits.
+ */
+public final class Orienteering {
+  private static final int CHOICES = 3;
+
+  private Orienteering() {}
+
+  /**
+   * Returns the positions of up to {@code maxStops} of {@code candidates}, in walking order from
+   * {@code start}, such that the walk is at most {@code budgetKm} long.
+   */
+  public static int[] plan(
+      List<LatLng> candidates, LatLng start, int maxStops, double budgetKm, Random random) {
+    int n = candidates.size();
+    double[] fromStart = new double[n];
+    for (int c = 0; c < n; c++) {
+      fromStart[c] = RouteOptimizer.haversineKm(start, candidates.get(c));
+    }
+    // fromStop.get(s)[c] is the distance from the s-th stop chosen to candidate c.
+    List<double[]> fromStop = new ArrayList<>();
+    List<Integer> chosen = new ArrayList<>();
+    // The walk, as indexes into chosen.
+    List<Integer> walk = new ArrayList<>();
+    boolean[] used = new boolean[n];
+    double walkKm = 0;
+
+    while (walk.size() < maxStops) {
+      int[] best = new int[CHOICES];
+      int[] bestGap = new int[CHOICES];
+      double[] bestCost = new double[CHOICES];
+      int found = 0;
+      for (int c = 0; c < n; c++) {
+        if (used[c]) {
+          continue;
+        }
+        // Gap g puts the candidate before walk[g]; gap walk.size() appends it.
+        int cheapestGap = -1;
+        double cheapest = Double.MAX_VALUE;
+        for (int g = 0; g <= walk.size(); g++) {
+          double before = g == 0 ? fromStart[c] : fromStop.get(walk.get(g - 1))[c];
+          double cost = before;
+          if (g < walk.size()) {
+            int next = walk.get(g);
+            double skipped =
+                g == 0
+                    ? fromStart[chosen.get(next)]
+                    : fromStop.get(walk.get(g - 1))[chosen.get(next)];
+            cost += fromStop.get(next)[c] - skipped;
+          }
+          if (cost < cheapest) {
+            cheapest = cost;
+            cheapestGap = g;
+          }
+        }
+        if (walkKm + cheapest > budgetKm) {
+          continue;
+        }
+        // Keep the CHOICES cheapest, sorted by cost.
+        int slot = Math.min(found, CHOICES - 1);
+        if (found == CHOICES && cheapest >= bestCost[slot]) {
+          continue;
+        }
+        while (slot > 0 && bestCost[slot - 1] > cheapest) {
+          best[slot] = best[slot - 1];
+          bestGap[slot] = bestGap[slot - 1];
+          bestCost[slot] = bestCost[slot - 1];
+          slot--;
+        }
+        best[slot] = c;
+        bestGap[slot] = cheapestGap;
+        bestCost[slot] = cheapest;
+        found = Math.min(found + 1, CHOICES);
+      }
+      if (found == 0) {
+        break;
+      }
+
+      int pick = random.nextInt(found);
+      int c = best[pick];
+      used[c] = true;
+      walkKm += bestCost[pick];
+      double[] distances = new double[n];
+      for (int other = 0; other < n; other++) {
+        distances[other] = RouteOptimizer.haversineKm(candidates.get(c), candidates.get(other));
+      }
+      fromStop.add(distances);
+      chosen.add(c);
+      walk.add(bestGap[pick], chosen.size() - 1);
+    }
+
+    int[] order = new int[walk.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = chosen.get(walk.get(i));
+    }
+    return order;
+  }
+}
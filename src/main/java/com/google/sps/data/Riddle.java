@@ -14,6 +14,10 @@
 
 package com.google.sps.data;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -50,4 +54,54 @@ public class Riddle {
       return riddle;
     }
   }
+
+  /* Streams a Riddle with its fields in declaration order, see JsonCodec. */
+  static final class JsonAdapter extends TypeAdapter<Riddle> {
+    static final JsonAdapter INSTANCE = new JsonAdapter();
+
+    @Override
+    public void write(JsonWriter out, Riddle riddle) throws IOException {
+      out.beginObject();
+      JsonCodec.writeString(out, "puzzle", riddle.puzzle);
+      JsonCodec.writeStrings(out, "hints", riddle.hints);
+      out.endObject();
+    }
+
+    @Override
+    public Riddle read(JsonReader in) throws IOException {
+      Riddle riddle = new Riddle();
+      in.beginObject();
+      while (in.hasNext()) {
+        switch (in.nextName()) {
+          case "puzzle":
+            riddle.puzzle = JsonCodec.nextString(in);
+            break;
+          case "hints":
+            riddle.hints = JsonCodec.nextStrings(in);
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return riddle;
+    }
+  }
+
+  /* Writes and reads a Riddle in its fields' order, see BinaryCodec. */
+  static final class BinaryAdapter {
+    private BinaryAdapter() {}
+
+    static void write(BinaryCodec.Output out, Riddle riddle) {
+      out.writeString(riddle.puzzle);
+      out.writeStrings(riddle.hints);
+    }
+
+    static Riddle read(BinaryCodec.Input in) {
+      Riddle riddle = new Riddle();
+      riddle.puzzle = in.readString();
+      riddle.hints = in.readStrings();
+      return riddle;
+    }
+  }
 }
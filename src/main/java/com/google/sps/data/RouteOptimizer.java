@@ -0,0 +1,288 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders the stops of a hunt into a short walking route.
+ *
+ * <p>The route is an open path: it visits every stop once and does not return. It is built by
+ * nearest-neighbour construction and then improved with 2-opt (reverse a stretch of the route) and
+ * Or-opt (move a run of up to three stops elsewhere) until neither helps or the time budget is
+ * spent. A fixed start and/or end point, such as the player's position, can be given; they are not
+ * stops themselves.
+ */
+public class RouteOptimizer {
+  private static final double EARTH_RADIUS_KM = 6371.0088;
+  private static final long DEFAULT_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(3);
+  private static final int MAX_SEGMENT = 3;
+  private static final double EPSILON = 1e-9;
+  private static final int NONE = -1;
+
+  private final long budgetNanos;
+
+  public RouteOptimizer() {
+    this(DEFAULT_BUDGET_NANOS);
+  }
+
+  public RouteOptimizer(long budgetNanos) {
+    this.budgetNanos = budgetNanos;
+  }
+
+  /** Great-circle distance between {@code a} and {@code b} in kilometres. */
+  public static double haversineKm(LatLng a, LatLng b) {
+    return haversineKm(a.getLat(), a.getLng(), b.getLat(), b.getLng());
+  }
+
+  /** Great-circle distance between two coordinates, in degrees, in kilometres. */
+  public static double haversineKm(double lat1, double lng1, double lat2, double lng2) {
+    double dLat = Math.toRadians(lat2 - lat1);
+    double dLng = Math.toRadians(lng2 - lng1);
+    double h =
+        Math.sin(dLat / 2) * Math.sin(dLat / 2)
+            + Math.cos(Math.toRadians(lat1))
+                * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLng / 2)
+                * Math.sin(dLng / 2);
+    return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(h)));
+  }
+
+  /** Returns the length in kilometres of visiting {@code stops} in {@code order}. */
+  public static double routeKm(List<LatLng> stops, int[] order, LatLng start, LatLng end) {
+    double total = 0;
+    LatLng previous = start;
+    for (int stop : order) {
+      if (previous != null) {
+        total += haversineKm(previous, stops.get(stop));
+      }
+      previous = stops.get(stop);
+    }
+    if (end != null && previous != null) {
+      total += haversineKm(previous, end);
+    }
+    return total;
+  }
+
+  /**
+   * Returns the positions of {@code stops} in visiting order. {@code start} and {@code end} are
+   * optional fixed endpoints and may be null.
+   */
+  public int[] order(List<LatLng> stops, LatLng start, LatLng end) {
+    return optimize(stops, null, start, end);
+  }
+
+  /**
+   * Same as {@link #order}, but improves {@code initial}, a visiting order chosen by the caller,
+   * instead of building one. The result is never longer than {@code initial}.
+   */
+  public int[] improve(List<LatLng> stops, int[] initial, LatLng start, LatLng end) {
+    return optimize(stops, initial, start, end);
+  }
+
+  private int[] optimize(List<LatLng> stops, int[] initial, LatLng start, LatLng end) {
+    long deadline = System.nanoTime() + budgetNanos;
+    int n = stops.size();
+    if (n <= 1) {
+      return n == 0 ? new int[0] : new int[] {0};
+    }
+
+    // Nodes 0..n-1 are the stops; the fixed endpoints, if any, come after them.
+    int startNode = start == null ? NONE : n;
+    int endNode = end == null ? NONE : (start == null ? n : n + 1);
+    int nodes = n + (start == null ? 0 : 1) + (end == null ? 0 : 1);
+    double[][] dist = new double[nodes][nodes];
+    for (int a = 0; a < nodes; a++) {
+      LatLng pa = nodeAt(stops, start, end, startNode, endNode, a);
+      for (int b = a + 1; b < nodes; b++) {
+        LatLng pb = nodeAt(stops, start, end, startNode, endNode, b);
+        dist[a][b] = dist[b][a] = haversineKm(pa, pb);
+      }
+    }
+
+    int[] path =
+        initial == null
+            ? construct(dist, n, startNode, endNode)
+            : pathOf(initial, nodes, startNode, endNode);
+    int lo = startNode == NONE ? 0 : 1;
+    int hi = endNode == NONE ? path.length - 1 : path.length - 2;
+    boolean improved = true;
+    while (improved && System.nanoTime() < deadline) {
+      improved = twoOpt(dist, path, lo, hi) || orOpt(dist, path, lo, hi);
+    }
+
+    int[] order = new int[n];
+    System.arraycopy(path, lo, order, 0, n);
+    return order;
+  }
+
+  private static int[] pathOf(int[] order, int nodes, int startNode, int endNode) {
+    int[] path = new int[nodes];
+    int size = 0;
+    if (startNode != NONE) {
+      path[size++] = startNode;
+    }
+    for (int stop : order) {
+      path[size++] = stop;
+    }
+    if (endNode != NONE) {
+      path[size] = endNode;
+    }
+    return path;
+  }
+
+  private static LatLng nodeAt(
+      List<LatLng> stops, LatLng start, LatLng end, int startNode, int endNode, int node) {
+    if (node == startNode) {
+      return start;
+    }
+    if (node == endNode) {
+      return end;
+    }
+    return stops.get(node);
+  }
+
+  /**
+   * Nearest-neighbour path over the stops, between the fixed endpoints. Without a fixed start,
+   * every stop is tried as the first one and the shortest result is kept.
+   */
+  private static int[] construct(double[][] dist, int n, int startNode, int endNode) {
+    int length = n + (startNode == NONE ? 0 : 1) + (endNode == NONE ? 0 : 1);
+    int[] best = null;
+    double bestKm = Double.MAX_VALUE;
+    int firstCandidates = startNode == NONE ? n : 1;
+    for (int candidate = 0; candidate < firstCandidates; candidate++) {
+      int[] path = new int[length];
+      boolean[] visited = new boolean[n];
+      int size = 0;
+      int current;
+      if (startNode == NONE) {
+        current = candidate;
+        visited[current] = true;
+      } else {
+        current = startNode;
+      }
+      path[size++] = current;
+      double km = 0;
+      for (int step = startNode == NONE ? 1 : 0; step < n; step++) {
+        int next = NONE;
+        for (int stop = 0; stop < n; stop++) {
+          if (!visited[stop] && (next == NONE || dist[current][stop] < dist[current][next])) {
+            next = stop;
+          }
+        }
+        visited[next] = true;
+        km += dist[current][next];
+        path[size++] = current = next;
+      }
+      if (endNode != NONE) {
+        km += dist[current][endNode];
+        path[size] = endNode;
+      }
+      if (km < bestKm) {
+        bestKm = km;
+        best = path;
+      }
+    }
+    return best;
+  }
+
+  private static double d(double[][] dist, int a, int b) {
+    return a == NONE || b == NONE ? 0 : dist[a][b];
+  }
+
+  /** Applies the first improving reversal of path[i..j] with lo <= i < j <= hi. */
+  private static boolean twoOpt(double[][] dist, int[] path, int lo, int hi) {
+    int last = path.length - 1;
+    for (int i = lo; i < hi; i++) {
+      int before = i > 0 ? path[i - 1] : NONE;
+      for (int j = i + 1; j <= hi; j++) {
+        int after = j < last ? path[j + 1] : NONE;
+        double delta =
+            d(dist, before, path[j])
+                + d(dist, path[i], after)
+                - d(dist, before, path[i])
+                - d(dist, path[j], after);
+        if (delta < -EPSILON) {
+          for (int a = i, b = j; a < b; a++, b--) {
+            int swap = path[a];
+            path[a] = path[b];
+            path[b] = swap;
+          }
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Applies the first improving move of a run of up to three stops to another gap in the route, in
+   * either direction.
+   */
+  private static boolean orOpt(double[][] dist, int[] path, int lo, int hi) {
+    int m = path.length;
+    for (int len = 1; len <= MAX_SEGMENT; len++) {
+      for (int i = lo; i + len - 1 <= hi; i++) {
+        int first = path[i];
+        int last = path[i + len - 1];
+        int before = i > 0 ? path[i - 1] : NONE;
+        int after = i + len < m ? path[i + len] : NONE;
+        double removed = d(dist, before, first) + d(dist, last, after) - d(dist, before, after);
+
+        // Gap g of the route without the run lies between rest[g - 1] and rest[g].
+        int restLength = m - len;
+        int firstGap = lo;
+        int lastGap = hi + 1 - len;
+        for (int g = firstGap; g <= lastGap; g++) {
+          if (g == i) {
+            continue;
+          }
+          int left = g > 0 ? rest(path, i, len, g - 1) : NONE;
+          int right = g < restLength ? rest(path, i, len, g) : NONE;
+          double gap = d(dist, left, right);
+          double forward = d(dist, left, first) + d(dist, last, right) - gap;
+          double reversed = d(dist, left, last) + d(dist, first, right) - gap;
+          boolean reverse = reversed < forward;
+          if (Math.min(forward, reversed) - removed < -EPSILON) {
+            moveRun(path, i, len, g, reverse);
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Returns the node at position {@code x} of the path with path[i..i+len-1] taken out. */
+  private static int rest(int[] path, int i, int len, int x) {
+    return x < i ? path[x] : path[x + len];
+  }
+
+  private static void moveRun(int[] path, int i, int len, int gap, boolean reverse) {
+    int[] run = new int[len];
+    for (int k = 0; k < len; k++) {
+      run[k] = path[reverse ? i + len - 1 - k : i + k];
+    }
+    int[] rest = new int[path.length - len];
+    for (int x = 0; x < rest.length; x++) {
+      rest[x] = rest(path, i, len, x);
+    }
+    System.arraycopy(rest, 0, path, 0, gap);
+    System.arraycopy(run, 0, path, gap, len);
+    System.arraycopy(rest, gap, path, gap + len, rest.length - gap);
+  }
+}
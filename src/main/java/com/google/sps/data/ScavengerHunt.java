@@ -14,6 +14,10 @@
 
 package com.google.sps.data;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 
 // Represents a scavenger hunt.
@@ -30,4 +34,94 @@ public class ScavengerHunt {
   public void updateIndex(int index) {
     this.index = index;
   }
+
+  /* Streams a ScavengerHunt as {"items":[...],"index":N}, see JsonCodec. */
+  static final class JsonAdapter extends TypeAdapter<ScavengerHunt> {
+    static final JsonAdapter INSTANCE = new JsonAdapter();
+
+    @Override
+    public void write(JsonWriter out, ScavengerHunt hunt) throws IOException {
+      out.beginObject();
+      if (hunt.items != null) {
+        out.name("items").beginArray();
+        for (HuntItem item : hunt.items) {
+          if (item == null) {
+            out.nullValue();
+          } else {
+            HuntItem.JsonAdapter.INSTANCE.write(out, item);
+          }
+        }
+        out.endArray();
+      }
+      out.name("index").value(hunt.index);
+      out.endObject();
+    }
+
+    @Override
+    public ScavengerHunt read(JsonReader in) throws IOException {
+      ArrayList<HuntItem> items = null;
+      int index = 0;
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (JsonCodec.skipNull(in)) {
+          continue;
+        }
+        switch (name) {
+          case "items":
+            items = new ArrayList<>();
+            in.beginArray();
+            while (in.hasNext()) {
+              items.add(JsonCodec.skipNull(in) ? null : HuntItem.JsonAdapter.INSTANCE.read(in));
+            }
+            in.endArray();
+            break;
+          case "index":
+            index = in.nextInt();
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      ScavengerHunt hunt = new ScavengerHunt(items);
+      hunt.index = index;
+      return hunt;
+    }
+  }
+
+  /* Writes and reads a ScavengerHunt as its index plus one, then its items, see BinaryCodec. */
+  static final class BinaryAdapter {
+    private BinaryAdapter() {}
+
+    static void write(BinaryCodec.Output out, ScavengerHunt hunt) {
+      out.writeVarint(hunt.index + 1);
+      if (hunt.items == null) {
+        out.writeVarint(0);
+        return;
+      }
+      out.writeVarint(hunt.items.size() + 1);
+      for (HuntItem item : hunt.items) {
+        out.writeBoolean(item != null);
+        if (item != null) {
+          HuntItem.BinaryAdapter.write(out, item);
+        }
+      }
+    }
+
+    static ScavengerHunt read(BinaryCodec.Input in) {
+      int index = in.readVarint() - 1;
+      int count = in.readVarint() - 1;
+      ArrayList<HuntItem> items = null;
+      if (count >= 0) {
+        items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+          items.add(in.readBoolean() ? HuntItem.BinaryAdapter.read(in) : null);
+        }
+      }
+      ScavengerHunt hunt = new ScavengerHunt(items);
+      hunt.index = index;
+      return hunt;
+    }
+  }
 }
@@ -0,0 +1,356 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.data;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Grid index from location to destination ordinal, for radius, k-nearest and bounding-box queries.
+ *
+ * <p>The globe is cut into cells of {@link #CELL_DEGREES} square. Points are stored sorted by cell,
+ * and cells are numbered row by row, so the cells of one row of a query box are a single range of
+ * the sorted keys: a query does one binary search per row it covers and then only reads the points
+ * in its cells. Candidates are checked against the exact haversine distance.
+ *
+ * <p>Like {@link DestinationIndex}, an index is never modified once built. {@link #withAdded} keeps
+ * the sorted arrays and puts the new point in a small unsorted tail that every query also scans;
+ * the tail is merged into the sorted arrays once it grows past {@link #MAX_TAIL}.
+ */
+public class SpatialIndex {
+  /** Cell edge, about 1.1km of latitude. */
+  public static final double CELL_DEGREES = 0.01;
+
+  private static final int ROWS = (int) Math.round(180 / CELL_DEGREES);
+  private static final int COLUMNS = (int) Math.round(360 / CELL_DEGREES);
+  private static final double KM_PER_DEGREE = Math.PI * 6371.0088 / 180;
+  private static final double HALF_CIRCUMFERENCE_KM = 180 * KM_PER_DEGREE;
+  private static final int MAX_TAIL = 1024;
+
+  // Sorted part: cells[i] is the cell of the point with ordinal ids[i], at lats[i], lngs[i].
+  private final long[] cells;
+  private final int[] ids;
+  private final double[] lats;
+  private final double[] lngs;
+  // Unsorted points added since the sorted part was built.
+  private final int[] tailIds;
+  private final double[] tailLats;
+  private final double[] tailLngs;
+  private final int size;
+
+  private SpatialIndex(
+      long[] cells,
+      int[] ids,
+      double[] lats,
+      double[] lngs,
+      int[] tailIds,
+      double[] tailLats,
+      double[] tailLngs,
+      int size) {
+    this.cells = cells;
+    this.ids = ids;
+    this.lats = lats;
+    this.lngs = lngs;
+    this.tailIds = tailIds;
+    this.tailLats = tailLats;
+    this.tailLngs = tailLngs;
+    this.size = size;
+  }
+
+  /**
+   * Builds an index over {@code destinations}, in list order. Destinations without a location are
+   * skipped.
+   */
+  public static SpatialIndex of(List<Destination> destinations) {
+    int[] ordinals = new int[destinations.size()];
+    double[] pointLats = new double[destinations.size()];
+    double[] pointLngs = new double[destinations.size()];
+    int points = 0;
+    for (int ordinal = 0; ordinal < destinations.size(); ordinal++) {
+      LatLng location = destinations.get(ordinal).getLocation();
+      if (isValid(location)) {
+        ordinals[points] = ordinal;
+        pointLats[points] = location.getLat();
+        pointLngs[points] = location.getLng();
+        points++;
+      }
+    }
+    return build(ordinals, pointLats, pointLngs, points, destinations.size());
+  }
+
+  /** Returns a new index with {@code destination} as the next ordinal. */
+  public SpatialIndex withAdded(Destination destination) {
+    LatLng location = destination.getLocation();
+    if (!isValid(location)) {
+      return new SpatialIndex(cells, ids, lats, lngs, tailIds, tailLats, tailLngs, size + 1);
+    }
+    if (tailIds.length >= MAX_TAIL) {
+      int points = ids.length + tailIds.length + 1;
+      int[] allIds = concat(ids, tailIds, size);
+      double[] allLats = concat(lats, tailLats, location.getLat());
+      double[] allLngs = concat(lngs, tailLngs, location.getLng());
+      return build(allIds, allLats, allLngs, points, size + 1);
+    }
+    return new SpatialIndex(
+        cells,
+        ids,
+        lats,
+        lngs,
+        concat(new int[0], tailIds, size),
+        concat(new double[0], tailLats, location.getLat()),
+        concat(new double[0], tailLngs, location.getLng()),
+        size + 1);
+  }
+
+  /** Returns the number of ordinals covered, with or without a location. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the ordinals within {@code radiusKm} of {@code center}, in increasing order. */
+  public int[] withinRadius(LatLng center, double radiusKm) {
+    Hits hits = new Hits();
+    collectWithinRadius(center.getLat(), center.getLng(), radiusKm, hits);
+    return hits.sortedIds();
+  }
+
+  /**
+   * Returns the ordinals of the {@code k} points nearest to {@code center}, nearest first. Returns
+   * fewer if the index has fewer points.
+   */
+  public int[] nearest(LatLng center, int k) {
+    double lat = center.getLat();
+    double lng = center.getLng();
+    int points = ids.length + tailIds.length;
+    Hits hits = new Hits();
+    // Widen the search circle until it holds k points; every closer point is then inside it too.
+    for (double radiusKm = CELL_DEGREES * KM_PER_DEGREE; ; radiusKm *= 2) {
+      hits.clear();
+      collectWithinRadius(lat, lng, radiusKm, hits);
+      if (hits.count >= k || hits.count == points || radiusKm > HALF_CIRCUMFERENCE_KM) {
+        break;
+      }
+    }
+    return hits.nearestIds(Math.min(k, hits.count));
+  }
+
+  /**
+   * Returns the ordinals inside the box from {@code south} to {@code north} and {@code west} to
+   * {@code east}, in increasing order. If {@code west} is greater than {@code east}, the box
+   * crosses the antimeridian.
+   */
+  public int[] withinBox(double south, double west, double north, double east) {
+    Hits hits = new Hits();
+    scanBox(south, west, north, east, hits, Double.NaN, Double.NaN, 0);
+    return hits.sortedIds();
+  }
+
+  private void collectWithinRadius(double lat, double lng, double radiusKm, Hits hits) {
+    double dLat = radiusKm / KM_PER_DEGREE;
+    double south = lat - dLat;
+    double north = lat + dLat;
+    double cosLat = Math.cos(Math.toRadians(Math.max(Math.abs(south), Math.abs(north))));
+    double dLng = cosLat <= 0 ? 180 : dLat / cosLat;
+    if (north >= 90 || south <= -90 || dLng >= 180) {
+      scanBox(Math.max(south, -90), -180, Math.min(north, 90), 180, hits, lat, lng, radiusKm);
+    } else {
+      scanBox(south, wrap(lng - dLng), north, wrap(lng + dLng), hits, lat, lng, radiusKm);
+    }
+  }
+
+  /**
+   * Adds the points in the box to {@code hits}. Unless {@code lat} is NaN, only points within
+   * {@code radiusKm} of ({@code lat}, {@code lng}) are added.
+   */
+  private void scanBox(
+      double south,
+      double west,
+      double north,
+      double east,
+      Hits hits,
+      double lat,
+      double lng,
+      double radiusKm) {
+    if (west > east) {
+      scanBox(south, west, north, 180, hits, lat, lng, radiusKm);
+      scanBox(south, -180, north, east, hits, lat, lng, radiusKm);
+      return;
+    }
+    int firstRow = row(south);
+    int lastRow = row(north);
+    int firstColumn = column(west);
+    int lastColumn = column(east);
+    for (int row = firstRow; row <= lastRow; row++) {
+      long rowStart = (long) row * COLUMNS;
+      int i = lowerBound(cells, rowStart + firstColumn);
+      for (; i < cells.length && cells[i] <= rowStart + lastColumn; i++) {
+        offer(ids[i], lats[i], lngs[i], south, west, north, east, hits, lat, lng, radiusKm);
+      }
+    }
+    for (int i = 0; i < tailIds.length; i++) {
+      offer(
+          tailIds[i], tailLats[i], tailLngs[i], south, west, north, east, hits, lat, lng, radiusKm);
+    }
+  }
+
+  private static void offer(
+      int id,
+      double pointLat,
+      double pointLng,
+      double south,
+      double west,
+      double north,
+      double east,
+      Hits hits,
+      double lat,
+      double lng,
+      double radiusKm) {
+    if (pointLat < south || pointLat > north || pointLng < west || pointLng > east) {
+      return;
+    }
+    if (Double.isNaN(lat)) {
+      hits.add(id, 0);
+      return;
+    }
+    double km = RouteOptimizer.haversineKm(lat, lng, pointLat, pointLng);
+    if (km <= radiusKm) {
+      hits.add(id, km);
+    }
+  }
+
+  private static SpatialIndex build(
+      int[] ordinals, double[] pointLats, double[] pointLngs, int points, int size) {
+    // Sort by cell, keeping the point's position in the low 32 bits.
+    long[] keyed = new long[points];
+    for (int i = 0; i < points; i++) {
+      keyed[i] = (cell(pointLats[i], pointLngs[i]) << 32) | i;
+    }
+    Arrays.sort(keyed);
+    long[] cells = new long[points];
+    int[] ids = new int[points];
+    double[] lats = new double[points];
+    double[] lngs = new double[points];
+    for (int i = 0; i < points; i++) {
+      int point = (int) keyed[i];
+      cells[i] = keyed[i] >>> 32;
+      ids[i] = ordinals[point];
+      lats[i] = pointLats[point];
+      lngs[i] = pointLngs[point];
+    }
+    return new SpatialIndex(cells, ids, lats, lngs, new int[0], new double[0], new double[0], size);
+  }
+
+  private static long cell(double lat, double lng) {
+    return (long) row(lat) * COLUMNS + column(lng);
+  }
+
+  private static int row(double lat) {
+    return Math.min(ROWS - 1, Math.max(0, (int) Math.floor((lat + 90) / CELL_DEGREES)));
+  }
+
+  private static int column(double lng) {
+    return Math.min(COLUMNS - 1, Math.max(0, (int) Math.floor((lng + 180) / CELL_DEGREES)));
+  }
+
+  private static double wrap(double lng) {
+    return lng > 180 ? lng - 360 : lng < -180 ? lng + 360 : lng;
+  }
+
+  private static boolean isValid(LatLng location) {
+    return location != null
+        && location.hasCoordinates()
+        && Math.abs(location.getLat()) <= 90
+        && Math.abs(location.getLng()) <= 180;
+  }
+
+  /** Returns the first position in {@code sorted} whose value is at least {@code key}. */
+  private static int lowerBound(long[] sorted, long key) {
+    int lo = 0;
+    int hi = sorted.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] < key) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  private static int[] concat(int[] a, int[] b, int last) {
+    int[] result = Arrays.copyOf(a, a.length + b.length + 1);
+    System.arraycopy(b, 0, result, a.length, b.length);
+    result[result.length - 1] = last;
+    return result;
+  }
+
+  private static double[] concat(double[] a, double[] b, double last) {
+    double[] result = Arrays.copyOf(a, a.length + b.length + 1);
+    System.arraycopy(b, 0, result, a.length, b.length);
+    result[result.length - 1] = last;
+    return result;
+  }
+
+  /** Growable list of (ordinal, distance) pairs found by one query. */
+  private static class Hits {
+    private int[] ids = new int[16];
+    private double[] kms = new double[16];
+    private int count;
+
+    private void add(int id, double km) {
+      if (count == ids.length) {
+        ids = Arrays.copyOf(ids, 2 * count);
+        kms = Arrays.copyOf(kms, 2 * count);
+      }
+      ids[count] = id;
+      kms[count] = km;
+      count++;
+    }
+
+    private void clear() {
+      count = 0;
+    }
+
+    private int[] sortedIds() {
+      int[] result = Arrays.copyOf(ids, count);
+      Arrays.sort(result);
+      return result;
+    }
+
+    /** Returns the {@code k} nearest hits, nearest first, keeping only k of them in a heap. */
+    private int[] nearestIds(int k) {
+      if (k == 0) {
+        return new int[0];
+      }
+      PriorityQueue<Integer> farthestFirst =
+          new PriorityQueue<>(k, (a, b) -> Double.compare(kms[b], kms[a]));
+      for (int i = 0; i < count; i++) {
+        if (farthestFirst.size() < k) {
+          farthestFirst.add(i);
+        } else if (kms[i] < kms[farthestFirst.peek()]) {
+          farthestFirst.poll();
+          farthestFirst.add(i);
+        }
+      }
+      int[] result = new int[k];
+      for (int slot = k - 1; slot >= 0; slot--) {
+        result[slot] = ids[farthestFirst.poll()];
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,159 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.sps.data.Destination;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Computes answer entities for stored destinations that do not have them yet, such as those stored
+ * before they were computed at creation or whose analysis failed then.
+ *
+ * <p>It is polite to the Natural Language API: calls are made one at a time with a pause in
+ * between, and a failed call is retried a few times with jittered exponential backoff before the
+ * destination is skipped. Destinations that already have entities are left alone, so a run that
+ * stops part way can simply be started again. Each batch written is also put in the
+ * DestinationCatalog of this instance; other instances pick it up on their next refresh.
+ */
+public class AnswerEntitiesBackfill {
+  private static final Logger LOG = Logger.getLogger(AnswerEntitiesBackfill.class.getName());
+  private static final int BATCH_SIZE = 100;
+  private static final int MAX_ATTEMPTS = 4;
+  private static final long DEFAULT_PAUSE_MILLIS = 100;
+  private static final long DEFAULT_BACKOFF_MILLIS = 1000;
+
+  private final DatastoreService datastore;
+  private final EntityAnalyzer analyzer;
+  // Null when no in-memory catalog needs to see the new entities
+  private final DestinationCatalog catalog;
+  private final long pauseMillis;
+  private final long backoffMillis;
+
+  public AnswerEntitiesBackfill(
+      DatastoreService datastore,
+      EntityAnalyzer analyzer,
+      DestinationCatalog catalog,
+      long pauseMillis,
+      long backoffMillis) {
+    this.datastore = datastore;
+    this.analyzer = analyzer;
+    this.catalog = catalog;
+    this.pauseMillis = pauseMillis;
+    this.backoffMillis = backoffMillis;
+  }
+
+  public AnswerEntitiesBackfill(
+      DatastoreService datastore, EntityAnalyzer analyzer, long pauseMillis, long backoffMillis) {
+    this(datastore, analyzer, null, pauseMillis, backoffMillis);
+  }
+
+  public AnswerEntitiesBackfill(
+      DatastoreService datastore, EntityAnalyzer analyzer, DestinationCatalog catalog) {
+    this(datastore, analyzer, catalog, DEFAULT_PAUSE_MILLIS, DEFAULT_BACKOFF_MILLIS);
+  }
+
+  /** Counts of one run. */
+  public static class Result {
+    private int updated;
+    private int failed;
+
+    public int getUpdated() {
+      return updated;
+    }
+
+    public int getFailed() {
+      return failed;
+    }
+  }
+
+  /**
+   * Fills in entities for at most {@code limit} destinations, writing them back in batches.
+   * Destinations whose analysis keeps failing are counted as failed and left for the next run.
+   */
+  public Result run(int limit) throws InterruptedException {
+    Result result = new Result();
+    Map<Key, Destination> batch = new HashMap<>();
+    for (Entity entity : datastore.prepare(new Query(Constants.DESTINATION_ENTITY)).asIterable()) {
+      if (result.updated + result.failed >= limit) {
+        break;
+      }
+      Destination destination = DestinationEntities.toDestination(entity);
+      if (destination.getAnswerEntities() != null || destination.getName() == null) {
+        continue;
+      }
+
+      List<String> entities = analyzeWithRetries(destination.getName());
+      if (entities == null) {
+        result.failed++;
+        continue;
+      }
+      batch.put(entity.getKey(), destination.withAnswerEntities(entities));
+      result.updated++;
+      if (batch.size() == BATCH_SIZE) {
+        write(batch);
+      }
+    }
+    if (!batch.isEmpty()) {
+      write(batch);
+    }
+    return result;
+  }
+
+  /* Stores the batch, then clears it. */
+  private void write(Map<Key, Destination> batch) {
+    List<Entity> entities = new ArrayList<>();
+    for (Map.Entry<Key, Destination> entry : batch.entrySet()) {
+      // Written back in the native layout, so a legacy entity is migrated on the way.
+      entities.add(DestinationEntities.toEntity(entry.getKey(), entry.getValue()));
+    }
+    datastore.put(entities);
+    if (catalog != null) {
+      catalog.update(batch);
+    }
+    batch.clear();
+  }
+
+  /** Returns the entities of {@code name}, or null if every attempt failed. */
+  private List<String> analyzeWithRetries(String name) throws InterruptedException {
+    for (int attempt = 0; ; attempt++) {
+      Thread.sleep(attempt == 0 ? pauseMillis : backoff(attempt));
+      try {
+        return analyzer.findEntities(name);
+      } catch (IOException | RuntimeException e) {
+        if (attempt + 1 == MAX_ATTEMPTS) {
+          LOG.log(Level.WARNING, "Giving up on entities of " + name, e);
+          return null;
+        }
+      }
+    }
+  }
+
+  /* Full jitter: a random wait of up to backoffMillis * 2^(attempt - 1). */
+  private long backoff(int attempt) {
+    long cap = backoffMillis << (attempt - 1);
+    return cap == 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+  }
+}
@@ -0,0 +1,55 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.sps.data.JsonCodec;
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Computes answer entities for destinations that do not have them. Admin only. The optional limit
+ * parameter caps the number of destinations analyzed, so a run fits in one request; run it again
+ * until nothing is updated.
+ */
+@WebServlet("/admin/backfill-answer-entities")
+public class AnswerEntitiesBackfillServlet extends HttpServlet {
+  private static final String LIMIT_PARAMETER = "limit";
+  private static final int DEFAULT_LIMIT = 200;
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String limit = request.getParameter(LIMIT_PARAMETER);
+    AnswerEntitiesBackfill.Result result;
+    try {
+      result =
+          new AnswerEntitiesBackfill(
+                  DatastoreServiceFactory.getDatastoreService(),
+                  EntityAnalyzer.getInstance(),
+                  DestinationCatalog.getInstance())
+              .run(limit == null ? DEFAULT_LIMIT : Integer.parseInt(limit));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Backfill interrupted");
+      return;
+    }
+
+    response.setContentType(Constants.JSON_TYPE);
+    response.getWriter().println(JsonCodec.gson().toJson(result));
+  }
+}
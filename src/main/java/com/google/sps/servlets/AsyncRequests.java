@@ -0,0 +1,216 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.apphosting.api.ApiProxy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves requests as CompletableFuture pipelines, so that slow Datastore and Natural Language calls
+ * do not hold the container's request threads.
+ *
+ * <p>When the request supports it, {@link #serve} puts it in async mode and returns at once; the
+ * response is completed by whichever thread finishes the pipeline. Otherwise, e.g. for a mocked
+ * request, it waits for the pipeline on the request thread as before.
+ *
+ * <p>Neither the Datastore futures nor the analyzer have completion callbacks, so blocking steps
+ * run on a bounded pool of I/O threads shared by every servlet. Each step gets the App Engine API
+ * environment of the request that started it, which Datastore calls need.
+ *
+ * <p>This is not non-blocking I/O: every Datastore or Natural Language call in flight still holds
+ * one of the {@link #IO_THREADS} I/O threads until it returns, and {@link #fromFuture} blocks one
+ * on {@code Future.get}. An instance therefore waits on at most as many calls at once as it has
+ * request and I/O threads together, the same as with that many blocking request threads; what async
+ * mode buys is that request threads stay free for requests that need no I/O, and that the number of
+ * waiting threads is bounded by this pool rather than by the container.
+ */
+final class AsyncRequests {
+  private static final Logger LOG = Logger.getLogger(AsyncRequests.class.getName());
+  private static final int IO_THREADS = 64;
+  private static final long TIMEOUT_MILLIS = 30000;
+  private static final ExecutorService IO =
+      Executors.newFixedThreadPool(
+          IO_THREADS,
+          runnable -> {
+            Thread thread = new Thread(runnable, "async-request-io");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /** A blocking step of a pipeline. */
+  interface Step<T> {
+    T run() throws IOException;
+  }
+
+  /** The last step of a pipeline, which writes the response. */
+  interface Writer<T> {
+    void write(T result) throws IOException;
+  }
+
+  private AsyncRequests() {}
+
+  /** Runs {@code step} on an I/O thread with the current request's API environment. */
+  static <T> CompletableFuture<T> supply(Step<T> step) {
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    return CompletableFuture.supplyAsync(
+        () -> {
+          if (environment != null) {
+            ApiProxy.setEnvironmentForCurrentThread(environment);
+          }
+          try {
+            return step.run();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          } finally {
+            if (environment != null) {
+              ApiProxy.clearEnvironmentForCurrentThread();
+            }
+          }
+        },
+        IO);
+  }
+
+  /** Completes with the result of an AsyncDatastoreService call. */
+  static <T> CompletableFuture<T> fromFuture(Future<T> future) {
+    return supply(
+        () -> {
+          try {
+            return future.get();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for Datastore", e);
+          } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+              throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+          }
+        });
+  }
+
+  /**
+   * Writes the result of {@code pipeline} with {@code writer}, asynchronously if the request
+   * supports it. Failures end the response with a 500, and a pipeline that has not finished within
+   * the timeout with a 503. Whichever comes first completes the response; the other does nothing.
+   */
+  static <T> void serve(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      CompletableFuture<T> pipeline,
+      Writer<? super T> writer)
+      throws IOException {
+    if (!request.isAsyncSupported()) {
+      join(
+          pipeline.thenAccept(
+              result -> {
+                try {
+                  writer.write(result);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              }));
+      return;
+    }
+
+    AsyncContext context = request.startAsync();
+    AtomicBoolean finished = new AtomicBoolean(false);
+    context.setTimeout(TIMEOUT_MILLIS);
+    context.addListener(
+        new AsyncListener() {
+          @Override
+          public void onTimeout(AsyncEvent event) throws IOException {
+            if (!finished.compareAndSet(false, true)) {
+              return;
+            }
+            LOG.warning("Request to " + request.getRequestURI() + " timed out");
+            try {
+              if (!response.isCommitted()) {
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+              }
+            } finally {
+              context.complete();
+            }
+          }
+
+          @Override
+          public void onComplete(AsyncEvent event) {}
+
+          @Override
+          public void onError(AsyncEvent event) {}
+
+          @Override
+          public void onStartAsync(AsyncEvent event) {}
+        });
+    pipeline.whenComplete(
+        (result, failure) -> {
+          if (!finished.compareAndSet(false, true)) {
+            return;
+          }
+          try {
+            if (failure == null) {
+              writer.write(result);
+            } else {
+              fail(request, response, failure);
+            }
+          } catch (IOException | RuntimeException e) {
+            fail(request, response, e);
+          } finally {
+            context.complete();
+          }
+        });
+  }
+
+  /* Logs the failure and ends the response with a 500 if nothing has been sent yet. */
+  private static void fail(
+      HttpServletRequest request, HttpServletResponse response, Throwable failure) {
+    LOG.log(Level.WARNING, "Request to " + request.getRequestURI() + " failed", failure);
+    try {
+      if (!response.isCommitted()) {
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Could not report failure", e);
+    }
+  }
+
+  private static void join(CompletableFuture<?> future) throws IOException {
+    try {
+      future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.utils.SystemProperty;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors for work that outlives the request that starts it, such as reloading the catalog or
+ * refilling the hunt pool.
+ *
+ * <p>On App Engine their thread is made by {@link ThreadManager#createBackgroundThread}, which has
+ * an API environment of its own; borrowing the starting request's environment instead would make
+ * Datastore calls under a request that has already finished. Background threads need manual or
+ * basic scaling, see appengine-web.xml. Outside App Engine, e.g. in tests, a daemon thread is used.
+ */
+final class BackgroundThreads {
+  private BackgroundThreads() {}
+
+  /**
+   * Returns an executor that runs tasks one at a time on a background thread called {@code name}.
+   */
+  static ExecutorService newSingleThreadExecutor(String name) {
+    return Executors.newSingleThreadExecutor(
+        runnable -> {
+          Thread thread;
+          if (SystemProperty.environment.value() != null) {
+            thread = ThreadManager.createBackgroundThread(runnable);
+          } else {
+            thread = new Thread(runnable);
+            thread.setDaemon(true);
+          }
+          thread.setName(name);
+          return thread;
+        });
+  }
+}
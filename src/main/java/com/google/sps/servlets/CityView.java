@@ -0,0 +1,98 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.data.Destination;
+import com.google.sps.data.JsonCodec;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The distinct cities of the catalog with the number of destinations in each, plus the JSON bodies
+ * and ETag that /get-cities serves for them. Built once per change, not once per request.
+ */
+public class CityView {
+  private static final Gson GSON = JsonCodec.gson();
+
+  private final SortedMap<String, Integer> counts;
+  private final String citiesJson;
+  private final String countsJson;
+  private final String etag;
+  private final String countsETag;
+
+  private CityView(SortedMap<String, Integer> counts) {
+    this.counts = Collections.unmodifiableSortedMap(counts);
+    this.citiesJson = GSON.toJson(counts.keySet());
+    this.countsJson = GSON.toJson(counts);
+    String hash = Hashes.sha256Prefix(countsJson);
+    this.etag = "\"" + hash + "\"";
+    // The two bodies differ, so they need different tags.
+    this.countsETag = "\"c-" + hash + "\"";
+  }
+
+  /** Counts the destinations in each city. Destinations without a city are left out. */
+  public static CityView of(Collection<Destination> destinations) {
+    SortedMap<String, Integer> counts = new TreeMap<>();
+    for (Destination destination : destinations) {
+      if (destination.getCity() != null) {
+        counts.merge(destination.getCity(), 1, Integer::sum);
+      }
+    }
+    return new CityView(counts);
+  }
+
+  /** Returns a view of counts that were already made, e.g. by a projection query. */
+  public static CityView ofCounts(SortedMap<String, Integer> counts) {
+    return new CityView(new TreeMap<>(counts));
+  }
+
+  /** Returns a view that also counts {@code destination}. */
+  public CityView withAdded(Destination destination) {
+    if (destination.getCity() == null) {
+      return this;
+    }
+    SortedMap<String, Integer> newCounts = new TreeMap<>(counts);
+    newCounts.merge(destination.getCity(), 1, Integer::sum);
+    return new CityView(newCounts);
+  }
+
+  /** Returns the number of destinations in each city, sorted by city. */
+  public SortedMap<String, Integer> getCounts() {
+    return counts;
+  }
+
+  /** Returns the sorted city names as a JSON array. */
+  public String getCitiesJson() {
+    return citiesJson;
+  }
+
+  /** Returns the per-city counts as a JSON object. */
+  public String getCountsJson() {
+    return countsJson;
+  }
+
+  /** Returns a strong ETag for the city names that changes whenever a city or a count changes. */
+  public String getETag() {
+    return etag;
+  }
+
+  /** Returns a strong ETag for the per-city counts, distinct from {@link #getETag()}. */
+  public String getCountsETag() {
+    return countsETag;
+  }
+}
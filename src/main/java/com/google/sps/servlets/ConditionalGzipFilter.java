@@ -0,0 +1,464 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Adds strong ETags, conditional GETs and gzip to the hunt and city JSON, and long-lived caching to
+ * fingerprinted static assets.
+ *
+ * <p>The response is buffered. Its ETag is the one the servlet set, e.g. the city view's version,
+ * or else a hash of the body. A request whose If-None-Match names that tag gets a 304 with no body.
+ * Text bodies of at least {@link #MIN_GZIP_BYTES} are gzipped for clients that accept it, and their
+ * tag gets a {@link #GZIP_SUFFIX} since the bytes differ. The suffix is taken off If-None-Match
+ * before the servlet sees it, so servlets can keep answering 304 from their own tag; it is put back
+ * on the tag of such a 304.
+ *
+ * <p>A static asset requested as {@code go.js?v=<hash>}, where the hash is the asset's current one,
+ * may be cached for a year: a changed file has a different hash and so a different URL. With a
+ * missing or stale hash the asset is revalidated on every use instead. Deployed files do not change
+ * while an instance runs, so each asset is hashed once per path. The assets are left out of App
+ * Engine's static file handling in appengine-web.xml, so that they pass through this filter.
+ *
+ * <p>Async servlets, see {@link AsyncRequests}, write the response after this filter returns. For
+ * them the buffered response is sent when the async context is completed. Non-blocking output works
+ * too: since writes only go to the buffer, a {@link WriteListener} is told at once that it may
+ * write, and {@code isReady} is always true.
+ */
+@WebFilter(
+    urlPatterns = {
+      "/go-data",
+      "/go-stage",
+      "/get-cities",
+      "/go.js",
+      "/scavenger_hunt_background.png"
+    },
+    asyncSupported = true)
+public class ConditionalGzipFilter implements Filter {
+  private static final Logger LOG = Logger.getLogger(ConditionalGzipFilter.class.getName());
+  // Smaller bodies fit in a packet or two either way, and gzip's header would eat the saving.
+  public static final int MIN_GZIP_BYTES = 1024;
+  static final String GZIP_SUFFIX = "--gzip";
+  static final String FINGERPRINT_PARAMETER = "v";
+  private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+  private static final String REVALIDATE = "no-cache";
+
+  // Hash of each fingerprinted asset, by path
+  private final Map<String, String> assetHashes = new ConcurrentHashMap<>();
+
+  @Override
+  public void init(FilterConfig config) {}
+
+  @Override
+  public void destroy() {}
+
+  @Override
+  public void doFilter(
+      ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletRequest request = (HttpServletRequest) servletRequest;
+    HttpServletResponse response = (HttpServletResponse) servletResponse;
+    if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    BufferedResponse buffered = new BufferedResponse(response);
+    ConditionalRequest wrapped = new ConditionalRequest(request, buffered);
+    chain.doFilter(wrapped, buffered);
+    if (!wrapped.isAsyncStarted()) {
+      finish(request, buffered);
+    }
+  }
+
+  /** Sends the buffered response, or a 304 if the client already has it. */
+  private void finish(HttpServletRequest request, BufferedResponse buffered) throws IOException {
+    HttpServletResponse response = (HttpServletResponse) buffered.getResponse();
+    if (buffered.passedThrough) {
+      return;
+    }
+    byte[] body = buffered.getBody();
+    if (buffered.status == HttpServletResponse.SC_NOT_MODIFIED && buffered.etag != null) {
+      // The client's copy is gzipped if it named the tag with the suffix.
+      String gzipped = withGzipSuffix(buffered.etag);
+      if (matches(request.getHeader("If-None-Match"), gzipped)) {
+        response.setHeader("ETag", gzipped);
+      }
+    }
+    if (buffered.status != HttpServletResponse.SC_OK) {
+      response.getOutputStream().write(body);
+      return;
+    }
+
+    String etag = buffered.etag;
+    String fingerprint = request.getParameter(FINGERPRINT_PARAMETER);
+    if (etag == null || fingerprint != null) {
+      String hash =
+          fingerprint == null
+              ? Hashes.sha256Prefix(body)
+              : assetHash(request.getRequestURI(), body);
+      if (etag == null) {
+        etag = "\"" + hash + "\"";
+      }
+      if (fingerprint != null) {
+        response.setHeader("Cache-Control", fingerprint.equals(hash) ? IMMUTABLE : REVALIDATE);
+      }
+    }
+    boolean gzip =
+        body.length >= MIN_GZIP_BYTES
+            && isText(response.getContentType())
+            && acceptsGzip(request.getHeader("Accept-Encoding"));
+    if (gzip) {
+      etag = withGzipSuffix(etag);
+    }
+    response.setHeader("ETag", etag);
+    response.addHeader("Vary", "Accept-Encoding");
+    if (matches(request.getHeader("If-None-Match"), etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    if (gzip) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+      try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+        out.write(body);
+      }
+      body = compressed.toByteArray();
+      response.setHeader("Content-Encoding", "gzip");
+    }
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+  }
+
+  /** Returns the hash of the asset at {@code path}, working it out from {@code body} once. */
+  private String assetHash(String path, byte[] body) {
+    if (path == null) {
+      return Hashes.sha256Prefix(body);
+    }
+    return assetHashes.computeIfAbsent(path, unused -> Hashes.sha256Prefix(body));
+  }
+
+  private static String withGzipSuffix(String etag) {
+    return etag.substring(0, etag.length() - 1) + GZIP_SUFFIX + "\"";
+  }
+
+  /** Returns whether an If-None-Match header names {@code etag}, using the weak comparison. */
+  private static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if (tag.equals("*") || stripWeak(tag).equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String stripWeak(String tag) {
+    return tag.startsWith("W/") ? tag.substring(2) : tag;
+  }
+
+  private static boolean isText(String contentType) {
+    return contentType != null
+        && (contentType.startsWith("text/")
+            || contentType.startsWith(Constants.JSON_TYPE)
+            || contentType.contains("javascript"));
+  }
+
+  private static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      if (parts[0].trim().equalsIgnoreCase("gzip")) {
+        return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Hides the gzip suffix of If-None-Match tags from servlets, and sends the buffered response when
+   * an async request completes.
+   */
+  private class ConditionalRequest extends HttpServletRequestWrapper {
+    private final BufferedResponse response;
+
+    ConditionalRequest(HttpServletRequest request, BufferedResponse response) {
+      super(request);
+      this.response = response;
+    }
+
+    @Override
+    public String getHeader(String name) {
+      String value = super.getHeader(name);
+      if (value != null && name.equalsIgnoreCase("If-None-Match")) {
+        return value.replace(GZIP_SUFFIX + "\"", "\"");
+      }
+      return value;
+    }
+
+    @Override
+    public AsyncContext startAsync() {
+      return new FinishingAsyncContext(super.startAsync(), this, response);
+    }
+
+    @Override
+    public AsyncContext startAsync(ServletRequest request, ServletResponse response) {
+      return new FinishingAsyncContext(super.startAsync(request, response), this, this.response);
+    }
+  }
+
+  /** An async context that sends the buffered response before completing. */
+  private class FinishingAsyncContext implements AsyncContext {
+    private final AsyncContext context;
+    private final ConditionalRequest request;
+    private final BufferedResponse response;
+
+    FinishingAsyncContext(
+        AsyncContext context, ConditionalRequest request, BufferedResponse response) {
+      this.context = context;
+      this.request = request;
+      this.response = response;
+    }
+
+    @Override
+    public void complete() {
+      try {
+        finish((HttpServletRequest) request.getRequest(), response);
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Could not send response", e);
+      } finally {
+        context.complete();
+      }
+    }
+
+    @Override
+    public ServletRequest getRequest() {
+      return request;
+    }
+
+    @Override
+    public ServletResponse getResponse() {
+      return response;
+    }
+
+    @Override
+    public boolean hasOriginalRequestAndResponse() {
+      return context.hasOriginalRequestAndResponse();
+    }
+
+    @Override
+    public void dispatch() {
+      context.dispatch();
+    }
+
+    @Override
+    public void dispatch(String path) {
+      context.dispatch(path);
+    }
+
+    @Override
+    public void dispatch(ServletContext servletContext, String path) {
+      context.dispatch(servletContext, path);
+    }
+
+    @Override
+    public void start(Runnable run) {
+      context.start(run);
+    }
+
+    @Override
+    public void addListener(AsyncListener listener) {
+      context.addListener(listener);
+    }
+
+    @Override
+    public void addListener(
+        AsyncListener listener, ServletRequest servletRequest, ServletResponse servletResponse) {
+      context.addListener(listener, servletRequest, servletResponse);
+    }
+
+    @Override
+    public <T extends AsyncListener> T createListener(Class<T> listenerClass)
+        throws ServletException {
+      return context.createListener(listenerClass);
+    }
+
+    @Override
+    public void setTimeout(long timeout) {
+      context.setTimeout(timeout);
+    }
+
+    @Override
+    public long getTimeout() {
+      return context.getTimeout();
+    }
+  }
+
+  /**
+   * Keeps the body in memory until {@link #finish}. Errors and redirects go straight to the client.
+   */
+  private static class BufferedResponse extends HttpServletResponseWrapper {
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private int status = HttpServletResponse.SC_OK;
+    // Whether an error or redirect was sent, which goes straight to the client.
+    private boolean passedThrough;
+    // The tag the servlet set, if any.
+    private String etag;
+    private ServletOutputStream stream;
+    private PrintWriter writer;
+
+    BufferedResponse(HttpServletResponse response) {
+      super(response);
+    }
+
+    byte[] getBody() {
+      if (writer != null) {
+        writer.flush();
+      }
+      return body.toByteArray();
+    }
+
+    @Override
+    public void setStatus(int status) {
+      this.status = status;
+      super.setStatus(status);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+      if (name.equalsIgnoreCase("ETag")) {
+        etag = value;
+      }
+      super.setHeader(name, value);
+    }
+
+    @Override
+    public void sendError(int status) throws IOException {
+      passedThrough = true;
+      super.sendError(status);
+    }
+
+    @Override
+    public void sendError(int status, String message) throws IOException {
+      passedThrough = true;
+      super.sendError(status, message);
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+      passedThrough = true;
+      super.sendRedirect(location);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+      if (stream == null) {
+        stream =
+            new ServletOutputStream() {
+              @Override
+              public void write(int b) {
+                body.write(b);
+              }
+
+              @Override
+              public void write(byte[] bytes, int offset, int length) {
+                body.write(bytes, offset, length);
+              }
+
+              @Override
+              public boolean isReady() {
+                return true;
+              }
+
+              /* The buffer is always ready, so the listener may write at once. */
+              @Override
+              public void setWriteListener(WriteListener listener) {
+                try {
+                  listener.onWritePossible();
+                } catch (IOException | RuntimeException e) {
+                  listener.onError(e);
+                }
+              }
+            };
+      }
+      return stream;
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+      if (writer == null) {
+        String encoding = getCharacterEncoding();
+        Charset charset = encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+        writer = new PrintWriter(new OutputStreamWriter(body, charset));
+      }
+      return writer;
+    }
+
+    @Override
+    public void setContentLength(int length) {}
+
+    @Override
+    public void setContentLengthLong(long length) {}
+
+    @Override
+    public void flushBuffer() {}
+
+    @Override
+    public void resetBuffer() {
+      getBody();
+      body.reset();
+    }
+
+    @Override
+    public void reset() {
+      resetBuffer();
+      status = HttpServletResponse.SC_OK;
+      etag = null;
+      super.reset();
+    }
+  }
+}
@@ -4,9 +4,43 @@ public class Constants {
   public static final String JSON_TYPE = "application/json";
   public static final String GO_URL = "/go.html";
   public static final String DESTINATION_ENTITY = "Destination";
+  // Legacy single property holding the whole destination as JSON; see DestinationEntities
   public static final String DESTINATION_JSON = "destination_json";
+  // Indexed properties of a destination, filtered on by GenerateServlet and GetCitiesServlet
+  public static final String DESTINATION_CITY = "city";
+  public static final String DESTINATION_OBSCURITY = "obscurity";
+  public static final String DESTINATION_TAGS = "tags";
+  public static final String DESTINATION_PLACE_ID = "placeId";
+  public static final String DESTINATION_LAT = "lat";
+  public static final String DESTINATION_LNG = "lng";
+  // Unindexed properties of a destination
+  public static final String DESTINATION_NAME = "name";
+  public static final String DESTINATION_DESCRIPTION = "description";
+  public static final String DESTINATION_RIDDLES = "riddles";
+  public static final String DESTINATION_ANSWER_ENTITIES = "answerEntities";
+  // Kind of the entities, keyed by placeId, that mark a placeId as used by a destination
+  public static final String PLACE_ID_ENTITY = "DestinationPlaceId";
+  public static final String PLACE_ID_DESTINATION = "destination";
+  // Kind of the entities, keyed by answer, that list the normalized guesses accepted for it
+  public static final String ACCEPTED_GUESSES_ENTITY = "AcceptedGuesses";
+  public static final String ACCEPTED_GUESSES = "guesses";
   public static final String SCAVENGER_HUNT_ENTITY = "ScavengerHunt";
   // Name of property that stores JSON strings with scavenger hunt data
   public static final String HUNT_VAL = "ScavengerHunt";
+  // Properties of hunts stored as references: each stop's destination key and riddle index
+  public static final String HUNT_DESTINATIONS = "destinations";
+  public static final String HUNT_RIDDLES = "riddles";
+  // Child entity of a scavenger hunt that records how far its players have got
+  public static final String HUNT_PROGRESS_ENTITY = "HuntProgress";
+  public static final String PROGRESS_INDEX = "index";
+  public static final String PROGRESS_SOLVED_AT = "solvedAt";
+  public static final String PROGRESS_HINTS_USED = "hintsUsed";
+  // Entities, keyed by migration name, that record how far a MigrationRunner has got
+  public static final String MIGRATION_CHECKPOINT_ENTITY = "MigrationCheckpoint";
+  public static final String CHECKPOINT_CURSOR = "cursor";
+  public static final String CHECKPOINT_SCANNED = "scanned";
+  public static final String CHECKPOINT_MIGRATED = "migrated";
+  public static final String CHECKPOINT_DONE = "done";
+  public static final String CHECKPOINT_UPDATED_AT = "updatedAt";
   public static final String HUNTID_PARAMETER = "hunt_id"; // URL param for ID of the scavenger hunt
 }
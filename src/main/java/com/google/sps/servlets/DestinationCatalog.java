@@ -0,0 +1,418 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.sps.data.BloomFilter;
+import com.google.sps.data.Destination;
+import com.google.sps.data.DestinationIndex;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide, in-memory copy of every Destination in Datastore.
+ *
+ * <p>The first read loads and decodes the whole Destination kind once. After that, reads are served
+ * from an immutable snapshot. Once a snapshot is older than the refresh interval, the next read
+ * still returns it immediately and a single background reload is started. Destinations stored by
+ * this instance are added to the snapshot right away through {@link #add}. Loads in the background
+ * run on a {@link BackgroundThreads} thread, not under the request that started them, which has
+ * usually finished by the time they query.
+ */
+public class DestinationCatalog {
+  private static final Logger LOG = Logger.getLogger(DestinationCatalog.class.getName());
+  private static final long DEFAULT_REFRESH_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  private static final int MIN_PLACE_ID_CAPACITY = 1024;
+  private static final double PLACE_ID_FALSE_POSITIVE_RATE = 0.01;
+
+  private static DestinationCatalog instance;
+
+  private final DatastoreService datastore;
+  private final long refreshMillis;
+  private final Executor refresher;
+  private final Object loadLock = new Object();
+  private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+  private volatile Snapshot snapshot;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong loads = new AtomicLong();
+  private final AtomicLong refreshes = new AtomicLong();
+  private final AtomicLong refreshFailures = new AtomicLong();
+  private final AtomicLong adds = new AtomicLong();
+  private final AtomicLong updates = new AtomicLong();
+
+  public DestinationCatalog(DatastoreService datastore) {
+    this(datastore, DEFAULT_REFRESH_MILLIS, newRefresher());
+  }
+
+  public DestinationCatalog(DatastoreService datastore, long refreshMillis, Executor refresher) {
+    this.datastore = datastore;
+    this.refreshMillis = refreshMillis;
+    this.refresher = refresher;
+  }
+
+  /** Returns the catalog shared by every servlet in this instance. */
+  public static synchronized DestinationCatalog getInstance() {
+    if (instance == null) {
+      instance = new DestinationCatalog(DatastoreServiceFactory.getDatastoreService());
+    }
+    return instance;
+  }
+
+  /** Returns every known Destination. The list is read-only. */
+  public List<Destination> getDestinations() {
+    return currentSnapshot().index.getDestinations();
+  }
+
+  /** Returns the city, obscurity and tag index over {@link #getDestinations}. */
+  public DestinationIndex getIndex() {
+    return currentSnapshot().index;
+  }
+
+  /** Returns {@link #getIndex} together with the key each of its destinations is stored under. */
+  public Listing getListing() {
+    Snapshot current = currentSnapshot();
+    return new Listing(current.index, current.keys);
+  }
+
+  /**
+   * Returns the known destinations stored under {@code keys}, by key. Keys the catalog does not
+   * know, e.g. of destinations stored by another instance since the last refresh, are left out.
+   */
+  public Map<Key, Destination> get(Collection<Key> keys) {
+    Map<Key, Destination> entries = currentSnapshot().entries;
+    Map<Key, Destination> found = new HashMap<>();
+    for (Key key : keys) {
+      Destination destination = entries.get(key);
+      if (destination != null) {
+        found.put(key, destination);
+      }
+    }
+    return found;
+  }
+
+  /** Returns the distinct cities of {@link #getDestinations} with their destination counts. */
+  public CityView getCityView() {
+    return currentSnapshot().cities;
+  }
+
+  /**
+   * Returns false if no Destination known to this instance has {@code placeId}. Returns true if one
+   * probably does. Destinations stored elsewhere since the last refresh are not known, so a false
+   * does not rule out a duplicate; only {@link PlaceIdIndex} can.
+   */
+  public boolean mightContainPlaceId(String placeId) {
+    return currentSnapshot().placeIds.mightContain(placeId);
+  }
+
+  /**
+   * Returns the precomputed Natural Language entities of the destination stored under {@code key},
+   * or null if it is not known or has none.
+   */
+  public List<String> getAnswerEntities(Key key) {
+    return currentSnapshot().answerEntities.get(key);
+  }
+
+  /**
+   * Returns the precomputed Natural Language entities of the destination named {@code name}, or
+   * null if it has none. Names are not unique, e.g. across cities, so a name that more than one
+   * known destination has is answered with null too, and the caller analyzes the name itself.
+   */
+  public List<String> getAnswerEntities(String name) {
+    Snapshot current = currentSnapshot();
+    List<Key> named = current.keysByName.get(name);
+    return named == null || named.size() != 1 ? null : current.answerEntities.get(named.get(0));
+  }
+
+  /** Returns whether the catalog has been loaded, i.e. whether reads are served from memory. */
+  public boolean isLoaded() {
+    return snapshot != null;
+  }
+
+  /**
+   * Starts loading the catalog in the background if it has not been loaded, so that a caller that
+   * cannot wait for the load can answer from Datastore queries meanwhile.
+   */
+  public void warmUp() {
+    if (snapshot == null && refreshing.compareAndSet(false, true)) {
+      refresher.execute(
+          () -> {
+            try {
+              currentSnapshot();
+            } catch (RuntimeException e) {
+              LOG.log(Level.WARNING, "Destination catalog warm-up failed", e);
+            } finally {
+              refreshing.set(false);
+            }
+          });
+    }
+  }
+
+  /**
+   * Adds a Destination that was just stored under {@code key}. If the catalog has not been loaded
+   * yet, this does nothing: the first load will read the entity from Datastore.
+   */
+  public void add(Key key, Destination destination) {
+    synchronized (loadLock) {
+      Snapshot current = snapshot;
+      if (current == null || current.entries.containsKey(key)) {
+        return;
+      }
+      LinkedHashMap<Key, Destination> entries = new LinkedHashMap<>(current.entries);
+      entries.put(key, destination);
+      List<Key> keys = new ArrayList<>(current.keys.size() + 1);
+      keys.addAll(current.keys);
+      keys.add(key);
+      if (destination.getPlaceId() != null) {
+        current.placeIds.add(destination.getPlaceId());
+      }
+      Map<Key, List<String>> answerEntities = current.answerEntities;
+      if (destination.getAnswerEntities() != null) {
+        answerEntities = new HashMap<>(answerEntities);
+        answerEntities.put(key, destination.getAnswerEntities());
+      }
+      Map<String, List<Key>> keysByName = current.keysByName;
+      if (destination.getName() != null) {
+        keysByName = new HashMap<>(keysByName);
+        addName(keysByName, destination.getName(), key);
+      }
+      snapshot =
+          new Snapshot(
+              entries,
+              keys,
+              current.index.withAdded(destination),
+              current.placeIds,
+              current.cities.withAdded(destination),
+              answerEntities,
+              keysByName,
+              current.loadedAtMillis);
+      adds.incrementAndGet();
+    }
+  }
+
+  /**
+   * Replaces destinations that were just rewritten under the keys of {@code updated}, e.g. by
+   * {@link AnswerEntitiesBackfill}, so that this instance serves them before its next refresh. The
+   * snapshot is rebuilt, so this is meant for batches rather than single edits. Keys the catalog
+   * does not know are left out, and if it has not been loaded yet this does nothing.
+   */
+  public void update(Map<Key, Destination> updated) {
+    synchronized (loadLock) {
+      Snapshot current = snapshot;
+      if (current == null) {
+        return;
+      }
+      LinkedHashMap<Key, Destination> entries = new LinkedHashMap<>(current.entries);
+      for (Map.Entry<Key, Destination> entry : updated.entrySet()) {
+        entries.replace(entry.getKey(), entry.getValue());
+      }
+      snapshot = new Snapshot(entries, current.loadedAtMillis);
+      updates.incrementAndGet();
+    }
+  }
+
+  /** Returns hit and refresh counters, keyed by name. */
+  public Map<String, Long> getStats() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    Snapshot current = snapshot;
+    stats.put("size", current == null ? 0L : (long) current.index.size());
+    stats.put("hits", hits.get());
+    stats.put("loads", loads.get());
+    stats.put("refreshes", refreshes.get());
+    stats.put("refreshFailures", refreshFailures.get());
+    stats.put("adds", adds.get());
+    stats.put("updates", updates.get());
+    stats.put(
+        "ageMillis", current == null ? -1L : System.currentTimeMillis() - current.loadedAtMillis);
+    return stats;
+  }
+
+  private Snapshot currentSnapshot() {
+    Snapshot current = snapshot;
+    if (current == null) {
+      synchronized (loadLock) {
+        if (snapshot == null) {
+          snapshot = new Snapshot(loadEntries(), System.currentTimeMillis());
+          loads.incrementAndGet();
+        }
+        return snapshot;
+      }
+    }
+    hits.incrementAndGet();
+    if (System.currentTimeMillis() - current.loadedAtMillis > refreshMillis
+        && refreshing.compareAndSet(false, true)) {
+      refresher.execute(this::refresh);
+    }
+    return current;
+  }
+
+  /**
+   * Reloads the kind and installs the result. Entries that are in the current snapshot but missing
+   * from the query (added after the query started, or not yet visible to it) are kept, since
+   * destinations are never deleted.
+   */
+  private void refresh() {
+    try {
+      LinkedHashMap<Key, Destination> loaded = loadEntries();
+      synchronized (loadLock) {
+        for (Map.Entry<Key, Destination> entry : snapshot.entries.entrySet()) {
+          loaded.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        snapshot = new Snapshot(loaded, System.currentTimeMillis());
+      }
+      refreshes.incrementAndGet();
+    } catch (RuntimeException e) {
+      refreshFailures.incrementAndGet();
+      LOG.log(Level.WARNING, "Destination catalog refresh failed", e);
+    } finally {
+      refreshing.set(false);
+    }
+  }
+
+  private LinkedHashMap<Key, Destination> loadEntries() {
+    LinkedHashMap<Key, Destination> entries = new LinkedHashMap<>();
+    Query query = new Query(Constants.DESTINATION_ENTITY);
+    for (Entity dest : datastore.prepare(query).asIterable()) {
+      entries.put(dest.getKey(), DestinationEntities.toDestination(dest));
+    }
+    return entries;
+  }
+
+  /* Adds key under name, copying the list rather than changing one a snapshot may share. */
+  private static void addName(Map<String, List<Key>> keysByName, String name, Key key) {
+    List<Key> keys = new ArrayList<>(keysByName.getOrDefault(name, Collections.emptyList()));
+    keys.add(key);
+    keysByName.put(name, keys);
+  }
+
+  private static Executor newRefresher() {
+    return BackgroundThreads.newSingleThreadExecutor("destination-catalog-refresh");
+  }
+
+  /** An index and the keys of its destinations, from the same snapshot. */
+  public static final class Listing {
+    private final DestinationIndex index;
+    private final List<Key> keys;
+
+    private Listing(DestinationIndex index, List<Key> keys) {
+      this.index = index;
+      this.keys = keys;
+    }
+
+    public DestinationIndex getIndex() {
+      return index;
+    }
+
+    /** Returns the key of the destination at {@code ordinal} in {@link #getIndex}. */
+    public Key getKey(int ordinal) {
+      return keys.get(ordinal);
+    }
+  }
+
+  /** Immutable view of the catalog at one point in time. */
+  private static class Snapshot {
+    private final LinkedHashMap<Key, Destination> entries;
+    // The key of each destination in index, by ordinal
+    private final List<Key> keys;
+    private final DestinationIndex index;
+    // Only ever gains bits, so it is shared with the snapshots that add() derives from this one.
+    private final BloomFilter placeIds;
+    private final CityView cities;
+    private final Map<Key, List<String>> answerEntities;
+    // The keys of the destinations with each name; the lists are never changed once shared
+    private final Map<String, List<Key>> keysByName;
+    private final long loadedAtMillis;
+
+    private Snapshot(LinkedHashMap<Key, Destination> entries, long loadedAtMillis) {
+      this(
+          entries,
+          new ArrayList<>(entries.keySet()),
+          DestinationIndex.of(new ArrayList<>(entries.values())),
+          buildPlaceIdFilter(entries.values()),
+          CityView.of(entries.values()),
+          buildAnswerEntities(entries),
+          buildKeysByName(entries),
+          loadedAtMillis);
+    }
+
+    private Snapshot(
+        LinkedHashMap<Key, Destination> entries,
+        List<Key> keys,
+        DestinationIndex index,
+        BloomFilter placeIds,
+        CityView cities,
+        Map<Key, List<String>> answerEntities,
+        Map<String, List<Key>> keysByName,
+        long loadedAtMillis) {
+      this.entries = entries;
+      this.keys = keys;
+      this.index = index;
+      this.placeIds = placeIds;
+      this.cities = cities;
+      this.answerEntities = answerEntities;
+      this.keysByName = keysByName;
+      this.loadedAtMillis = loadedAtMillis;
+    }
+
+    private static BloomFilter buildPlaceIdFilter(Collection<Destination> destinations) {
+      // Leave room for the destinations added before the next refresh.
+      BloomFilter filter =
+          new BloomFilter(
+              2 * destinations.size() + MIN_PLACE_ID_CAPACITY, PLACE_ID_FALSE_POSITIVE_RATE);
+      for (Destination destination : destinations) {
+        if (destination.getPlaceId() != null) {
+          filter.add(destination.getPlaceId());
+        }
+      }
+      return filter;
+    }
+
+    private static Map<Key, List<String>> buildAnswerEntities(Map<Key, Destination> entries) {
+      Map<Key, List<String>> answerEntities = new HashMap<>();
+      for (Map.Entry<Key, Destination> entry : entries.entrySet()) {
+        if (entry.getValue().getAnswerEntities() != null) {
+          answerEntities.put(entry.getKey(), entry.getValue().getAnswerEntities());
+        }
+      }
+      return answerEntities;
+    }
+
+    private static Map<String, List<Key>> buildKeysByName(Map<Key, Destination> entries) {
+      Map<String, List<Key>> keysByName = new HashMap<>();
+      for (Map.Entry<Key, Destination> entry : entries.entrySet()) {
+        if (entry.getValue().getName() != null) {
+          addName(keysByName, entry.getValue().getName(), entry.getKey());
+        }
+      }
+      return keysByName;
+    }
+  }
+}
@@ -17,7 +17,6 @@ package com.google.sps.servlets;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.gson.Gson;
 import com.google.sps.data.Destination;
 import com.google.sps.data.LatLng;
 import com.google.sps.data.Riddle;
@@ -26,6 +25,8 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -51,21 +52,40 @@ public class DestinationDataServlet extends HttpServlet {
   public static final String HOME_URL = "/index.html";
   public static final String SUCCESS_URL = "/destinationCreationSuccess.html";
 
+  private static final Logger LOG = Logger.getLogger(DestinationDataServlet.class.getName());
+
   private final DatastoreService datastore;
+  private final DestinationCatalog catalog;
+  private final PlaceIdIndex placeIdIndex;
+  // Null to store destinations without answer entities, for the backfill to fill in
+  private final EntityAnalyzer analyzer;
 
-  private static final Gson GSON = new Gson();
+  public DestinationDataServlet(
+      DatastoreService datastore, DestinationCatalog catalog, EntityAnalyzer analyzer) {
+    this.datastore = datastore;
+    this.catalog = catalog;
+    this.placeIdIndex = new PlaceIdIndex(datastore);
+    this.analyzer = analyzer;
+  }
+
+  public DestinationDataServlet(DatastoreService datastore, DestinationCatalog catalog) {
+    this(datastore, catalog, null);
+  }
 
   public DestinationDataServlet(DatastoreService datastore) {
-    this.datastore = datastore;
+    this(datastore, DestinationCatalog.getInstance());
   }
 
   public DestinationDataServlet() {
-    this.datastore = DatastoreServiceFactory.getDatastoreService();
+    this(
+        DatastoreServiceFactory.getDatastoreService(),
+        DestinationCatalog.getInstance(),
+        EntityAnalyzer.getInstance());
   }
 
   /*
    * Creates a destination object from the request parameters retreieved from user submitted information.
-   * The destination object is then formatted into a JSON string and stored in datastore.
+   * The destination object is then stored in datastore, see DestinationEntities.
    */
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -111,18 +131,34 @@ public class DestinationDataServlet extends HttpServlet {
             .withTags(checkedTags)
             .withObscurity(level)
             .withPlaceId(placeId)
+            .withAnswerEntities(findAnswerEntities(name))
             .build();
 
-    /* Takes the destination object and turns it into a JSON String to be stored in Datastore */
-    String jsonDestination = GSON.toJson(destination);
-
-    Entity destinationEntity = new Entity(Constants.DESTINATION_ENTITY);
-    destinationEntity.setProperty(Constants.DESTINATION_JSON, jsonDestination);
+    /* Stores the destination with its filterable fields as indexed properties */
+    Entity destinationEntity = DestinationEntities.toEntity(destination);
     datastore.put(destinationEntity);
+    placeIdIndex.record(placeId, destinationEntity.getKey());
+    catalog.add(destinationEntity.getKey(), destination);
 
     response.sendRedirect(SUCCESS_URL + "?name=" + name);
   }
 
+  /*
+   * Analyzes the name once here so that guesses only need to analyze the guess. Returns null if
+   * that fails; the destination is still stored and the backfill job retries later.
+   */
+  private List<String> findAnswerEntities(String name) {
+    if (analyzer == null || name == null) {
+      return null;
+    }
+    try {
+      return analyzer.findEntities(name);
+    } catch (IOException | RuntimeException e) {
+      LOG.log(Level.WARNING, "Could not analyze entities of " + name, e);
+      return null;
+    }
+  }
+
   private Set<Destination.Tag> convertTagsToEnum(List<String> tags) {
     Set<Destination.Tag> tagEnums = new HashSet<Destination.Tag>();
     for (String tag : tags) {
@@ -0,0 +1,155 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Text;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.sps.data.Destination;
+import com.google.sps.data.JsonCodec;
+import com.google.sps.data.LatLng;
+import com.google.sps.data.Riddle;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Maps a Destination to and from its Datastore entity.
+ *
+ * <p>City, obscurity, tags, placeId and location are stored as indexed native properties so that
+ * queries can filter and project on them. Name, description, riddles and answer entities are only
+ * ever read back whole, so they are unindexed and cost no index writes. Entities stored before this
+ * layout hold a single {@link Constants#DESTINATION_JSON} property instead; they are still read,
+ * but queries on the native properties do not see them until they are migrated.
+ */
+public final class DestinationEntities {
+  private static final Gson GSON = JsonCodec.gson();
+  private static final Type RIDDLES_TYPE = new TypeToken<List<Riddle>>() {}.getType();
+
+  private DestinationEntities() {}
+
+  /** Returns a new entity, with an incomplete key, holding {@code destination}. */
+  public static Entity toEntity(Destination destination) {
+    Entity entity = new Entity(Constants.DESTINATION_ENTITY);
+    setProperties(entity, destination);
+    return entity;
+  }
+
+  /** Returns an entity with key {@code key} holding {@code destination}. */
+  public static Entity toEntity(Key key, Destination destination) {
+    Entity entity = new Entity(key);
+    setProperties(entity, destination);
+    return entity;
+  }
+
+  /** Returns whether {@code entity} still uses the legacy single JSON property. */
+  public static boolean isLegacy(Entity entity) {
+    return entity.hasProperty(Constants.DESTINATION_JSON);
+  }
+
+  /** Reads the Destination held by {@code entity}, in either layout. */
+  public static Destination toDestination(Entity entity) {
+    if (isLegacy(entity)) {
+      return GSON.fromJson(
+          (String) entity.getProperty(Constants.DESTINATION_JSON), Destination.class);
+    }
+
+    Destination.Builder builder =
+        new Destination.Builder()
+            .withName((String) entity.getProperty(Constants.DESTINATION_NAME))
+            .withCity((String) entity.getProperty(Constants.DESTINATION_CITY))
+            .withDescription(textOf(entity, Constants.DESTINATION_DESCRIPTION))
+            .withPlaceId((String) entity.getProperty(Constants.DESTINATION_PLACE_ID));
+
+    Double lat = (Double) entity.getProperty(Constants.DESTINATION_LAT);
+    Double lng = (Double) entity.getProperty(Constants.DESTINATION_LNG);
+    if (lat != null && lng != null) {
+      builder.withLocation(new LatLng.Builder().withLat(lat).withLng(lng).build());
+    }
+
+    String obscurity = (String) entity.getProperty(Constants.DESTINATION_OBSCURITY);
+    if (obscurity != null) {
+      builder.withObscurity(Destination.Obscurity.valueOf(obscurity));
+    }
+
+    Set<Destination.Tag> tags = new HashSet<>();
+    for (String tag : stringsOf(entity, Constants.DESTINATION_TAGS)) {
+      tags.add(Destination.Tag.valueOf(tag));
+    }
+    builder.withTags(tags);
+
+    String riddles = textOf(entity, Constants.DESTINATION_RIDDLES);
+    if (riddles != null) {
+      List<Riddle> parsed = GSON.fromJson(riddles, RIDDLES_TYPE);
+      for (Riddle riddle : parsed) {
+        builder.withRiddle(riddle);
+      }
+    }
+
+    if (entity.hasProperty(Constants.DESTINATION_ANSWER_ENTITIES)) {
+      builder.withAnswerEntities(stringsOf(entity, Constants.DESTINATION_ANSWER_ENTITIES));
+    }
+    return builder.build();
+  }
+
+  private static void setProperties(Entity entity, Destination destination) {
+    entity.setIndexedProperty(Constants.DESTINATION_CITY, destination.getCity());
+    entity.setIndexedProperty(
+        Constants.DESTINATION_OBSCURITY,
+        destination.getDifficulty() == null ? null : destination.getDifficulty().name());
+    List<String> tags = new ArrayList<>();
+    for (Destination.Tag tag : destination.getTags()) {
+      tags.add(tag.name());
+    }
+    // Untagged destinations leave the property off rather than store a null tag.
+    if (!tags.isEmpty()) {
+      entity.setIndexedProperty(Constants.DESTINATION_TAGS, tags);
+    }
+    entity.setIndexedProperty(Constants.DESTINATION_PLACE_ID, destination.getPlaceId());
+    LatLng location = destination.getLocation();
+    if (location != null && location.hasCoordinates()) {
+      entity.setIndexedProperty(Constants.DESTINATION_LAT, location.getLat());
+      entity.setIndexedProperty(Constants.DESTINATION_LNG, location.getLng());
+    }
+
+    entity.setUnindexedProperty(Constants.DESTINATION_NAME, destination.getName());
+    if (destination.getDescription() != null) {
+      entity.setUnindexedProperty(
+          Constants.DESTINATION_DESCRIPTION, new Text(destination.getDescription()));
+    }
+    entity.setUnindexedProperty(
+        Constants.DESTINATION_RIDDLES,
+        new Text(GSON.toJson(destination.getRiddles(), RIDDLES_TYPE)));
+    if (destination.getAnswerEntities() != null) {
+      entity.setUnindexedProperty(
+          Constants.DESTINATION_ANSWER_ENTITIES, new ArrayList<>(destination.getAnswerEntities()));
+    }
+  }
+
+  private static String textOf(Entity entity, String property) {
+    Text text = (Text) entity.getProperty(property);
+    return text == null ? null : text.getValue();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<String> stringsOf(Entity entity, String property) {
+    List<String> values = (List<String>) entity.getProperty(property);
+    return values == null ? new ArrayList<>() : values;
+  }
+}
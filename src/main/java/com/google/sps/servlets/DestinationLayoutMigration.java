@@ -0,0 +1,44 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Entity;
+
+/**
+ * Rewrites destinations stored as a single JSON property into the indexed native properties of
+ * {@link DestinationEntities}, after which the query paths of GenerateServlet and GetCitiesServlet
+ * can see them.
+ */
+public class DestinationLayoutMigration implements Migration {
+  public static final String NAME = "destination-native-properties";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public String getKind() {
+    return Constants.DESTINATION_ENTITY;
+  }
+
+  @Override
+  public Entity migrate(Entity entity) {
+    if (!DestinationEntities.isLegacy(entity)) {
+      return null;
+    }
+    return DestinationEntities.toEntity(entity.getKey(), DestinationEntities.toDestination(entity));
+  }
+}
@@ -0,0 +1,137 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.sps.data.Destination;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Answers destination filters with Datastore queries on the indexed properties written by {@link
+ * DestinationEntities}, so that a request costs reads in proportion to its result instead of a load
+ * of the whole kind. Used while this instance's {@link DestinationCatalog} is still cold.
+ *
+ * <p>The filter queries are served by the composite indexes in WEB-INF/datastore-indexes.xml.
+ */
+public class DestinationQueries {
+  // Large enough that a query rarely needs a second round trip for keys.
+  private static final int KEY_CHUNK_SIZE = 1000;
+
+  private final DatastoreService datastore;
+
+  public DestinationQueries(DatastoreService datastore) {
+    this.datastore = datastore;
+  }
+
+  /**
+   * Returns the keys of the destinations in one of {@code cities} with one of {@code levels} and,
+   * unless {@code tags} is empty, at least one of {@code tags}. Reads only index entries.
+   *
+   * <p>There is one query per city: every IN filter multiplies the number of subqueries, and
+   * Datastore limits that number, while levels times tags always stays within it.
+   */
+  public List<Key> matchingKeys(
+      Set<String> cities, Set<Destination.Obscurity> levels, Set<Destination.Tag> tags) {
+    if (levels.isEmpty()) {
+      return new ArrayList<>();
+    }
+    Set<Key> keys = new LinkedHashSet<>();
+    for (String city : cities) {
+      Query query =
+          new Query(Constants.DESTINATION_ENTITY)
+              .setFilter(filterFor(city, levels, tags))
+              .setKeysOnly();
+      for (Entity entity :
+          datastore.prepare(query).asIterable(FetchOptions.Builder.withChunkSize(KEY_CHUNK_SIZE))) {
+        keys.add(entity.getKey());
+      }
+    }
+    return new ArrayList<>(keys);
+  }
+
+  /**
+   * Returns the destinations stored under {@code keys}, by key and in the same order, with one
+   * batch get. Keys whose entity has gone are skipped.
+   */
+  public LinkedHashMap<Key, Destination> get(Collection<Key> keys) {
+    Map<Key, Entity> entities = datastore.get(keys);
+    LinkedHashMap<Key, Destination> destinations = new LinkedHashMap<>();
+    for (Key key : keys) {
+      Entity entity = entities.get(key);
+      if (entity != null) {
+        destinations.put(key, DestinationEntities.toDestination(entity));
+      }
+    }
+    return destinations;
+  }
+
+  /**
+   * Counts the destinations in each city with a projection query on the city property, which reads
+   * one index entry per destination and no entities.
+   */
+  public CityView getCityView() {
+    Query query =
+        new Query(Constants.DESTINATION_ENTITY)
+            .addProjection(new PropertyProjection(Constants.DESTINATION_CITY, String.class));
+    SortedMap<String, Integer> counts = new TreeMap<>();
+    for (Entity entity :
+        datastore.prepare(query).asIterable(FetchOptions.Builder.withChunkSize(KEY_CHUNK_SIZE))) {
+      counts.merge((String) entity.getProperty(Constants.DESTINATION_CITY), 1, Integer::sum);
+    }
+    return CityView.ofCounts(counts);
+  }
+
+  private static Filter filterFor(
+      String city, Set<Destination.Obscurity> levels, Set<Destination.Tag> tags) {
+    List<String> levelNames = new ArrayList<>();
+    for (Destination.Obscurity level : levels) {
+      levelNames.add(level.name());
+    }
+    List<Filter> filters = new ArrayList<>();
+    filters.add(FilterOperator.EQUAL.of(Constants.DESTINATION_CITY, city));
+    filters.add(inOrEqual(Constants.DESTINATION_OBSCURITY, levelNames));
+    if (!tags.isEmpty()) {
+      List<String> tagNames = new ArrayList<>();
+      for (Destination.Tag tag : tags) {
+        tagNames.add(tag.name());
+      }
+      filters.add(inOrEqual(Constants.DESTINATION_TAGS, tagNames));
+    }
+    return CompositeFilterOperator.and(filters);
+  }
+
+  /* A single value needs no subqueries, so it is a plain equality filter. */
+  private static Filter inOrEqual(String property, List<String> values) {
+    return values.size() == 1
+        ? FilterOperator.EQUAL.of(property, values.get(0))
+        : FilterOperator.IN.of(property, values);
+  }
+}
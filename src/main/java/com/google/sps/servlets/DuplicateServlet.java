@@ -14,15 +14,10 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.gson.Gson;
 import com.google.sps.data.Destination;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.List;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -35,44 +30,49 @@ public class DuplicateServlet extends HttpServlet {
   private static final String ORIGINAL = "original";
   private static final String PLACE_ID_URL_PARAMETER = "place-id";
 
-  private static final DatastoreService DATASTORE = DatastoreServiceFactory.getDatastoreService();
-  private static final Query QUERY = new Query(Constants.DESTINATION_ENTITY);
-  private static final PreparedQuery RESULTS = DATASTORE.prepare(QUERY);
+  private final DestinationCatalog catalog;
+  private final PlaceIdIndex placeIdIndex;
 
-  private static final Gson GSON = new Gson();
+  public DuplicateServlet(DestinationCatalog catalog, PlaceIdIndex placeIdIndex) {
+    this.catalog = catalog;
+    this.placeIdIndex = placeIdIndex;
+  }
+
+  public DuplicateServlet() {
+    this(
+        DestinationCatalog.getInstance(),
+        new PlaceIdIndex(DatastoreServiceFactory.getDatastoreService()));
+  }
 
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     String placeId = request.getParameter(PLACE_ID_URL_PARAMETER);
-    ArrayList<Destination> destinations = getDestinationsFromDatastore();
     response.setContentType("text/html");
-    if (searchForDuplicate(destinations, placeId)) {
+    if (isDuplicate(placeId)) {
       response.getWriter().println(DUPLICATE);
     } else {
       response.getWriter().println(ORIGINAL);
     }
   }
 
-  /* Query datastore for Destination objects, convert then to Destination class, store in ArrayList. */
-  private ArrayList<Destination> getDestinationsFromDatastore() {
-    ArrayList<Destination> allDestinations = new ArrayList();
-    for (Entity dest : RESULTS.asIterable()) {
-      Destination destination =
-          GSON.fromJson((String) dest.getProperty(Constants.DESTINATION_JSON), Destination.class);
-      allDestinations.add(destination);
+  /*
+   * One keyed get on the placeId index decides, since every instance records the placeIds it stores
+   * there. Destinations stored before the index was backfilled have no index entity yet, so a miss
+   * there falls back to the in-memory catalog. Its Bloom filter only covers what this instance has
+   * seen, so it is trusted to skip that scan but never to skip the get.
+   */
+  public boolean isDuplicate(String placeId) {
+    if (placeId == null || placeId.isEmpty()) {
+      return false;
     }
-    return allDestinations;
+    if (placeIdIndex.contains(placeId)) {
+      return true;
+    }
+    return catalog.mightContainPlaceId(placeId)
+        && searchForDuplicate(catalog.getDestinations(), placeId);
   }
 
   /* Search for duplicate destinations based off of placeId*/
-  private boolean searchForDuplicate(ArrayList<Destination> destinations, String placeId) {
+  private boolean searchForDuplicate(List<Destination> destinations, String placeId) {
     return destinations.stream().anyMatch(dest -> placeId.equals(dest.getPlaceId()));
-    /*
-    for (Destination destination : destinations) {
-      if (placeId.equals(destination.getPlaceId())) {
-        return true;
-      }
-    }
-    return false;
-    */
   }
 }
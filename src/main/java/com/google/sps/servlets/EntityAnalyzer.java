@@ -0,0 +1,338 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.cloud.language.v1.AnalyzeEntitiesRequest;
+import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.Document.Type;
+import com.google.cloud.language.v1.EncodingType;
+import com.google.cloud.language.v1.Entity;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.cloud.language.v1.LanguageServiceSettings;
+import com.google.sps.data.CircuitBreaker;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.threeten.bp.Duration;
+
+/**
+ * Finds the entities in a piece of text with the Natural Language API, for every servlet of this
+ * instance.
+ *
+ * <p>One LanguageServiceClient is created on first use and shared; its channel is reused by every
+ * call until {@link #shutdown}. At most {@code maxInFlight} calls run at once, and a call that
+ * cannot get a slot within the acquire timeout fails instead of queueing without bound. Calls can
+ * also be started on the analyzer's own threads with {@link #getExecutor}, so two analyses can
+ * overlap.
+ *
+ * <p>Every call has a deadline, and a circuit breaker stops calling the API for a while once too
+ * many recent calls failed, timed out or were slow. Refused and failed calls throw IOException so
+ * that callers can fall back to something local.
+ */
+public class EntityAnalyzer {
+  private static final Logger LOG = Logger.getLogger(EntityAnalyzer.class.getName());
+  private static final int DEFAULT_MAX_IN_FLIGHT = 32;
+  private static final long DEFAULT_ACQUIRE_TIMEOUT_MILLIS = 2000;
+  private static final long DEFAULT_CALL_TIMEOUT_MILLIS = 1500;
+  // Opens when half of the last 20 calls (at least 10) failed or took over a second, for 30s
+  private static final int BREAKER_WINDOW = 20;
+  private static final int BREAKER_MIN_CALLS = 10;
+  private static final double BREAKER_FAILURE_RATIO = 0.5;
+  private static final long BREAKER_SLOW_MILLIS = 1000;
+  private static final long BREAKER_OPEN_MILLIS = 30000;
+
+  private static EntityAnalyzer instance;
+
+  /** The remote call, so that tests can replace it. */
+  public interface Api {
+    List<String> findEntities(String text) throws IOException;
+  }
+
+  private final Api api;
+  private final Semaphore inFlight;
+  private final int maxInFlight;
+  private final long acquireTimeoutMillis;
+  private final long callTimeoutMillis;
+  private final CircuitBreaker breaker;
+  private final ExecutorService executor;
+  // Runs the API calls themselves, so that a caller can stop waiting at the deadline
+  private final ExecutorService callExecutor;
+
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  public EntityAnalyzer(
+      Api api,
+      int maxInFlight,
+      long acquireTimeoutMillis,
+      long callTimeoutMillis,
+      CircuitBreaker breaker) {
+    this.api = api;
+    this.maxInFlight = maxInFlight;
+    this.inFlight = new Semaphore(maxInFlight);
+    this.acquireTimeoutMillis = acquireTimeoutMillis;
+    this.callTimeoutMillis = callTimeoutMillis;
+    this.breaker = breaker;
+    this.executor = newDaemonPool(maxInFlight, "entity-analyzer");
+    this.callExecutor = newDaemonPool(maxInFlight, "entity-analyzer-call");
+  }
+
+  public EntityAnalyzer(Api api, int maxInFlight, long acquireTimeoutMillis) {
+    this(api, maxInFlight, acquireTimeoutMillis, DEFAULT_CALL_TIMEOUT_MILLIS, newBreaker());
+  }
+
+  /** Returns the analyzer shared by every servlet in this instance. */
+  public static synchronized EntityAnalyzer getInstance() {
+    if (instance == null) {
+      instance =
+          new EntityAnalyzer(
+              new NaturalLanguageApi(DEFAULT_CALL_TIMEOUT_MILLIS),
+              DEFAULT_MAX_IN_FLIGHT,
+              DEFAULT_ACQUIRE_TIMEOUT_MILLIS);
+    }
+    return instance;
+  }
+
+  /** Shuts down the shared analyzer, if one was created. */
+  public static synchronized void shutdownInstance() {
+    if (instance != null) {
+      instance.shutdown();
+      instance = null;
+    }
+  }
+
+  /**
+   * Returns the names of the entities in {@code text}, lower-cased first. Throws IOException if the
+   * breaker is open, no slot frees up in time, the call fails or it misses its deadline.
+   */
+  public List<String> findEntities(String text) throws IOException {
+    if (!breaker.allowRequest()) {
+      throw new IOException("Natural Language calls suspended after recent failures");
+    }
+    try {
+      if (!inFlight.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        rejected.incrementAndGet();
+        breaker.onFailure();
+        throw new IOException(maxInFlight + " entity analyses already in flight");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      breaker.onFailure();
+      throw new IOException("Interrupted waiting to analyze entities", e);
+    }
+    long start = System.nanoTime();
+    // Whoever claims the call releases its slot: the call when it starts, or the caller when it
+    // gives up first. A call that started holds its slot until it really ends.
+    AtomicBoolean claimed = new AtomicBoolean();
+    Future<List<String>> call;
+    try {
+      call =
+          callExecutor.submit(
+              () -> {
+                if (!claimed.compareAndSet(false, true)) {
+                  return null;
+                }
+                try {
+                  return api.findEntities(text.toLowerCase());
+                } finally {
+                  inFlight.release();
+                }
+              });
+    } catch (RejectedExecutionException e) {
+      inFlight.release();
+      breaker.onFailure();
+      throw new IOException("Entity analyzer is shut down", e);
+    }
+    try {
+      List<String> entities = call.get(callTimeoutMillis, TimeUnit.MILLISECONDS);
+      breaker.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      return entities;
+    } catch (TimeoutException e) {
+      abandon(call, claimed);
+      timeouts.incrementAndGet();
+      failures.incrementAndGet();
+      breaker.onFailure();
+      throw new IOException("Entity analysis took over " + callTimeoutMillis + "ms", e);
+    } catch (ExecutionException e) {
+      failures.incrementAndGet();
+      breaker.onFailure();
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Entity analysis failed", e.getCause());
+    } catch (InterruptedException e) {
+      abandon(call, claimed);
+      Thread.currentThread().interrupt();
+      breaker.onFailure();
+      throw new IOException("Interrupted analyzing entities", e);
+    } finally {
+      long elapsed = System.nanoTime() - start;
+      calls.incrementAndGet();
+      totalNanos.addAndGet(elapsed);
+      maxNanos.accumulateAndGet(elapsed, Math::max);
+    }
+  }
+
+  private void abandon(Future<?> call, AtomicBoolean claimed) {
+    call.cancel(true);
+    if (claimed.compareAndSet(false, true)) {
+      inFlight.release();
+    }
+  }
+
+  /** Returns the threads to start analyses on, so that a caller can run several at once. */
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+
+  /** Stops the analyzer threads and closes the client. */
+  public void shutdown() {
+    executor.shutdown();
+    callExecutor.shutdown();
+    try {
+      executor.awaitTermination(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+      callExecutor.awaitTermination(callTimeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (api instanceof AutoCloseable) {
+      try {
+        ((AutoCloseable) api).close();
+      } catch (Exception e) {
+        LOG.log(Level.WARNING, "Closing the Natural Language client failed", e);
+      }
+    }
+  }
+
+  public CircuitBreaker getBreaker() {
+    return breaker;
+  }
+
+  /** Returns call counts, latencies and the breaker's state, keyed by name. */
+  public Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    long count = calls.get();
+    stats.put("calls", count);
+    stats.put("failures", failures.get());
+    stats.put("rejected", rejected.get());
+    stats.put("timeouts", timeouts.get());
+    stats.put("inFlight", maxInFlight - inFlight.availablePermits());
+    stats.put("meanMillis", count == 0 ? 0.0 : totalNanos.get() / 1e6 / count);
+    stats.put("maxMillis", maxNanos.get() / 1e6);
+    stats.put("breaker", breaker.getStats());
+    return stats;
+  }
+
+  private static CircuitBreaker newBreaker() {
+    return new CircuitBreaker(
+        BREAKER_WINDOW,
+        BREAKER_MIN_CALLS,
+        BREAKER_FAILURE_RATIO,
+        BREAKER_SLOW_MILLIS,
+        BREAKER_OPEN_MILLIS);
+  }
+
+  private static ExecutorService newDaemonPool(int threads, String name) {
+    return Executors.newFixedThreadPool(
+        threads,
+        runnable -> {
+          Thread thread = new Thread(runnable, name);
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  /**
+   * Calls the Natural Language API through one lazily created client, whose RPCs give up at the
+   * same deadline as the analyzer so that abandoned calls do not linger.
+   */
+  private static class NaturalLanguageApi implements Api, AutoCloseable {
+    private final AtomicReference<LanguageServiceClient> client = new AtomicReference<>();
+    private final long timeoutMillis;
+
+    NaturalLanguageApi(long timeoutMillis) {
+      this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public List<String> findEntities(String text) throws IOException {
+      Document doc = Document.newBuilder().setContent(text).setType(Type.PLAIN_TEXT).build();
+      AnalyzeEntitiesRequest request =
+          AnalyzeEntitiesRequest.newBuilder()
+              .setDocument(doc)
+              .setEncodingType(EncodingType.UTF16)
+              .build();
+      AnalyzeEntitiesResponse response = client().analyzeEntities(request);
+
+      List<String> entities = new ArrayList<>();
+      for (Entity entity : response.getEntitiesList()) {
+        entities.add(entity.getName());
+      }
+      return entities;
+    }
+
+    private LanguageServiceClient client() throws IOException {
+      LanguageServiceClient current = client.get();
+      if (current == null) {
+        synchronized (client) {
+          current = client.get();
+          if (current == null) {
+            LanguageServiceSettings.Builder settings = LanguageServiceSettings.newBuilder();
+            Duration timeout = Duration.ofMillis(timeoutMillis);
+            settings
+                .analyzeEntitiesSettings()
+                .setRetrySettings(
+                    settings.analyzeEntitiesSettings().getRetrySettings().toBuilder()
+                        .setInitialRpcTimeout(timeout)
+                        .setMaxRpcTimeout(timeout)
+                        .setTotalTimeout(timeout)
+                        .build());
+            current = LanguageServiceClient.create(settings.build());
+            client.set(current);
+          }
+        }
+      }
+      return current;
+    }
+
+    @Override
+    public void close() {
+      LanguageServiceClient current = client.getAndSet(null);
+      if (current != null) {
+        current.close();
+      }
+    }
+  }
+}
@@ -14,55 +14,120 @@
 
 package com.google.sps.servlets;
 
+import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Key;
 import com.google.gson.Gson;
 import com.google.sps.data.Destination;
+import com.google.sps.data.DestinationIndex;
 import com.google.sps.data.HuntItem;
+import com.google.sps.data.JsonCodec;
 import com.google.sps.data.LatLng;
+import com.google.sps.data.Orienteering;
+import com.google.sps.data.RouteOptimizer;
+import com.google.sps.data.Sampler;
 import com.google.sps.data.ScavengerHunt;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-@WebServlet("/generate-hunt")
+@WebServlet(urlPatterns = "/generate-hunt", asyncSupported = true)
 public class GenerateServlet extends HttpServlet {
 
+  private static final Gson GSON = JsonCodec.gson();
   private static final String PLACE_FILTERS = "user-places";
   private static final String DIFF_FILTERS = "user-diff";
   private static final String NUM_PLACES = "user-num-stops";
   private static final String TAG_FILTERS = "user-tags";
+  private static final String SEED = "seed";
+  // Optional start point for a hunt near the player, instead of in the chosen cities: user-places
+  // is ignored, while difficulty and tags still apply
+  private static final String START_LAT = "user-lat";
+  private static final String START_LNG = "user-lng";
+  private static final String MAX_RADIUS_KM = "user-radius-km";
+  private static final String MAX_WALK_KM = "user-walk-km";
+  private static final double DEFAULT_RADIUS_KM = 2;
+  // Walks are planned over a random sample of this many nearby matches at most
+  private static final int MAX_NEARBY_CANDIDATES = 500;
   private static final String ERROR = "Error";
   private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private static final AsyncDatastoreService asyncDatastore =
+      DatastoreServiceFactory.getAsyncDatastoreService();
+
+  private final DestinationCatalog catalog;
+  private final DestinationQueries queries;
+  // Whether hunts reference their destinations by key rather than hold copies of them
+  private final boolean referenceDestinations;
+  private final HuntPool pool;
+  private final RouteOptimizer routeOptimizer = new RouteOptimizer();
+
+  public GenerateServlet(
+      DestinationCatalog catalog,
+      DestinationQueries queries,
+      boolean referenceDestinations,
+      HuntPool pool) {
+    this.catalog = catalog;
+    this.queries = queries;
+    this.referenceDestinations = referenceDestinations;
+    this.pool = pool;
+  }
+
+  public GenerateServlet(
+      DestinationCatalog catalog, DestinationQueries queries, boolean referenceDestinations) {
+    this(catalog, queries, referenceDestinations, HuntPool.getInstance());
+  }
+
+  public GenerateServlet(DestinationCatalog catalog, DestinationQueries queries) {
+    this(catalog, queries, HuntEntities.REFERENCE_BY_DEFAULT);
+  }
+
+  public GenerateServlet(DestinationCatalog catalog) {
+    this(catalog, new DestinationQueries(datastore));
+  }
+
+  public GenerateServlet() {
+    this(DestinationCatalog.getInstance());
+  }
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
 
-    HashSet<String> userPlaces =
-        new Gson().fromJson(request.getParameter(PLACE_FILTERS), HashSet.class);
+    HashSet<String> userPlaces = GSON.fromJson(request.getParameter(PLACE_FILTERS), HashSet.class);
     HashSet<String> userDifficultyStrings =
-        new Gson().fromJson(request.getParameter(DIFF_FILTERS), HashSet.class);
+        GSON.fromJson(request.getParameter(DIFF_FILTERS), HashSet.class);
     String numPlacesString = request.getParameter(NUM_PLACES);
     int numPlaces = Integer.parseInt(numPlacesString);
     HashSet<String> userTagStrings =
-        new Gson().fromJson(request.getParameter(TAG_FILTERS), HashSet.class);
-
-    // Get destinations from datastore
-    ArrayList<Destination> allDestinations = getDestinationsFromDatastore();
+        GSON.fromJson(request.getParameter(TAG_FILTERS), HashSet.class);
+    Long seed;
+    LatLng start;
+    Double maxRadiusKm;
+    Double maxWalkKm;
+    try {
+      seed = parseSeed(request.getParameter(SEED));
+      start = startFor(request);
+      maxRadiusKm = parseKm(request, MAX_RADIUS_KM);
+      maxWalkKm = parseKm(request, MAX_WALK_KM);
+    } catch (IllegalArgumentException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
 
     // Convert difficulty level strings to Destination.Obscurity
     HashSet<Destination.Obscurity> userDifficultyLevels = new HashSet();
@@ -82,23 +147,60 @@ public class GenerateServlet extends HttpServlet {
       }
     }
 
-    // Filter
-    Set<Destination> filteredDestinations =
-        filter(allDestinations, userPlaces, userDifficultyLevels, userTags);
+    // A hunt near the player starts where they are, so the chosen cities do not apply to it
+    if (start != null) {
+      DestinationCatalog.Listing listing = catalog.getListing();
+      List<Integer> walk =
+          walkNearby(
+              listing.getIndex(),
+              start,
+              userDifficultyLevels,
+              userTags,
+              numPlaces,
+              maxRadiusKm,
+              maxWalkKm,
+              randomFor(seed));
+      if (walk.size() < numPlaces) {
+        response.setContentType("text/html");
+        response.getWriter().println(ERROR);
+        return;
+      }
+      LinkedHashMap<Key, Destination> stops = new LinkedHashMap<>();
+      for (int ordinal : walk) {
+        stops.put(listing.getKey(ordinal), listing.getIndex().get(ordinal));
+      }
+      respondWithId(request, response, toEntity(stops));
+      return;
+    }
 
-    // If there are enough destinations to return, pick random ones to put in Hunt
-    if (filteredDestinations.size() >= numPlaces) {
-      // Get numPlaces number of Destinations
-      filteredDestinations = correctNumDests(filteredDestinations, numPlaces);
+    // Popular combinations are served from hunts generated ahead of time, unless seeded
+    if (seed == null) {
+      Entity pooled =
+          pool.take(
+              new HuntPool.Filters(userPlaces, userDifficultyLevels, userTags, numPlaces),
+              this::generateForPool);
+      if (pooled != null) {
+        respondWithId(request, response, pooled);
+        return;
+      }
+    }
 
-      // Convert Destinations to Hunt Items, create Scavenger Hunt, store in Datastore
-      ArrayList<HuntItem> huntItems = convertToHuntItems(filteredDestinations);
-      ScavengerHunt scavHunt = new ScavengerHunt(huntItems);
-      long huntId = writeToDataStore(scavHunt);
+    // On a cold instance, answer from an index query rather than wait for the catalog to load
+    Map<Key, Destination> chosen = null;
+    if (!catalog.isLoaded()) {
+      catalog.warmUp();
+      chosen =
+          chooseByQuery(userPlaces, userDifficultyLevels, userTags, numPlaces, randomFor(seed));
+    }
+    if (chosen == null) {
+      chosen =
+          chooseFromIndex(userPlaces, userDifficultyLevels, userTags, numPlaces, randomFor(seed));
+    }
 
-      // Set response: scavenger hunt id
-      response.setContentType("text/html;");
-      response.getWriter().println(huntId);
+    // If there are enough destinations to return, put them in the Hunt
+    if (chosen != null) {
+      // Order the Destinations into a walking route, create Scavenger Hunt, store in Datastore
+      respondWithId(request, response, toEntity(inWalkingOrder(chosen)));
     } else {
       // If there are not enough destinations, return an error
       response.setContentType("text/html");
@@ -106,19 +208,62 @@ public class GenerateServlet extends HttpServlet {
     }
   }
 
-  /* Query datastore for Destination objects, convert then to Destination class, store in ArrayList. */
-  public ArrayList<Destination> getDestinationsFromDatastore() {
-    Query query = new Query(Constants.DESTINATION_ENTITY);
-    PreparedQuery results = datastore.prepare(query);
+  /* Filters, then picks numPlaces random matches straight off the catalog's bitmap index. */
+  private Map<Key, Destination> chooseFromIndex(
+      Set<String> userPlaces,
+      Set<Destination.Obscurity> userDifficultyLevels,
+      Set<Destination.Tag> userTags,
+      int numPlaces,
+      Random random) {
+    DestinationCatalog.Listing listing = catalog.getListing();
+    DestinationIndex index = listing.getIndex();
+    BitSet matches = index.matching(userPlaces, userDifficultyLevels, userTags);
+    if (matches.cardinality() < numPlaces) {
+      return null;
+    }
+    Map<Key, Destination> chosen = new LinkedHashMap<>();
+    for (int ordinal : Sampler.sample(matches, numPlaces, random)) {
+      chosen.put(listing.getKey(ordinal), index.get(ordinal));
+    }
+    return chosen;
+  }
 
-    ArrayList<Destination> allDestinations = new ArrayList();
-    for (Entity dest : results.asIterable()) {
-      Destination destination =
-          new Gson()
-              .fromJson((String) dest.getProperty(Constants.DESTINATION_JSON), Destination.class);
-      allDestinations.add(destination);
+  /*
+   * Picks numPlaces random matches from the keys of a filtered Datastore query and fetches only
+   * those with one batch get. Returns null if too few stored destinations match; destinations not
+   * yet migrated to indexed properties are invisible to the query, so the caller then checks the
+   * catalog.
+   */
+  private Map<Key, Destination> chooseByQuery(
+      Set<String> userPlaces,
+      Set<Destination.Obscurity> userDifficultyLevels,
+      Set<Destination.Tag> userTags,
+      int numPlaces,
+      Random random) {
+    List<Key> matches = queries.matchingKeys(userPlaces, userDifficultyLevels, userTags);
+    if (matches.size() < numPlaces) {
+      return null;
     }
-    return allDestinations;
+    Map<Key, Destination> chosen = queries.get(Sampler.sample(matches, numPlaces, random));
+    return chosen.size() < numPlaces ? null : chosen;
+  }
+
+  /*
+   * Generates a hunt for the pool off the loaded catalog. Returns null while the catalog is cold,
+   * which requests warm up, or if too few destinations match.
+   */
+  private Entity generateForPool(HuntPool.Filters filters) {
+    if (!catalog.isLoaded()) {
+      return null;
+    }
+    Map<Key, Destination> chosen =
+        chooseFromIndex(
+            filters.getCities(),
+            filters.getLevels(),
+            filters.getTags(),
+            filters.getNumPlaces(),
+            ThreadLocalRandom.current());
+    return chosen == null ? null : toEntity(inWalkingOrder(chosen));
   }
 
   /* Return all Destination objects that match the filters. */
@@ -138,47 +283,256 @@ public class GenerateServlet extends HttpServlet {
     return filteredDestinations;
   }
 
+  /* Same as above, but answered from the bitmap index instead of a scan over every Destination. */
+  public Set<Destination> filter(
+      DestinationIndex index,
+      Set<String> userPlaces,
+      Set<Destination.Obscurity> userDifficultyLevels,
+      Set<Destination.Tag> userTags) {
+    return index.filter(userPlaces, userDifficultyLevels, userTags);
+  }
+
   /* Chooses a random subset of the filtered Destinations with size numPlaces. */
   public Set<Destination> correctNumDests(Set<Destination> filteredDestinations, int numPlaces) {
+    return correctNumDests(filteredDestinations, numPlaces, ThreadLocalRandom.current());
+  }
+
+  /* Same as above with a caller-supplied source of randomness, e.g. a seeded Random. */
+  public Set<Destination> correctNumDests(
+      Set<Destination> filteredDestinations, int numPlaces, Random random) {
     if (filteredDestinations.size() == numPlaces) {
       return filteredDestinations;
     }
-    Set<Destination> newFilteredDests = new HashSet<Destination>();
-    List<Destination> filteredList = new ArrayList<Destination>(filteredDestinations);
-    Integer[] indexArr = new Integer[filteredDestinations.size()];
-    for (int i = 0; i < indexArr.length; i++) {
-      indexArr[i] = i;
+    return new HashSet<>(Sampler.sample(filteredDestinations.iterator(), numPlaces, random));
+  }
+
+  /*
+   * Chooses up to numPlaces matching destinations within maxRadiusKm of start (in any city) that
+   * make a walk from start of at most maxWalkKm, in walking order. Either limit may be null; with
+   * neither, destinations within DEFAULT_RADIUS_KM are used and the walk is unlimited.
+   */
+  public List<Destination> chooseNearby(
+      DestinationIndex index,
+      LatLng start,
+      Set<Destination.Obscurity> userDifficultyLevels,
+      Set<Destination.Tag> userTags,
+      int numPlaces,
+      Double maxRadiusKm,
+      Double maxWalkKm,
+      Random random) {
+    List<Destination> chosen = new ArrayList<>();
+    for (int ordinal :
+        walkNearby(
+            index,
+            start,
+            userDifficultyLevels,
+            userTags,
+            numPlaces,
+            maxRadiusKm,
+            maxWalkKm,
+            random)) {
+      chosen.add(index.get(ordinal));
+    }
+    return chosen;
+  }
+
+  /* Same as above, returning the ordinals in index of the chosen destinations. */
+  private List<Integer> walkNearby(
+      DestinationIndex index,
+      LatLng start,
+      Set<Destination.Obscurity> userDifficultyLevels,
+      Set<Destination.Tag> userTags,
+      int numPlaces,
+      Double maxRadiusKm,
+      Double maxWalkKm,
+      Random random) {
+    double radiusKm =
+        maxRadiusKm != null ? maxRadiusKm : maxWalkKm != null ? maxWalkKm : DEFAULT_RADIUS_KM;
+    double walkKm = maxWalkKm != null ? maxWalkKm : Double.MAX_VALUE;
+
+    BitSet matches = index.matching(userDifficultyLevels, userTags);
+    List<Integer> candidates = new ArrayList<>();
+    for (int ordinal : index.getLocations().withinRadius(start, radiusKm)) {
+      if (matches.get(ordinal)) {
+        candidates.add(ordinal);
+      }
+    }
+    if (candidates.size() > MAX_NEARBY_CANDIDATES) {
+      candidates = Sampler.sample(candidates, MAX_NEARBY_CANDIDATES, random);
+    }
+
+    List<LatLng> locations = new ArrayList<>();
+    for (int candidate : candidates) {
+      locations.add(index.get(candidate).getLocation());
+    }
+    int[] walk = Orienteering.plan(locations, start, numPlaces, walkKm, random);
+
+    // Shorten the walk; never makes it longer, so it stays within budget.
+    List<LatLng> stops = new ArrayList<>();
+    for (int candidate : walk) {
+      stops.add(locations.get(candidate));
+    }
+    int[] identity = new int[walk.length];
+    for (int i = 0; i < identity.length; i++) {
+      identity[i] = i;
     }
-    Collections.shuffle(Arrays.asList(indexArr));
-    for (int i = 0; i < numPlaces; i++) {
-      newFilteredDests.add(filteredList.get(indexArr[i]));
+    List<Integer> chosen = new ArrayList<>();
+    for (int stop : routeOptimizer.improve(stops, identity, start, null)) {
+      chosen.add(candidates.get(walk[stop]));
     }
-    return newFilteredDests;
+    return chosen;
   }
 
-  /* Convert all Destinations in set to Hunt Items, and organize by Longitude. */
-  public ArrayList<HuntItem> convertToHuntItems(Set<Destination> filteredDestinations) {
-    TreeMap<Double, Destination> sortDests = new TreeMap<Double, Destination>();
-    for (Destination destination : filteredDestinations) {
-      LatLng location = destination.getLocation();
-      Double lng = location.getLng();
-      sortDests.put(lng, destination);
+  /* Returns the start point of a hunt near the player, or null for a hunt in the chosen cities. */
+  private static LatLng startFor(HttpServletRequest request) {
+    if (request.getParameter(START_LAT) == null || request.getParameter(START_LNG) == null) {
+      return null;
     }
+    double lat = parseNumber(request, START_LAT);
+    double lng = parseNumber(request, START_LNG);
+    // Written so that NaN fails the checks too
+    if (!(Math.abs(lat) <= 90) || !(Math.abs(lng) <= 180)) {
+      throw new IllegalArgumentException("user-lat and user-lng must be a point on the map");
+    }
+    return new LatLng.Builder().withLat(lat).withLng(lng).build();
+  }
+
+  /* Returns the optional distance in km called name, or null if it was not given. */
+  private static Double parseKm(HttpServletRequest request, String name) {
+    if (request.getParameter(name) == null) {
+      return null;
+    }
+    double km = parseNumber(request, name);
+    if (!(km > 0) || Double.isInfinite(km)) {
+      throw new IllegalArgumentException(name + " must be a positive number of km");
+    }
+    return km;
+  }
+
+  private static double parseNumber(HttpServletRequest request, String name) {
+    try {
+      return Double.parseDouble(request.getParameter(name));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(name + " must be a number");
+    }
+  }
+
+  private static Long parseSeed(String seed) {
+    try {
+      return seed == null ? null : Long.parseLong(seed);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("seed must be a whole number");
+    }
+  }
+
+  /* Uses the optional seed parameter so that a hunt can be generated reproducibly. */
+  private static Random randomFor(Long seed) {
+    return seed == null ? ThreadLocalRandom.current() : new Random(seed);
+  }
 
+  /* Convert all Destinations to Hunt Items, in the order of a short walking route. */
+  public ArrayList<HuntItem> convertToHuntItems(Collection<Destination> filteredDestinations) {
+    return convertToHuntItems(filteredDestinations, null, null);
+  }
+
+  /*
+   * Same as above, with optional fixed start and end points for the route. Destinations without a
+   * location cannot be routed and are visited last.
+   */
+  public ArrayList<HuntItem> convertToHuntItems(
+      Collection<Destination> filteredDestinations, LatLng start, LatLng end) {
+    List<Destination> destinations = new ArrayList<>(filteredDestinations);
     ArrayList<HuntItem> filteredHuntItems = new ArrayList();
-    for (Destination destination : sortDests.values()) {
-      HuntItem item = destination.convertToHuntItem();
-      filteredHuntItems.add(item);
+    for (int stop : routeOrder(destinations, start, end)) {
+      filteredHuntItems.add(destinations.get(stop).convertToHuntItem());
     }
     return filteredHuntItems;
   }
 
+  /* Returns the chosen Destinations, still by key, in the order of a short walking route. */
+  private LinkedHashMap<Key, Destination> inWalkingOrder(Map<Key, Destination> chosen) {
+    List<Key> keys = new ArrayList<>(chosen.keySet());
+    List<Destination> destinations = new ArrayList<>(chosen.values());
+    LinkedHashMap<Key, Destination> ordered = new LinkedHashMap<>();
+    for (int stop : routeOrder(destinations, null, null)) {
+      ordered.put(keys.get(stop), destinations.get(stop));
+    }
+    return ordered;
+  }
+
+  /*
+   * Returns the positions in destinations in the order of a short walking route. Destinations
+   * without a location cannot be routed and are visited last.
+   */
+  private List<Integer> routeOrder(List<Destination> destinations, LatLng start, LatLng end) {
+    List<Integer> located = new ArrayList<>();
+    List<LatLng> locations = new ArrayList<>();
+    List<Integer> unlocated = new ArrayList<>();
+    for (int i = 0; i < destinations.size(); i++) {
+      LatLng location = destinations.get(i).getLocation();
+      if (location != null && location.hasCoordinates()) {
+        located.add(i);
+        locations.add(location);
+      } else {
+        unlocated.add(i);
+      }
+    }
+
+    List<Integer> order = new ArrayList<>(destinations.size());
+    for (int stop : routeOptimizer.order(locations, start, end)) {
+      order.add(located.get(stop));
+    }
+    order.addAll(unlocated);
+    return order;
+  }
+
+  /*
+   * Returns the entity of a hunt that visits stops in order: references to their keys if this
+   * servlet is configured to store them, otherwise a copy of each destination.
+   */
+  private Entity toEntity(Map<Key, Destination> stops) {
+    List<Integer> riddles = new ArrayList<>();
+    for (Destination destination : stops.values()) {
+      riddles.add(destination.getRandomRiddleIndex());
+    }
+    if (referenceDestinations) {
+      return HuntEntities.toEntity(new HuntReferences(new ArrayList<>(stops.keySet()), riddles));
+    }
+    ArrayList<HuntItem> huntItems = new ArrayList<>();
+    int stop = 0;
+    for (Destination destination : stops.values()) {
+      huntItems.add(destination.convertToHuntItem(riddles.get(stop++)));
+    }
+    return HuntEntities.toEntity(new ScavengerHunt(huntItems));
+  }
+
+  /* Stores the hunt and sets the response to its id once the put is done, off the request thread. */
+  private static void respondWithId(
+      HttpServletRequest request, HttpServletResponse response, Entity scavHuntEntity)
+      throws IOException {
+    AsyncRequests.serve(
+        request,
+        response,
+        putAsync(scavHuntEntity),
+        huntId -> {
+          // Set response: scavenger hunt id
+          response.setContentType("text/html;");
+          response.getWriter().println(huntId);
+        });
+  }
+
+  /* Same as writeToDataStore, without waiting for the put. */
+  public static CompletableFuture<Long> writeToDataStoreAsync(ScavengerHunt scavHunt) {
+    return putAsync(HuntEntities.toEntity(scavHunt));
+  }
+
+  private static CompletableFuture<Long> putAsync(Entity scavHuntEntity) {
+    return AsyncRequests.fromFuture(asyncDatastore.put(scavHuntEntity)).thenApply(Key::getId);
+  }
+
   /* Store Scavenger Hunt object in Datastore, return Id of created Hunt. */
   public long writeToDataStore(ScavengerHunt scavHunt) {
-    String jsonScavHunt = new Gson().toJson(scavHunt);
-    Text scavHuntText = new Text(jsonScavHunt);
-    Entity scavHuntEntity = new Entity(Constants.SCAVENGER_HUNT_ENTITY);
-    scavHuntEntity.setProperty(Constants.SCAVENGER_HUNT_ENTITY, scavHuntText);
+    Entity scavHuntEntity = HuntEntities.toEntity(scavHunt);
     datastore.put(scavHuntEntity);
 
     return scavHuntEntity.getKey().getId();
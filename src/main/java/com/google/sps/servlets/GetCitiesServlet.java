@@ -14,49 +14,79 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.gson.Gson;
-import com.google.sps.data.Destination;
 import java.io.IOException;
-import java.util.HashSet;
 import java.util.Set;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+/**
+ * Returns the sorted list of cities that have destinations, or with {@code ?counts=true} the number
+ * of destinations in each city. Served from the catalog's city view with an ETag, so unchanged
+ * lists cost browsers and caches a 304. On a cold instance the view comes from a projection query
+ * on the city property instead, while the catalog loads in the background. That query misses
+ * destinations stored before the city was an indexed property, so its answer is sent without an
+ * ETag or Cache-Control, for no cache to keep.
+ */
 @WebServlet("/get-cities")
 public class GetCitiesServlet extends HttpServlet {
+  private static final String COUNTS_PARAMETER = "counts";
+  // Cities change rarely; let browsers and edge caches reuse a response for five minutes.
+  private static final String CACHE_CONTROL = "public, max-age=300";
 
-  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private final DestinationCatalog catalog;
+  private final DestinationQueries queries;
+
+  public GetCitiesServlet(DestinationCatalog catalog, DestinationQueries queries) {
+    this.catalog = catalog;
+    this.queries = queries;
+  }
+
+  public GetCitiesServlet(DestinationCatalog catalog) {
+    this(catalog, new DestinationQueries(DatastoreServiceFactory.getDatastoreService()));
+  }
+
+  public GetCitiesServlet() {
+    this(DestinationCatalog.getInstance());
+  }
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    boolean counts = Boolean.parseBoolean(request.getParameter(COUNTS_PARAMETER));
+    if (!warm()) {
+      response.setContentType(Constants.JSON_TYPE);
+      CityView partial = queries.getCityView();
+      response.getWriter().println(counts ? partial.getCountsJson() : partial.getCitiesJson());
+      return;
+    }
 
-    Set<String> cities = getCities();
+    CityView view = catalog.getCityView();
+    String etag = counts ? view.getCountsETag() : view.getETag();
 
-    Gson gson = new Gson();
-    String json = gson.toJson(cities);
+    response.setHeader("ETag", etag);
+    response.setHeader("Cache-Control", CACHE_CONTROL);
+    if (etag.equals(request.getHeader("If-None-Match"))) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
 
-    response.setContentType("text/html;");
-    response.getWriter().println(json);
+    response.setContentType(Constants.JSON_TYPE);
+    response.getWriter().println(counts ? view.getCountsJson() : view.getCitiesJson());
   }
 
   public Set<String> getCities() {
-    Query query = new Query(Constants.DESTINATION_ENTITY);
-    PreparedQuery results = datastore.prepare(query);
-
-    Set<String> cities = new HashSet();
-    for (Entity dest : results.asIterable()) {
-      Destination destination =
-          new Gson()
-              .fromJson((String) dest.getProperty(Constants.DESTINATION_JSON), Destination.class);
-      cities.add(destination.getCity());
+    return (warm() ? catalog.getCityView() : queries.getCityView()).getCounts().keySet();
+  }
+
+  /* Returns whether the catalog is loaded, starting to load it if not. */
+  private boolean warm() {
+    if (catalog.isLoaded()) {
+      return true;
     }
-    return cities;
+    catalog.warmUp();
+    // A warm-up run on this thread has finished by now.
+    return catalog.isLoaded();
   }
 }
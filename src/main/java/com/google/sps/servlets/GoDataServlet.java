@@ -14,27 +14,44 @@
 
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.Text;
-import com.google.gson.Gson;
-import com.google.sps.data.ScavengerHunt;
+import com.google.appengine.api.datastore.EntityNotFoundException;
 import java.io.IOException;
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Returns a scavenger hunt and updates the current index of the hunt. */
-@WebServlet("/go-data")
+/**
+ * Returns a scavenger hunt and updates the current index of the hunt. Both run off the request
+ * thread, see {@link AsyncRequests}. Updates write only the hunt's progress, see {@link HuntStore}.
+ *
+ * <p>With {@code mode=stage} only the current stage and the hunt's progress are returned, see
+ * {@link HuntStore#getStageJson(long)}; other stages are fetched from {@link GoStageServlet}.
+ */
+@WebServlet(urlPatterns = "/go-data", asyncSupported = true)
 public class GoDataServlet extends HttpServlet {
+  private static final Logger LOG = Logger.getLogger(GoDataServlet.class.getName());
   private static final String INDEX_PARAMETER = "new-index";
+  // Optional number of hints used on the stage just solved
+  private static final String HINTS_PARAMETER = "hints-used";
+  private static final String MODE_PARAMETER = "mode";
+  private static final String STAGE_MODE = "stage";
   private static final String ERROR_MSSG =
       "An error has occurred that prevents a scavenger hunt from being displayed.";
-  private static final DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+  private final HuntStore hunts;
+
+  public GoDataServlet(HuntStore hunts) {
+    this.hunts = hunts;
+  }
+
+  public GoDataServlet() {
+    this(HuntStore.getInstance());
+  }
 
   /**
    * Updates the index of the scavenger hunt (aka the destination that the user currently needs to
@@ -42,66 +59,66 @@ public class GoDataServlet extends HttpServlet {
    */
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Gson gson = new Gson();
     String indexStr = request.getParameter(INDEX_PARAMETER);
     String huntIDStr = request.getParameter(Constants.HUNTID_PARAMETER);
-    try {
-      int index = Integer.parseInt(indexStr);
-      long huntID = Long.parseLong(huntIDStr);
-      Entity huntEntity = findScavengerHunt(huntID);
-      if (huntEntity == null) {
-        response.setContentType(Constants.JSON_TYPE);
-        response.getWriter().println(ERROR_MSSG);
-      }
-
-      // Update index of scavenger hunt.
-      ScavengerHunt hunt =
-          gson.fromJson(
-              ((Text) huntEntity.getProperty(Constants.HUNT_VAL)).getValue(), ScavengerHunt.class);
-      hunt.updateIndex(index);
+    String hintsStr = request.getParameter(HINTS_PARAMETER);
+    CompletableFuture<Integer> update =
+        AsyncRequests.supply(
+            () -> {
+              try {
+                int hints = hintsStr == null ? 0 : Integer.parseInt(hintsStr);
+                hunts.advance(Long.parseLong(huntIDStr), Integer.parseInt(indexStr), hints);
+                return HttpServletResponse.SC_OK;
+              } catch (NumberFormatException e) {
+                return HttpServletResponse.SC_BAD_REQUEST;
+              } catch (EntityNotFoundException e) {
+                return HttpServletResponse.SC_NOT_FOUND;
+              } catch (ConcurrentModificationException e) {
+                LOG.log(Level.WARNING, "Could not record progress", e);
+                return HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+              }
+            });
 
-      // Convert hunt to JSON string and put into Datastore
-      String huntStr = gson.toJson(hunt);
-      Text huntStrText = new Text(huntStr);
-      huntEntity.setProperty(Constants.HUNT_VAL, huntStrText);
-      datastore.put(huntEntity);
-    } catch (Exception e) {
-    }
-
-    // Redirect back to main page.
-    response.sendRedirect(Constants.GO_URL);
+    AsyncRequests.serve(
+        request,
+        response,
+        update,
+        status -> {
+          if (status == HttpServletResponse.SC_OK) {
+            // Redirect back to main page.
+            response.sendRedirect(Constants.GO_URL);
+          } else {
+            response.sendError(status);
+          }
+        });
   }
 
   /** Retrieves scavenger hunt data from Datastore, and sends to /go-data. */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     String huntIDStr = request.getParameter(Constants.HUNTID_PARAMETER);
-    Entity huntEntity = null;
-    try {
-      long huntID = Long.parseLong(huntIDStr);
-      huntEntity = findScavengerHunt(huntID);
-    } catch (Exception e) {
-    }
-
-    response.setContentType(Constants.JSON_TYPE);
-    if (huntEntity == null) {
-      response.getWriter().println(ERROR_MSSG);
-    } else {
-      String json = ((Text) huntEntity.getProperty(Constants.HUNT_VAL)).getValue();
-      response.getWriter().println(json);
-    }
-  }
+    boolean stageOnly = STAGE_MODE.equals(request.getParameter(MODE_PARAMETER));
+    CompletableFuture<String> huntJson =
+        AsyncRequests.supply(
+            () -> {
+              try {
+                long huntId = Long.parseLong(huntIDStr);
+                return stageOnly ? hunts.getStageJson(huntId) : hunts.getHuntJson(huntId);
+              } catch (Exception e) {
+                return null;
+              }
+            });
 
-  /**
-   * Retrieves the scavenger hunt from Datastore using {@code huntID}, the ID corresponding to the
-   * scavenger hunt that should be retrieved.
-   */
-  private Entity findScavengerHunt(long huntID) {
-    Key key = KeyFactory.createKey(Constants.SCAVENGER_HUNT_ENTITY, huntID);
-    try {
-      return datastore.get(key);
-    } catch (Exception e) {
-      return null;
-    }
+    AsyncRequests.serve(
+        request,
+        response,
+        huntJson,
+        json -> {
+          response.setContentType(Constants.JSON_TYPE);
+          response.getWriter().println(json == null ? ERROR_MSSG : json);
+        });
   }
 }
@@ -0,0 +1,75 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Returns one stage of a scavenger hunt: a stage the player has reached, or the riddle of the next
+ * one, which go.js prefetches so that it can show it as soon as the player proceeds. Any other
+ * stage is a 404. With {@code part=item}, only a stage the player has reached is returned, see
+ * {@link HuntStore#getStageJson(long, int, boolean)}.
+ */
+@WebServlet(urlPatterns = "/go-stage", asyncSupported = true)
+public class GoStageServlet extends HttpServlet {
+  private static final String STAGE_PARAMETER = "stage";
+  private static final String PART_PARAMETER = "part";
+  private static final String ITEM_PART = "item";
+
+  private final HuntStore hunts;
+
+  public GoStageServlet(HuntStore hunts) {
+    this.hunts = hunts;
+  }
+
+  public GoStageServlet() {
+    this(HuntStore.getInstance());
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String huntIDStr = request.getParameter(Constants.HUNTID_PARAMETER);
+    String stageStr = request.getParameter(STAGE_PARAMETER);
+    boolean itemWanted = ITEM_PART.equals(request.getParameter(PART_PARAMETER));
+    CompletableFuture<String> stageJson =
+        AsyncRequests.supply(
+            () -> {
+              try {
+                return hunts.getStageJson(
+                    Long.parseLong(huntIDStr), Integer.parseInt(stageStr), itemWanted);
+              } catch (NumberFormatException e) {
+                return null;
+              }
+            });
+
+    AsyncRequests.serve(
+        request,
+        response,
+        stageJson,
+        json -> {
+          if (json == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+          }
+          response.setContentType(Constants.JSON_TYPE);
+          response.getWriter().println(json);
+        });
+  }
+}
@@ -14,62 +14,244 @@
 
 package com.google.sps.servlets;
 
-import com.google.cloud.language.v1.AnalyzeEntitiesRequest;
-import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
-import com.google.cloud.language.v1.Document;
-import com.google.cloud.language.v1.Document.Type;
-import com.google.cloud.language.v1.EncodingType;
-import com.google.cloud.language.v1.Entity;
-import com.google.cloud.language.v1.LanguageServiceClient;
+import com.google.sps.data.GuessMatcher;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /** GuessServlet handles the user's guess for the destination they are trying to find. */
-@WebServlet("/guess-data")
+@WebServlet(urlPatterns = "/guess-data", asyncSupported = true)
 public class GuessServlet extends HttpServlet {
+  private static final Logger LOG = Logger.getLogger(GuessServlet.class.getName());
   private static final String GUESS_PARAMETER = "guess-input";
   private static final String ANSWER_PARAMETER = "answer";
   private static final String TEXT_TYPE = "text/html";
+  // Standard header for per-request timings; shows up in the browser's network panel
+  private static final String SERVER_TIMING = "Server-Timing";
+  // How much of the answer an unsure guess must cover to pass while the API is unavailable
+  private static final double FALLBACK_SIMILARITY = 0.9;
 
-  /** Determines if the user's guess matches the destination location. */
+  // Guesses decided by GuessMatcher alone, and those it passed on to the Natural Language API
+  private static final AtomicLong localAccepts = new AtomicLong();
+  private static final AtomicLong localRejects = new AtomicLong();
+  private static final AtomicLong escalated = new AtomicLong();
+  // Guesses judged locally because the Natural Language API failed or its breaker was open
+  private static final AtomicLong fallbacks = new AtomicLong();
+
+  private final EntityAnalyzer analyzer;
+  // Source of precomputed answer entities; null to always analyze the answer
+  private final DestinationCatalog catalog;
+  // Null to judge every guess afresh
+  private final VerdictCache verdictCache;
+
+  public GuessServlet(
+      EntityAnalyzer analyzer, DestinationCatalog catalog, VerdictCache verdictCache) {
+    this.analyzer = analyzer;
+    this.catalog = catalog;
+    this.verdictCache = verdictCache;
+  }
+
+  public GuessServlet(EntityAnalyzer analyzer, DestinationCatalog catalog) {
+    this(analyzer, catalog, null);
+  }
+
+  public GuessServlet(EntityAnalyzer analyzer) {
+    this(analyzer, null);
+  }
+
+  public GuessServlet() {
+    this(
+        EntityAnalyzer.getInstance(), DestinationCatalog.getInstance(), VerdictCache.getInstance());
+  }
+
+  /**
+   * Determines if the user's guess matches the destination location. The verdict is worked out off
+   * the request thread, see {@link AsyncRequests}.
+   */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     String userGuess = request.getParameter(GUESS_PARAMETER);
     String answer = request.getParameter(ANSWER_PARAMETER);
+    // Stays a cache hit unless the verdict has to be worked out
+    String[] timing = {"verdict-cache;desc=hit"};
+
+    AsyncRequests.serve(
+        request,
+        response,
+        AsyncRequests.supply(() -> verdict(userGuess, answer, timing)),
+        result -> {
+          response.setHeader(SERVER_TIMING, timing[0]);
+          response.setContentType(TEXT_TYPE);
+          response.getWriter().println(result);
+        });
+  }
+
+  /**
+   * Returns whether {@code userGuess} is right. A guess that {@link GuessMatcher} is sure about on
+   * the answer alone is decided at once; only the rest are looked up in the cache, whose accepted
+   * guesses cost a Datastore get, or judged.
+   */
+  private boolean verdict(String userGuess, String answer, String[] timing) {
+    Boolean local = matchLocally(userGuess, answer, Collections.emptyList(), timing);
+    if (local != null) {
+      return local;
+    }
+    List<String> knownAnswerEntities = catalog == null ? null : catalog.getAnswerEntities(answer);
+    VerdictCache.Loader judge =
+        aliases -> judge(userGuess, answer, aliases, knownAnswerEntities, timing);
+    try {
+      return verdictCache == null
+          ? judge.load(Collections.emptyList())
+          : verdictCache.getVerdict(userGuess, answer, knownAnswerEntities == null ? 2 : 1, judge);
+    } catch (IOException e) {
+      // Not cached, so the guess is judged properly again once the API is back.
+      LOG.log(Level.FINE, "Judging guess locally", e);
+      fallbacks.incrementAndGet();
+      timing[0] = "local-match;desc=fallback";
+      return fallbackVerdict(userGuess, answer);
+    }
+  }
 
-    ArrayList<String> userEntities = findEntities(userGuess);
-    ArrayList<String> answerEntities = findEntities(answer);
+  /** Returns how many guesses were decided locally and how many needed the API, keyed by name. */
+  public static Map<String, Object> getMatcherStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("localAccepts", localAccepts.get());
+    stats.put("localRejects", localRejects.get());
+    stats.put("escalated", escalated.get());
+    stats.put("fallbacks", fallbacks.get());
+    return stats;
+  }
+
+  /**
+   * Judges a guess without the Natural Language API: as {@link GuessMatcher} does when it is sure,
+   * otherwise by how closely the guess's words match the answer's.
+   */
+  static boolean fallbackVerdict(String userGuess, String answer) {
+    if (userGuess == null || answer == null) {
+      return false;
+    }
+    GuessMatcher.Verdict local = GuessMatcher.match(userGuess, answer);
+    if (local != GuessMatcher.Verdict.UNSURE) {
+      return local == GuessMatcher.Verdict.ACCEPT;
+    }
+    return GuessMatcher.similarity(userGuess, answer) >= FALLBACK_SIMILARITY;
+  }
+
+  /**
+   * Judges a guess and puts how in {@code timing[0]}. Guesses that {@link GuessMatcher} is sure
+   * about, using the guesses already accepted for the answer as aliases, are decided without any
+   * call. The rest go to the Natural Language API. Only the guess is analyzed when the answer's
+   * entities were computed when its destination was stored. Otherwise the guess is analyzed on an
+   * analyzer thread while the answer is analyzed on this one.
+   */
+  private boolean judge(
+      String userGuess,
+      String answer,
+      Collection<String> aliases,
+      List<String> knownAnswerEntities,
+      String[] timing)
+      throws IOException {
+    Boolean local = matchLocally(userGuess, answer, aliases, timing);
+    if (local != null) {
+      return local;
+    }
+    escalated.incrementAndGet();
+
+    ArrayList<String> userEntities;
+    ArrayList<String> answerEntities;
+    if (knownAnswerEntities != null) {
+      long guessStart = System.nanoTime();
+      userEntities = findEntities(userGuess);
+      answerEntities = new ArrayList<>(knownAnswerEntities);
+      timing[0] = String.format(Locale.ROOT, "nl-guess;dur=%.1f", millisSince(guessStart));
+    } else {
+      long[] guessNanos = new long[1];
+      CompletableFuture<ArrayList<String>> guessAnalysis =
+          CompletableFuture.supplyAsync(
+              () -> {
+                long start = System.nanoTime();
+                try {
+                  return findEntities(userGuess);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                } finally {
+                  guessNanos[0] = System.nanoTime() - start;
+                }
+              },
+              analyzer.getExecutor());
+      long answerStart = System.nanoTime();
+      answerEntities = findEntities(answer);
+      double answerMillis = millisSince(answerStart);
+      userEntities = join(guessAnalysis);
+      timing[0] =
+          String.format(
+              Locale.ROOT,
+              "nl-guess;dur=%.1f, nl-answer;dur=%.1f",
+              guessNanos[0] / 1e6,
+              answerMillis);
+    }
 
     // User's guess is counted as correct if every entity in the answer
     // is also present in the user's guess.
     userEntities.retainAll(answerEntities);
-    boolean result = (userEntities.size() == answerEntities.size());
+    return userEntities.size() == answerEntities.size();
+  }
+
+  /*
+   * Returns GuessMatcher's verdict on the guess, with aliases of the answer, and puts it in
+   * timing[0]; null if it is unsure.
+   */
+  private static Boolean matchLocally(
+      String userGuess, String answer, Collection<String> aliases, String[] timing) {
+    if (userGuess == null || answer == null) {
+      return null;
+    }
+    GuessMatcher.Verdict local = GuessMatcher.match(userGuess, answer, aliases);
+    if (local == GuessMatcher.Verdict.ACCEPT) {
+      localAccepts.incrementAndGet();
+      timing[0] = "local-match;desc=accept";
+      return true;
+    }
+    if (local == GuessMatcher.Verdict.REJECT) {
+      localRejects.incrementAndGet();
+      timing[0] = "local-match;desc=reject";
+      return false;
+    }
+    return null;
+  }
 
-    response.setContentType(TEXT_TYPE);
-    response.getWriter().println(result);
+  private static double millisSince(long startNanos) {
+    return (System.nanoTime() - startNanos) / 1e6;
   }
 
   /** Extracts and returns entities from {@code word} using the Natural Language API. */
   ArrayList<String> findEntities(String word) throws IOException {
-    ArrayList<String> entities = new ArrayList<String>();
-
-    LanguageServiceClient service = LanguageServiceClient.create();
-    Document doc =
-        Document.newBuilder().setContent(word.toLowerCase()).setType(Type.PLAIN_TEXT).build();
-    AnalyzeEntitiesRequest request =
-        AnalyzeEntitiesRequest.newBuilder()
-            .setDocument(doc)
-            .setEncodingType(EncodingType.UTF16)
-            .build();
-    AnalyzeEntitiesResponse response = service.analyzeEntities(request);
-
-    for (Entity entity : response.getEntitiesList()) {
-      entities.add(entity.getName());
+    return new ArrayList<String>(analyzer.findEntities(word));
+  }
+
+  private static <T> T join(CompletableFuture<T> future) throws IOException {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      }
+      throw e;
     }
-    return entities;
   }
 }
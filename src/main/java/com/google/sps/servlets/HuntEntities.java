@@ -0,0 +1,144 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Text;
+import com.google.gson.Gson;
+import com.google.sps.data.BinaryCodec;
+import com.google.sps.data.JsonCodec;
+import com.google.sps.data.ScavengerHunt;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps a ScavengerHunt to and from its Datastore entity. A hunt is stored in one unindexed
+ * property, either as JSON Text or as a {@link BinaryCodec} Blob about two thirds that size, which
+ * also decodes several times faster. Reads accept both, so the format of new hunts can be switched,
+ * or existing hunts migrated, at any time.
+ *
+ * <p>A hunt can instead be stored as {@link HuntReferences}, in two unindexed list properties and
+ * without a body; such hunts are read with {@link #referencesOf} and hydrated, see {@link
+ * HuntStore}.
+ */
+public final class HuntEntities {
+  /** How a hunt's body is stored. */
+  public enum Format {
+    JSON,
+    BINARY
+  }
+
+  /**
+   * System property, set in appengine-web.xml, that picks the format of new hunts. JSON if unset.
+   * Only switch to BINARY once no serving version is older than this class.
+   */
+  public static final String FORMAT_PROPERTY = "scavengerHunt.storageFormat";
+
+  /**
+   * System property, set in appengine-web.xml, that makes generated hunts reference their
+   * destinations instead of copying them. Only set it once no serving version is older than this
+   * class.
+   */
+  public static final String REFERENCES_PROPERTY = "scavengerHunt.referenceDestinations";
+
+  static final boolean REFERENCE_BY_DEFAULT = Boolean.getBoolean(REFERENCES_PROPERTY);
+
+  private static final Gson GSON = JsonCodec.gson();
+  private static final Format DEFAULT_FORMAT =
+      Format.valueOf(System.getProperty(FORMAT_PROPERTY, Format.JSON.name()));
+
+  private HuntEntities() {}
+
+  /** Returns a new entity holding {@code hunt} in the configured format. */
+  public static Entity toEntity(ScavengerHunt hunt) {
+    return toEntity(hunt, DEFAULT_FORMAT);
+  }
+
+  /** Returns a new entity holding {@code hunt} in {@code format}. */
+  public static Entity toEntity(ScavengerHunt hunt, Format format) {
+    Entity entity = new Entity(Constants.SCAVENGER_HUNT_ENTITY);
+    setBody(entity, hunt, format);
+    return entity;
+  }
+
+  /** Returns a new entity holding the hunt that {@code references} describe. */
+  public static Entity toEntity(HuntReferences references) {
+    Entity entity = new Entity(Constants.SCAVENGER_HUNT_ENTITY);
+    entity.setUnindexedProperty(
+        Constants.HUNT_DESTINATIONS, new ArrayList<>(references.getDestinations()));
+    entity.setUnindexedProperty(Constants.HUNT_RIDDLES, new ArrayList<>(references.getRiddles()));
+    return entity;
+  }
+
+  /** Returns whether {@code entity} holds {@link HuntReferences} rather than a body. */
+  public static boolean isReferences(Entity entity) {
+    return entity.hasProperty(Constants.HUNT_DESTINATIONS);
+  }
+
+  /** Reads the references held by {@code entity}, see {@link #isReferences}. */
+  @SuppressWarnings("unchecked")
+  public static HuntReferences referencesOf(Entity entity) {
+    List<Key> destinations = (List<Key>) entity.getProperty(Constants.HUNT_DESTINATIONS);
+    List<Long> riddles = (List<Long>) entity.getProperty(Constants.HUNT_RIDDLES);
+    // Datastore drops empty lists, and reads integers back as longs.
+    List<Integer> indexes = new ArrayList<>();
+    if (riddles != null) {
+      for (Long riddle : riddles) {
+        indexes.add(riddle.intValue());
+      }
+    }
+    return new HuntReferences(destinations == null ? new ArrayList<>() : destinations, indexes);
+  }
+
+  /** Replaces the hunt held by {@code entity} with {@code hunt} in {@code format}. */
+  public static void setBody(Entity entity, ScavengerHunt hunt, Format format) {
+    entity.setUnindexedProperty(
+        Constants.HUNT_VAL,
+        format == Format.BINARY ? new Blob(BinaryCodec.encode(hunt)) : new Text(GSON.toJson(hunt)));
+  }
+
+  /** Returns the format of the hunt body held by {@code entity}, which must have one. */
+  public static Format formatOf(Entity entity) {
+    return entity.getProperty(Constants.HUNT_VAL) instanceof Blob ? Format.BINARY : Format.JSON;
+  }
+
+  /** Reads the hunt held by {@code entity}, in either format. */
+  public static ScavengerHunt toHunt(Entity entity) {
+    Object body = bodyOf(entity);
+    if (body instanceof Blob) {
+      return BinaryCodec.decode(((Blob) body).getBytes());
+    }
+    return GSON.fromJson(((Text) body).getValue(), ScavengerHunt.class);
+  }
+
+  /** Returns the hunt held by {@code entity} as JSON, without re-encoding one stored as JSON. */
+  public static String toJson(Entity entity) {
+    Object body = bodyOf(entity);
+    if (body instanceof Blob) {
+      return GSON.toJson(BinaryCodec.decode(((Blob) body).getBytes()));
+    }
+    return ((Text) body).getValue();
+  }
+
+  private static Object bodyOf(Entity entity) {
+    if (isReferences(entity)) {
+      throw new IllegalArgumentException(
+          "Hunt " + entity.getKey() + " references its destinations and must be hydrated");
+    }
+    return entity.getProperty(Constants.HUNT_VAL);
+  }
+}
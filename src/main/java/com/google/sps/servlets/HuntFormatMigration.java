@@ -0,0 +1,46 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Entity;
+
+/**
+ * Rewrites hunts stored as JSON Text into the binary format of {@link HuntEntities}. Hunts stored
+ * as references have no body and are left alone.
+ */
+public class HuntFormatMigration implements Migration {
+  public static final String NAME = "hunt-binary-format";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public String getKind() {
+    return Constants.SCAVENGER_HUNT_ENTITY;
+  }
+
+  @Override
+  public Entity migrate(Entity entity) {
+    if (HuntEntities.isReferences(entity)
+        || HuntEntities.formatOf(entity) == HuntEntities.Format.BINARY) {
+      return null;
+    }
+    Entity migrated = entity.clone();
+    HuntEntities.setBody(migrated, HuntEntities.toHunt(entity), HuntEntities.Format.BINARY);
+    return migrated;
+  }
+}
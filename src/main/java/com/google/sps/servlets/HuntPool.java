@@ -0,0 +1,350 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.sps.data.Destination;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hunts generated ahead of time, kept in a bounded pool for each combination of filters that
+ * players ask for, so that a request for a popular combination takes a ready hunt in O(1) instead
+ * of filtering, sampling and ordering destinations itself.
+ *
+ * <p>A combination gets a pool once it has been asked for a few times within {@link
+ * #ADMISSION_WINDOW_MILLIS}, so that the long tail of combinations asked for once does not fill
+ * every slot with hunts nobody takes. Requests are counted for a bounded number of combinations
+ * without a pool. There is a fixed number of pools; when every slot is taken, the pool least
+ * recently taken from is given up if it has been idle for {@link #IDLE_MILLIS}. Whenever a pool
+ * falls below its low watermark, one producer on a {@link BackgroundThreads} thread, rather than
+ * under the request that found the pool low, refills it to capacity. Each hunt is handed out once,
+ * as an entity that is yet to be stored, so that it gets its own id and progress.
+ */
+public class HuntPool {
+  private static final Logger LOG = Logger.getLogger(HuntPool.class.getName());
+  private static final int DEFAULT_CAPACITY = 16;
+  private static final int DEFAULT_LOW_WATERMARK = 4;
+  private static final int DEFAULT_MAX_COMBINATIONS = 64;
+  private static final int DEFAULT_ADMIT_AFTER = 3;
+  // How many combinations without a pool have their requests counted, for each pool
+  private static final int CANDIDATES_PER_POOL = 8;
+  // How soon a combination must be asked for again to count towards its admission
+  static final long ADMISSION_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(10);
+  // How long a pool must go untouched before a new combination may take its slot
+  static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  /** Makes one hunt for {@code filters}, or returns null if it cannot make one now. */
+  public interface Generator {
+    Entity generate(Filters filters);
+  }
+
+  private static HuntPool instance;
+
+  private final int capacity;
+  private final int lowWatermark;
+  private final int maxCombinations;
+  private final int admitAfter;
+  private final Executor producer;
+  private final LongSupplier clock;
+  private final Map<Filters, Pool> pools = new ConcurrentHashMap<>();
+  // Requests for combinations without a pool, oldest first; guarded by pools
+  private final Map<Filters, Candidate> candidates;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong unpooled = new AtomicLong();
+  private final AtomicLong produced = new AtomicLong();
+  private final AtomicLong refills = new AtomicLong();
+  private final AtomicLong generationFailures = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong admissions = new AtomicLong();
+
+  /**
+   * Makes a pool that keeps up to {@code capacity} hunts for each of up to {@code maxCombinations}
+   * combinations, each admitted once it has been asked for {@code admitAfter} times.
+   */
+  public HuntPool(
+      int capacity,
+      int lowWatermark,
+      int maxCombinations,
+      int admitAfter,
+      Executor producer,
+      LongSupplier clock) {
+    this.capacity = capacity;
+    this.lowWatermark = lowWatermark;
+    this.maxCombinations = maxCombinations;
+    this.admitAfter = admitAfter;
+    this.producer = producer;
+    this.clock = clock;
+    int maxCandidates = maxCombinations * CANDIDATES_PER_POOL;
+    this.candidates =
+        new LinkedHashMap<Filters, Candidate>() {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Filters, Candidate> eldest) {
+            return size() > maxCandidates;
+          }
+        };
+  }
+
+  public HuntPool() {
+    this(
+        DEFAULT_CAPACITY,
+        DEFAULT_LOW_WATERMARK,
+        DEFAULT_MAX_COMBINATIONS,
+        DEFAULT_ADMIT_AFTER,
+        newProducer(),
+        System::currentTimeMillis);
+  }
+
+  /** Returns the pool shared by every servlet in this instance. */
+  public static synchronized HuntPool getInstance() {
+    if (instance == null) {
+      instance = new HuntPool();
+    }
+    return instance;
+  }
+
+  /**
+   * Takes a hunt generated ahead of time for {@code filters}, or returns null if there is none, in
+   * which case the caller generates one itself. Starts a refill with {@code generator} if this
+   * leaves the pool below its low watermark.
+   */
+  public Entity take(Filters filters, Generator generator) {
+    Pool pool = poolFor(filters);
+    if (pool == null) {
+      unpooled.incrementAndGet();
+      misses.incrementAndGet();
+      return null;
+    }
+    pool.lastTakenMillis = clock.getAsLong();
+    Entity hunt = pool.hunts.poll();
+    (hunt == null ? misses : hits).incrementAndGet();
+    if (pool.hunts.size() < lowWatermark && pool.refilling.compareAndSet(false, true)) {
+      refills.incrementAndGet();
+      producer.execute(() -> refill(filters, pool, generator));
+    }
+    return hunt;
+  }
+
+  /** Returns hit, miss and refill counts, and the number of hunts ready for each combination. */
+  public Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("hits", hits.get());
+    stats.put("misses", misses.get());
+    stats.put("unpooled", unpooled.get());
+    stats.put("produced", produced.get());
+    stats.put("refills", refills.get());
+    stats.put("generationFailures", generationFailures.get());
+    stats.put("evictions", evictions.get());
+    stats.put("admissions", admissions.get());
+    synchronized (pools) {
+      stats.put("candidates", candidates.size());
+    }
+    Map<String, Integer> depths = new TreeMap<>();
+    for (Map.Entry<Filters, Pool> entry : pools.entrySet()) {
+      depths.put(entry.getKey().toString(), entry.getValue().hunts.size());
+    }
+    stats.put("pools", depths.size());
+    stats.put("depths", depths);
+    return stats;
+  }
+
+  /*
+   * Returns the pool of filters, making one if they have been asked for often enough and there is
+   * room. Null if there is none.
+   */
+  private Pool poolFor(Filters filters) {
+    Pool pool = pools.get(filters);
+    if (pool != null) {
+      return pool;
+    }
+    synchronized (pools) {
+      pool = pools.get(filters);
+      if (pool != null) {
+        return pool;
+      }
+      if (!admit(filters) || (pools.size() >= maxCombinations && !evictIdlePool())) {
+        return null;
+      }
+      candidates.remove(filters);
+      admissions.incrementAndGet();
+      pool = new Pool(capacity, clock.getAsLong());
+      pools.put(filters, pool);
+      return pool;
+    }
+  }
+
+  /* Counts a request for filters, which have no pool, and returns whether they earned one. */
+  private boolean admit(Filters filters) {
+    long now = clock.getAsLong();
+    Candidate candidate = candidates.get(filters);
+    if (candidate == null || now - candidate.firstRequestMillis >= ADMISSION_WINDOW_MILLIS) {
+      // A new window goes to the back, so that the oldest windows are forgotten first.
+      candidates.remove(filters);
+      candidate = new Candidate(now);
+      candidates.put(filters, candidate);
+    }
+    return ++candidate.requests >= admitAfter;
+  }
+
+  /* Drops the pool least recently taken from if it has been idle long enough. */
+  private boolean evictIdlePool() {
+    Map.Entry<Filters, Pool> idlest = null;
+    for (Map.Entry<Filters, Pool> entry : pools.entrySet()) {
+      if (idlest == null || entry.getValue().lastTakenMillis < idlest.getValue().lastTakenMillis) {
+        idlest = entry;
+      }
+    }
+    if (idlest == null || clock.getAsLong() - idlest.getValue().lastTakenMillis < IDLE_MILLIS) {
+      return false;
+    }
+    pools.remove(idlest.getKey());
+    evictions.incrementAndGet();
+    return true;
+  }
+
+  /* Generates hunts until the pool is full, or the generator cannot make one. */
+  private void refill(Filters filters, Pool pool, Generator generator) {
+    try {
+      while (pool.hunts.remainingCapacity() > 0) {
+        Entity hunt = generator.generate(filters);
+        if (hunt == null) {
+          generationFailures.incrementAndGet();
+          return;
+        }
+        if (!pool.hunts.offer(hunt)) {
+          return;
+        }
+        produced.incrementAndGet();
+      }
+    } catch (RuntimeException e) {
+      generationFailures.incrementAndGet();
+      LOG.log(Level.WARNING, "Refilling the hunt pool for " + filters + " failed", e);
+    } finally {
+      pool.refilling.set(false);
+    }
+  }
+
+  private static Executor newProducer() {
+    return BackgroundThreads.newSingleThreadExecutor("hunt-pool-producer");
+  }
+
+  /** The hunts ready for one combination of filters. */
+  private static class Pool {
+    private final BlockingQueue<Entity> hunts;
+    private final AtomicBoolean refilling = new AtomicBoolean(false);
+    private volatile long lastTakenMillis;
+
+    private Pool(int capacity, long createdAtMillis) {
+      this.hunts = new ArrayBlockingQueue<>(capacity);
+      this.lastTakenMillis = createdAtMillis;
+    }
+  }
+
+  /** The requests for a combination without a pool since the first in its window. */
+  private static class Candidate {
+    private final long firstRequestMillis;
+    private int requests;
+
+    private Candidate(long firstRequestMillis) {
+      this.firstRequestMillis = firstRequestMillis;
+    }
+  }
+
+  /** The cities, difficulty levels and tags a hunt is drawn from, and its number of stops. */
+  public static final class Filters {
+    private final Set<String> cities;
+    private final Set<Destination.Obscurity> levels;
+    private final Set<Destination.Tag> tags;
+    private final int numPlaces;
+
+    public Filters(
+        Set<String> cities,
+        Set<Destination.Obscurity> levels,
+        Set<Destination.Tag> tags,
+        int numPlaces) {
+      this.cities = Collections.unmodifiableSet(new HashSet<>(cities));
+      this.levels = Collections.unmodifiableSet(new HashSet<>(levels));
+      this.tags = Collections.unmodifiableSet(new HashSet<>(tags));
+      this.numPlaces = numPlaces;
+    }
+
+    public Set<String> getCities() {
+      return cities;
+    }
+
+    public Set<Destination.Obscurity> getLevels() {
+      return levels;
+    }
+
+    public Set<Destination.Tag> getTags() {
+      return tags;
+    }
+
+    public int getNumPlaces() {
+      return numPlaces;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Filters)) {
+        return false;
+      }
+      Filters filters = (Filters) other;
+      return numPlaces == filters.numPlaces
+          && cities.equals(filters.cities)
+          && levels.equals(filters.levels)
+          && tags.equals(filters.tags);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(cities, levels, tags, numPlaces);
+    }
+
+    /* Sorted, so that the same combination always reads the same in the stats. */
+    @Override
+    public String toString() {
+      return sorted(cities) + " " + sorted(levels) + " " + sorted(tags) + " x" + numPlaces;
+    }
+
+    private static List<String> sorted(Set<?> values) {
+      List<String> names = new ArrayList<>();
+      for (Object value : values) {
+        names.add(value.toString());
+      }
+      Collections.sort(names);
+      return names;
+    }
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.sps.data.Destination;
+import com.google.sps.data.HuntItem;
+import com.google.sps.data.ScavengerHunt;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A hunt stored by reference: for each stop, the key of its Destination and the index of the riddle
+ * asked there, instead of a copy of the destination. The entity stays a few hundred bytes however
+ * much the destinations hold, and a fix to a destination reaches every hunt that visits it. Players
+ * are served the {@link ScavengerHunt} that {@link #hydrate} builds from the current destinations.
+ */
+public final class HuntReferences {
+  private static final Logger LOG = Logger.getLogger(HuntReferences.class.getName());
+
+  private final List<Key> destinations;
+  private final List<Integer> riddles;
+
+  /**
+   * Pairs each destination key with the riddle index at the same position.
+   *
+   * @throws IllegalArgumentException unless there is one riddle index for each destination
+   */
+  public HuntReferences(List<Key> destinations, List<Integer> riddles) {
+    if (destinations.size() != riddles.size()) {
+      throw new IllegalArgumentException(
+          destinations.size() + " destinations but " + riddles.size() + " riddles");
+    }
+    this.destinations = Collections.unmodifiableList(new ArrayList<>(destinations));
+    this.riddles = Collections.unmodifiableList(new ArrayList<>(riddles));
+  }
+
+  /** Returns the key of each stop's destination, in visiting order. */
+  public List<Key> getDestinations() {
+    return destinations;
+  }
+
+  /** Returns the index of the riddle asked at each stop. */
+  public List<Integer> getRiddles() {
+    return riddles;
+  }
+
+  /**
+   * Returns the hunt made of {@code found}, which maps keys to the destinations stored under them.
+   * A stop whose destination is missing from {@code found}, e.g. because it was deleted, is left
+   * out, riddle and all, so the hunt goes straight on to the stop after it.
+   */
+  public ScavengerHunt hydrate(Map<Key, Destination> found) {
+    ArrayList<HuntItem> items = new ArrayList<>(destinations.size());
+    for (int stop = 0; stop < destinations.size(); stop++) {
+      Destination destination = found.get(destinations.get(stop));
+      if (destination == null) {
+        LOG.warning("Hunt skips missing destination " + destinations.get(stop));
+      } else {
+        items.add(destination.convertToHuntItem(riddles.get(stop)));
+      }
+    }
+    return new ScavengerHunt(items);
+  }
+}
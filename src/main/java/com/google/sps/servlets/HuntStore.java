@@ -0,0 +1,519 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.sps.data.Destination;
+import com.google.sps.data.HuntProgress;
+import com.google.sps.data.JsonCodec;
+import com.google.sps.data.LruCache;
+import com.google.sps.data.ScavengerHunt;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads scavenger hunts and keeps track of how far their players have got.
+ *
+ * <p>A hunt's items never change once it is generated, so they are parsed once and kept in an
+ * in-process LRU. Progress lives in a small HuntProgress entity that is a child of the hunt, so
+ * advancing a stage writes only that entity, in a transaction. Hunts stored before progress was
+ * split out keep their index in the hunt itself; it is used until their first advance.
+ *
+ * <p>The JSON sent to players is cached as bytes in two tiers: an in-process LRU, and memcache,
+ * which every instance shares. Hot hunts are served from memory without Datastore or Gson. Each
+ * advance writes the new JSON through to both tiers; a tier never replaces a hunt with one at a
+ * lower index. Another instance's LRU may lag behind by up to {@link #LOCAL_TTL_MILLIS}.
+ *
+ * <p>Hunts stored as {@link HuntReferences} are hydrated when their body is first read: from the
+ * {@link DestinationCatalog} when it is loaded, and with one batch get for whatever it lacks. Edits
+ * to a destination therefore reach such hunts once their cached JSON expires.
+ *
+ * <p>Players normally fetch one stage at a time, see {@link #getStageJson(long)}, so that what they
+ * download does not grow with the hunt and later answers are not sent ahead of time.
+ */
+public class HuntStore {
+  private static final Gson GSON = JsonCodec.gson();
+  private static final int DEFAULT_CAPACITY = 1000;
+  private static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+  // How long this instance trusts its own copy of a hunt's JSON
+  static final long LOCAL_TTL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+  private static final Expiration SHARED_EXPIRATION = Expiration.byDeltaSeconds(60 * 60);
+  private static final String SHARED_KEY_PREFIX = "hunt-json:";
+  private static final int MAX_SHARED_WRITE_ATTEMPTS = 3;
+  // Index, hints used and start time, ahead of each cached hunt's JSON
+  private static final int HEADER_BYTES = Integer.BYTES * 2 + Long.BYTES;
+  // Every hunt has one progress entity, with this id under the hunt's key
+  private static final long PROGRESS_ID = 1;
+  // Retries wait up to 10ms, 20ms, ... 640ms, so a stage advance gives up after about a second
+  private static final int MAX_ADVANCE_ATTEMPTS = 8;
+  private static final long ADVANCE_BACKOFF_MILLIS = 10;
+
+  private static HuntStore instance;
+
+  private final DatastoreService datastore;
+  private final MemcacheService memcache;
+  private final DestinationCatalog catalog;
+  private final DestinationQueries queries;
+  // Serialized JSON of hunts, each prefixed with its progress, see encode()
+  private final LruCache<Long, byte[]> hunts;
+  private final LruCache<Long, Body> bodies = new LruCache<>(DEFAULT_CAPACITY, DEFAULT_TTL_MILLIS);
+
+  private final AtomicLong advances = new AtomicLong();
+  private final AtomicLong staleAdvances = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong failedAdvances = new AtomicLong();
+  private final AtomicLong localHits = new AtomicLong();
+  private final AtomicLong sharedHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong hydrations = new AtomicLong();
+  private final AtomicLong destinationGets = new AtomicLong();
+  // Stage reads past the cached index that went to Datastore for the progress
+  private final AtomicLong progressReads = new AtomicLong();
+
+  public HuntStore(
+      DatastoreService datastore,
+      MemcacheService memcache,
+      LruCache<Long, byte[]> hunts,
+      DestinationCatalog catalog) {
+    this.datastore = datastore;
+    this.memcache = memcache;
+    this.hunts = hunts;
+    this.catalog = catalog;
+    this.queries = new DestinationQueries(datastore);
+  }
+
+  public HuntStore(
+      DatastoreService datastore, MemcacheService memcache, LruCache<Long, byte[]> hunts) {
+    this(datastore, memcache, hunts, DestinationCatalog.getInstance());
+  }
+
+  public HuntStore(DatastoreService datastore) {
+    this(
+        datastore,
+        MemcacheServiceFactory.getMemcacheService(),
+        new LruCache<>(DEFAULT_CAPACITY, LOCAL_TTL_MILLIS));
+  }
+
+  /** Returns the store shared by every servlet in this instance. */
+  public static synchronized HuntStore getInstance() {
+    if (instance == null) {
+      instance = new HuntStore(DatastoreServiceFactory.getDatastoreService());
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the hunt as the JSON go.js reads: its items, the current index, when each stage was
+   * solved and how many hints were used. Returns null if there is no such hunt.
+   */
+  public String getHuntJson(long huntId) {
+    byte[] json = getHuntBytes(huntId);
+    return json == null ? null : new String(json, StandardCharsets.UTF_8);
+  }
+
+  /** Same as {@link #getHuntJson}, as UTF-8. */
+  public byte[] getHuntBytes(long huntId) {
+    byte[] entry = getEntry(huntId);
+    return entry == null ? null : jsonOf(entry);
+  }
+
+  /**
+   * Returns only what a player needs for the current stage: the index, the number of stages, the
+   * hints used, when the hunt started if it has, and the item to find now, or the first item before
+   * the hunt starts. Items are sent without their answer entities. Returns null if there is no such
+   * hunt.
+   */
+  public String getStageJson(long huntId) {
+    byte[] entry = getEntry(huntId);
+    Body body = entry == null ? null : getBody(huntId);
+    if (body == null) {
+      return null;
+    }
+    ByteBuffer header = ByteBuffer.wrap(entry);
+    int index = header.getInt();
+    int hintsUsed = header.getInt();
+    long startedAt = header.getLong();
+    int current = Math.max(index, 0);
+
+    StringBuilder json = new StringBuilder("{\"index\":").append(index);
+    json.append(",\"count\":").append(body.stages.size());
+    json.append(",\"hintsUsed\":").append(hintsUsed);
+    if (startedAt >= 0) {
+      json.append(",\"startedAt\":").append(startedAt);
+    }
+    if (current < body.stages.size()) {
+      json.append(",\"stage\":").append(body.stages.get(current));
+    }
+    return json.append('}').toString();
+  }
+
+  /**
+   * Returns a single stage of the hunt. A stage the player has reached comes whole, as {@code
+   * {"stage":N,"item":...}}; the stage after the current one comes as {@code
+   * {"stage":N,"riddle":...}}, so that its riddle can be shown as soon as the player proceeds
+   * without giving away its answer. Returns null for any other stage, or if there is no such hunt.
+   *
+   * <p>A stage past the cached index may have been reached through another instance, whose advance
+   * this one's LRU has not seen yet. The progress is read from Datastore before refusing a stage
+   * further ahead than the next one, but not for the next riddle, which go.js prefetches on every
+   * load and every proceed.
+   */
+  public String getStageJson(long huntId, int stage) {
+    return getStageJson(huntId, stage, false);
+  }
+
+  /**
+   * Like {@link #getStageJson(long, int)}, but if {@code itemWanted}, only returns the stage whole,
+   * and reads the progress from Datastore before refusing any stage past the cached index; go.js
+   * asks for the item of the stage it has just advanced to, possibly through another instance.
+   */
+  public String getStageJson(long huntId, int stage, boolean itemWanted) {
+    byte[] entry = getEntry(huntId);
+    Body body = entry == null ? null : getBody(huntId);
+    if (body == null || stage < 0 || stage >= body.stages.size()) {
+      return null;
+    }
+    int current = Math.max(indexOf(entry), 0);
+    if (stage > current + 1 || (itemWanted && stage > current)) {
+      progressReads.incrementAndGet();
+      HuntProgress progress = getProgress(huntId, body);
+      if (progress.getIndex() > indexOf(entry)) {
+        cache(huntId, encode(body, progress));
+        current = progress.getIndex();
+      }
+    }
+    if (stage <= current) {
+      return "{\"stage\":" + stage + ",\"item\":" + body.stages.get(stage) + "}";
+    }
+    if (stage == current + 1 && !itemWanted) {
+      return "{\"stage\":" + stage + ",\"riddle\":" + body.riddles.get(stage) + "}";
+    }
+    return null;
+  }
+
+  /**
+   * Returns the hunt's cache entry from the first tier that has it, or null if there is no hunt.
+   */
+  private byte[] getEntry(long huntId) {
+    byte[] entry = hunts.get(huntId);
+    if (entry != null) {
+      localHits.incrementAndGet();
+      return entry;
+    }
+    entry = (byte[]) memcache.get(sharedKey(huntId));
+    if (entry != null) {
+      sharedHits.incrementAndGet();
+      cacheLocally(huntId, entry);
+      return entry;
+    }
+
+    misses.incrementAndGet();
+    Body body = getBody(huntId);
+    if (body == null) {
+      return null;
+    }
+    entry = encode(body, getProgress(huntId, body));
+    cache(huntId, entry);
+    return entry;
+  }
+
+  /**
+   * Moves the hunt to {@code index}, counting {@code hints} more hints used, in a transaction on
+   * the hunt's progress entity. Returns false, writing nothing, if the hunt is already at or past
+   * {@code index}, so that progress never goes backward when several devices report it. A
+   * transaction that collides with another update is retried with jittered backoff, at most {@link
+   * #MAX_ADVANCE_ATTEMPTS} times in all.
+   *
+   * @throws EntityNotFoundException if there is no such hunt
+   * @throws ConcurrentModificationException if every attempt collided
+   */
+  public boolean advance(long huntId, int index, int hints)
+      throws EntityNotFoundException, InterruptedException {
+    Body body = getBody(huntId);
+    if (body == null) {
+      throw new EntityNotFoundException(huntKey(huntId));
+    }
+    ConcurrentModificationException collision = null;
+    for (int attempt = 1; attempt <= MAX_ADVANCE_ATTEMPTS; attempt++) {
+      if (attempt > 1) {
+        retries.incrementAndGet();
+        Thread.sleep(backoff(attempt - 1));
+      }
+      Transaction txn = datastore.beginTransaction();
+      try {
+        HuntProgress current;
+        try {
+          current = fromEntity(datastore.get(txn, progressKey(huntId)));
+        } catch (EntityNotFoundException e) {
+          current = HuntProgress.at(body.legacyIndex);
+        }
+        if (index <= current.getIndex()) {
+          staleAdvances.incrementAndGet();
+          return false;
+        }
+        HuntProgress advanced = current.advancedTo(index, hints, System.currentTimeMillis());
+        datastore.put(txn, toEntity(huntId, advanced));
+        txn.commit();
+        advances.incrementAndGet();
+        cache(huntId, encode(body, advanced));
+        return true;
+      } catch (ConcurrentModificationException e) {
+        collision = e;
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+    failedAdvances.incrementAndGet();
+    throw new ConcurrentModificationException(
+        "Hunt " + huntId + " still contended after " + MAX_ADVANCE_ATTEMPTS + " attempts",
+        collision);
+  }
+
+  /** Returns update and contention counts and the number of cached hunts, keyed by name. */
+  public Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("advances", advances.get());
+    stats.put("staleAdvances", staleAdvances.get());
+    stats.put("retries", retries.get());
+    stats.put("failedAdvances", failedAdvances.get());
+    stats.put("localHits", localHits.get());
+    stats.put("sharedHits", sharedHits.get());
+    stats.put("misses", misses.get());
+    stats.put("hydrations", hydrations.get());
+    stats.put("destinationGets", destinationGets.get());
+    stats.put("progressReads", progressReads.get());
+    stats.put("cachedHunts", hunts.size());
+    return stats;
+  }
+
+  /* Full jitter: a random wait of up to ADVANCE_BACKOFF_MILLIS * 2^(retry - 1). */
+  private static long backoff(int retry) {
+    return ThreadLocalRandom.current().nextLong((ADVANCE_BACKOFF_MILLIS << (retry - 1)) + 1);
+  }
+
+  /** Returns the progress of the hunt, or null if there is no such hunt. */
+  public HuntProgress getProgress(long huntId) {
+    Body body = getBody(huntId);
+    return body == null ? null : getProgress(huntId, body);
+  }
+
+  private HuntProgress getProgress(long huntId, Body body) {
+    try {
+      return fromEntity(datastore.get(progressKey(huntId)));
+    } catch (EntityNotFoundException e) {
+      return HuntProgress.at(body.legacyIndex);
+    }
+  }
+
+  /** Returns the hunt's items, from memory if they were read before. Null if there is no hunt. */
+  private Body getBody(long huntId) {
+    Body body = bodies.get(huntId);
+    if (body != null) {
+      return body;
+    }
+    try {
+      Entity hunt = datastore.get(huntKey(huntId));
+      JsonElement json;
+      if (HuntEntities.isReferences(hunt)) {
+        json = GSON.toJsonTree(hydrate(HuntEntities.referencesOf(hunt)));
+      } else if (HuntEntities.formatOf(hunt) == HuntEntities.Format.BINARY) {
+        // Straight from the decoded hunt to the tree, rather than through a JSON string
+        json = GSON.toJsonTree(HuntEntities.toHunt(hunt));
+      } else {
+        json = JsonParser.parseString(HuntEntities.toJson(hunt));
+      }
+      body = Body.of(json.getAsJsonObject());
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+    bodies.put(huntId, body);
+    return body;
+  }
+
+  /*
+   * Reads the referenced destinations from the catalog if it is loaded, and any it does not know
+   * with one batch get. A cold catalog starts loading, but is not waited for.
+   */
+  private ScavengerHunt hydrate(HuntReferences references) {
+    hydrations.incrementAndGet();
+    Map<Key, Destination> found = new HashMap<>();
+    if (catalog.isLoaded()) {
+      found.putAll(catalog.get(references.getDestinations()));
+    } else {
+      catalog.warmUp();
+    }
+    List<Key> missing = new ArrayList<>();
+    for (Key key : references.getDestinations()) {
+      if (!found.containsKey(key)) {
+        missing.add(key);
+      }
+    }
+    if (!missing.isEmpty()) {
+      destinationGets.incrementAndGet();
+      found.putAll(queries.get(missing));
+    }
+    return references.hydrate(found);
+  }
+
+  /** Puts {@code entry} in both tiers, unless a tier already has the hunt at a higher index. */
+  private void cache(long huntId, byte[] entry) {
+    cacheLocally(huntId, entry);
+    String key = sharedKey(huntId);
+    for (int attempt = 0; attempt < MAX_SHARED_WRITE_ATTEMPTS; attempt++) {
+      MemcacheService.IdentifiableValue current = memcache.getIdentifiable(key);
+      if (current == null) {
+        if (memcache.put(key, entry, SHARED_EXPIRATION, SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+          return;
+        }
+      } else if (indexOf((byte[]) current.getValue()) > indexOf(entry)
+          || memcache.putIfUntouched(key, current, entry, SHARED_EXPIRATION)) {
+        return;
+      }
+    }
+    // Lost every race; drop the shared copy rather than leave a stale one.
+    memcache.delete(key);
+  }
+
+  private void cacheLocally(long huntId, byte[] entry) {
+    synchronized (hunts) {
+      byte[] current = hunts.get(huntId);
+      if (current == null || indexOf(current) <= indexOf(entry)) {
+        hunts.put(huntId, entry);
+      }
+    }
+  }
+
+  /**
+   * Returns the hunt's index, hints used and start time (-1 if not started), followed by its JSON,
+   * as UTF-8.
+   */
+  private static byte[] encode(Body body, HuntProgress progress) {
+    String json =
+        "{\"items\":"
+            + body.itemsJson
+            + ",\"index\":"
+            + progress.getIndex()
+            + ",\"solvedAt\":"
+            + GSON.toJson(progress.getSolvedAtMillis())
+            + ",\"hintsUsed\":"
+            + progress.getHintsUsed()
+            + "}";
+    byte[] utf8 = json.getBytes(StandardCharsets.UTF_8);
+    List<Long> solvedAt = progress.getSolvedAtMillis();
+    return ByteBuffer.allocate(HEADER_BYTES + utf8.length)
+        .putInt(progress.getIndex())
+        .putInt(progress.getHintsUsed())
+        .putLong(solvedAt.isEmpty() ? -1 : solvedAt.get(0))
+        .put(utf8)
+        .array();
+  }
+
+  private static int indexOf(byte[] entry) {
+    return ByteBuffer.wrap(entry).getInt();
+  }
+
+  private static byte[] jsonOf(byte[] entry) {
+    return Arrays.copyOfRange(entry, HEADER_BYTES, entry.length);
+  }
+
+  private static String sharedKey(long huntId) {
+    return SHARED_KEY_PREFIX + huntId;
+  }
+
+  static Key huntKey(long huntId) {
+    return KeyFactory.createKey(Constants.SCAVENGER_HUNT_ENTITY, huntId);
+  }
+
+  static Key progressKey(long huntId) {
+    return KeyFactory.createKey(huntKey(huntId), Constants.HUNT_PROGRESS_ENTITY, PROGRESS_ID);
+  }
+
+  private static Entity toEntity(long huntId, HuntProgress progress) {
+    Entity entity = new Entity(progressKey(huntId));
+    entity.setUnindexedProperty(Constants.PROGRESS_INDEX, progress.getIndex());
+    entity.setUnindexedProperty(Constants.PROGRESS_SOLVED_AT, progress.getSolvedAtMillis());
+    entity.setUnindexedProperty(Constants.PROGRESS_HINTS_USED, progress.getHintsUsed());
+    return entity;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static HuntProgress fromEntity(Entity entity) {
+    List<Long> solvedAt = (List<Long>) entity.getProperty(Constants.PROGRESS_SOLVED_AT);
+    return new HuntProgress(
+        ((Long) entity.getProperty(Constants.PROGRESS_INDEX)).intValue(),
+        solvedAt == null ? Collections.emptyList() : new ArrayList<>(solvedAt),
+        ((Long) entity.getProperty(Constants.PROGRESS_HINTS_USED)).intValue());
+  }
+
+  /** The immutable part of a stored hunt. */
+  private static class Body {
+    // The hunt's items as a JSON array, ready to be copied into responses
+    private final String itemsJson;
+    // The index stored in the hunt itself, by hunts older than their progress entity
+    private final int legacyIndex;
+    // Each item as JSON, without the answer entities that only the server needs
+    private final List<String> stages = new ArrayList<>();
+    // Each item's riddle as JSON
+    private final List<String> riddles = new ArrayList<>();
+
+    private Body(JsonArray items, int legacyIndex) {
+      this.itemsJson = items.toString();
+      this.legacyIndex = legacyIndex;
+      for (JsonElement item : items) {
+        JsonObject stage = item.getAsJsonObject();
+        // Only hunts generated before guesses used the catalog's entities have them
+        if (stage.has("answerEntities")) {
+          stage = stage.deepCopy();
+          stage.remove("answerEntities");
+        }
+        stages.add(stage.toString());
+        riddles.add(String.valueOf(stage.get("riddle")));
+      }
+    }
+
+    private static Body of(JsonObject hunt) {
+      JsonElement index = hunt.get("index");
+      return new Body(hunt.getAsJsonArray("items"), index == null ? -1 : index.getAsInt());
+    }
+  }
+}
@@ -0,0 +1,38 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Entity;
+
+/**
+ * A rewrite of every entity of one kind into a new storage layout, run by {@link MigrationRunner}.
+ *
+ * <p>A batch may be migrated more than once if a run fails between its put and its checkpoint, so
+ * {@link #migrate} must recognise entities that are already in the new layout.
+ */
+public interface Migration {
+
+  /** Returns the name under which the runner checkpoints this migration. */
+  String getName();
+
+  /** Returns the kind whose entities are migrated. */
+  String getKind();
+
+  /**
+   * Returns {@code entity} rewritten in the new layout under the same key, or null if it is already
+   * in that layout. Called from several worker threads at once.
+   */
+  Entity migrate(Entity entity);
+}
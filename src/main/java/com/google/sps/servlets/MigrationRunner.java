@@ -0,0 +1,263 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Text;
+import com.google.apphosting.api.ApiProxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Pages through a kind with Datastore cursors and rewrites its entities with a {@link Migration}.
+ *
+ * <p>Each batch is one page of the query. Its entities are split between a pool of workers, each of
+ * which migrates its share and writes the changed entities back with batched puts. Only after every
+ * worker is done is the cursor recorded in a checkpoint entity, so a run that stops part way, for
+ * example at the end of a request, is resumed from the last finished batch by running it again. A
+ * pause between batches keeps the migration from starving live traffic of Datastore throughput.
+ *
+ * <p>In a dry run the migration is applied and counted but nothing is written, not even the
+ * checkpoint. Two runs of the same migration at once are safe but do the same work twice.
+ */
+public class MigrationRunner {
+  private static final Logger LOG = Logger.getLogger(MigrationRunner.class.getName());
+  // Datastore accepts at most this many entities in one put.
+  private static final int MAX_PUT_SIZE = 500;
+  private static final int DEFAULT_WORKERS = 4;
+  private static final int DEFAULT_BATCH_SIZE = 500;
+  private static final long DEFAULT_PAUSE_MILLIS = 100;
+
+  private final DatastoreService datastore;
+  private final int workers;
+  private final int batchSize;
+  private final long pauseMillis;
+
+  public MigrationRunner(DatastoreService datastore, int workers, int batchSize, long pauseMillis) {
+    this.datastore = datastore;
+    this.workers = workers;
+    this.batchSize = batchSize;
+    this.pauseMillis = pauseMillis;
+  }
+
+  public MigrationRunner(DatastoreService datastore) {
+    this(datastore, DEFAULT_WORKERS, DEFAULT_BATCH_SIZE, DEFAULT_PAUSE_MILLIS);
+  }
+
+  /** Counts of one run. */
+  public static class Result {
+    private long scanned;
+    private long migrated;
+    private int batches;
+    private boolean done;
+
+    public long getScanned() {
+      return scanned;
+    }
+
+    /** Returns the number of entities rewritten, or that would have been in a dry run. */
+    public long getMigrated() {
+      return migrated;
+    }
+
+    public int getBatches() {
+      return batches;
+    }
+
+    /** Returns whether the whole kind has been migrated. */
+    public boolean isDone() {
+      return done;
+    }
+  }
+
+  /**
+   * Migrates at most {@code maxBatches} batches, starting after the last checkpoint of {@code
+   * migration}. Does nothing if the migration has already finished.
+   */
+  public Result run(Migration migration, int maxBatches, boolean dryRun)
+      throws InterruptedException {
+    Entity checkpoint = loadCheckpoint(migration);
+    Result result = new Result();
+    if (Boolean.TRUE.equals(checkpoint.getProperty(Constants.CHECKPOINT_DONE))) {
+      result.done = true;
+      return result;
+    }
+
+    Text savedCursor = (Text) checkpoint.getProperty(Constants.CHECKPOINT_CURSOR);
+    Cursor cursor = savedCursor == null ? null : Cursor.fromWebSafeString(savedCursor.getValue());
+    ExecutorService pool = newWorkerPool(migration);
+    try {
+      while (result.batches < maxBatches) {
+        if (result.batches > 0) {
+          Thread.sleep(pauseMillis);
+        }
+        FetchOptions options = FetchOptions.Builder.withLimit(batchSize).chunkSize(batchSize);
+        if (cursor != null) {
+          options.startCursor(cursor);
+        }
+        QueryResultList<Entity> page =
+            datastore.prepare(new Query(migration.getKind())).asQueryResultList(options);
+        int migrated = migrateBatch(pool, migration, new ArrayList<>(page), dryRun);
+        cursor = page.getCursor();
+
+        result.scanned += page.size();
+        result.migrated += migrated;
+        result.batches++;
+        result.done = page.size() < batchSize;
+        if (!dryRun) {
+          saveCheckpoint(checkpoint, cursor, page.size(), migrated, result.done);
+        }
+        if (result.done) {
+          break;
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    LOG.info(
+        String.format(
+            "%s%s: %d scanned, %d migrated in %d batches%s",
+            dryRun ? "Dry run of " : "",
+            migration.getName(),
+            result.scanned,
+            result.migrated,
+            result.batches,
+            result.done ? ", done" : ""));
+    return result;
+  }
+
+  /**
+   * Forgets the checkpoint of {@code migration}, so that its next run starts from the beginning.
+   */
+  public void reset(Migration migration) {
+    datastore.delete(checkpointKey(migration));
+  }
+
+  /* Splits the page between the workers and returns the number of entities they migrated. */
+  private int migrateBatch(
+      ExecutorService pool, Migration migration, List<Entity> page, boolean dryRun)
+      throws InterruptedException {
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    int sliceSize = Math.max(1, (page.size() + workers - 1) / workers);
+    List<Future<Integer>> slices = new ArrayList<>();
+    for (int start = 0; start < page.size(); start += sliceSize) {
+      List<Entity> slice = page.subList(start, Math.min(page.size(), start + sliceSize));
+      slices.add(
+          pool.submit(
+              () -> {
+                if (environment != null) {
+                  ApiProxy.setEnvironmentForCurrentThread(environment);
+                }
+                try {
+                  return migrateSlice(migration, slice, dryRun);
+                } finally {
+                  if (environment != null) {
+                    ApiProxy.clearEnvironmentForCurrentThread();
+                  }
+                }
+              }));
+    }
+
+    // Wait for every slice, even after one fails, so that no write outlives the batch.
+    int migrated = 0;
+    Throwable failure = null;
+    for (Future<Integer> slice : slices) {
+      try {
+        migrated += slice.get();
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      }
+    }
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    }
+    if (failure != null) {
+      throw new IllegalStateException(failure);
+    }
+    return migrated;
+  }
+
+  private int migrateSlice(Migration migration, List<Entity> slice, boolean dryRun) {
+    List<Entity> changed = new ArrayList<>();
+    for (Entity entity : slice) {
+      Entity migrated = migration.migrate(entity);
+      if (migrated != null) {
+        changed.add(migrated);
+      }
+    }
+    if (!dryRun) {
+      for (int start = 0; start < changed.size(); start += MAX_PUT_SIZE) {
+        datastore.put(changed.subList(start, Math.min(changed.size(), start + MAX_PUT_SIZE)));
+      }
+    }
+    return changed.size();
+  }
+
+  private Entity loadCheckpoint(Migration migration) {
+    try {
+      return datastore.get(checkpointKey(migration));
+    } catch (EntityNotFoundException e) {
+      return new Entity(checkpointKey(migration));
+    }
+  }
+
+  private void saveCheckpoint(
+      Entity checkpoint, Cursor cursor, int scanned, int migrated, boolean done) {
+    checkpoint.setUnindexedProperty(
+        Constants.CHECKPOINT_CURSOR, new Text(cursor.toWebSafeString()));
+    checkpoint.setUnindexedProperty(
+        Constants.CHECKPOINT_SCANNED, countOf(checkpoint, Constants.CHECKPOINT_SCANNED) + scanned);
+    checkpoint.setUnindexedProperty(
+        Constants.CHECKPOINT_MIGRATED,
+        countOf(checkpoint, Constants.CHECKPOINT_MIGRATED) + migrated);
+    checkpoint.setUnindexedProperty(Constants.CHECKPOINT_DONE, done);
+    checkpoint.setUnindexedProperty(Constants.CHECKPOINT_UPDATED_AT, System.currentTimeMillis());
+    datastore.put(checkpoint);
+  }
+
+  private static long countOf(Entity checkpoint, String property) {
+    Long count = (Long) checkpoint.getProperty(property);
+    return count == null ? 0 : count;
+  }
+
+  private static Key checkpointKey(Migration migration) {
+    return KeyFactory.createKey(Constants.MIGRATION_CHECKPOINT_ENTITY, migration.getName());
+  }
+
+  private ExecutorService newWorkerPool(Migration migration) {
+    return Executors.newFixedThreadPool(
+        workers,
+        runnable -> {
+          Thread thread = new Thread(runnable, "migration-" + migration.getName());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.sps.data.JsonCodec;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Runs a storage migration for a limited number of batches. Admin only. Run it again until the
+ * result says done; each run resumes after the last finished batch. With {@code dry-run=true}
+ * nothing is written, and with {@code restart=true} the migration starts over from the beginning.
+ */
+@WebServlet("/admin/migrate")
+public class MigrationServlet extends HttpServlet {
+  private static final String MIGRATION_PARAMETER = "migration";
+  private static final String BATCHES_PARAMETER = "batches";
+  private static final String DRY_RUN_PARAMETER = "dry-run";
+  private static final String RESTART_PARAMETER = "restart";
+  // Enough batches to make progress while staying well inside the request deadline.
+  private static final int DEFAULT_BATCHES = 20;
+  private static final Map<String, Migration> MIGRATIONS =
+      migrations(new DestinationLayoutMigration(), new HuntFormatMigration());
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Migration migration = MIGRATIONS.get(request.getParameter(MIGRATION_PARAMETER));
+    if (migration == null) {
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "Unknown migration; known: " + MIGRATIONS.keySet());
+      return;
+    }
+    String batches = request.getParameter(BATCHES_PARAMETER);
+
+    MigrationRunner runner = new MigrationRunner(DatastoreServiceFactory.getDatastoreService());
+    if (Boolean.parseBoolean(request.getParameter(RESTART_PARAMETER))) {
+      runner.reset(migration);
+    }
+    MigrationRunner.Result result;
+    try {
+      result =
+          runner.run(
+              migration,
+              batches == null ? DEFAULT_BATCHES : Integer.parseInt(batches),
+              Boolean.parseBoolean(request.getParameter(DRY_RUN_PARAMETER)));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Migration interrupted");
+      return;
+    }
+
+    response.setContentType(Constants.JSON_TYPE);
+    response.getWriter().println(JsonCodec.gson().toJson(result));
+  }
+
+  private static Map<String, Migration> migrations(Migration... migrations) {
+    Map<String, Migration> byName = new LinkedHashMap<>();
+    for (Migration migration : migrations) {
+      byName.put(migration.getName(), migration);
+    }
+    return Collections.unmodifiableMap(byName);
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.data.Destination;
+import com.google.sps.data.DestinationIndex;
+import com.google.sps.data.JsonCodec;
+import com.google.sps.data.LatLng;
+import com.google.sps.data.RouteOptimizer;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Returns the destinations nearest to a point, nearest first, so the creation form can show what is
+ * already around the place being added. Answered from the catalog's spatial index.
+ */
+@WebServlet("/nearby-destinations")
+public class NearbyServlet extends HttpServlet {
+  private static final String LAT_PARAMETER = "lat";
+  private static final String LNG_PARAMETER = "lng";
+  private static final String RADIUS_PARAMETER = "radius-km";
+  private static final String LIMIT_PARAMETER = "limit";
+  private static final double DEFAULT_RADIUS_KM = 0.5;
+  private static final int DEFAULT_LIMIT = 10;
+  private static final int MAX_LIMIT = 100;
+
+  private final DestinationCatalog catalog;
+
+  public NearbyServlet(DestinationCatalog catalog) {
+    this.catalog = catalog;
+  }
+
+  public NearbyServlet() {
+    this.catalog = DestinationCatalog.getInstance();
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    LatLng center;
+    double radiusKm;
+    int limit;
+    try {
+      center =
+          new LatLng.Builder()
+              .withLat(Double.parseDouble(request.getParameter(LAT_PARAMETER)))
+              .withLng(Double.parseDouble(request.getParameter(LNG_PARAMETER)))
+              .build();
+      radiusKm = parseOrDefault(request.getParameter(RADIUS_PARAMETER), DEFAULT_RADIUS_KM);
+      limit = (int) parseOrDefault(request.getParameter(LIMIT_PARAMETER), DEFAULT_LIMIT);
+    } catch (NullPointerException | NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "lat and lng are required numbers");
+      return;
+    }
+
+    response.setContentType(Constants.JSON_TYPE);
+    PrintWriter out = response.getWriter();
+    JsonCodec.gson().toJson(nearby(center, radiusKm, limit), out);
+    out.println();
+  }
+
+  /**
+   * Returns up to {@code limit} destinations within {@code radiusKm} of {@code center}, nearest
+   * first.
+   */
+  public List<Destination> nearby(LatLng center, double radiusKm, int limit) {
+    DestinationIndex index = catalog.getIndex();
+    List<Destination> result = new ArrayList<>();
+    for (int ordinal :
+        index.getLocations().nearest(center, Math.max(0, Math.min(limit, MAX_LIMIT)))) {
+      Destination destination = index.get(ordinal);
+      if (RouteOptimizer.haversineKm(center, destination.getLocation()) > radiusKm) {
+        break;
+      }
+      result.add(destination);
+    }
+    return result;
+  }
+
+  private static double parseOrDefault(String value, double fallback) {
+    return value == null ? fallback : Double.parseDouble(value);
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One small entity per stored placeId, keyed by the placeId itself, so that checking whether a
+ * placeId is already taken is a single keyed get instead of a scan of the Destination kind.
+ */
+public class PlaceIdIndex {
+  private static final int BATCH_SIZE = 500;
+
+  private final DatastoreService datastore;
+
+  public PlaceIdIndex(DatastoreService datastore) {
+    this.datastore = datastore;
+  }
+
+  /** Returns the key of the index entity for {@code placeId}. */
+  public static Key keyFor(String placeId) {
+    return KeyFactory.createKey(Constants.PLACE_ID_ENTITY, placeId);
+  }
+
+  /** Returns the index entity that marks {@code placeId} as used by {@code destinationKey}. */
+  public static Entity entityFor(String placeId, Key destinationKey) {
+    Entity entity = new Entity(keyFor(placeId));
+    entity.setUnindexedProperty(Constants.PLACE_ID_DESTINATION, destinationKey);
+    return entity;
+  }
+
+  /** Records that {@code placeId} is used by {@code destinationKey}. */
+  public void record(String placeId, Key destinationKey) {
+    if (placeId != null && !placeId.isEmpty()) {
+      datastore.put(entityFor(placeId, destinationKey));
+    }
+  }
+
+  /** Returns whether an index entity exists for {@code placeId}. Costs one keyed get. */
+  public boolean contains(String placeId) {
+    try {
+      datastore.get(keyFor(placeId));
+      return true;
+    } catch (EntityNotFoundException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Writes an index entity for every stored Destination that has a placeId, in batches. Safe to run
+   * more than once. Returns the number of index entities written.
+   */
+  public int backfill() {
+    int written = 0;
+    List<Entity> batch = new ArrayList<>();
+    for (Entity dest : datastore.prepare(new Query(Constants.DESTINATION_ENTITY)).asIterable()) {
+      String placeId = DestinationEntities.toDestination(dest).getPlaceId();
+      if (placeId == null || placeId.isEmpty()) {
+        continue;
+      }
+      batch.add(entityFor(placeId, dest.getKey()));
+      if (batch.size() == BATCH_SIZE) {
+        datastore.put(batch);
+        written += batch.size();
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      datastore.put(batch);
+      written += batch.size();
+    }
+    return written;
+  }
+}
@@ -0,0 +1,44 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Reports the in-process cache and performance counters of this instance as JSON. */
+@WebServlet("/stats")
+public class StatsServlet extends HttpServlet {
+  private static final Gson GSON = new Gson();
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("destinationCatalog", DestinationCatalog.getInstance().getStats());
+    stats.put("entityAnalyzer", EntityAnalyzer.getInstance().getStats());
+    stats.put("verdictCache", VerdictCache.getInstance().getStats());
+    stats.put("guessMatcher", GuessServlet.getMatcherStats());
+    stats.put("huntStore", HuntStore.getInstance().getStats());
+    stats.put("huntPool", HuntPool.getInstance().getStats());
+
+    response.setContentType(Constants.JSON_TYPE);
+    response.getWriter().println(GSON.toJson(stats));
+  }
+}
@@ -22,6 +22,10 @@ import java.util.ArrayList;
  * that the doGet method can be tested in isolation.
  */
 public class TestGuessServlet extends GuessServlet {
+  public TestGuessServlet() {
+    super(EntityAnalyzer.getInstance());
+  }
+
   @Override
   ArrayList<String> findEntities(String word) throws IOException {
     ArrayList<String> entities = new ArrayList<String>();
@@ -0,0 +1,231 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.sps.data.LruCache;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers whether a guess was accepted for an answer, so that repeated guesses cost no Natural
+ * Language calls.
+ *
+ * <p>Verdicts are keyed by the normalized guess and the answer. The first tier is an in-process LRU
+ * with a TTL that holds both accepted and rejected verdicts. The second tier is Datastore: one
+ * entity per answer lists the guesses that were accepted for it, so accepted guesses survive
+ * restarts and are shared between instances. Concurrent lookups of the same key share one
+ * computation.
+ */
+public class VerdictCache {
+  private static final Logger LOG = Logger.getLogger(VerdictCache.class.getName());
+  private static final int DEFAULT_CAPACITY = 10000;
+  private static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+  // Keeps an answer's entity well under the 1MB limit
+  private static final int MAX_ACCEPTED_GUESSES = 1000;
+  private static final int MAX_STORE_ATTEMPTS = 3;
+
+  private static VerdictCache instance;
+
+  /** Computes a verdict on a cache miss, given the guesses already accepted for the answer. */
+  public interface Loader {
+    boolean load(Collection<String> acceptedGuesses) throws IOException;
+  }
+
+  private final DatastoreService datastore;
+  private final LruCache<String, Boolean> verdicts;
+  private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+  private final AtomicLong lookups = new AtomicLong();
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong storeHits = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong nlCallsSaved = new AtomicLong();
+
+  public VerdictCache(DatastoreService datastore, LruCache<String, Boolean> verdicts) {
+    this.datastore = datastore;
+    this.verdicts = verdicts;
+  }
+
+  public VerdictCache(DatastoreService datastore) {
+    this(datastore, new LruCache<>(DEFAULT_CAPACITY, DEFAULT_TTL_MILLIS));
+  }
+
+  /** Returns the cache shared by every servlet in this instance. */
+  public static synchronized VerdictCache getInstance() {
+    if (instance == null) {
+      instance = new VerdictCache(DatastoreServiceFactory.getDatastoreService());
+    }
+    return instance;
+  }
+
+  /** Lower-cases {@code guess}, drops punctuation and collapses runs of spaces. */
+  public static String normalize(String guess) {
+    return guess.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+  }
+
+  /**
+   * Returns whether {@code guess} is accepted for {@code answer}, calling {@code loader} only if
+   * neither tier knows and no identical lookup is already running. {@code nlCalls} is the number of
+   * Natural Language calls the loader would make, counted as saved on a hit.
+   */
+  public boolean getVerdict(String guess, String answer, int nlCalls, Loader loader)
+      throws IOException {
+    if (answer == null || answer.isEmpty()) {
+      return loader.load(Collections.emptyList());
+    }
+    lookups.incrementAndGet();
+    String normalized = normalize(guess);
+    String key = normalized + '\0' + answer;
+    Boolean cached = verdicts.get(key);
+    if (cached != null) {
+      memoryHits.incrementAndGet();
+      nlCallsSaved.addAndGet(nlCalls);
+      return cached;
+    }
+
+    CompletableFuture<Boolean> mine = new CompletableFuture<>();
+    CompletableFuture<Boolean> running = inFlight.putIfAbsent(key, mine);
+    if (running != null) {
+      coalesced.incrementAndGet();
+      nlCallsSaved.addAndGet(nlCalls);
+      return join(running);
+    }
+    try {
+      boolean verdict;
+      Collection<String> accepted = getAcceptedGuesses(answer);
+      if (accepted.contains(normalized)) {
+        storeHits.incrementAndGet();
+        nlCallsSaved.addAndGet(nlCalls);
+        verdict = true;
+      } else {
+        misses.incrementAndGet();
+        verdict = loader.load(accepted);
+        if (verdict) {
+          recordAccepted(normalized, answer);
+        }
+      }
+      verdicts.put(key, verdict);
+      mine.complete(verdict);
+      return verdict;
+    } catch (IOException | RuntimeException e) {
+      mine.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, mine);
+    }
+  }
+
+  /** Returns the normalized guesses accepted so far for {@code answer}. Costs one keyed get. */
+  public Collection<String> getAcceptedGuesses(String answer) {
+    try {
+      return guessesOf(datastore.get(keyFor(answer)));
+    } catch (EntityNotFoundException e) {
+      return Collections.emptyList();
+    }
+  }
+
+  /** Returns lookup counts, the hit ratio and the Natural Language calls saved, keyed by name. */
+  public Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    long total = lookups.get();
+    long hits = memoryHits.get() + storeHits.get() + coalesced.get();
+    stats.put("lookups", total);
+    stats.put("memoryHits", memoryHits.get());
+    stats.put("storeHits", storeHits.get());
+    stats.put("coalesced", coalesced.get());
+    stats.put("misses", misses.get());
+    stats.put("hitRatio", total == 0 ? 0.0 : (double) hits / total);
+    stats.put("nlCallsSaved", nlCallsSaved.get());
+    stats.put("size", verdicts.size());
+    return stats;
+  }
+
+  /** Adds {@code normalized} to the accepted guesses of {@code answer}, in a transaction. */
+  private void recordAccepted(String normalized, String answer) {
+    for (int attempt = 1; attempt <= MAX_STORE_ATTEMPTS; attempt++) {
+      Transaction txn = datastore.beginTransaction();
+      try {
+        Entity entity;
+        try {
+          entity = datastore.get(txn, keyFor(answer));
+        } catch (EntityNotFoundException e) {
+          entity = new Entity(keyFor(answer));
+        }
+        List<String> guesses = new ArrayList<>(guessesOf(entity));
+        if (guesses.contains(normalized) || guesses.size() >= MAX_ACCEPTED_GUESSES) {
+          txn.rollback();
+          return;
+        }
+        guesses.add(normalized);
+        entity.setUnindexedProperty(Constants.ACCEPTED_GUESSES, guesses);
+        datastore.put(txn, entity);
+        txn.commit();
+        return;
+      } catch (ConcurrentModificationException e) {
+        // Another instance accepted a guess for the same answer; read again and retry.
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+    // Still cached in memory; the store is only an optimization.
+    LOG.log(Level.WARNING, "Could not record accepted guess for " + answer);
+  }
+
+  private static Key keyFor(String answer) {
+    return KeyFactory.createKey(Constants.ACCEPTED_GUESSES_ENTITY, answer);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Collection<String> guessesOf(Entity entity) {
+    Collection<String> guesses =
+        (Collection<String>) entity.getProperty(Constants.ACCEPTED_GUESSES);
+    return guesses == null ? Collections.emptyList() : guesses;
+  }
+
+  private static boolean join(CompletableFuture<Boolean> future) throws IOException {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw e;
+    }
+  }
+}
@@ -22,6 +22,7 @@ const GENERATE_BUTTON = 'generate-button';
 
 // URLs that data should be fetched from.
 const DATA_URL = '/go-data';
+const STAGE_URL = '/go-stage';
 const GUESS_URL = '/guess-data';
 const HOME_URL = 'index.html';
 
@@ -40,7 +41,11 @@ const GENERATE_DISPLAY = 'generate-area';
 // Input IDs or parameters.
 const GUESS_INPUT = 'guess-input';
 const INDEX_PARAM = 'new-index';
+const HINTS_PARAM = 'hints-used';
 const HUNT_PARAM = 'hunt_id';
+const MODE_PARAM = 'mode';
+const STAGE_PARAM = 'stage';
+const PART_PARAM = 'part';
 
 // Hard-coded messages to be displayed to the user.
 const PROCEED_FINAL_MSSG = 'Finish the Hunt';
@@ -70,6 +75,8 @@ let map;
 let hintClock;
 let huntID;
 let service;
+// Riddle of the next destination, fetched ahead of time.
+let nextRiddle;
 
 window.onload = function() {
   addScriptToHead();
@@ -118,30 +125,83 @@ function addScriptToHead() {
 }
 
 /**
- * Retrieves scavenger hunt data, and updates to the current destination
- * to reflect the current state of the hunt.
+ * Retrieves the current stage of the scavenger hunt, and updates to the
+ * current destination to reflect the current state of the hunt. Only the
+ * current destination is sent; destinations already found are fetched
+ * separately for the map, and the next riddle is prefetched.
  */
 function getHunt() {
   // ID of the scavenger hunt that the user is on,
   // in the form of: hunt_id=[ID number here]
   huntID = new URLSearchParams(window.location.search).get(HUNT_PARAM);
-  const queryStr = DATA_URL + '?' + HUNT_PARAM + '=' + huntID;
+  const queryStr = DATA_URL + '?' + HUNT_PARAM + '=' + huntID + '&' +
+      MODE_PARAM + '=' + STAGE_PARAM;
   fetch(queryStr).then((response) => response.json()).then((mssg) => {
-    const destIndex = mssg.index;
     const huntArr = [];
-    for (let i = 0; i < mssg.items.length; i++) {
-      const cur = mssg.items[i];
-      huntArr.push(new Destination(cur.name, cur.description,
-          cur.riddle.puzzle, cur.riddle.hints, cur.location.lat,
-          cur.location.lng, cur.placeId));
+    if (mssg.stage) {
+      huntArr[Math.max(mssg.index, 0)] = toDestination(mssg.stage);
     }
-    hunt = new ScavengerHuntManager(destIndex, 0, huntArr);
+    hunt = new ScavengerHuntManager(mssg.index, 0, huntArr, mssg.count);
     updateToCurrentState();
+    for (let i = 0; i < mssg.index; i++) {
+      fetchStage(i, true).then((stage) => {
+        if (stage === undefined) {
+          return;
+        }
+        hunt.setDest(i, toDestination(stage.item));
+        addMarkerToMap(hunt.getDest(i).lat, hunt.getDest(i).lng,
+            hunt.getDest(i).name);
+      });
+    }
+    prefetchNextRiddle();
     window.setInterval(updateGeolocation, MAP_INTERVAL_MS);
     updateGeolocation();
   });
 }
 
+/**
+ * @param {Object} item Hunt item as sent by the server.
+ * @return {Destination} The destination of the item.
+ */
+function toDestination(item) {
+  return new Destination(item.name, item.description,
+      item.riddle.puzzle, item.riddle.hints, item.location.lat,
+      item.location.lng, item.placeId);
+}
+
+/**
+ * Fetches one stage of the hunt: a destination already reached, or
+ * the riddle of the next one.
+ * @param {int} index Index of the stage.
+ * @param {boolean} itemWanted Whether only a reached destination will
+ * do, e.g. right after proceeding to it.
+ * @return {Promise} The stage once fetched, or undefined if the
+ * server refused it.
+ */
+function fetchStage(index, itemWanted) {
+  let queryStr = STAGE_URL + '?' + HUNT_PARAM + '=' + huntID + '&' +
+      STAGE_PARAM + '=' + index;
+  if (itemWanted) {
+    queryStr += '&' + PART_PARAM + '=item';
+  }
+  return fetch(queryStr).then((response) =>
+    response.ok ? response.json() : undefined);
+}
+
+/**
+ * Fetches the riddle of the destination after the current one, so
+ * that it can be shown as soon as the user proceeds.
+ */
+function prefetchNextRiddle() {
+  nextRiddle = undefined;
+  const next = Math.max(hunt.getDestIndex(), 0) + 1;
+  if (next < hunt.getNumItems()) {
+    fetchStage(next).then((stage) => {
+      nextRiddle = stage === undefined ? undefined : stage.riddle;
+    });
+  }
+}
+
 /**
  * Add a marker to the map at the specified location.
  * @param {Double} destLat: latitude of location.
@@ -396,6 +456,9 @@ function checkUserDestinationGuess() { //eslint-disable-line
   if (hunt.hasNotStarted()) { // User has not yet started the hunt.
     return;
   }
+  if (hunt.getCurDestName() === undefined) { // Still being fetched.
+    return;
+  }
   const userGuess = document.getElementById(GUESS_INPUT).value;
 
   // Check to see if userGuess is an exact match (ignoring case)
@@ -485,7 +548,7 @@ function updateMessagesForCorrectGuess() {
  */
 function startHunt() { //eslint-disable-line
   hunt.start();
-  sendIndexToServlet(0);
+  sendIndexToServlet(0, 0).then(prefetchNextRiddle);
   document.getElementById(RIDDLE_BOX).classList.remove(INVISIBLE_CLASS);
   updateToCurrentState();
 }
@@ -504,8 +567,11 @@ function updateToCurrentState() {
   }
   toggleProceedButton(/* hide = */ true);
   toggleLoader(/* hide = */ true);
-  // Add all found destinations to the map as markers.
+  // Add all found destinations that have been fetched to the map as markers.
   for (let i = 0; i < hunt.getDestIndex(); i++) {
+    if (hunt.getDest(i) === undefined) {
+      continue;
+    }
     addMarkerToMap(hunt.getDest(i).lat, hunt.getDest(i).lng,
         hunt.getDest(i).name);
   }
@@ -646,6 +712,9 @@ function updateRiddleToFinalMessage() {
   let message = '<p></p>'; // Extra line for readability.
   message += '<p> Congrats! You\'ve visited the following locations:</p>';
   for (let i = 0; i < hunt.getNumItems(); i++) {
+    if (hunt.getDest(i) === undefined) {
+      continue;
+    }
     message += '<p>' + sanitize(hunt.getDest(i).name) + ': ' +
         sanitize(hunt.getDest(i).description) + '</p>';
   }
@@ -661,12 +730,15 @@ function updateRiddleToFinalMessage() {
  * that the user is on.
  * @param {int} index Index of the current destination the user needs
  * to find.
+ * @param {int} hintsUsed Number of hints used on the destination just found.
+ * @return {Promise} Resolves once the index has been recorded.
  */
-function sendIndexToServlet(index) {
+function sendIndexToServlet(index, hintsUsed) {
   const params = new URLSearchParams();
   params.append(INDEX_PARAM, index);
+  params.append(HINTS_PARAM, hintsUsed);
   params.append(HUNT_PARAM, huntID);
-  fetch(DATA_URL, {method: 'POST', body: params});
+  return fetch(DATA_URL, {method: 'POST', body: params});
 }
 
 /**
@@ -676,9 +748,31 @@ function sendIndexToServlet(index) {
  */
 function proceed() { //eslint-disable-line
   hunt.incrementDestIndex();
-  sendIndexToServlet(hunt.getDestIndex());
-  if (hunt.getDestIndex() < hunt.getNumItems()) {
-    updateMessage(RIDDLE_DISPLAY, 'Riddle: ' + hunt.getCurDestPuzzle());
+  const index = hunt.getDestIndex();
+  const prefetched = nextRiddle;
+  sendIndexToServlet(index, hunt.getHintIndex()).then(() => {
+    if (index < hunt.getNumItems()) {
+      fetchStage(index, true).then((stage) => {
+        if (stage === undefined || stage.item === undefined) {
+          return;
+        }
+        hunt.setDest(index, toDestination(stage.item));
+        if (prefetched === undefined) {
+          updateMessage(RIDDLE_DISPLAY, 'Riddle: ' + hunt.getCurDestPuzzle());
+        }
+        prefetchNextRiddle();
+      });
+    }
+  });
+  if (index < hunt.getNumItems()) {
+    if (prefetched !== undefined) {
+      // Show the prefetched riddle until the whole destination arrives.
+      hunt.setDest(index, new Destination(undefined, undefined,
+          prefetched.puzzle, prefetched.hints));
+      updateMessage(RIDDLE_DISPLAY, 'Riddle: ' + prefetched.puzzle);
+    } else {
+      deleteMessage(RIDDLE_DISPLAY);
+    }
     showElementsDuringHunt();
   } else {
     updateRiddleToFinalMessage();
@@ -12,12 +12,16 @@ class ScavengerHuntManager { //eslint-disable-line
    * @param {int} hintIndex The index of the hint that
    * that the user will receive next.
    * @param {array} huntArr Array of destinations
-   * on the scavenger hunt.
+   * on the scavenger hunt. Destinations that have not been
+   * fetched yet are left out.
+   * @param {int} numItems Number of destinations on the
+   * scavenger hunt; defaults to the length of huntArr.
    */
-  constructor(destIndex, hintIndex, huntArr) {
+  constructor(destIndex, hintIndex, huntArr, numItems) {
     this.destIndex = destIndex;
     this.hintIndex = hintIndex;
     this.huntArr = huntArr;
+    this.numItems = numItems === undefined ? huntArr.length : numItems;
     this.photoIndex = 0;
     this.reviewIndex = 0;
     this.placeID = -1;
@@ -119,14 +123,14 @@ class ScavengerHuntManager { //eslint-disable-line
    * as a percentage
    */
   getProgress() {
-    return (this.destIndex / this.huntArr.length) * 100;
+    return (this.destIndex / this.numItems) * 100;
   }
 
   /**
    * @return {boolean} Whether the user is on the last destination.
    */
   isAtLastStop() {
-    return this.destIndex === this.huntArr.length - 1;
+    return this.destIndex === this.numItems - 1;
   }
 
   /**
@@ -139,6 +143,15 @@ class ScavengerHuntManager { //eslint-disable-line
     return this.huntArr[index];
   }
 
+  /**
+   * Set a destination once it has been fetched.
+   * @param {int} index Index of the destination.
+   * @param {Destination} dest The destination.
+   */
+  setDest(index, dest) {
+    this.huntArr[index] = dest;
+  }
+
   /**
    * @return {String} place ID of the current destination.
    */
@@ -250,6 +263,6 @@ class ScavengerHuntManager { //eslint-disable-line
    * @return {int} Number of destinations in the hunt.
    */
   getNumItems() {
-    return this.huntArr.length;
+    return this.numItems;
   }
 }
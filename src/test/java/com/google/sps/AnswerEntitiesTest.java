@@ -0,0 +1,194 @@
+package com.google.sps;
+
+import static org.mockito.Mockito.doReturn;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.Gson;
+import com.google.sps.data.Destination;
+import com.google.sps.data.HuntItem;
+import com.google.sps.data.Riddle;
+import com.google.sps.servlets.AnswerEntitiesBackfill;
+import com.google.sps.servlets.Constants;
+import com.google.sps.servlets.DestinationCatalog;
+import com.google.sps.servlets.DestinationEntities;
+import com.google.sps.servlets.EntityAnalyzer;
+import com.google.sps.servlets.GuessServlet;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+@RunWith(JUnit4.class)
+public final class AnswerEntitiesTest {
+  private static final Gson GSON = new Gson();
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+  private EntityAnalyzer analyzer;
+  // Calls made to the fake API, by text
+  private final Map<String, AtomicInteger> calls = new HashMap<>();
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    // Splits into words. Fails the first call for "coit tower" and every call for "nowhere".
+    analyzer =
+        new EntityAnalyzer(
+            text -> {
+              int call = calls.computeIfAbsent(text, t -> new AtomicInteger()).incrementAndGet();
+              if (text.equals("nowhere") || (text.equals("coit tower") && call == 1)) {
+                throw new IOException("Quota exceeded");
+              }
+              return Arrays.asList(text.split(" "));
+            },
+            2,
+            1000);
+  }
+
+  @After
+  public void tearDown() {
+    analyzer.shutdown();
+    helper.tearDown();
+  }
+
+  private Key store(Destination destination) {
+    Entity entity = new Entity(Constants.DESTINATION_ENTITY);
+    entity.setProperty(Constants.DESTINATION_JSON, GSON.toJson(destination));
+    return datastore.put(entity);
+  }
+
+  private static Destination named(String name) {
+    return new Destination.Builder().withName(name).build();
+  }
+
+  @Test
+  /* The backfill retries failures, gives up on hopeless names and skips finished destinations. */
+  public void backfill() throws Exception {
+    store(named("Coit Tower"));
+    store(named("Nowhere"));
+    store(named("Golden Gate Bridge").withAnswerEntities(Arrays.asList("already", "done")));
+
+    AnswerEntitiesBackfill.Result result =
+        new AnswerEntitiesBackfill(datastore, analyzer, 0, 1).run(Integer.MAX_VALUE);
+
+    Assert.assertEquals(1, result.getUpdated());
+    Assert.assertEquals(1, result.getFailed());
+    Assert.assertEquals(2, calls.get("coit tower").get());
+    Assert.assertEquals(4, calls.get("nowhere").get());
+    Assert.assertNull(calls.get("golden gate bridge"));
+
+    Map<String, List<String>> stored = new HashMap<>();
+    for (Entity entity : datastore.prepare(new Query(Constants.DESTINATION_ENTITY)).asIterable()) {
+      Destination destination = DestinationEntities.toDestination(entity);
+      stored.put(destination.getName(), destination.getAnswerEntities());
+    }
+    Assert.assertEquals(Arrays.asList("coit", "tower"), stored.get("Coit Tower"));
+    Assert.assertNull(stored.get("Nowhere"));
+    Assert.assertEquals(Arrays.asList("already", "done"), stored.get("Golden Gate Bridge"));
+  }
+
+  @Test
+  /* Hunt items leave the entities of their destination to the catalog. */
+  public void huntItemsLeaveOutEntities() {
+    HuntItem item =
+        new Destination.Builder()
+            .withName("Golden Gate Bridge")
+            .withRiddle(new Riddle.Builder().withPuzzle("Orange and foggy").build())
+            .withAnswerEntities(Arrays.asList("golden", "gate", "bridge"))
+            .build()
+            .convertToHuntItem();
+
+    Assert.assertEquals("Golden Gate Bridge", item.getName());
+    Assert.assertNull(item.getAnswerEntities());
+  }
+
+  @Test
+  /* A loaded catalog serves the entities a backfill computed without waiting for a refresh. */
+  public void backfillUpdatesCatalog() throws Exception {
+    store(named("Coit Tower"));
+    DestinationCatalog catalog = new DestinationCatalog(datastore, Long.MAX_VALUE, Runnable::run);
+    Assert.assertNull(catalog.getAnswerEntities("Coit Tower"));
+
+    new AnswerEntitiesBackfill(datastore, analyzer, catalog, 0, 1).run(Integer.MAX_VALUE);
+
+    Assert.assertEquals(Arrays.asList("coit", "tower"), catalog.getAnswerEntities("Coit Tower"));
+    Assert.assertEquals(1, catalog.getDestinations().size());
+    Assert.assertEquals(1L, (long) catalog.getStats().get("loads"));
+    Assert.assertEquals(1L, (long) catalog.getStats().get("updates"));
+  }
+
+  @Test
+  /* Destinations that share a name keep their own entities, and the name alone picks neither. */
+  public void sharedNames() {
+    Key paris =
+        store(
+            new Destination.Builder()
+                .withName("Central Park")
+                .withCity("Paris")
+                .withAnswerEntities(Arrays.asList("central", "park", "paris"))
+                .build());
+    Key newYork =
+        store(
+            new Destination.Builder()
+                .withName("Central Park")
+                .withCity("New York")
+                .withAnswerEntities(Arrays.asList("central", "park"))
+                .build());
+    store(named("Coit Tower").withAnswerEntities(Arrays.asList("coit", "tower")));
+    DestinationCatalog catalog = new DestinationCatalog(datastore, Long.MAX_VALUE, Runnable::run);
+
+    Assert.assertEquals(
+        Arrays.asList("central", "park", "paris"), catalog.getAnswerEntities(paris));
+    Assert.assertEquals(Arrays.asList("central", "park"), catalog.getAnswerEntities(newYork));
+    Assert.assertNull(catalog.getAnswerEntities("Central Park"));
+    Assert.assertEquals(Arrays.asList("coit", "tower"), catalog.getAnswerEntities("Coit Tower"));
+
+    // A third destination added later makes its name ambiguous too.
+    Key added = new Entity(Constants.DESTINATION_ENTITY, 99).getKey();
+    catalog.add(added, named("Coit Tower").withAnswerEntities(Arrays.asList("coit")));
+    Assert.assertNull(catalog.getAnswerEntities("Coit Tower"));
+    Assert.assertEquals(Arrays.asList("coit"), catalog.getAnswerEntities(added));
+  }
+
+  @Test
+  /* With precomputed answer entities only the guess goes to the API. */
+  public void guessOnlyAnalyzesGuess() throws IOException {
+    store(
+        named("Golden Gate Bridge").withAnswerEntities(Arrays.asList("golden", "gate", "bridge")));
+    DestinationCatalog catalog = new DestinationCatalog(datastore, Long.MAX_VALUE, Runnable::run);
+    HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+    doReturn("The Golden Bridge").when(request).getParameter("guess-input");
+    doReturn("Golden Gate Bridge").when(request).getParameter("answer");
+    StringWriter stringWriter = new StringWriter();
+    Mockito.when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
+
+    new GuessServlet(analyzer, catalog).doGet(request, response);
+
+    Assert.assertEquals("false\n", stringWriter.toString());
+    Assert.assertEquals(1L, analyzer.getStats().get("calls"));
+    Assert.assertNull(calls.get("golden gate bridge"));
+  }
+}
@@ -0,0 +1,108 @@
+package com.google.sps;
+
+import com.google.gson.Gson;
+import com.google.sps.data.BinaryCodec;
+import com.google.sps.data.Destination;
+import com.google.sps.data.HuntItem;
+import com.google.sps.data.JsonCodec;
+import com.google.sps.data.LatLng;
+import com.google.sps.data.Riddle;
+import com.google.sps.data.ScavengerHunt;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class BinaryCodecTest {
+  private static final Gson GSON = JsonCodec.gson();
+
+  /* A hunt with the fields a generated hunt has, stop after stop. */
+  private static ScavengerHunt huntOf(int stops) {
+    ArrayList<HuntItem> items = new ArrayList<>();
+    for (int i = 0; i < stops; i++) {
+      items.add(
+          new Destination.Builder()
+              .withName("Destination number " + i)
+              .withLocation(
+                  new LatLng.Builder()
+                      .withLat(37.7 + i * 0.001)
+                      .withLng(-122.4 - i * 0.001)
+                      .build())
+              .withDescription("A landmark worth a detour, with a view over the bay and a cafe.")
+              .withRiddle(
+                  new Riddle.Builder()
+                      .withPuzzle("I stand where the fog rolls in; what am I?")
+                      .withHint("Look up")
+                      .withHint("Near the water")
+                      .build())
+              .withPlaceId("ChIJIQBpAG2ahYAR_6128GcTUEo" + i)
+              .withAnswerEntities(Arrays.asList("Destination", "number " + i))
+              .build()
+              .convertToHuntItem());
+    }
+    return new ScavengerHunt(items);
+  }
+
+  @Test
+  /* Every field, null and odd value decodes to what was encoded. */
+  public void roundTrip() {
+    ArrayList<HuntItem> items = new ArrayList<>();
+    items.add(
+        new HuntItem.Builder()
+            .withName("Café <du> Monde ☕")
+            .atLocation(new LatLng.Builder().withLat(29.957).withLng(-90.0618).build())
+            .withDescription("")
+            .withRiddle(new Riddle.Builder().withPuzzle("Powdered sugar?").withHint(null).build())
+            .withAnswerEntities(Arrays.asList("Cafe du Monde", null))
+            .build());
+    items.add(new HuntItem.Builder().atLocation(new LatLng.Builder().build()).build());
+    items.add(null);
+    ScavengerHunt hunt = new ScavengerHunt(items);
+
+    Assert.assertEquals(
+        GSON.toJson(hunt), GSON.toJson(BinaryCodec.decode(BinaryCodec.encode(hunt))));
+    hunt.updateIndex(300);
+    Assert.assertEquals(
+        GSON.toJson(hunt), GSON.toJson(BinaryCodec.decode(BinaryCodec.encode(hunt))));
+    ScavengerHunt empty = new ScavengerHunt(null);
+    Assert.assertEquals(
+        GSON.toJson(empty), GSON.toJson(BinaryCodec.decode(BinaryCodec.encode(empty))));
+  }
+
+  @Test
+  /* Encodings start with the version byte; other versions and truncated bodies are refused. */
+  public void versioned() {
+    byte[] bytes = BinaryCodec.encode(huntOf(3));
+    Assert.assertEquals(BinaryCodec.FORMAT_VERSION, bytes[0]);
+    Assert.assertTrue(BinaryCodec.canDecode(bytes));
+
+    byte[] future = bytes.clone();
+    future[0] = BinaryCodec.FORMAT_VERSION + 1;
+    Assert.assertFalse(BinaryCodec.canDecode(future));
+    try {
+      BinaryCodec.decode(future);
+      Assert.fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      BinaryCodec.decode(Arrays.copyOf(bytes, bytes.length - 10));
+      Assert.fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  /* Realistic 10 to 30 stop hunts take less than 70% of their JSON size. */
+  public void smallerThanJson() {
+    for (int stops : new int[] {10, 20, 30}) {
+      ScavengerHunt hunt = huntOf(stops);
+      int json = GSON.toJson(hunt).getBytes(StandardCharsets.UTF_8).length;
+      int binary = BinaryCodec.encode(hunt).length;
+      Assert.assertTrue(stops + ": " + binary + " of " + json, binary * 10 < json * 7);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package com.google.sps;
+
+import com.google.sps.data.CircuitBreaker;
+import com.google.sps.data.CircuitBreaker.State;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class CircuitBreakerTest {
+  private final AtomicLong now = new AtomicLong(1000);
+  // Opens when half of the last 4 calls, once there are 4, failed or took over 100ms
+  private final CircuitBreaker breaker = new CircuitBreaker(4, 4, 0.5, 100, 10000, now::get);
+
+  @Test
+  /* Failures below the ratio, or before enough calls, keep the breaker closed. */
+  public void staysClosed() {
+    breaker.onFailure();
+    breaker.onSuccess(10);
+    breaker.onSuccess(10);
+    Assert.assertEquals(State.CLOSED, breaker.getState());
+
+    // The oldest failure drops out of the window as new calls come in.
+    for (int i = 0; i < 10; i++) {
+      breaker.onSuccess(10);
+      breaker.onFailure();
+      breaker.onSuccess(10);
+      breaker.onSuccess(10);
+    }
+    Assert.assertEquals(State.CLOSED, breaker.getState());
+    Assert.assertTrue(breaker.allowRequest());
+  }
+
+  @Test
+  /* Slow calls count as failures and open the breaker, which then refuses calls. */
+  public void opensOnLatency() {
+    breaker.onSuccess(10);
+    breaker.onSuccess(500);
+    breaker.onSuccess(10);
+    breaker.onSuccess(101);
+
+    Assert.assertEquals(State.OPEN, breaker.getState());
+    Assert.assertFalse(breaker.allowRequest());
+    Assert.assertEquals(1L, breaker.getStats().get("opened"));
+    Assert.assertEquals(1L, breaker.getStats().get("refused"));
+  }
+
+  @Test
+  /* After the open period one trial call decides whether to close or open again. */
+  public void halfOpenTrial() {
+    for (int i = 0; i < 4; i++) {
+      breaker.onFailure();
+    }
+    now.addAndGet(10000);
+
+    Assert.assertTrue(breaker.allowRequest());
+    Assert.assertFalse(breaker.allowRequest());
+    breaker.onFailure();
+    Assert.assertEquals(State.OPEN, breaker.getState());
+    Assert.assertFalse(breaker.allowRequest());
+
+    now.addAndGet(10000);
+    Assert.assertTrue(breaker.allowRequest());
+    breaker.onSuccess(10);
+    Assert.assertEquals(State.CLOSED, breaker.getState());
+    Assert.assertTrue(breaker.allowRequest());
+    Assert.assertEquals(0.0, breaker.getStats().get("recentFailureRatio"));
+  }
+}
@@ -0,0 +1,288 @@
+package com.google.sps;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.sps.data.Destination;
+import com.google.sps.servlets.CityView;
+import com.google.sps.servlets.ConditionalGzipFilter;
+import com.google.sps.servlets.Constants;
+import com.google.sps.servlets.DestinationCatalog;
+import com.google.sps.servlets.GetCitiesServlet;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.AsyncContext;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+@RunWith(JUnit4.class)
+public final class ConditionalGzipFilterTest {
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+
+  private final ConditionalGzipFilter filter = new ConditionalGzipFilter();
+  private final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+  private final Map<String, String> headers = new HashMap<>();
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+    when(request.getMethod()).thenReturn("GET");
+    when(response.getOutputStream()).thenReturn(new CapturingStream(sent));
+    Mockito.doAnswer(
+            invocation -> headers.put(invocation.getArgument(0), invocation.getArgument(1)))
+        .when(response)
+        .setHeader(Mockito.anyString(), Mockito.anyString());
+    when(response.getContentType()).thenReturn(Constants.JSON_TYPE);
+  }
+
+  /** A chain that writes {@code body} as the servlet would. */
+  private static FilterChain writing(String body) {
+    return (request, response) -> response.getWriter().print(body);
+  }
+
+  @Test
+  /* Bodies get a tag from their hash, and a request naming that tag gets a 304 and no body. */
+  public void conditionalGet() throws Exception {
+    filter.doFilter(request, response, writing("{\"index\":0}"));
+    String etag = headers.get("ETag");
+    Assert.assertTrue(etag.matches("\"[0-9a-f]{32}\""));
+    Assert.assertEquals("{\"index\":0}", sent.toString("UTF-8"));
+
+    sent.reset();
+    when(request.getHeader("If-None-Match")).thenReturn("\"other\", " + etag);
+    filter.doFilter(request, response, writing("{\"index\":0}"));
+    verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    Assert.assertEquals(0, sent.size());
+
+    filter.doFilter(request, response, writing("{\"index\":1}"));
+    Assert.assertNotEquals(etag, headers.get("ETag"));
+    Assert.assertEquals("{\"index\":1}", sent.toString("UTF-8"));
+  }
+
+  @Test
+  /* Large JSON is gzipped for clients that accept it, under its own tag; small JSON never is. */
+  public void gzip() throws Exception {
+    char[] filler = new char[ConditionalGzipFilter.MIN_GZIP_BYTES * 4];
+    Arrays.fill(filler, 'a');
+    String large = "[\"" + new String(filler) + "\"]";
+    when(request.getHeader("Accept-Encoding")).thenReturn("br;q=1.0, gzip;q=0.8");
+
+    filter.doFilter(request, response, writing(large));
+    Assert.assertEquals("gzip", headers.get("Content-Encoding"));
+    Assert.assertTrue(headers.get("ETag").endsWith("--gzip\""));
+    Assert.assertTrue(sent.size() < large.length() / 10);
+    Assert.assertEquals(large, gunzip(sent.toByteArray()));
+
+    headers.clear();
+    sent.reset();
+    filter.doFilter(request, response, writing("[]"));
+    Assert.assertNull(headers.get("Content-Encoding"));
+    Assert.assertEquals("[]", sent.toString("UTF-8"));
+
+    sent.reset();
+    when(request.getHeader("Accept-Encoding")).thenReturn("gzip;q=0");
+    filter.doFilter(request, response, writing(large));
+    Assert.assertNull(headers.get("Content-Encoding"));
+    Assert.assertEquals(large, sent.toString("UTF-8"));
+  }
+
+  @Test
+  /* A servlet that sets its own tag still answers 304 itself, even for a gzipped tag, which the
+   * 304 then carries. */
+  public void servletTag() throws Exception {
+    DestinationCatalog catalog = Mockito.mock(DestinationCatalog.class);
+    when(catalog.isLoaded()).thenReturn(true);
+    when(catalog.getCityView())
+        .thenReturn(
+            CityView.of(Arrays.asList(new Destination.Builder().withCity("Paris").build())));
+    GetCitiesServlet servlet = new GetCitiesServlet(catalog);
+    String etag = catalog.getCityView().getETag();
+
+    filter.doFilter(request, response, (req, res) -> servlet.service(req, res));
+    Assert.assertEquals(etag, headers.get("ETag"));
+    Assert.assertEquals("[\"Paris\"]", sent.toString("UTF-8").trim());
+
+    sent.reset();
+    String gzipped = etag.substring(0, etag.length() - 1) + "--gzip\"";
+    when(request.getHeader("If-None-Match")).thenReturn(gzipped);
+    filter.doFilter(request, response, (req, res) -> servlet.service(req, res));
+    verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    Assert.assertEquals(0, sent.size());
+    Assert.assertEquals(gzipped, headers.get("ETag"));
+  }
+
+  @Test
+  /* An async servlet's response is sent when it completes, after the filter has returned. */
+  public void asyncResponse() throws Exception {
+    AsyncContext context = Mockito.mock(AsyncContext.class);
+    when(request.startAsync()).thenReturn(context);
+    AsyncContext[] started = new AsyncContext[1];
+
+    filter.doFilter(
+        request,
+        response,
+        (req, res) -> {
+          started[0] = req.startAsync();
+          when(request.isAsyncStarted()).thenReturn(true);
+          res.getWriter().print("{\"index\":2}");
+        });
+    Assert.assertEquals(0, sent.size());
+    verify(context, never()).complete();
+
+    started[0].complete();
+    Assert.assertEquals("{\"index\":2}", sent.toString("UTF-8"));
+    Assert.assertNotNull(headers.get("ETag"));
+    verify(context).complete();
+  }
+
+  @Test
+  /* A servlet writing through a WriteListener may write at once, and is sent on completion. */
+  public void nonBlockingOutput() throws Exception {
+    AsyncContext context = Mockito.mock(AsyncContext.class);
+    when(request.startAsync()).thenReturn(context);
+    when(request.isAsyncStarted()).thenReturn(true);
+
+    filter.doFilter(
+        request,
+        response,
+        (req, res) -> {
+          AsyncContext started = req.startAsync();
+          ServletOutputStream out = res.getOutputStream();
+          out.setWriteListener(
+              new WriteListener() {
+                @Override
+                public void onWritePossible() throws IOException {
+                  Assert.assertTrue(out.isReady());
+                  out.write("{\"index\":3}".getBytes(StandardCharsets.UTF_8));
+                  started.complete();
+                }
+
+                @Override
+                public void onError(Throwable failure) {
+                  throw new AssertionError(failure);
+                }
+              });
+        });
+    Assert.assertEquals("{\"index\":3}", sent.toString("UTF-8"));
+    verify(context).complete();
+  }
+
+  @Test
+  /* Assets requested with their current hash are immutable; any other hash means revalidate. */
+  public void fingerprintedAssets() throws Exception {
+    byte[] script = Files.readAllBytes(Paths.get("src/main/webapp/go.js"));
+    when(response.getContentType()).thenReturn("application/javascript");
+    FilterChain asset = (req, res) -> res.getOutputStream().write(script);
+
+    when(request.getParameter("v")).thenReturn(hash(script));
+    filter.doFilter(request, response, asset);
+    Assert.assertEquals("public, max-age=31536000, immutable", headers.get("Cache-Control"));
+
+    when(request.getParameter("v")).thenReturn("0123456789abcdef0123456789abcdef");
+    filter.doFilter(request, response, asset);
+    Assert.assertEquals("no-cache", headers.get("Cache-Control"));
+  }
+
+  @Test
+  /* An asset is hashed once per path, not on every request for it. */
+  public void assetHashedOnce() throws Exception {
+    byte[] script = Files.readAllBytes(Paths.get("src/main/webapp/go.js"));
+    when(response.getContentType()).thenReturn("application/javascript");
+    when(request.getRequestURI()).thenReturn("/go.js");
+    when(request.getParameter("v")).thenReturn(hash(script));
+    filter.doFilter(request, response, (req, res) -> res.getOutputStream().write(script));
+    String etag = headers.get("ETag");
+
+    // Were the bytes hashed again, this would not count as the same asset.
+    headers.clear();
+    filter.doFilter(request, response, (req, res) -> res.getOutputStream().write(new byte[] {1}));
+    Assert.assertEquals(etag, headers.get("ETag"));
+    Assert.assertEquals("public, max-age=31536000, immutable", headers.get("Cache-Control"));
+  }
+
+  @Test
+  /* The pages reference each fingerprinted asset by its current hash. */
+  public void fingerprintsCurrent() throws Exception {
+    Pattern reference = Pattern.compile("(go\\.js|scavenger_hunt_background\\.png)\\?v=(\\w+)");
+    int references = 0;
+    for (String page : new String[] {"go.html", "common-style.css", "filterStyle.css"}) {
+      String text =
+          new String(
+              Files.readAllBytes(Paths.get("src/main/webapp", page)), StandardCharsets.UTF_8);
+      Matcher matcher = reference.matcher(text);
+      while (matcher.find()) {
+        byte[] asset = Files.readAllBytes(Paths.get("src/main/webapp", matcher.group(1)));
+        Assert.assertEquals(page + " -> " + matcher.group(1), hash(asset), matcher.group(2));
+        references++;
+      }
+    }
+    Assert.assertEquals(3, references);
+  }
+
+  private static String hash(byte[] bytes) throws Exception {
+    byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+    StringBuilder hex = new StringBuilder();
+    for (int i = 0; i < 16; i++) {
+      hex.append(String.format("%02x", digest[i]));
+    }
+    return hex.toString();
+  }
+
+  private static String gunzip(byte[] bytes) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+      byte[] buffer = new byte[4096];
+      for (int read; (read = in.read(buffer)) > 0; ) {
+        out.write(buffer, 0, read);
+      }
+    }
+    return out.toString("UTF-8");
+  }
+
+  /** Collects what the filter sends to the client. */
+  private static class CapturingStream extends ServletOutputStream {
+    private final ByteArrayOutputStream out;
+
+    CapturingStream(ByteArrayOutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) {
+      out.write(b);
+    }
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener listener) {}
+  }
+}
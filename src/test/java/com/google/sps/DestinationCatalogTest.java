@@ -0,0 +1,147 @@
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+import com.google.gson.Gson;
+import com.google.sps.data.Destination;
+import com.google.sps.servlets.Constants;
+import com.google.sps.servlets.DestinationCatalog;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class DestinationCatalogTest {
+  private static final Gson GSON = new Gson();
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private Entity store(String name) {
+    Destination destination = new Destination.Builder().withName(name).withCity("Paris").build();
+    Entity entity = new Entity(Constants.DESTINATION_ENTITY);
+    entity.setProperty(Constants.DESTINATION_JSON, GSON.toJson(destination));
+    datastore.put(entity);
+    return entity;
+  }
+
+  /*
+   * Returns an executor whose thread has an API environment of its own, as a thread made by
+   * ThreadManager.createBackgroundThread has on App Engine.
+   */
+  private static ExecutorService backgroundThread() {
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    return Executors.newSingleThreadExecutor(
+        runnable ->
+            new Thread(
+                () -> {
+                  ApiProxy.setEnvironmentForCurrentThread(environment);
+                  runnable.run();
+                }));
+  }
+
+  @Test
+  /* The kind is read once, later reads come from memory. */
+  public void loadsOnce() {
+    store("Louvre");
+    DestinationCatalog catalog = new DestinationCatalog(datastore, Long.MAX_VALUE, Runnable::run);
+
+    Assert.assertEquals(1, catalog.getDestinations().size());
+    store("Eiffel Tower");
+    Assert.assertEquals(1, catalog.getDestinations().size());
+
+    Assert.assertEquals(1L, (long) catalog.getStats().get("loads"));
+    Assert.assertEquals(1L, (long) catalog.getStats().get("hits"));
+  }
+
+  @Test
+  /* A destination added by this instance is visible before the next refresh. */
+  public void addIsVisibleImmediately() {
+    store("Louvre");
+    DestinationCatalog catalog = new DestinationCatalog(datastore, Long.MAX_VALUE, Runnable::run);
+    catalog.getDestinations();
+
+    Entity added = store("Eiffel Tower");
+    Destination eiffelTower = new Destination.Builder().withName("Eiffel Tower").build();
+    catalog.add(added.getKey(), eiffelTower);
+    catalog.add(added.getKey(), eiffelTower);
+
+    List<Destination> destinations = catalog.getDestinations();
+    Assert.assertEquals(2, destinations.size());
+    Assert.assertSame(eiffelTower, destinations.get(1));
+  }
+
+  @Test
+  /* A stale snapshot is still served, and picks up new entities once refreshed. */
+  public void refreshesWhenStale() {
+    store("Louvre");
+    DestinationCatalog catalog = new DestinationCatalog(datastore, -1, Runnable::run);
+    catalog.getDestinations();
+    store("Eiffel Tower");
+
+    // This read triggers the (inline) refresh but is answered from the old snapshot.
+    Assert.assertEquals(1, catalog.getDestinations().size());
+    Assert.assertEquals(2, catalog.getDestinations().size());
+    Assert.assertEquals(2L, (long) catalog.getStats().get("refreshes"));
+  }
+
+  @Test
+  /* A refresh on a real background thread still reaches Datastore. */
+  public void refreshesOnBackgroundThread() throws Exception {
+    store("Louvre");
+    ExecutorService refresher = backgroundThread();
+    try {
+      DestinationCatalog catalog = new DestinationCatalog(datastore, -1, refresher);
+      catalog.getDestinations();
+      store("Eiffel Tower");
+
+      catalog.getDestinations();
+      // The refresher runs one task at a time, so the refresh is done once this one runs.
+      refresher.submit(() -> {}).get();
+      Assert.assertEquals(0L, (long) catalog.getStats().get("refreshFailures"));
+      Assert.assertEquals(1L, (long) catalog.getStats().get("refreshes"));
+      Assert.assertEquals(2, catalog.getDestinations().size());
+    } finally {
+      refresher.shutdownNow();
+    }
+  }
+
+  @Test
+  /* A cold catalog warms up on a real background thread. */
+  public void warmsUpOnBackgroundThread() throws Exception {
+    store("Louvre");
+    ExecutorService refresher = backgroundThread();
+    try {
+      DestinationCatalog catalog = new DestinationCatalog(datastore, Long.MAX_VALUE, refresher);
+      catalog.warmUp();
+      refresher.submit(() -> {}).get();
+      Assert.assertTrue(catalog.isLoaded());
+      Assert.assertEquals(1L, (long) catalog.getStats().get("loads"));
+    } finally {
+      refresher.shutdownNow();
+    }
+  }
+}
@@ -15,6 +15,7 @@ import com.google.sps.data.LatLng;
 import com.google.sps.data.Riddle;
 import com.google.sps.servlets.Constants;
 import com.google.sps.servlets.DestinationDataServlet;
+import com.google.sps.servlets.DestinationEntities;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
@@ -89,10 +90,7 @@ public final class DestinationDataServletTest {
     Query query = new Query(Constants.DESTINATION_ENTITY);
     PreparedQuery results = datastore.prepare(query);
 
-    Destination destination =
-        GSON.fromJson(
-            (String) results.asSingleEntity().getProperty(Constants.DESTINATION_JSON),
-            Destination.class);
+    Destination destination = DestinationEntities.toDestination(results.asSingleEntity());
 
     String actual = GSON.toJson(destination);
 
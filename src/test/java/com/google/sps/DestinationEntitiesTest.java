@@ -0,0 +1,246 @@
+package com.google.sps;
+
+import static org.mockito.Mockito.doReturn;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.Gson;
+import com.google.sps.data.Destination;
+import com.google.sps.data.JsonCodec;
+import com.google.sps.data.LatLng;
+import com.google.sps.data.Riddle;
+import com.google.sps.servlets.Constants;
+import com.google.sps.servlets.DestinationCatalog;
+import com.google.sps.servlets.DestinationEntities;
+import com.google.sps.servlets.DestinationQueries;
+import com.google.sps.servlets.GenerateServlet;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+@RunWith(JUnit4.class)
+public final class DestinationEntitiesTest {
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+
+  private static final Gson GSON = JsonCodec.gson();
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+  private DestinationQueries queries;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    queries = new DestinationQueries(datastore);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private static Destination destination(
+      String name, String city, Destination.Obscurity level, Destination.Tag... tags) {
+    return new Destination.Builder()
+        .withName(name)
+        .withCity(city)
+        .withObscurity(level)
+        .withTags(new HashSet<>(Arrays.asList(tags)))
+        .withRiddle(new Riddle.Builder().withPuzzle("Where is " + name + "?").build())
+        .build();
+  }
+
+  private Key store(Destination destination) {
+    return datastore.put(DestinationEntities.toEntity(destination));
+  }
+
+  private void storeLegacy(Destination destination) {
+    Entity entity = new Entity(Constants.DESTINATION_ENTITY);
+    entity.setProperty(Constants.DESTINATION_JSON, GSON.toJson(destination));
+    datastore.put(entity);
+  }
+
+  private Set<String> namesOf(List<Key> keys) {
+    Set<String> names = new HashSet<>();
+    for (Destination destination : queries.get(keys).values()) {
+      names.add(destination.getName());
+    }
+    return names;
+  }
+
+  @Test
+  /* Filterable fields are indexed, the rest are not, and every field reads back unchanged. */
+  public void roundTrip() throws Exception {
+    Destination destination =
+        new Destination.Builder()
+            .withName("Golden Gate Bridge")
+            .withLocation(new LatLng.Builder().withLat(37.8199).withLng(-122.4783).build())
+            .withCity("San Francisco")
+            .withDescription("Famous bridge")
+            .withRiddle(
+                new Riddle.Builder().withPuzzle("Orange and foggy").withHint("Tolls").build())
+            .withRiddle(new Riddle.Builder().withPuzzle("Spans the strait").build())
+            .withObscurity(Destination.Obscurity.EASY)
+            .withTags(EnumSet.of(Destination.Tag.TOURIST, Destination.Tag.HISTORICAL))
+            .withPlaceId("ChIJw____96GhYARCVVwg5cT7c0")
+            .withAnswerEntities(Arrays.asList("golden", "gate", "bridge"))
+            .build();
+
+    Entity entity = datastore.get(store(destination));
+
+    for (String indexed :
+        Arrays.asList(
+            Constants.DESTINATION_CITY,
+            Constants.DESTINATION_OBSCURITY,
+            Constants.DESTINATION_TAGS,
+            Constants.DESTINATION_PLACE_ID,
+            Constants.DESTINATION_LAT,
+            Constants.DESTINATION_LNG)) {
+      Assert.assertFalse(indexed, entity.isUnindexedProperty(indexed));
+    }
+    Assert.assertTrue(entity.isUnindexedProperty(Constants.DESTINATION_DESCRIPTION));
+    Assert.assertTrue(entity.isUnindexedProperty(Constants.DESTINATION_RIDDLES));
+    Assert.assertTrue(entity.getProperty(Constants.DESTINATION_RIDDLES) instanceof Text);
+    Assert.assertFalse(entity.hasProperty(Constants.DESTINATION_JSON));
+
+    Assert.assertEquals(
+        GSON.toJson(destination), GSON.toJson(DestinationEntities.toDestination(entity)));
+  }
+
+  @Test
+  /* Entities stored as one JSON property are still read. */
+  public void legacyEntities() {
+    Destination destination =
+        destination("Louvre", "Paris", Destination.Obscurity.MEDIUM, Destination.Tag.ART);
+    storeLegacy(destination);
+
+    Entity entity = datastore.prepare(new Query(Constants.DESTINATION_ENTITY)).asSingleEntity();
+    Assert.assertTrue(DestinationEntities.isLegacy(entity));
+    Assert.assertEquals(
+        GSON.toJson(destination), GSON.toJson(DestinationEntities.toDestination(entity)));
+  }
+
+  @Test
+  /* City, difficulty and tag filters are answered by the query, not by reading every entity. */
+  public void filtersPushedDown() {
+    store(
+        destination(
+            "Coit Tower",
+            "San Francisco",
+            Destination.Obscurity.EASY,
+            Destination.Tag.HISTORICAL,
+            Destination.Tag.TOURIST));
+    store(
+        destination(
+            "Tartine", "San Francisco", Destination.Obscurity.MEDIUM, Destination.Tag.FOOD));
+    store(
+        destination(
+            "Oracle Park", "San Francisco", Destination.Obscurity.HARD, Destination.Tag.SPORT));
+    store(destination("Louvre", "Paris", Destination.Obscurity.EASY, Destination.Tag.ART));
+    store(destination("Untagged", "Paris", Destination.Obscurity.EASY));
+
+    Set<Destination.Obscurity> easyOrMedium =
+        EnumSet.of(Destination.Obscurity.EASY, Destination.Obscurity.MEDIUM);
+    Assert.assertEquals(
+        new HashSet<>(Arrays.asList("Coit Tower", "Tartine")),
+        namesOf(
+            queries.matchingKeys(
+                Collections.singleton("San Francisco"), easyOrMedium, Collections.emptySet())));
+    // A destination with two matching tags is returned once.
+    List<Key> tagged =
+        queries.matchingKeys(
+            new HashSet<>(Arrays.asList("San Francisco", "Paris")),
+            easyOrMedium,
+            EnumSet.of(Destination.Tag.HISTORICAL, Destination.Tag.TOURIST, Destination.Tag.ART));
+    Assert.assertEquals(2, tagged.size());
+    Assert.assertEquals(new HashSet<>(Arrays.asList("Coit Tower", "Louvre")), namesOf(tagged));
+    Assert.assertTrue(
+        queries
+            .matchingKeys(
+                Collections.singleton("Paris"), Collections.emptySet(), Collections.emptySet())
+            .isEmpty());
+  }
+
+  @Test
+  /* The projection query gives the same cities, counts and ETag as the loaded catalog. */
+  public void projectedCities() {
+    store(destination("Coit Tower", "San Francisco", Destination.Obscurity.EASY));
+    store(destination("Louvre", "Paris", Destination.Obscurity.EASY));
+    store(destination("Orsay", "Paris", Destination.Obscurity.HARD));
+
+    DestinationCatalog catalog = new DestinationCatalog(datastore, Long.MAX_VALUE, Runnable::run);
+    Assert.assertEquals(
+        catalog.getCityView().getCountsJson(), queries.getCityView().getCountsJson());
+    Assert.assertEquals(catalog.getCityView().getETag(), queries.getCityView().getETag());
+  }
+
+  @Test
+  /* A cold instance generates a hunt from the query without loading the catalog, and falls back
+   * to the catalog when too few migrated destinations match. */
+  public void coldGenerate() throws Exception {
+    store(destination("Coit Tower", "San Francisco", Destination.Obscurity.EASY));
+    store(destination("Tartine", "San Francisco", Destination.Obscurity.EASY));
+    store(destination("Louvre", "Paris", Destination.Obscurity.EASY));
+    storeLegacy(destination("Lombard Street", "San Francisco", Destination.Obscurity.EASY));
+
+    List<Runnable> warmUps = new ArrayList<>();
+    DestinationCatalog catalog = new DestinationCatalog(datastore, Long.MAX_VALUE, warmUps::add);
+    GenerateServlet servlet = new GenerateServlet(catalog, queries);
+    doReturn("[\"San Francisco\"]").when(request).getParameter("user-places");
+    doReturn("[\"easy\"]").when(request).getParameter("user-diff");
+    doReturn("[]").when(request).getParameter("user-tags");
+    doReturn("2").when(request).getParameter("user-num-stops");
+    doReturn("7").when(request).getParameter("seed");
+
+    String hunt = generate(servlet);
+    Assert.assertTrue(hunt.contains("Coit Tower"));
+    Assert.assertTrue(hunt.contains("Tartine"));
+    Assert.assertFalse(catalog.isLoaded());
+    Assert.assertEquals(1, warmUps.size());
+
+    // Only the legacy entity makes a third match, so the catalog has to load.
+    doReturn("3").when(request).getParameter("user-num-stops");
+    hunt = generate(servlet);
+    Assert.assertTrue(catalog.isLoaded());
+    Assert.assertTrue(hunt.contains("Lombard Street"));
+  }
+
+  /* Runs the servlet and returns the JSON of the hunt it stored. */
+  private String generate(GenerateServlet servlet) throws Exception {
+    StringWriter out = new StringWriter();
+    Mockito.when(response.getWriter()).thenReturn(new PrintWriter(out));
+    servlet.doPost(request, response);
+    long huntId = Long.parseLong(out.toString().trim());
+    Entity hunt = datastore.get(KeyFactory.createKey(Constants.SCAVENGER_HUNT_ENTITY, huntId));
+    return ((Text) hunt.getProperty(Constants.SCAVENGER_HUNT_ENTITY)).getValue();
+  }
+}
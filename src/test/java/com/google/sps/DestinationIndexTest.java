@@ -0,0 +1,88 @@
+package com.google.sps;
+
+import com.google.sps.data.Destination;
+import com.google.sps.data.DestinationIndex;
+import com.google.sps.servlets.GenerateServlet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class DestinationIndexTest {
+  private static final List<String> CITIES = Arrays.asList("San Francisco", "Paris", "Tokyo");
+
+  private final Random random = new Random(183);
+
+  private <T> Set<T> randomSubset(List<T> values) {
+    Set<T> subset = new HashSet<>();
+    for (T value : values) {
+      if (random.nextBoolean()) {
+        subset.add(value);
+      }
+    }
+    return subset;
+  }
+
+  private Destination randomDestination(int i) {
+    return new Destination.Builder()
+        .withName("Destination " + i)
+        .withCity(CITIES.get(random.nextInt(CITIES.size())))
+        .withObscurity(Destination.Obscurity.values()[random.nextInt(4)])
+        .withTags(randomSubset(Arrays.asList(Destination.Tag.values())))
+        .build();
+  }
+
+  private void assertSameAsScan(List<Destination> destinations, DestinationIndex index) {
+    GenerateServlet generate = new GenerateServlet();
+    for (int i = 0; i < 200; i++) {
+      Set<String> places = randomSubset(CITIES);
+      Set<Destination.Obscurity> levels =
+          randomSubset(Arrays.asList(Destination.Obscurity.values()));
+      Set<Destination.Tag> tags = randomSubset(Arrays.asList(Destination.Tag.values()));
+
+      Assert.assertEquals(
+          generate.filter(destinations, places, levels, tags),
+          generate.filter(index, places, levels, tags));
+    }
+  }
+
+  @Test
+  /* The index gives exactly the same results as GenerateServlet's scan. */
+  public void matchesScan() {
+    List<Destination> destinations = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      destinations.add(randomDestination(i));
+    }
+
+    assertSameAsScan(destinations, DestinationIndex.of(destinations));
+  }
+
+  @Test
+  /* An index grown one destination at a time matches the scan, and leaves older indexes alone. */
+  public void incrementalInserts() {
+    List<Destination> destinations = new ArrayList<>();
+    DestinationIndex index = DestinationIndex.of(destinations);
+    DestinationIndex first = null;
+    for (int i = 0; i < 500; i++) {
+      Destination destination = randomDestination(i);
+      destinations.add(destination);
+      index = index.withAdded(destination);
+      if (i == 0) {
+        first = index;
+      }
+    }
+
+    assertSameAsScan(destinations, index);
+    Assert.assertEquals(1, first.size());
+    Set<Destination.Obscurity> allLevels =
+        new HashSet<>(Arrays.asList(Destination.Obscurity.values()));
+    Assert.assertEquals(1, first.filter(CITIES, allLevels, new HashSet<Destination.Tag>()).size());
+  }
+}
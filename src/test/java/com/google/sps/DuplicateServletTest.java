@@ -0,0 +1,99 @@
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.Gson;
+import com.google.sps.data.Destination;
+import com.google.sps.servlets.Constants;
+import com.google.sps.servlets.DestinationCatalog;
+import com.google.sps.servlets.DuplicateServlet;
+import com.google.sps.servlets.PlaceIdIndex;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class DuplicateServletTest {
+  private static final Gson GSON = new Gson();
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+  private PlaceIdIndex placeIdIndex;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    placeIdIndex = new PlaceIdIndex(datastore);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private Entity store(String placeId) {
+    Destination destination = new Destination.Builder().withPlaceId(placeId).build();
+    Entity entity = new Entity(Constants.DESTINATION_ENTITY);
+    entity.setProperty(Constants.DESTINATION_JSON, GSON.toJson(destination));
+    datastore.put(entity);
+    return entity;
+  }
+
+  private DuplicateServlet newServlet() {
+    return new DuplicateServlet(
+        new DestinationCatalog(datastore, Long.MAX_VALUE, Runnable::run), placeIdIndex);
+  }
+
+  @Test
+  public void indexedDuplicate() {
+    Entity entity = store("ChIJ-golden-gate");
+    placeIdIndex.record("ChIJ-golden-gate", entity.getKey());
+
+    Assert.assertTrue(newServlet().isDuplicate("ChIJ-golden-gate"));
+  }
+
+  @Test
+  public void original() {
+    Entity entity = store("ChIJ-golden-gate");
+    placeIdIndex.record("ChIJ-golden-gate", entity.getKey());
+
+    DuplicateServlet servlet = newServlet();
+    Assert.assertFalse(servlet.isDuplicate("ChIJ-eiffel-tower"));
+    Assert.assertFalse(servlet.isDuplicate(null));
+  }
+
+  @Test
+  /* A placeId stored by another instance after this catalog loaded is still a duplicate. */
+  public void storedElsewhere() {
+    DuplicateServlet servlet = newServlet();
+    Assert.assertFalse(servlet.isDuplicate("ChIJ-golden-gate"));
+
+    Entity entity = store("ChIJ-golden-gate");
+    placeIdIndex.record("ChIJ-golden-gate", entity.getKey());
+    Assert.assertTrue(servlet.isDuplicate("ChIJ-golden-gate"));
+  }
+
+  @Test
+  /* Destinations stored before the index existed are still found, and backfill indexes them. */
+  public void backfill() {
+    store("ChIJ-golden-gate");
+    store("ChIJ-louvre");
+    store(null);
+
+    Assert.assertTrue(newServlet().isDuplicate("ChIJ-louvre"));
+    Assert.assertFalse(placeIdIndex.contains("ChIJ-louvre"));
+
+    Assert.assertEquals(2, placeIdIndex.backfill());
+    Assert.assertTrue(placeIdIndex.contains("ChIJ-golden-gate"));
+    Assert.assertTrue(placeIdIndex.contains("ChIJ-louvre"));
+  }
+}
@@ -0,0 +1,192 @@
+package com.google.sps;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.verify;
+
+import com.google.sps.data.CircuitBreaker;
+import com.google.sps.servlets.EntityAnalyzer;
+import com.google.sps.servlets.GuessServlet;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+@RunWith(JUnit4.class)
+public final class EntityAnalyzerTest {
+  private EntityAnalyzer analyzer;
+
+  @After
+  public void tearDown() {
+    analyzer.shutdown();
+  }
+
+  private static List<String> words(String text) {
+    return Arrays.asList(text.split(" "));
+  }
+
+  @Test
+  /* A guess the local matcher is unsure of is analyzed at the same time as the answer. */
+  public void guessAndAnswerOverlap() throws Exception {
+    // Neither call can return until the other one has started.
+    CyclicBarrier bothStarted = new CyclicBarrier(2);
+    analyzer =
+        new EntityAnalyzer(
+            text -> {
+              try {
+                bothStarted.await(5, TimeUnit.SECONDS);
+              } catch (Exception e) {
+                throw new IOException(e);
+              }
+              return words(text);
+            },
+            4,
+            1000);
+    HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+    doReturn("the golden bridge").when(request).getParameter("guess-input");
+    doReturn("Golden Gate Bridge").when(request).getParameter("answer");
+    StringWriter stringWriter = new StringWriter();
+    Mockito.when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
+
+    new GuessServlet(analyzer).doGet(request, response);
+
+    Assert.assertEquals("false\n", stringWriter.toString());
+    verify(response)
+        .setHeader(
+            ArgumentMatchers.eq("Server-Timing"),
+            ArgumentMatchers.matches("nl-guess;dur=[0-9.]+, nl-answer;dur=[0-9.]+"));
+    Assert.assertEquals(2L, analyzer.getStats().get("calls"));
+  }
+
+  @Test
+  /* Calls beyond the in-flight limit fail after the acquire timeout instead of piling up. */
+  public void boundedInFlight() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch started = new CountDownLatch(1);
+    analyzer =
+        new EntityAnalyzer(
+            text -> {
+              started.countDown();
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+              return words(text);
+            },
+            1,
+            50);
+    Future<List<String>> first = analyzer.getExecutor().submit(() -> analyzer.findEntities("a b"));
+    started.await();
+
+    try {
+      analyzer.findEntities("c");
+      Assert.fail("Expected the second call to be rejected");
+    } catch (IOException expected) {
+      // The only slot is taken.
+    }
+    release.countDown();
+
+    Assert.assertEquals(Arrays.asList("a", "b"), first.get());
+    Assert.assertEquals(1L, analyzer.getStats().get("rejected"));
+    Assert.assertEquals(Arrays.asList("c"), analyzer.findEntities("C"));
+  }
+
+  /* An API that remembers being closed. */
+  private static class ClosableApi implements EntityAnalyzer.Api, AutoCloseable {
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    @Override
+    public List<String> findEntities(String text) {
+      return words(text);
+    }
+
+    @Override
+    public void close() {
+      closed.set(true);
+    }
+  }
+
+  @Test
+  /* Shutting down closes the client. */
+  public void shutdownClosesClient() {
+    ClosableApi api = new ClosableApi();
+    analyzer = new EntityAnalyzer(api, 2, 100);
+
+    analyzer.shutdown();
+
+    Assert.assertTrue(api.closed.get());
+    Assert.assertTrue(analyzer.getExecutor().isShutdown());
+  }
+
+  private static String guess(GuessServlet servlet, String guess, String answer)
+      throws IOException {
+    HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+    doReturn(guess).when(request).getParameter("guess-input");
+    doReturn(answer).when(request).getParameter("answer");
+    StringWriter stringWriter = new StringWriter();
+    Mockito.when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
+    servlet.doGet(request, response);
+    verify(response).setHeader("Server-Timing", "local-match;desc=fallback");
+    return stringWriter.toString();
+  }
+
+  @Test
+  /* Calls past their deadline fail, open the breaker, and guesses are then judged locally. */
+  public void deadlineBreakerAndFallback() throws Exception {
+    AtomicInteger apiCalls = new AtomicInteger();
+    CircuitBreaker breaker = new CircuitBreaker(4, 2, 0.5, 1000, 60000);
+    analyzer =
+        new EntityAnalyzer(
+            text -> {
+              apiCalls.incrementAndGet();
+              try {
+                Thread.sleep(5000);
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+              return words(text);
+            },
+            4,
+            1000,
+            50,
+            breaker);
+
+    for (int i = 0; i < 2; i++) {
+      long start = System.nanoTime();
+      try {
+        analyzer.findEntities("golden gate");
+        Assert.fail("Expected the call to time out");
+      } catch (IOException expected) {
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+      }
+    }
+    Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    Assert.assertEquals(2L, analyzer.getStats().get("timeouts"));
+
+    long fallbacks = (long) GuessServlet.getMatcherStats().get("fallbacks");
+    GuessServlet servlet = new GuessServlet(analyzer);
+    Assert.assertEquals("true\n", guess(servlet, "Golden Gat Bridge", "Golden Gate Bridge"));
+    Assert.assertEquals("false\n", guess(servlet, "Golden Bridge", "Golden Gate Bridge"));
+
+    Assert.assertEquals(2, apiCalls.get());
+    Assert.assertEquals(fallbacks + 2, GuessServlet.getMatcherStats().get("fallbacks"));
+  }
+}
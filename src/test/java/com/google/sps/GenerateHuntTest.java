@@ -2,11 +2,10 @@ package com.google.sps.data;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
-import com.google.gson.Gson;
-import com.google.sps.servlets.Constants;
+import com.google.sps.servlets.DestinationCatalog;
+import com.google.sps.servlets.DestinationEntities;
 import com.google.sps.servlets.GenerateServlet;
 import com.google.sps.servlets.GetCitiesServlet;
 import java.util.Arrays;
@@ -403,23 +402,11 @@ public final class GenerateHuntTest {
             .withObscurity(Destination.Obscurity.EASY)
             .build();
 
-    String goldenGateJson = new Gson().toJson(goldenGate);
-    String louvreJson = new Gson().toJson(louvre);
-    String disneyJson = new Gson().toJson(disneyWorld);
+    datastore.put(DestinationEntities.toEntity(goldenGate));
+    datastore.put(DestinationEntities.toEntity(louvre));
+    datastore.put(DestinationEntities.toEntity(disneyWorld));
 
-    Entity goldenGateEnt = new Entity(Constants.DESTINATION_ENTITY);
-    goldenGateEnt.setProperty(Constants.DESTINATION_JSON, goldenGateJson);
-    datastore.put(goldenGateEnt);
-
-    Entity louvreEnt = new Entity(Constants.DESTINATION_ENTITY);
-    louvreEnt.setProperty(Constants.DESTINATION_JSON, louvreJson);
-    datastore.put(louvreEnt);
-
-    Entity disneyEnt = new Entity(Constants.DESTINATION_ENTITY);
-    disneyEnt.setProperty(Constants.DESTINATION_JSON, disneyJson);
-    datastore.put(disneyEnt);
-
-    GetCitiesServlet cities = new GetCitiesServlet();
+    GetCitiesServlet cities = new GetCitiesServlet(new DestinationCatalog(datastore));
     Set<String> actual = cities.getCities();
 
     Set<String> expected = new HashSet<String>();
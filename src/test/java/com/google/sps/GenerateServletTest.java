@@ -0,0 +1,104 @@
+package com.google.sps;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.verify;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.servlets.DestinationCatalog;
+import com.google.sps.servlets.DestinationQueries;
+import com.google.sps.servlets.GenerateServlet;
+import com.google.sps.servlets.HuntPool;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@RunWith(JUnit4.class)
+public final class GenerateServletTest {
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private GenerateServlet servlet;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    servlet =
+        new GenerateServlet(
+            new DestinationCatalog(datastore, Long.MAX_VALUE, Runnable::run),
+            new DestinationQueries(datastore),
+            true,
+            new HuntPool(4, 2, 8, 1, Runnable::run, System::currentTimeMillis));
+    doReturn("[\"San Francisco\"]").when(request).getParameter("user-places");
+    doReturn("[\"easy\"]").when(request).getParameter("user-diff");
+    doReturn("[]").when(request).getParameter("user-tags");
+    doReturn("2").when(request).getParameter("user-num-stops");
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private void assertBadRequest() throws Exception {
+    servlet.doPost(request, response);
+    verify(response)
+        .sendError(
+            ArgumentMatchers.eq(HttpServletResponse.SC_BAD_REQUEST), ArgumentMatchers.anyString());
+  }
+
+  @Test
+  /* A seed that is not a whole number is the caller's mistake, not a server error. */
+  public void malformedSeed() throws Exception {
+    doReturn("abc").when(request).getParameter("seed");
+    assertBadRequest();
+  }
+
+  @Test
+  /* Coordinates must be numbers on the map. */
+  public void malformedStart() throws Exception {
+    doReturn("37.8").when(request).getParameter("user-lat");
+    doReturn("NaN").when(request).getParameter("user-lng");
+    assertBadRequest();
+  }
+
+  @Test
+  /* A latitude beyond the poles is not a start point. */
+  public void startOffTheMap() throws Exception {
+    doReturn("137.8").when(request).getParameter("user-lat");
+    doReturn("-122.4").when(request).getParameter("user-lng");
+    assertBadRequest();
+  }
+
+  @Test
+  /* Distances must be positive and finite. */
+  public void negativeDistance() throws Exception {
+    doReturn("37.8").when(request).getParameter("user-lat");
+    doReturn("-122.4").when(request).getParameter("user-lng");
+    doReturn("-1").when(request).getParameter("user-walk-km");
+    assertBadRequest();
+  }
+
+  @Test
+  /* A radius that is not a number is rejected. */
+  public void malformedRadius() throws Exception {
+    doReturn("37.8").when(request).getParameter("user-lat");
+    doReturn("-122.4").when(request).getParameter("user-lng");
+    doReturn("two").when(request).getParameter("user-radius-km");
+    assertBadRequest();
+  }
+}
@@ -0,0 +1,137 @@
+package com.google.sps;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.Destination;
+import com.google.sps.servlets.Constants;
+import com.google.sps.servlets.DestinationCatalog;
+import com.google.sps.servlets.DestinationEntities;
+import com.google.sps.servlets.GetCitiesServlet;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+@RunWith(JUnit4.class)
+public final class GetCitiesServletTest {
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+  private DestinationCatalog catalog;
+  private GetCitiesServlet servlet;
+  private StringWriter stringWriter;
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    catalog = new DestinationCatalog(datastore, Long.MAX_VALUE, Runnable::run);
+    servlet = new GetCitiesServlet(catalog);
+
+    stringWriter = new StringWriter();
+    Mockito.when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
+
+    store("Paris");
+    store("San Francisco");
+    store("Paris");
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private void store(String city) {
+    datastore.put(DestinationEntities.toEntity(new Destination.Builder().withCity(city).build()));
+  }
+
+  private String etagOfResponse() {
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    verify(response).setHeader(Mockito.eq("ETag"), etag.capture());
+    return etag.getValue();
+  }
+
+  @Test
+  public void sortedCities() throws IOException {
+    servlet.doGet(request, response);
+
+    Assert.assertEquals("[\"Paris\",\"San Francisco\"]\n", stringWriter.toString());
+    verify(response).setHeader("Cache-Control", "public, max-age=300");
+  }
+
+  @Test
+  public void counts() throws IOException {
+    doReturn("true").when(request).getParameter("counts");
+
+    servlet.doGet(request, response);
+
+    Assert.assertEquals("{\"Paris\":2,\"San Francisco\":1}\n", stringWriter.toString());
+    // "c-" and the first 16 bytes of the SHA-256 of the body, in one quoted tag
+    Assert.assertEquals("\"c-19b87722efcbfea91ebff25694ff7a08\"", etagOfResponse());
+  }
+
+  @Test
+  public void notModified() throws IOException {
+    servlet.doGet(request, response);
+    String etag = etagOfResponse();
+
+    Mockito.reset(response);
+    doReturn(etag).when(request).getHeader("If-None-Match");
+    servlet.doGet(request, response);
+
+    verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(response, never()).getWriter();
+  }
+
+  @Test
+  /* A destination stored through the catalog changes the counts and the ETag. */
+  public void changesOnAdd() throws IOException {
+    servlet.doGet(request, response);
+    String etag = etagOfResponse();
+
+    catalog.add(
+        new Entity(Constants.DESTINATION_ENTITY, 99).getKey(),
+        new Destination.Builder().withCity("Tokyo").build());
+    Assert.assertEquals(Integer.valueOf(1), catalog.getCityView().getCounts().get("Tokyo"));
+    Assert.assertNotEquals(etag, catalog.getCityView().getETag());
+  }
+
+  @Test
+  /* While the catalog loads, the cities come from a query, and nothing may cache them. */
+  public void coldCatalog() throws IOException {
+    List<Runnable> warmUps = new ArrayList<>();
+    DestinationCatalog cold = new DestinationCatalog(datastore, Long.MAX_VALUE, warmUps::add);
+    new GetCitiesServlet(cold).doGet(request, response);
+
+    Assert.assertEquals("[\"Paris\",\"San Francisco\"]", stringWriter.toString().trim());
+    verify(response, never()).setHeader(Mockito.eq("ETag"), Mockito.anyString());
+    verify(response, never()).setHeader(Mockito.eq("Cache-Control"), Mockito.anyString());
+    Assert.assertEquals(1, warmUps.size());
+    Assert.assertFalse(cold.isLoaded());
+  }
+}
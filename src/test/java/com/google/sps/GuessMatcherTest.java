@@ -0,0 +1,69 @@
+package com.google.sps;
+
+import com.google.sps.data.GuessMatcher;
+import com.google.sps.data.GuessMatcher.Verdict;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class GuessMatcherTest {
+  private static final String ANSWER = "Golden Gate Bridge";
+
+  @Test
+  /* Case, accents, punctuation and stop words make no difference. */
+  public void folding() {
+    Assert.assertEquals("cafe de flore", GuessMatcher.fold("  Café-de   FLORE! "));
+    Assert.assertEquals(
+        Arrays.asList("cafe", "flore"),
+        Arrays.asList(GuessMatcher.words("Le Café de Flore").toArray()));
+
+    Assert.assertEquals(Verdict.ACCEPT, GuessMatcher.match("cafe de flore", "Café de Flore"));
+    Assert.assertEquals(Verdict.ACCEPT, GuessMatcher.match("the golden gate bridge!", ANSWER));
+    Assert.assertEquals(Verdict.ACCEPT, GuessMatcher.match("Bridge, Golden Gate", ANSWER));
+  }
+
+  @Test
+  /* Small typos in long enough words are accepted. */
+  public void typos() {
+    Assert.assertEquals(Verdict.ACCEPT, GuessMatcher.match("golden gate bridg", ANSWER));
+    Assert.assertEquals(Verdict.ACCEPT, GuessMatcher.match("Goldne Gate Brigde", ANSWER));
+    Assert.assertTrue(GuessMatcher.jaroWinkler("martha", "marhta") > 0.96);
+    Assert.assertEquals(0.0, GuessMatcher.jaroWinkler("abc", "xyz"), 0);
+  }
+
+  @Test
+  /* A guess missing a word of the answer is not sure either way; one with nothing alike is rejected. */
+  public void unsureAndReject() {
+    Assert.assertEquals(Verdict.UNSURE, GuessMatcher.match("Golden Bridge", ANSWER));
+    Assert.assertEquals(Verdict.UNSURE, GuessMatcher.match("Bay Bridge", ANSWER));
+    Assert.assertEquals(Verdict.REJECT, GuessMatcher.match("Eiffel Tower", ANSWER));
+    Assert.assertEquals(Verdict.REJECT, GuessMatcher.match("the", ANSWER));
+    Assert.assertEquals(Verdict.REJECT, GuessMatcher.match("", ANSWER));
+  }
+
+  @Test
+  /* Previously accepted guesses act as aliases, both to accept and to avoid rejecting. */
+  public void aliases() {
+    Assert.assertEquals(Verdict.REJECT, GuessMatcher.match("the GG bridge", "Coit Tower"));
+    Assert.assertEquals(
+        Verdict.ACCEPT,
+        GuessMatcher.match(
+            "The Big Apple", "New York City", Collections.singletonList("big apple")));
+    Assert.assertEquals(
+        Verdict.UNSURE,
+        GuessMatcher.match("apple", "New York City", Collections.singletonList("big apple")));
+  }
+
+  @Test
+  /* Similarity is the mean best word match over the answer's words. */
+  public void similarity() {
+    Assert.assertEquals(1.0, GuessMatcher.similarity("the golden gate bridge", ANSWER), 1e-9);
+    Assert.assertEquals(0.0, GuessMatcher.similarity("", ANSWER), 0);
+    double partial = GuessMatcher.similarity("Golden Bridge", ANSWER);
+    Assert.assertTrue(partial > 0.6 && partial < 1);
+  }
+}
@@ -2,10 +2,19 @@ package com.google.sps;
 
 import static org.mockito.Mockito.doReturn;
 
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.sps.servlets.EntityAnalyzer;
+import com.google.sps.servlets.GuessServlet;
 import com.google.sps.servlets.TestGuessServlet;
+import com.google.sps.servlets.VerdictCache;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.junit.Assert;
@@ -13,6 +22,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -104,4 +114,105 @@ public final class GuessServletTest {
 
     Assert.assertEquals(stringWriter.toString(), "true\n");
   }
+
+  @Test
+  public void OnlyUnsureGuessesEscalated() throws IOException {
+    long escalated = (long) GuessServlet.getMatcherStats().get("escalated");
+    setMockRequestParameters("The Golden Gate Bridge", "Golden Gate Bridge");
+    servlet.doGet(request, response);
+    setMockRequestParameters("Eiffel Tower", "Golden Gate Bridge");
+    servlet.doGet(request, response);
+    Assert.assertEquals(escalated, GuessServlet.getMatcherStats().get("escalated"));
+
+    setMockRequestParameters("Golden Bridge", "Golden Gate Bridge");
+    servlet.doGet(request, response);
+    Assert.assertEquals(escalated + 1, GuessServlet.getMatcherStats().get("escalated"));
+  }
+
+  @Test
+  /* Guesses the matcher is sure about never read the accepted guesses from Datastore. */
+  public void SureGuessesSkipStore() throws IOException {
+    DatastoreService datastore = Mockito.mock(DatastoreService.class);
+    EntityAnalyzer analyzer = new EntityAnalyzer(text -> Arrays.asList(text.split(" ")), 2, 1000);
+    try {
+      GuessServlet cached = new GuessServlet(analyzer, null, new VerdictCache(datastore));
+      setMockRequestParameters("Eiffel Tower", "Golden Gate Bridge");
+      cached.doGet(request, response);
+      setMockRequestParameters("The Golden Gate Bridge", "Golden Gate Bridge");
+      cached.doGet(request, response);
+      Assert.assertEquals("false\ntrue\n", stringWriter.toString());
+      Mockito.verifyNoInteractions(datastore);
+    } finally {
+      analyzer.shutdown();
+    }
+  }
+
+  @Test
+  public void AsyncRequest() throws Exception {
+    AsyncContext asyncContext = Mockito.mock(AsyncContext.class);
+    CountDownLatch completed = new CountDownLatch(1);
+    Mockito.doAnswer(
+            invocation -> {
+              completed.countDown();
+              return null;
+            })
+        .when(asyncContext)
+        .complete();
+    doReturn(true).when(request).isAsyncSupported();
+    doReturn(asyncContext).when(request).startAsync();
+    setMockRequestParameters("Golden Bridge", "Golden Gate Bridge");
+
+    servlet.doGet(request, response);
+
+    Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+    Assert.assertEquals(stringWriter.toString(), "false\n");
+  }
+
+  @Test
+  /* A request that times out gets a 503, and the verdict that turns up later is dropped. */
+  public void TimedOutRequest() throws Exception {
+    CountDownLatch answered = new CountDownLatch(1);
+    EntityAnalyzer slowAnalyzer =
+        new EntityAnalyzer(
+            text -> {
+              try {
+                answered.await();
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+              return Arrays.asList(text.split(" "));
+            },
+            2,
+            1000);
+    AsyncContext asyncContext = Mockito.mock(AsyncContext.class);
+    CountDownLatch completed = new CountDownLatch(1);
+    Mockito.doAnswer(
+            invocation -> {
+              completed.countDown();
+              return null;
+            })
+        .when(asyncContext)
+        .complete();
+    doReturn(true).when(request).isAsyncSupported();
+    doReturn(asyncContext).when(request).startAsync();
+    setMockRequestParameters("Golden Bridge", "Golden Gate Bridge");
+
+    try {
+      new GuessServlet(slowAnalyzer).doGet(request, response);
+      ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+      Mockito.verify(asyncContext).addListener(listener.capture());
+      listener.getValue().onTimeout(null);
+      Mockito.verify(response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      Assert.assertEquals(0, completed.getCount());
+
+      answered.countDown();
+      // The verdict is worked out, but neither written nor completed again.
+      Thread.sleep(200);
+      Assert.assertEquals("", stringWriter.toString());
+      Mockito.verify(asyncContext, Mockito.times(1)).complete();
+    } finally {
+      answered.countDown();
+      slowAnalyzer.shutdown();
+    }
+  }
 }
@@ -0,0 +1,296 @@
+package com.google.sps;
+
+import static org.mockito.Mockito.doReturn;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.sps.data.Destination;
+import com.google.sps.data.Riddle;
+import com.google.sps.servlets.Constants;
+import com.google.sps.servlets.DestinationCatalog;
+import com.google.sps.servlets.DestinationEntities;
+import com.google.sps.servlets.DestinationQueries;
+import com.google.sps.servlets.GenerateServlet;
+import com.google.sps.servlets.HuntPool;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+@RunWith(JUnit4.class)
+public final class HuntPoolTest {
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  // Refills queued by the pools under test, run when a test says so
+  private final List<Runnable> refills = new ArrayList<>();
+  private final AtomicLong now = new AtomicLong();
+  private final AtomicInteger generated = new AtomicInteger();
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private HuntPool pool(int maxCombinations) {
+    return new HuntPool(4, 2, maxCombinations, 2, refills::add, now::get);
+  }
+
+  /* Asks for filters often enough for them to get a pool, and fills it. */
+  private void admit(HuntPool pool, HuntPool.Filters filters) {
+    pool.take(filters, this::generate);
+    pool.take(filters, this::generate);
+    runRefills();
+  }
+
+  private static HuntPool.Filters filters(String city, int numPlaces) {
+    return new HuntPool.Filters(
+        Collections.singleton(city),
+        EnumSet.of(Destination.Obscurity.EASY),
+        Collections.emptySet(),
+        numPlaces);
+  }
+
+  private Entity generate(HuntPool.Filters filters) {
+    generated.incrementAndGet();
+    return new Entity(Constants.SCAVENGER_HUNT_ENTITY);
+  }
+
+  private void runRefills() {
+    List<Runnable> queued = new ArrayList<>(refills);
+    refills.clear();
+    queued.forEach(Runnable::run);
+  }
+
+  private static int depth(HuntPool pool, HuntPool.Filters filters) {
+    @SuppressWarnings("unchecked")
+    Map<String, Integer> depths = (Map<String, Integer>) pool.getStats().get("depths");
+    return depths.getOrDefault(filters.toString(), 0);
+  }
+
+  @Test
+  /* The same filters in any order are one combination. */
+  public void filtersIgnoreOrder() {
+    HuntPool.Filters a =
+        new HuntPool.Filters(
+            new HashSet<>(Arrays.asList("Paris", "San Francisco")),
+            EnumSet.of(Destination.Obscurity.HARD, Destination.Obscurity.EASY),
+            EnumSet.of(Destination.Tag.ART),
+            5);
+    HuntPool.Filters b =
+        new HuntPool.Filters(
+            new HashSet<>(Arrays.asList("San Francisco", "Paris")),
+            EnumSet.of(Destination.Obscurity.EASY, Destination.Obscurity.HARD),
+            EnumSet.of(Destination.Tag.ART),
+            5);
+    Assert.assertEquals(a, b);
+    Assert.assertEquals(a.hashCode(), b.hashCode());
+    Assert.assertEquals(a.toString(), b.toString());
+    Assert.assertNotEquals(a, filters("Paris", 5));
+  }
+
+  @Test
+  /* The request that admits a combination misses and starts a refill; later ones take ready
+   * hunts, and the pool is refilled once it falls below its low watermark. */
+  public void refillsBelowWatermark() {
+    HuntPool pool = pool(8);
+    HuntPool.Filters paris = filters("Paris", 3);
+
+    Assert.assertNull(pool.take(paris, this::generate));
+    Assert.assertTrue(refills.isEmpty());
+    Assert.assertNull(pool.take(paris, this::generate));
+    Assert.assertEquals(1, refills.size());
+    // Only one refill is queued at a time.
+    Assert.assertNull(pool.take(paris, this::generate));
+    Assert.assertEquals(1, refills.size());
+    runRefills();
+    Assert.assertEquals(4, depth(pool, paris));
+
+    Assert.assertNotNull(pool.take(paris, this::generate));
+    Assert.assertNotNull(pool.take(paris, this::generate));
+    Assert.assertTrue(refills.isEmpty());
+    Assert.assertNotNull(pool.take(paris, this::generate));
+    Assert.assertEquals(1, refills.size());
+    runRefills();
+    Assert.assertEquals(4, depth(pool, paris));
+    Assert.assertEquals(7, generated.get());
+
+    Map<String, Object> stats = pool.getStats();
+    Assert.assertEquals(3L, stats.get("hits"));
+    Assert.assertEquals(3L, stats.get("misses"));
+    Assert.assertEquals(1L, stats.get("unpooled"));
+    Assert.assertEquals(1L, stats.get("admissions"));
+    Assert.assertEquals(2L, stats.get("refills"));
+    Assert.assertEquals(7L, stats.get("produced"));
+  }
+
+  @Test
+  /* Each hunt is handed out once. */
+  public void huntsTakenOnce() {
+    HuntPool pool = pool(8);
+    HuntPool.Filters paris = filters("Paris", 3);
+    admit(pool, paris);
+
+    List<Entity> taken = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      taken.add(pool.take(paris, this::generate));
+    }
+    Assert.assertEquals(4, new HashSet<>(taken).size());
+    Assert.assertNull(pool.take(paris, this::generate));
+  }
+
+  @Test
+  /* Combinations beyond the limit are not pooled until a pool has been idle long enough. */
+  public void boundedCombinations() {
+    HuntPool pool = pool(2);
+    admit(pool, filters("Paris", 3));
+    admit(pool, filters("Rome", 3));
+
+    Assert.assertNull(pool.take(filters("Tokyo", 3), this::generate));
+    Assert.assertNull(pool.take(filters("Tokyo", 3), this::generate));
+    Assert.assertEquals(2, pool.getStats().get("pools"));
+    Assert.assertEquals(4L, pool.getStats().get("unpooled"));
+
+    now.addAndGet(TimeUnit.MINUTES.toMillis(5));
+    pool.take(filters("Rome", 3), this::generate);
+    now.addAndGet(TimeUnit.MINUTES.toMillis(6));
+    // Paris has been idle for 11 minutes, Rome for 6.
+    admit(pool, filters("Tokyo", 3));
+    Assert.assertEquals(1L, pool.getStats().get("evictions"));
+    Assert.assertEquals(0, depth(pool, filters("Paris", 3)));
+    Assert.assertEquals(4, depth(pool, filters("Tokyo", 3)));
+    Assert.assertNotNull(pool.take(filters("Rome", 3), this::generate));
+  }
+
+  @Test
+  /* A combination asked for once, or again only after the window, gets no pool, and only a
+   * bounded number of combinations without a pool are counted. */
+  public void admitsRepeatedCombinations() {
+    HuntPool pool = pool(1);
+    HuntPool.Filters paris = filters("Paris", 3);
+    pool.take(paris, this::generate);
+    now.addAndGet(TimeUnit.MINUTES.toMillis(10));
+    pool.take(paris, this::generate);
+    Assert.assertEquals(0, pool.getStats().get("pools"));
+    Assert.assertTrue(refills.isEmpty());
+
+    for (int i = 0; i < 20; i++) {
+      pool.take(filters("City " + i, 3), this::generate);
+    }
+    // One pool's worth of candidates is kept, and Paris, the oldest, has been forgotten.
+    Assert.assertEquals(8, pool.getStats().get("candidates"));
+    pool.take(paris, this::generate);
+    Assert.assertEquals(0, pool.getStats().get("pools"));
+
+    pool.take(paris, this::generate);
+    Assert.assertEquals(1, pool.getStats().get("pools"));
+    Assert.assertEquals(1L, pool.getStats().get("admissions"));
+    Assert.assertEquals(7, pool.getStats().get("candidates"));
+  }
+
+  @Test
+  /* A generator that cannot make a hunt stops the refill, and a failing one does not break it. */
+  public void generatorFailures() {
+    HuntPool pool = pool(8);
+    HuntPool.Filters paris = filters("Paris", 3);
+    pool.take(paris, unused -> null);
+    pool.take(paris, unused -> null);
+    runRefills();
+    Assert.assertEquals(0, depth(pool, paris));
+    Assert.assertEquals(1L, pool.getStats().get("generationFailures"));
+
+    pool.take(
+        paris,
+        unused -> {
+          throw new IllegalStateException("Catalog unavailable");
+        });
+    runRefills();
+    Assert.assertEquals(2L, pool.getStats().get("generationFailures"));
+
+    // The pool is not left marked as refilling.
+    pool.take(paris, this::generate);
+    runRefills();
+    Assert.assertEquals(4, depth(pool, paris));
+  }
+
+  @Test
+  /* Once the catalog is loaded, unseeded requests are served from the pool as separate hunts,
+   * while seeded ones are still generated on demand. */
+  public void servletTakesPooledHunts() throws Exception {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    for (String name : Arrays.asList("Coit Tower", "Tartine", "Lombard Street")) {
+      datastore.put(
+          DestinationEntities.toEntity(
+              new Destination.Builder()
+                  .withName(name)
+                  .withCity("San Francisco")
+                  .withObscurity(Destination.Obscurity.EASY)
+                  .withRiddle(new Riddle.Builder().withPuzzle("Where is " + name + "?").build())
+                  .build()));
+    }
+    DestinationCatalog catalog = new DestinationCatalog(datastore, Long.MAX_VALUE, Runnable::run);
+    catalog.getIndex();
+    HuntPool pool = pool(8);
+    GenerateServlet servlet =
+        new GenerateServlet(catalog, new DestinationQueries(datastore), true, pool);
+    doReturn("[\"San Francisco\"]").when(request).getParameter("user-places");
+    doReturn("[\"easy\"]").when(request).getParameter("user-diff");
+    doReturn("[]").when(request).getParameter("user-tags");
+    doReturn("2").when(request).getParameter("user-num-stops");
+
+    Set<Long> ids = new HashSet<>();
+    ids.add(generate(servlet));
+    ids.add(generate(servlet));
+    runRefills();
+    ids.add(generate(servlet));
+    ids.add(generate(servlet));
+    Assert.assertEquals(4, ids.size());
+    Assert.assertEquals(2L, pool.getStats().get("hits"));
+    Assert.assertEquals(2L, pool.getStats().get("misses"));
+
+    doReturn("7").when(request).getParameter("seed");
+    generate(servlet);
+    Assert.assertEquals(2L, pool.getStats().get("hits"));
+    Assert.assertEquals(2L, pool.getStats().get("misses"));
+  }
+
+  /* Runs the servlet and returns the id of the hunt it stored. */
+  private long generate(GenerateServlet servlet) throws Exception {
+    StringWriter out = new StringWriter();
+    Mockito.when(response.getWriter()).thenReturn(new PrintWriter(out));
+    servlet.doPost(request, response);
+    return Long.parseLong(out.toString().trim());
+  }
+}
@@ -0,0 +1,211 @@
+package com.google.sps;
+
+import static org.mockito.Mockito.doReturn;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityTranslator;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.sps.data.Destination;
+import com.google.sps.data.LatLng;
+import com.google.sps.data.LruCache;
+import com.google.sps.data.Riddle;
+import com.google.sps.servlets.Constants;
+import com.google.sps.servlets.DestinationCatalog;
+import com.google.sps.servlets.DestinationEntities;
+import com.google.sps.servlets.DestinationQueries;
+import com.google.sps.servlets.GenerateServlet;
+import com.google.sps.servlets.HuntEntities;
+import com.google.sps.servlets.HuntFormatMigration;
+import com.google.sps.servlets.HuntStore;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+@RunWith(JUnit4.class)
+public final class HuntReferencesTest {
+  @Mock private HttpServletRequest request;
+  @Mock private HttpServletResponse response;
+
+  private static final int STOPS = 10;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
+
+  private DatastoreService datastore;
+  private DestinationQueries queries;
+  private List<Key> keys;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    queries = new DestinationQueries(datastore);
+    keys = new ArrayList<>();
+    for (int i = 0; i < STOPS; i++) {
+      keys.add(datastore.put(DestinationEntities.toEntity(destination("Stop " + i, i, "Riddle"))));
+    }
+    doReturn("[\"San Francisco\"]").when(request).getParameter("user-places");
+    doReturn("[\"easy\"]").when(request).getParameter("user-diff");
+    doReturn("[]").when(request).getParameter("user-tags");
+    doReturn(String.valueOf(STOPS)).when(request).getParameter("user-num-stops");
+    doReturn("11").when(request).getParameter("seed");
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private static Destination destination(String name, int i, String puzzle) {
+    StringBuilder description = new StringBuilder();
+    for (int line = 0; line < 10; line++) {
+      description.append(name).append(" is worth a visit for many reasons. ");
+    }
+    return new Destination.Builder()
+        .withName(name)
+        .withCity("San Francisco")
+        .withObscurity(Destination.Obscurity.EASY)
+        .withLocation(new LatLng.Builder().withLat(37.7 + i * 0.01).withLng(-122.4).build())
+        .withDescription(description.toString())
+        .withRiddle(
+            new Riddle.Builder()
+                .withPuzzle(puzzle + ": where is " + name + "?")
+                .withHint("Look around")
+                .build())
+        .build();
+  }
+
+  private DestinationCatalog loadedCatalog() {
+    DestinationCatalog catalog = new DestinationCatalog(datastore, Long.MAX_VALUE, Runnable::run);
+    catalog.getIndex();
+    return catalog;
+  }
+
+  private HuntStore storeWith(DestinationCatalog catalog) {
+    return new HuntStore(
+        datastore,
+        MemcacheServiceFactory.getMemcacheService(),
+        new LruCache<>(100, 10000),
+        catalog);
+  }
+
+  /* Runs the servlet and returns the id of the hunt it stored. */
+  private long generate(GenerateServlet servlet) throws Exception {
+    StringWriter out = new StringWriter();
+    Mockito.when(response.getWriter()).thenReturn(new PrintWriter(out));
+    servlet.doPost(request, response);
+    return Long.parseLong(out.toString().trim());
+  }
+
+  private Entity huntEntity(long huntId) throws Exception {
+    return datastore.get(KeyFactory.createKey(Constants.SCAVENGER_HUNT_ENTITY, huntId));
+  }
+
+  private static int sizeOf(Entity entity) {
+    return EntityTranslator.convertToPb(entity).encodingSize();
+  }
+
+  @Test
+  /* A hunt that references its destinations is a fraction of the size of one that copies them,
+   * and reads back the same. */
+  public void sameHuntAsCopy() throws Exception {
+    DestinationCatalog catalog = loadedCatalog();
+    long referenced = generate(new GenerateServlet(catalog, queries, true));
+    long copied = generate(new GenerateServlet(catalog, queries, false));
+
+    Entity entity = huntEntity(referenced);
+    Assert.assertTrue(HuntEntities.isReferences(entity));
+    Assert.assertFalse(entity.hasProperty(Constants.HUNT_VAL));
+    Assert.assertTrue(sizeOf(entity) < 1000);
+    Assert.assertTrue(sizeOf(entity) * 5 < sizeOf(huntEntity(copied)));
+    Assert.assertNull(new HuntFormatMigration().migrate(entity));
+
+    HuntStore store = storeWith(catalog);
+    Assert.assertEquals(store.getHuntJson(copied), store.getHuntJson(referenced));
+    Assert.assertEquals(store.getStageJson(copied), store.getStageJson(referenced));
+    // Every destination came from the loaded catalog.
+    Assert.assertEquals(1L, store.getStats().get("hydrations"));
+    Assert.assertEquals(0L, store.getStats().get("destinationGets"));
+  }
+
+  @Test
+  /* A fix to a destination reaches hunts that were generated before it. */
+  public void editsReachHunts() throws Exception {
+    long huntId = generate(new GenerateServlet(loadedCatalog(), queries, true));
+    Key fixed = keys.get(3);
+    datastore.put(DestinationEntities.toEntity(fixed, destination("Stop 3", 3, "Fixed riddle")));
+
+    // On a cold instance, the hunt is hydrated with one batch get while the catalog loads.
+    List<Runnable> warmUps = new ArrayList<>();
+    DestinationCatalog cold = new DestinationCatalog(datastore, Long.MAX_VALUE, warmUps::add);
+    HuntStore store = storeWith(cold);
+    String json = store.getHuntJson(huntId);
+    Assert.assertTrue(json.contains("Fixed riddle: where is Stop 3?"));
+    Assert.assertFalse(json.contains("Riddle: where is Stop 3?"));
+    Assert.assertEquals(STOPS, itemsOf(json).size());
+    Assert.assertEquals(1L, store.getStats().get("destinationGets"));
+    Assert.assertFalse(cold.isLoaded());
+    Assert.assertEquals(1, warmUps.size());
+  }
+
+  @Test
+  /* A destination that has gone is left out of the hunt, with its riddle, and the stages close
+   * up around it. */
+  public void missingDestination() throws Exception {
+    long huntId = generate(new GenerateServlet(loadedCatalog(), queries, true));
+    Key gone = keys.get(0);
+    Object goneName = datastore.get(gone).getProperty(Constants.DESTINATION_NAME);
+    datastore.delete(gone);
+
+    HuntStore store = storeWith(loadedCatalog());
+    JsonArray items = itemsOf(store.getHuntJson(huntId));
+    Assert.assertEquals(STOPS - 1, items.size());
+    for (int i = 0; i < items.size(); i++) {
+      JsonObject item = items.get(i).getAsJsonObject();
+      Assert.assertNotEquals(goneName, item.get("name").getAsString());
+      Assert.assertTrue(item.getAsJsonObject("riddle").has("puzzle"));
+    }
+    // The first stage and the riddle after it both have a puzzle to show.
+    Assert.assertTrue(store.getStageJson(huntId, 0).contains("\"puzzle\""));
+    Assert.assertTrue(store.getStageJson(huntId, 1).contains("\"puzzle\""));
+  }
+
+  @Test
+  /* Reading a referencing hunt as if it held a body fails rather than returning nothing. */
+  public void mustBeHydrated() throws Exception {
+    Entity entity = huntEntity(generate(new GenerateServlet(loadedCatalog(), queries, true)));
+    try {
+      HuntEntities.toJson(entity);
+      Assert.fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  private static JsonArray itemsOf(String huntJson) {
+    return JsonParser.parseString(huntJson).getAsJsonObject().getAsJsonArray("items");
+  }
+}
@@ -0,0 +1,419 @@
+package com.google.sps;
+
+import static org.mockito.Mockito.doReturn;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.sps.data.Destination;
+import com.google.sps.data.HuntItem;
+import com.google.sps.data.HuntProgress;
+import com.google.sps.data.LruCache;
+import com.google.sps.data.Riddle;
+import com.google.sps.data.ScavengerHunt;
+import com.google.sps.servlets.Constants;
+import com.google.sps.servlets.GenerateServlet;
+import com.google.sps.servlets.GoDataServlet;
+import com.google.sps.servlets.GoStageServlet;
+import com.google.sps.servlets.HuntEntities;
+import com.google.sps.servlets.HuntFormatMigration;
+import com.google.sps.servlets.HuntStore;
+import com.google.sps.servlets.MigrationRunner;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+@RunWith(JUnit4.class)
+public final class HuntStoreTest {
+  private static final Gson GSON = new Gson();
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
+
+  private DatastoreService datastore;
+  private HuntStore store;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    store = new HuntStore(datastore);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private static ScavengerHunt huntOf(String... names) {
+    ArrayList<HuntItem> items = new ArrayList<>();
+    for (String name : names) {
+      items.add(
+          new Destination.Builder()
+              .withName(name)
+              .withRiddle(new Riddle.Builder().withPuzzle("Where is " + name + "?").build())
+              .build()
+              .convertToHuntItem());
+    }
+    return new ScavengerHunt(items);
+  }
+
+  private Text storedBody(long huntId) throws EntityNotFoundException {
+    return (Text)
+        datastore
+            .get(KeyFactory.createKey(Constants.SCAVENGER_HUNT_ENTITY, huntId))
+            .getProperty(Constants.HUNT_VAL);
+  }
+
+  @Test
+  /* Advancing writes only the progress entity; the hunt's items are never rewritten. */
+  public void advanceLeavesBodyAlone() throws Exception {
+    long huntId = new GenerateServlet().writeToDataStore(huntOf("Coit Tower", "Ferry Building"));
+    Text body = storedBody(huntId);
+
+    store.advance(huntId, 0, 0);
+    store.advance(huntId, 1, 2);
+    HuntProgress progress = store.getProgress(huntId);
+
+    Assert.assertEquals(1, progress.getIndex());
+    Assert.assertEquals(2, progress.getSolvedAtMillis().size());
+    Assert.assertEquals(2, progress.getHintsUsed());
+    Assert.assertEquals(body, storedBody(huntId));
+
+    JsonObject json = GSON.fromJson(new HuntStore(datastore).getHuntJson(huntId), JsonObject.class);
+    Assert.assertEquals(1, json.get("index").getAsInt());
+    Assert.assertEquals(2, json.get("hintsUsed").getAsInt());
+    Assert.assertEquals(2, json.get("items").getAsJsonArray().size());
+    Assert.assertEquals(
+        "Coit Tower",
+        json.get("items").getAsJsonArray().get(0).getAsJsonObject().get("name").getAsString());
+  }
+
+  @Test
+  /* Once read, a hunt's items come from memory; advances still work without them in Datastore. */
+  public void bodyReadFromCache() throws Exception {
+    long huntId = new GenerateServlet().writeToDataStore(huntOf("Coit Tower"));
+    Assert.assertNotNull(store.getHuntJson(huntId));
+
+    datastore.delete(KeyFactory.createKey(Constants.SCAVENGER_HUNT_ENTITY, huntId));
+    store.advance(huntId, 0, 0);
+
+    JsonObject json = GSON.fromJson(store.getHuntJson(huntId), JsonObject.class);
+    Assert.assertEquals(0, json.get("index").getAsInt());
+  }
+
+  @Test
+  /* Hot hunts are served from memory without any Datastore read. */
+  public void hotHuntsSkipDatastore() throws Exception {
+    long huntId = new GenerateServlet().writeToDataStore(huntOf("Coit Tower"));
+    store.advance(huntId, 0, 0);
+    String json = store.getHuntJson(huntId);
+
+    datastore.delete(
+        KeyFactory.createKey(
+            KeyFactory.createKey(Constants.SCAVENGER_HUNT_ENTITY, huntId),
+            Constants.HUNT_PROGRESS_ENTITY,
+            1),
+        KeyFactory.createKey(Constants.SCAVENGER_HUNT_ENTITY, huntId));
+
+    Assert.assertEquals(json, store.getHuntJson(huntId));
+    Assert.assertEquals(2L, store.getStats().get("localHits"));
+    Assert.assertEquals(0L, store.getStats().get("misses"));
+  }
+
+  @Test
+  /* Advances write through to memcache, which other instances read once their own copy expires. */
+  public void sharedTier() throws Exception {
+    long huntId = new GenerateServlet().writeToDataStore(huntOf("Coit Tower", "Ferry Building"));
+    AtomicLong now = new AtomicLong(1000);
+    MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+    HuntStore writer = new HuntStore(datastore, memcache, new LruCache<>(100, 10000, now::get));
+    HuntStore reader = new HuntStore(datastore, memcache, new LruCache<>(100, 10000, now::get));
+    Assert.assertEquals(-1, indexIn(reader.getHuntJson(huntId)));
+
+    writer.advance(huntId, 0, 0);
+    writer.advance(huntId, 1, 0);
+    datastore.delete(KeyFactory.createKey(Constants.SCAVENGER_HUNT_ENTITY, huntId));
+
+    Assert.assertEquals(1, indexIn(writer.getHuntJson(huntId)));
+    Assert.assertEquals(-1, indexIn(reader.getHuntJson(huntId)));
+    now.addAndGet(10000);
+    Assert.assertEquals(1, indexIn(reader.getHuntJson(huntId)));
+    Assert.assertEquals(1L, reader.getStats().get("sharedHits"));
+    Assert.assertEquals(
+        1, indexIn(new HuntStore(datastore, memcache, new LruCache<>(1, 1)).getHuntJson(huntId)));
+  }
+
+  private static int indexIn(String json) {
+    return GSON.fromJson(json, JsonObject.class).get("index").getAsInt();
+  }
+
+  @Test
+  /* Stage mode sends the current item and progress only, the same size however long the hunt. */
+  public void stageMode() throws Exception {
+    long shortHunt = new GenerateServlet().writeToDataStore(huntOf("Coit Tower", "Ferry Building"));
+    long longHunt =
+        new GenerateServlet()
+            .writeToDataStore(huntOf("Coit Tower", "Ferry Building", "Pier 39", "Lombard Street"));
+    store.advance(shortHunt, 0, 0);
+    store.advance(shortHunt, 1, 2);
+    store.advance(longHunt, 0, 0);
+    store.advance(longHunt, 1, 2);
+
+    JsonObject json = GSON.fromJson(store.getStageJson(shortHunt), JsonObject.class);
+    Assert.assertEquals(1, json.get("index").getAsInt());
+    Assert.assertEquals(2, json.get("count").getAsInt());
+    Assert.assertEquals(2, json.get("hintsUsed").getAsInt());
+    Assert.assertEquals(
+        store.getProgress(shortHunt).getSolvedAtMillis().get(0).longValue(),
+        json.get("startedAt").getAsLong());
+    JsonObject stage = json.getAsJsonObject("stage");
+    Assert.assertEquals("Ferry Building", stage.get("name").getAsString());
+    Assert.assertNull(stage.get("answerEntities"));
+    Assert.assertFalse(json.has("items"));
+    Assert.assertEquals(
+        store.getStageJson(shortHunt).length(), store.getStageJson(longHunt).length());
+
+    long unstarted = new GenerateServlet().writeToDataStore(huntOf("Coit Tower"));
+    json = GSON.fromJson(store.getStageJson(unstarted), JsonObject.class);
+    Assert.assertEquals(-1, json.get("index").getAsInt());
+    Assert.assertFalse(json.has("startedAt"));
+    Assert.assertEquals("Coit Tower", json.getAsJsonObject("stage").get("name").getAsString());
+    Assert.assertNull(store.getStageJson(unstarted + 1000));
+  }
+
+  @Test
+  /* Reached stages come whole, the next one as its riddle only, and later ones not at all. */
+  public void stageAccess() throws Exception {
+    long huntId =
+        new GenerateServlet().writeToDataStore(huntOf("Coit Tower", "Ferry Building", "Pier 39"));
+    store.advance(huntId, 0, 0);
+
+    JsonObject current = GSON.fromJson(store.getStageJson(huntId, 0), JsonObject.class);
+    Assert.assertEquals("Coit Tower", current.getAsJsonObject("item").get("name").getAsString());
+    JsonObject next = GSON.fromJson(store.getStageJson(huntId, 1), JsonObject.class);
+    Assert.assertFalse(next.has("item"));
+    Assert.assertEquals(
+        "Where is Ferry Building?", next.getAsJsonObject("riddle").get("puzzle").getAsString());
+    Assert.assertFalse(store.getStageJson(huntId, 1).contains("Ferry Building\""));
+    Assert.assertNull(store.getStageJson(huntId, 2));
+    Assert.assertNull(store.getStageJson(huntId, -1));
+
+    store.advance(huntId, 2, 0);
+    Assert.assertTrue(store.getStageJson(huntId, 1).contains("\"item\""));
+    Assert.assertTrue(store.getStageJson(huntId, 2).contains("\"item\""));
+    Assert.assertNull(store.getStageJson(huntId, 3));
+  }
+
+  @Test
+  /* A stage reached through another instance is served before this one's copy expires. */
+  public void stageReachedElsewhere() throws Exception {
+    long huntId =
+        new GenerateServlet().writeToDataStore(huntOf("Coit Tower", "Ferry Building", "Pier 39"));
+    MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+    HuntStore writer = new HuntStore(datastore, memcache, new LruCache<>(100, 10000));
+    HuntStore reader = new HuntStore(datastore, memcache, new LruCache<>(100, 10000));
+    writer.advance(huntId, 0, 0);
+    Assert.assertNotNull(reader.getStageJson(huntId, 0));
+
+    writer.advance(huntId, 1, 0);
+    JsonObject stage = GSON.fromJson(reader.getStageJson(huntId, 1, true), JsonObject.class);
+    Assert.assertEquals("Ferry Building", stage.getAsJsonObject("item").get("name").getAsString());
+    Assert.assertEquals(1L, reader.getStats().get("progressReads"));
+    // The fresh progress replaced the stale copy.
+    Assert.assertEquals(1, indexIn(reader.getHuntJson(huntId)));
+    Assert.assertNull(reader.getStageJson(huntId, 3));
+  }
+
+  @Test
+  /* Prefetching the next riddle, as go.js does on every load and proceed, reads no progress; only
+   * asking for that stage's item does. */
+  public void prefetchReadsNoProgress() throws Exception {
+    long huntId =
+        new GenerateServlet().writeToDataStore(huntOf("Coit Tower", "Ferry Building", "Pier 39"));
+    store.advance(huntId, 0, 0);
+
+    Assert.assertTrue(store.getStageJson(huntId, 1).contains("\"riddle\""));
+    Assert.assertTrue(store.getStageJson(huntId, 1).contains("\"riddle\""));
+    Assert.assertEquals(0L, store.getStats().get("progressReads"));
+
+    Assert.assertNull(store.getStageJson(huntId, 1, true));
+    Assert.assertEquals(1L, store.getStats().get("progressReads"));
+  }
+
+  @Test
+  /* The stage servlet returns a reachable stage, and a 404 for any other. */
+  public void stageServlet() throws IOException {
+    long huntId = new GenerateServlet().writeToDataStore(huntOf("Coit Tower", "Ferry Building"));
+    GoStageServlet servlet = new GoStageServlet(store);
+    HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    doReturn(String.valueOf(huntId)).when(request).getParameter("hunt_id");
+    HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+    StringWriter stringWriter = new StringWriter();
+    Mockito.when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
+
+    doReturn("1").when(request).getParameter("stage");
+    servlet.doGet(request, response);
+    Assert.assertEquals(
+        1, GSON.fromJson(stringWriter.toString(), JsonObject.class).get("stage").getAsInt());
+
+    doReturn("5").when(request).getParameter("stage");
+    servlet.doGet(request, response);
+    Mockito.verify(response).sendError(HttpServletResponse.SC_NOT_FOUND);
+
+    // Stage 1 has not been reached, so its item is refused.
+    doReturn("1").when(request).getParameter("stage");
+    doReturn("item").when(request).getParameter("part");
+    servlet.doGet(request, response);
+    Mockito.verify(response, Mockito.times(2)).sendError(HttpServletResponse.SC_NOT_FOUND);
+  }
+
+  @Test
+  /* Hunts stored with their index inside keep it until their first advance. */
+  public void legacyIndex() throws Exception {
+    ScavengerHunt hunt = huntOf("Coit Tower", "Ferry Building");
+    hunt.updateIndex(1);
+    Entity entity = new Entity(Constants.SCAVENGER_HUNT_ENTITY);
+    entity.setProperty(Constants.HUNT_VAL, new Text(GSON.toJson(hunt)));
+    long huntId = datastore.put(entity).getId();
+
+    Assert.assertEquals(1, store.getProgress(huntId).getIndex());
+    Assert.assertFalse(store.advance(huntId, 1, 0));
+    Assert.assertTrue(store.advance(huntId, 2, 0));
+    Assert.assertEquals(2, store.getProgress(huntId).getIndex());
+  }
+
+  @Test
+  /* Hunts stored in either format read the same, before and after migrating to binary. */
+  public void binaryHunts() throws Exception {
+    ScavengerHunt hunt = huntOf("Coit Tower", "Ferry Building");
+    long jsonId = datastore.put(HuntEntities.toEntity(hunt, HuntEntities.Format.JSON)).getId();
+    long binaryId = datastore.put(HuntEntities.toEntity(hunt, HuntEntities.Format.BINARY)).getId();
+
+    Assert.assertEquals(
+        HuntEntities.Format.BINARY,
+        HuntEntities.formatOf(
+            datastore.get(KeyFactory.createKey(Constants.SCAVENGER_HUNT_ENTITY, binaryId))));
+    String json = store.getHuntJson(jsonId);
+    Assert.assertEquals(json, store.getHuntJson(binaryId));
+    Assert.assertEquals(store.getStageJson(jsonId), store.getStageJson(binaryId));
+
+    MigrationRunner.Result result =
+        new MigrationRunner(datastore, 2, 10, 0).run(new HuntFormatMigration(), 1, false);
+    Assert.assertEquals(1, result.getMigrated());
+    Entity migrated = datastore.get(KeyFactory.createKey(Constants.SCAVENGER_HUNT_ENTITY, jsonId));
+    Assert.assertEquals(HuntEntities.Format.BINARY, HuntEntities.formatOf(migrated));
+    Assert.assertEquals(json, new HuntStore(datastore).getHuntJson(jsonId));
+  }
+
+  @Test
+  /* The servlet records the index and hints posted by go.js and returns them with the hunt. */
+  public void servlet() throws IOException {
+    long huntId = new GenerateServlet().writeToDataStore(huntOf("Coit Tower", "Ferry Building"));
+    GoDataServlet servlet = new GoDataServlet(store);
+    HttpServletRequest post = Mockito.mock(HttpServletRequest.class);
+    doReturn(String.valueOf(huntId)).when(post).getParameter("hunt_id");
+    doReturn("1").when(post).getParameter("new-index");
+    doReturn("3").when(post).getParameter("hints-used");
+    servlet.doPost(post, Mockito.mock(HttpServletResponse.class));
+
+    HttpServletRequest get = Mockito.mock(HttpServletRequest.class);
+    doReturn(String.valueOf(huntId)).when(get).getParameter("hunt_id");
+    HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+    StringWriter stringWriter = new StringWriter();
+    Mockito.when(response.getWriter()).thenReturn(new PrintWriter(stringWriter));
+    servlet.doGet(get, response);
+
+    JsonObject json = GSON.fromJson(stringWriter.toString(), JsonObject.class);
+    Assert.assertEquals(1, json.get("index").getAsInt());
+    Assert.assertEquals(3, json.get("hintsUsed").getAsInt());
+    Assert.assertEquals(2, json.get("items").getAsJsonArray().size());
+  }
+
+  @Test
+  /* Progress never goes backward, and stale updates write nothing. */
+  public void neverBackward() throws Exception {
+    long huntId = new GenerateServlet().writeToDataStore(huntOf("Coit Tower", "Ferry Building"));
+
+    Assert.assertTrue(store.advance(huntId, 1, 1));
+    Assert.assertFalse(store.advance(huntId, 0, 1));
+    Assert.assertFalse(store.advance(huntId, 1, 1));
+
+    HuntProgress progress = store.getProgress(huntId);
+    Assert.assertEquals(1, progress.getIndex());
+    Assert.assertEquals(1, progress.getSolvedAtMillis().size());
+    Assert.assertEquals(1, progress.getHintsUsed());
+    Assert.assertEquals(2L, store.getStats().get("staleAdvances"));
+  }
+
+  @Test
+  /* 100 concurrent writers: every update reported as applied is kept, and the index ends highest. */
+  public void concurrentWriters() throws Exception {
+    long huntId = new GenerateServlet().writeToDataStore(huntOf("Coit Tower"));
+    int writers = 100;
+    List<Integer> indexes = new ArrayList<>();
+    for (int i = 0; i < writers; i++) {
+      indexes.add(i);
+    }
+    Collections.shuffle(indexes, new Random(183));
+
+    ExecutorService executor = Executors.newFixedThreadPool(writers);
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Boolean>> results = new ArrayList<>();
+    for (int index : indexes) {
+      results.add(
+          executor.submit(
+              () -> {
+                ApiProxy.setEnvironmentForCurrentThread(environment);
+                start.await();
+                return store.advance(huntId, index, 1);
+              }));
+    }
+    start.countDown();
+    int applied = 0;
+    for (Future<Boolean> result : results) {
+      if (result.get()) {
+        applied++;
+      }
+    }
+    executor.shutdown();
+
+    HuntProgress progress = store.getProgress(huntId);
+    Assert.assertEquals(writers - 1, progress.getIndex());
+    Assert.assertEquals(applied, progress.getSolvedAtMillis().size());
+    Assert.assertEquals(applied, progress.getHintsUsed());
+    Assert.assertEquals((long) applied, store.getStats().get("advances"));
+    Assert.assertEquals(0L, store.getStats().get("failedAdvances"));
+  }
+}
@@ -0,0 +1,98 @@
+package com.google.sps;
+
+import com.google.gson.Gson;
+import com.google.sps.data.Destination;
+import com.google.sps.data.HuntItem;
+import com.google.sps.data.JsonCodec;
+import com.google.sps.data.LatLng;
+import com.google.sps.data.Riddle;
+import com.google.sps.data.ScavengerHunt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class JsonCodecTest {
+  // What stored entities were written with before the adapters
+  private static final Gson REFLECTIVE = new Gson();
+  private static final Gson CODEC = JsonCodec.gson();
+
+  private static Destination fullDestination() {
+    return new Destination.Builder()
+        .withName("Café <du> Monde & \"Co\"")
+        .withLocation(new LatLng.Builder().withLat(29.957).withLng(-90.0618).build())
+        .withCity("New Orleans")
+        .withDescription("Beignets = 'good'\nsince 1862")
+        .withRiddle(
+            new Riddle.Builder()
+                .withPuzzle("Powdered sugar?")
+                .withHint("French")
+                .withHint("Market")
+                .build())
+        .withRiddle(new Riddle.Builder().withPuzzle("Chicory").build())
+        .withObscurity(Destination.Obscurity.EASY)
+        .withTags(
+            EnumSet.of(Destination.Tag.FOOD, Destination.Tag.HISTORICAL, Destination.Tag.TOURIST))
+        .withPlaceId("ChIJ123")
+        .withAnswerEntities(Arrays.asList("Cafe du Monde", null))
+        .build();
+  }
+
+  @Test
+  /* The adapters write byte for byte what reflective Gson wrote, full or sparse. */
+  public void byteCompatible() {
+    Destination full = fullDestination();
+    Destination sparse = new Destination.Builder().withName("Only a name").build();
+    Assert.assertEquals(REFLECTIVE.toJson(full), CODEC.toJson(full));
+    Assert.assertEquals(REFLECTIVE.toJson(sparse), CODEC.toJson(sparse));
+
+    ArrayList<HuntItem> items = new ArrayList<>();
+    items.add(full.convertToHuntItem());
+    items.add(new HuntItem.Builder().withName("Bare").build());
+    ScavengerHunt hunt = new ScavengerHunt(items);
+    hunt.updateIndex(1);
+    Assert.assertEquals(REFLECTIVE.toJson(hunt), CODEC.toJson(hunt));
+    Assert.assertEquals(REFLECTIVE.toJson(full.convertToHuntItem()), CODEC.toJson(items.get(0)));
+  }
+
+  @Test
+  /* JSON written either way reads back to the same JSON. */
+  public void roundTrip() {
+    String stored = REFLECTIVE.toJson(fullDestination());
+    Assert.assertEquals(stored, CODEC.toJson(CODEC.fromJson(stored, Destination.class)));
+    Assert.assertEquals(
+        stored,
+        REFLECTIVE.toJson(REFLECTIVE.fromJson(CODEC.toJson(fullDestination()), Destination.class)));
+
+    ArrayList<HuntItem> items = new ArrayList<>();
+    items.add(fullDestination().convertToHuntItem());
+    String hunt = REFLECTIVE.toJson(new ScavengerHunt(items));
+    Assert.assertEquals(hunt, CODEC.toJson(CODEC.fromJson(hunt, ScavengerHunt.class)));
+  }
+
+  @Test
+  /* Nulls, missing coordinates and unknown fields or tags are read leniently. */
+  public void lenientReading() {
+    Destination destination =
+        CODEC.fromJson(
+            "{\"name\":\"Pier 39\",\"location\":{\"lat\":37.8,\"lng\":null},\"city\":null,"
+                + "\"level\":\"IMPOSSIBLE\",\"categories\":[\"FOOD\",\"SKIING\"],"
+                + "\"rating\":{\"stars\":5}}",
+            Destination.class);
+    Assert.assertEquals("Pier 39", destination.getName());
+    Assert.assertNull(destination.getCity());
+    Assert.assertNull(destination.getDifficulty());
+    Assert.assertEquals(EnumSet.of(Destination.Tag.FOOD), destination.getTags());
+    Assert.assertEquals(37.8, destination.getLocation().getLat(), 0);
+    Assert.assertFalse(destination.getLocation().hasCoordinates());
+    Assert.assertEquals(
+        "{\"name\":\"Pier"
+            + " 39\",\"location\":{\"lat\":37.8},\"riddles\":[],\"categories\":[\"FOOD\"]}",
+        CODEC.toJson(destination));
+    Assert.assertNull(CODEC.fromJson("null", Destination.class));
+  }
+}
@@ -0,0 +1,178 @@
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.Gson;
+import com.google.sps.data.Destination;
+import com.google.sps.data.JsonCodec;
+import com.google.sps.servlets.Constants;
+import com.google.sps.servlets.DestinationEntities;
+import com.google.sps.servlets.DestinationLayoutMigration;
+import com.google.sps.servlets.DestinationQueries;
+import com.google.sps.servlets.Migration;
+import com.google.sps.servlets.MigrationRunner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class MigrationRunnerTest {
+  private static final Gson GSON = JsonCodec.gson();
+  private static final int ENTITIES = 100000;
+  // The stub scans the whole kind for every page, so large pages keep the test quick.
+  private static final int BATCH_SIZE = 5000;
+  private static final String[] CITIES = {"Paris", "San Francisco", "Tokyo"};
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+  private final Migration migration = new DestinationLayoutMigration();
+
+  private DatastoreService datastore;
+  private MigrationRunner runner;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+    runner = new MigrationRunner(datastore, 4, BATCH_SIZE, 0);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /* Stores count legacy destinations, spread over CITIES. */
+  private void storeLegacy(int count) {
+    List<Entity> batch = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Destination destination =
+          new Destination.Builder()
+              .withName("Destination " + i)
+              .withCity(CITIES[i % CITIES.length])
+              .withObscurity(Destination.Obscurity.EASY)
+              .build();
+      Entity entity = new Entity(Constants.DESTINATION_ENTITY);
+      entity.setProperty(Constants.DESTINATION_JSON, GSON.toJson(destination));
+      batch.add(entity);
+      if (batch.size() == 500) {
+        datastore.put(batch);
+        batch.clear();
+      }
+    }
+    datastore.put(batch);
+  }
+
+  /* Counts the destinations visible to queries on the native properties. */
+  private int migratedCount() {
+    int count = 0;
+    for (int perCity : new DestinationQueries(datastore).getCityView().getCounts().values()) {
+      count += perCity;
+    }
+    return count;
+  }
+
+  private Entity checkpoint() throws EntityNotFoundException {
+    return datastore.get(
+        KeyFactory.createKey(Constants.MIGRATION_CHECKPOINT_ENTITY, migration.getName()));
+  }
+
+  @Test
+  /* 100k entities are migrated across interrupted runs, each resuming from its checkpoint. */
+  public void resumableMigration() throws Exception {
+    storeLegacy(ENTITIES);
+
+    MigrationRunner.Result dryRun = runner.run(migration, 3, true);
+    Assert.assertEquals(3 * BATCH_SIZE, dryRun.getMigrated());
+    Assert.assertEquals(0, migratedCount());
+
+    MigrationRunner.Result first = runner.run(migration, 10, false);
+    Assert.assertEquals(10 * BATCH_SIZE, first.getMigrated());
+    Assert.assertFalse(first.isDone());
+    Assert.assertEquals(10L * BATCH_SIZE, checkpoint().getProperty(Constants.CHECKPOINT_SCANNED));
+    Assert.assertEquals(10 * BATCH_SIZE, migratedCount());
+
+    MigrationRunner.Result rest = runner.run(migration, Integer.MAX_VALUE, false);
+    Assert.assertTrue(rest.isDone());
+    Assert.assertEquals(ENTITIES - 10 * BATCH_SIZE, rest.getScanned());
+    Assert.assertEquals(ENTITIES - 10 * BATCH_SIZE, rest.getMigrated());
+    Assert.assertEquals(ENTITIES, migratedCount());
+    Assert.assertEquals(true, checkpoint().getProperty(Constants.CHECKPOINT_DONE));
+
+    Assert.assertEquals(0, runner.run(migration, 1, false).getScanned());
+  }
+
+  @Test
+  /* A failed batch is not checkpointed, so the next run redoes it and skips what it finished. */
+  public void failedBatchIsRetried() throws Exception {
+    storeLegacy(2500);
+    AtomicInteger calls = new AtomicInteger();
+    Migration failing =
+        new DestinationLayoutMigration() {
+          @Override
+          public Entity migrate(Entity entity) {
+            if (calls.incrementAndGet() == 1500) {
+              throw new IllegalStateException("Datastore unavailable");
+            }
+            return super.migrate(entity);
+          }
+        };
+
+    runner = new MigrationRunner(datastore, 4, 1000, 0);
+    try {
+      runner.run(failing, Integer.MAX_VALUE, false);
+      Assert.fail();
+    } catch (IllegalStateException expected) {
+    }
+    Assert.assertEquals(1000L, checkpoint().getProperty(Constants.CHECKPOINT_SCANNED));
+    int migratedBefore = migratedCount();
+    Assert.assertTrue(migratedBefore >= 1000 && migratedBefore < 2000);
+
+    MigrationRunner.Result retry = runner.run(failing, Integer.MAX_VALUE, false);
+    Assert.assertTrue(retry.isDone());
+    Assert.assertEquals(1500, retry.getScanned());
+    Assert.assertEquals(2500 - migratedBefore, retry.getMigrated());
+    Assert.assertEquals(2500, migratedCount());
+
+    runner.reset(failing);
+    Assert.assertEquals(0, runner.run(failing, Integer.MAX_VALUE, false).getMigrated());
+  }
+
+  @Test
+  /* Migrated destinations read back the same as before, and a dry run writes nothing. */
+  public void sameDestinations() throws Exception {
+    storeLegacy(10);
+    List<String> before = readAll();
+
+    Assert.assertEquals(10, runner.run(migration, 1, true).getMigrated());
+    try {
+      checkpoint();
+      Assert.fail();
+    } catch (EntityNotFoundException expected) {
+    }
+    Assert.assertEquals(0, migratedCount());
+
+    Assert.assertEquals(10, runner.run(migration, 1, false).getMigrated());
+    Assert.assertEquals(before, readAll());
+  }
+
+  private List<String> readAll() {
+    List<String> destinations = new ArrayList<>();
+    for (Entity entity : datastore.prepare(new Query(Constants.DESTINATION_ENTITY)).asIterable()) {
+      destinations.add(GSON.toJson(DestinationEntities.toDestination(entity)));
+    }
+    return destinations;
+  }
+}
@@ -0,0 +1,146 @@
+package com.google.sps;
+
+import com.google.sps.data.Destination;
+import com.google.sps.data.DestinationIndex;
+import com.google.sps.data.LatLng;
+import com.google.sps.data.Orienteering;
+import com.google.sps.data.RouteOptimizer;
+import com.google.sps.servlets.GenerateServlet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class OrienteeringTest {
+  private static final LatLng START = at(37.7749, -122.4194);
+
+  private final Random random = new Random(183);
+
+  private static LatLng at(double lat, double lng) {
+    return new LatLng.Builder().withLat(lat).withLng(lng).build();
+  }
+
+  /* Random points within about 10km of START. */
+  private List<LatLng> randomLocations(int n) {
+    List<LatLng> locations = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      locations.add(
+          at(
+              START.getLat() - 0.09 + 0.18 * random.nextDouble(),
+              START.getLng() - 0.11 + 0.22 * random.nextDouble()));
+    }
+    return locations;
+  }
+
+  private static double walkKm(List<LatLng> candidates, int[] walk) {
+    List<LatLng> stops = new ArrayList<>();
+    for (int candidate : walk) {
+      stops.add(candidates.get(candidate));
+    }
+    int[] order = new int[stops.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    return RouteOptimizer.routeKm(stops, order, START, null);
+  }
+
+  @Test
+  /* Walks never exceed the budget, never repeat a stop and stop at maxStops. */
+  public void withinBudget() {
+    for (int trial = 0; trial < 50; trial++) {
+      List<LatLng> candidates = randomLocations(200);
+      double budgetKm = 1 + 10 * random.nextDouble();
+      int[] walk = Orienteering.plan(candidates, START, 8, budgetKm, random);
+
+      Assert.assertTrue(walk.length <= 8);
+      Assert.assertTrue(walkKm(candidates, walk) <= budgetKm + 1e-9);
+      Set<Integer> distinct = new HashSet<>();
+      for (int candidate : walk) {
+        Assert.assertTrue(distinct.add(candidate));
+      }
+    }
+  }
+
+  @Test
+  /* A generous budget fills the hunt; one shorter than the nearest stop gives nothing. */
+  public void budgetLimits() {
+    List<LatLng> candidates = randomLocations(100);
+    Assert.assertEquals(10, Orienteering.plan(candidates, START, 10, 1000, random).length);
+
+    List<LatLng> far = Collections.singletonList(at(START.getLat() + 0.1, START.getLng()));
+    Assert.assertEquals(0, Orienteering.plan(far, START, 1, 5, random).length);
+  }
+
+  @Test
+  /* Near-me hunts keep the obscurity and tag filters and stay within the radius and walk. */
+  public void chooseNearby() {
+    List<Destination> destinations = new ArrayList<>();
+    for (LatLng location : randomLocations(2000)) {
+      destinations.add(
+          new Destination.Builder()
+              .withName("Destination")
+              .withCity(random.nextBoolean() ? "San Francisco" : "Oakland")
+              .withLocation(location)
+              .withObscurity(Destination.Obscurity.values()[random.nextInt(3)])
+              .withTags(
+                  EnumSet.of(
+                      Destination.Tag.values()[random.nextInt(Destination.Tag.values().length)]))
+              .build());
+    }
+    DestinationIndex index = DestinationIndex.of(destinations);
+    Set<Destination.Obscurity> levels = EnumSet.of(Destination.Obscurity.EASY);
+    Set<Destination.Tag> tags = EnumSet.of(Destination.Tag.FOOD, Destination.Tag.ART);
+
+    List<Destination> chosen =
+        new GenerateServlet(null).chooseNearby(index, START, levels, tags, 6, 3.0, 5.0, random);
+
+    Assert.assertEquals(6, chosen.size());
+    List<LatLng> stops = new ArrayList<>();
+    for (Destination destination : chosen) {
+      Assert.assertTrue(levels.contains(destination.getDifficulty()));
+      Assert.assertTrue(destination.hasAtLeastOneCommonTag(tags));
+      Assert.assertTrue(RouteOptimizer.haversineKm(START, destination.getLocation()) <= 3.0);
+      stops.add(destination.getLocation());
+    }
+    Assert.assertTrue(
+        RouteOptimizer.routeKm(stops, new int[] {0, 1, 2, 3, 4, 5}, START, null) <= 5);
+    Assert.assertEquals(6, new HashSet<>(chosen).size());
+  }
+
+  @Test
+  /* Too tight a walk for the requested number of stops gives fewer stops. */
+  public void chooseNearbyNotEnough() {
+    List<Destination> destinations =
+        Arrays.asList(
+            new Destination.Builder()
+                .withLocation(at(START.getLat() + 0.01, START.getLng()))
+                .withObscurity(Destination.Obscurity.EASY)
+                .build(),
+            new Destination.Builder()
+                .withLocation(at(START.getLat() - 0.01, START.getLng()))
+                .withObscurity(Destination.Obscurity.EASY)
+                .build());
+    List<Destination> chosen =
+        new GenerateServlet(null)
+            .chooseNearby(
+                DestinationIndex.of(destinations),
+                START,
+                EnumSet.of(Destination.Obscurity.EASY),
+                Collections.emptySet(),
+                2,
+                null,
+                2.0,
+                random);
+
+    Assert.assertEquals(1, chosen.size());
+  }
+}
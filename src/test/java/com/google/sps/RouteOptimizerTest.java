@@ -0,0 +1,107 @@
+package com.google.sps;
+
+import com.google.sps.data.LatLng;
+import com.google.sps.data.RouteOptimizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class RouteOptimizerTest {
+  private final Random random = new Random(183);
+
+  private static LatLng at(double lat, double lng) {
+    return new LatLng.Builder().withLat(lat).withLng(lng).build();
+  }
+
+  /* Random stops spread over roughly 10km x 10km of San Francisco. */
+  private List<LatLng> randomStops(int n) {
+    List<LatLng> stops = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      stops.add(at(37.70 + random.nextDouble() * 0.1, -122.51 + random.nextDouble() * 0.12));
+    }
+    return stops;
+  }
+
+  private static void assertPermutation(int n, int[] order) {
+    Set<Integer> seen = new HashSet<>();
+    for (int stop : order) {
+      Assert.assertTrue(stop >= 0 && stop < n);
+      Assert.assertTrue(seen.add(stop));
+    }
+    Assert.assertEquals(n, seen.size());
+  }
+
+  @Test
+  public void haversine() {
+    // San Francisco to Paris is about 8950km.
+    Assert.assertEquals(
+        8950, RouteOptimizer.haversineKm(at(37.7749, -122.4194), at(48.8566, 2.3522)), 25);
+    Assert.assertEquals(0, RouteOptimizer.haversineKm(at(10, 10), at(10, 10)), 1e-9);
+  }
+
+  @Test
+  /* Routes are much shorter than the old west-to-east ordering. */
+  public void shorterThanLongitudeOrder() {
+    RouteOptimizer optimizer = new RouteOptimizer(TimeUnit.MILLISECONDS.toNanos(20));
+    double optimizedKm = 0;
+    double longitudeKm = 0;
+    for (int trial = 0; trial < 20; trial++) {
+      List<LatLng> stops = randomStops(20);
+      int[] order = optimizer.order(stops, null, null);
+      assertPermutation(stops.size(), order);
+      int[] byLongitude =
+          IntStream.range(0, stops.size())
+              .boxed()
+              .sorted(Comparator.comparing(i -> stops.get(i).getLng()))
+              .mapToInt(i -> i)
+              .toArray();
+      optimizedKm += RouteOptimizer.routeKm(stops, order, null, null);
+      longitudeKm += RouteOptimizer.routeKm(stops, byLongitude, null, null);
+    }
+    Assert.assertTrue(optimizedKm < 0.7 * longitudeKm);
+  }
+
+  @Test
+  /* Stops on a line are visited in line order from the fixed start. */
+  public void fixedStartAndEnd() {
+    List<LatLng> stops = Arrays.asList(at(0, 3), at(0, 1), at(0, 4), at(0, 2));
+    RouteOptimizer optimizer = new RouteOptimizer();
+
+    Assert.assertArrayEquals(new int[] {1, 3, 0, 2}, optimizer.order(stops, at(0, 0), null));
+    Assert.assertArrayEquals(new int[] {2, 0, 3, 1}, optimizer.order(stops, null, at(0, 0)));
+    Assert.assertArrayEquals(new int[] {2, 0, 3, 1}, optimizer.order(stops, at(0, 5), at(0, 0)));
+  }
+
+  @Test
+  /* Stops that share a longitude are all kept. */
+  public void sameLongitude() {
+    List<LatLng> stops = Arrays.asList(at(1, 5), at(2, 5), at(3, 5));
+    assertPermutation(3, new RouteOptimizer().order(stops, null, null));
+  }
+
+  @Test
+  public void fiftyStopsWithinBudget() {
+    RouteOptimizer optimizer = new RouteOptimizer();
+    for (int warmup = 0; warmup < 20; warmup++) {
+      optimizer.order(randomStops(50), at(37.75, -122.45), null);
+    }
+    List<LatLng> stops = randomStops(50);
+    long start = System.nanoTime();
+    int[] order = optimizer.order(stops, at(37.75, -122.45), null);
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertPermutation(50, order);
+    Assert.assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 50);
+  }
+}
@@ -0,0 +1,99 @@
+package com.google.sps;
+
+import com.google.sps.data.Sampler;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class SamplerTest {
+  private static final int TRIALS = 20000;
+
+  @Test
+  /* Every position is picked about k/n of the time, and positions are never repeated. */
+  public void indicesAreDistinctAndUniform() {
+    Random random = new Random(183);
+    int n = 20;
+    int k = 5;
+    int[] counts = new int[n];
+    for (int trial = 0; trial < TRIALS; trial++) {
+      Set<Integer> seen = new HashSet<>();
+      for (int index : Sampler.sampleIndices(n, k, random)) {
+        Assert.assertTrue(seen.add(index));
+        counts[index]++;
+      }
+    }
+    double expected = (double) TRIALS * k / n;
+    for (int count : counts) {
+      Assert.assertEquals(expected, count, expected * 0.1);
+    }
+  }
+
+  @Test
+  public void reservoirIsUniform() {
+    Random random = new Random(183);
+    List<Integer> items = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      items.add(i);
+    }
+    int[] counts = new int[items.size()];
+    for (int trial = 0; trial < TRIALS; trial++) {
+      List<Integer> sample = Sampler.sample(items.iterator(), 5, random);
+      Assert.assertEquals(5, new HashSet<>(sample).size());
+      for (int item : sample) {
+        counts[item]++;
+      }
+    }
+    double expected = TRIALS * 5.0 / items.size();
+    for (int count : counts) {
+      Assert.assertEquals(expected, count, expected * 0.1);
+    }
+  }
+
+  @Test
+  /* Sparse and dense bitsets only ever yield set bits, each one equally often. */
+  public void bitSetSamplesOnlySetBits() {
+    BitSet sparse = new BitSet();
+    BitSet dense = new BitSet();
+    for (int i = 0; i < 1000; i++) {
+      if (i % 50 == 0) {
+        sparse.set(i);
+      }
+      if (i % 3 != 0) {
+        dense.set(i);
+      }
+    }
+    Random random = new Random(183);
+    for (BitSet bits : new BitSet[] {sparse, dense}) {
+      int[] counts = new int[1000];
+      for (int trial = 0; trial < TRIALS; trial++) {
+        int[] sample = Sampler.sample(bits, 3, random);
+        for (int i = 0; i < sample.length; i++) {
+          Assert.assertTrue(bits.get(sample[i]));
+          Assert.assertTrue(i == 0 || sample[i - 1] < sample[i]);
+          counts[sample[i]]++;
+        }
+      }
+      if (bits == sparse) {
+        double expected = TRIALS * 3.0 / sparse.cardinality();
+        for (int i = sparse.nextSetBit(0); i >= 0; i = sparse.nextSetBit(i + 1)) {
+          Assert.assertEquals(expected, counts[i], expected * 0.1);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void seededSamplesRepeat() {
+    Assert.assertArrayEquals(
+        Sampler.sampleIndices(1000000, 10, new Random(7)),
+        Sampler.sampleIndices(1000000, 10, new Random(7)));
+  }
+}
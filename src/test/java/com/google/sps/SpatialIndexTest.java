@@ -0,0 +1,151 @@
+package com.google.sps;
+
+import com.google.sps.data.Destination;
+import com.google.sps.data.DestinationIndex;
+import com.google.sps.data.LatLng;
+import com.google.sps.data.RouteOptimizer;
+import com.google.sps.data.SpatialIndex;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class SpatialIndexTest {
+  private final Random random = new Random(183);
+
+  private static LatLng at(double lat, double lng) {
+    return new LatLng.Builder().withLat(lat).withLng(lng).build();
+  }
+
+  private static Destination destinationAt(LatLng location) {
+    return new Destination.Builder().withName("Destination").withLocation(location).build();
+  }
+
+  /* Mostly clustered around San Francisco, some anywhere, some near the antimeridian. */
+  private LatLng randomLocation() {
+    switch (random.nextInt(4)) {
+      case 0:
+        return at(-90 + 180 * random.nextDouble(), -180 + 360 * random.nextDouble());
+      case 1:
+        return at(-10 + 20 * random.nextDouble(), random.nextBoolean() ? 179.9 : -179.9);
+      default:
+        return at(37.70 + 0.1 * random.nextDouble(), -122.51 + 0.12 * random.nextDouble());
+    }
+  }
+
+  private List<Destination> randomDestinations(int n) {
+    List<Destination> destinations = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      // A few destinations have no location and must never be returned.
+      destinations.add(destinationAt(random.nextInt(50) == 0 ? null : randomLocation()));
+    }
+    return destinations;
+  }
+
+  private static IntStream located(List<Destination> destinations) {
+    return IntStream.range(0, destinations.size())
+        .filter(i -> destinations.get(i).getLocation() != null);
+  }
+
+  private static double km(List<Destination> destinations, int i, LatLng center) {
+    return RouteOptimizer.haversineKm(center, destinations.get(i).getLocation());
+  }
+
+  private void assertSameAsScan(List<Destination> destinations, SpatialIndex index) {
+    for (int query = 0; query < 200; query++) {
+      LatLng center = randomLocation();
+      double radiusKm = Math.pow(10, 4 * random.nextDouble() - 1);
+      int[] withinRadius =
+          located(destinations).filter(i -> km(destinations, i, center) <= radiusKm).toArray();
+      Assert.assertArrayEquals(withinRadius, index.withinRadius(center, radiusKm));
+
+      int k = 1 + random.nextInt(20);
+      double[] nearestKms =
+          located(destinations)
+              .mapToDouble(i -> km(destinations, i, center))
+              .sorted()
+              .limit(k)
+              .toArray();
+      double[] actualKms =
+          Arrays.stream(index.nearest(center, k))
+              .mapToDouble(i -> km(destinations, i, center))
+              .toArray();
+      Assert.assertArrayEquals(nearestKms, actualKms, 1e-9);
+
+      double south = center.getLat() - random.nextDouble();
+      double north = center.getLat() + random.nextDouble();
+      double west = center.getLng() - 2 * random.nextDouble();
+      double east = center.getLng() + 2 * random.nextDouble();
+      double wrappedWest = west < -180 ? west + 360 : west;
+      double wrappedEast = east > 180 ? east - 360 : east;
+      int[] inBox =
+          located(destinations)
+              .filter(
+                  i -> {
+                    LatLng location = destinations.get(i).getLocation();
+                    double lng = location.getLng();
+                    boolean lngInside =
+                        wrappedWest <= wrappedEast
+                            ? lng >= wrappedWest && lng <= wrappedEast
+                            : lng >= wrappedWest || lng <= wrappedEast;
+                    return location.getLat() >= south && location.getLat() <= north && lngInside;
+                  })
+              .toArray();
+      Assert.assertArrayEquals(inBox, index.withinBox(south, wrappedWest, north, wrappedEast));
+    }
+  }
+
+  @Test
+  /* Radius, nearest and box queries give exactly what a full scan gives. */
+  public void matchesScan() {
+    List<Destination> destinations = randomDestinations(5000);
+    assertSameAsScan(destinations, SpatialIndex.of(destinations));
+  }
+
+  @Test
+  /* Added destinations are found, both before and after the unsorted tail is merged. */
+  public void withAdded() {
+    List<Destination> destinations = randomDestinations(1000);
+    SpatialIndex index = SpatialIndex.of(destinations);
+    for (int i = 0; i < 1500; i++) {
+      Destination destination = destinationAt(random.nextInt(50) == 0 ? null : randomLocation());
+      destinations.add(destination);
+      index = index.withAdded(destination);
+      if (i == 10) {
+        assertSameAsScan(destinations, index);
+      }
+    }
+    Assert.assertEquals(destinations.size(), index.size());
+    assertSameAsScan(destinations, index);
+  }
+
+  @Test
+  /* Nearest returns every point, nearest first, when asked for more than there are. */
+  public void nearestWithFewPoints() {
+    List<Destination> destinations =
+        Arrays.asList(destinationAt(at(0, 10)), destinationAt(at(0, 0)), destinationAt(null));
+    SpatialIndex index = SpatialIndex.of(destinations);
+
+    Assert.assertArrayEquals(new int[] {1, 0}, index.nearest(at(0, 1), 5));
+    Assert.assertArrayEquals(new int[0], index.nearest(at(0, 1), 0));
+  }
+
+  @Test
+  /* The destination index keeps its spatial ordinals in step with its own. */
+  public void destinationIndexOrdinals() {
+    List<Destination> destinations = randomDestinations(100);
+    DestinationIndex index = DestinationIndex.of(destinations);
+    LatLng center = at(37.75, -122.45);
+    index = index.withAdded(destinationAt(center));
+
+    int[] nearest = index.getLocations().nearest(center, 1);
+    Assert.assertEquals(1, nearest.length);
+    Assert.assertSame(center, index.get(nearest[0]).getLocation());
+  }
+}
@@ -0,0 +1,177 @@
+package com.google.sps;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+import com.google.sps.data.LruCache;
+import com.google.sps.servlets.VerdictCache;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class VerdictCacheTest {
+  private static final String ANSWER = "Golden Gate Bridge";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService datastore;
+  private final AtomicLong now = new AtomicLong(1000);
+  private final AtomicInteger loads = new AtomicInteger();
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    datastore = DatastoreServiceFactory.getDatastoreService();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private VerdictCache newCache() {
+    return new VerdictCache(datastore, new LruCache<>(100, 60000, now::get));
+  }
+
+  private VerdictCache.Loader returning(boolean verdict) {
+    return accepted -> {
+      loads.incrementAndGet();
+      return verdict;
+    };
+  }
+
+  @Test
+  /* Guesses that normalize the same share a verdict; every hit saves the loader's NL calls. */
+  public void memoryHits() throws IOException {
+    VerdictCache cache = newCache();
+
+    Assert.assertTrue(cache.getVerdict("Golden Gate Bridge", ANSWER, 2, returning(true)));
+    Assert.assertTrue(cache.getVerdict("  golden   gate bridge!", ANSWER, 2, returning(true)));
+    Assert.assertFalse(cache.getVerdict("Bay Bridge", ANSWER, 2, returning(false)));
+    Assert.assertFalse(cache.getVerdict("bay bridge", ANSWER, 2, returning(false)));
+
+    Assert.assertEquals(2, loads.get());
+    Assert.assertEquals(2L, cache.getStats().get("memoryHits"));
+    Assert.assertEquals(4L, cache.getStats().get("nlCallsSaved"));
+    Assert.assertEquals(0.5, cache.getStats().get("hitRatio"));
+  }
+
+  @Test
+  /* Accepted guesses are persisted per answer, so a fresh instance knows them; rejections are not. */
+  public void acceptedGuessesPersist() throws IOException {
+    VerdictCache first = newCache();
+    first.getVerdict("The Golden Gate", ANSWER, 1, returning(true));
+    first.getVerdict("Bay Bridge", ANSWER, 1, returning(false));
+    first.getVerdict("The Golden Gate", "Coit Tower", 1, returning(false));
+
+    VerdictCache second = newCache();
+    Assert.assertTrue(second.getVerdict("the golden gate", ANSWER, 1, returning(false)));
+    Assert.assertFalse(second.getVerdict("Bay Bridge", ANSWER, 1, returning(false)));
+
+    Assert.assertEquals(4, loads.get());
+    Assert.assertEquals(1L, second.getStats().get("storeHits"));
+    Assert.assertEquals(Arrays.asList("the golden gate"), second.getAcceptedGuesses(ANSWER));
+  }
+
+  @Test
+  /* Verdicts are judged again once their TTL is over. */
+  public void expiry() throws IOException {
+    VerdictCache cache = newCache();
+    cache.getVerdict("Bay Bridge", ANSWER, 1, returning(false));
+    now.addAndGet(59999);
+    cache.getVerdict("Bay Bridge", ANSWER, 1, returning(false));
+    Assert.assertEquals(1, loads.get());
+
+    now.addAndGet(1);
+    cache.getVerdict("Bay Bridge", ANSWER, 1, returning(false));
+    Assert.assertEquals(2, loads.get());
+  }
+
+  @Test
+  /* Identical lookups that arrive while one is being judged wait for it instead of loading. */
+  public void coalescesConcurrentLookups() throws Exception {
+    VerdictCache cache = newCache();
+    int threads = 8;
+    VerdictCache.Loader slowLoader =
+        accepted -> {
+          loads.incrementAndGet();
+          // Hold the load until every other lookup has joined it.
+          long deadline = System.currentTimeMillis() + 5000;
+          while ((long) cache.getStats().get("coalesced") < threads - 1
+              && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+          }
+          return true;
+        };
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    List<Future<Boolean>> verdicts = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      verdicts.add(
+          executor.submit(
+              () -> {
+                ApiProxy.setEnvironmentForCurrentThread(environment);
+                return cache.getVerdict("golden gate", ANSWER, 2, slowLoader);
+              }));
+    }
+    for (Future<Boolean> verdict : verdicts) {
+      Assert.assertTrue(verdict.get());
+    }
+    executor.shutdown();
+
+    Assert.assertEquals(1, loads.get());
+    Assert.assertEquals((long) threads - 1, cache.getStats().get("coalesced"));
+  }
+
+  @Test
+  /* A failed load is not cached. */
+  public void failuresAreNotCached() throws IOException {
+    VerdictCache cache = newCache();
+    try {
+      cache.getVerdict(
+          "golden gate",
+          ANSWER,
+          2,
+          accepted -> {
+            throw new IOException("Quota exceeded");
+          });
+      Assert.fail("Expected the load failure");
+    } catch (IOException expected) {
+      // Passed through to the caller.
+    }
+
+    Assert.assertTrue(cache.getVerdict("golden gate", ANSWER, 2, returning(true)));
+    Assert.assertEquals(1, loads.get());
+  }
+
+  @Test
+  /* The LRU drops the least recently used entry when full. */
+  public void lruEviction() {
+    LruCache<String, Integer> lru = new LruCache<>(2, 60000, now::get);
+    lru.put("a", 1);
+    lru.put("b", 2);
+    lru.get("a");
+    lru.put("c", 3);
+
+    Assert.assertEquals(Integer.valueOf(1), lru.get("a"));
+    Assert.assertNull(lru.get("b"));
+    Assert.assertEquals(Integer.valueOf(3), lru.get("c"));
+  }
+}